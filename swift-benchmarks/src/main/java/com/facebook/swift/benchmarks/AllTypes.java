@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.facebook.swift.benchmarks;
+
+import com.facebook.swift.codec.ThriftField;
+import com.facebook.swift.codec.ThriftStruct;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+@ThriftStruct
+public class AllTypes
+{
+    @ThriftField(1)
+    public boolean aBoolean;
+    @ThriftField(2)
+    public byte aByte;
+    @ThriftField(3)
+    public short aShort;
+    @ThriftField(4)
+    public int aInt;
+    @ThriftField(5)
+    public long aLong;
+    @ThriftField(6)
+    public double aDouble;
+    @ThriftField(7)
+    public String aString;
+    @ThriftField(8)
+    public ByteBuffer aBinary;
+    @ThriftField(9)
+    public Point aStruct;
+    @ThriftField(10)
+    public Color aEnum;
+
+    @ThriftField(11)
+    public List<Integer> aIntegerList;
+    @ThriftField(12)
+    public List<Long> aLongList;
+    @ThriftField(13)
+    public List<Double> aDoubleList;
+    @ThriftField(14)
+    public List<String> aStringList;
+    @ThriftField(15)
+    public List<Point> aStructList;
+    @ThriftField(16)
+    public Set<Integer> aIntegerSet;
+    @ThriftField(17)
+    public Set<String> aStringSet;
+    @ThriftField(18)
+    public Set<Color> aEnumSet;
+    @ThriftField(19)
+    public Map<String, Long> aStringLongMap;
+    @ThriftField(20)
+    public Map<Integer, Point> aIntegerStructMap;
+}
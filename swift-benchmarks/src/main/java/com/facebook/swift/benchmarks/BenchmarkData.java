@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.facebook.swift.benchmarks;
+
+import com.google.common.base.Charsets;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Builds the deterministic values shared by all benchmarks so results are comparable between runs.
+ */
+public final class BenchmarkData
+{
+    public static final int SMALL_COLLECTION_SIZE = 10;
+    public static final int LARGE_COLLECTION_SIZE = 10000;
+    public static final int TREES_PER_FOREST = 4;
+    public static final int BRANCHES_PER_TREE = 4;
+    public static final int LEAVES_PER_BRANCH = 8;
+
+    private BenchmarkData()
+    {
+    }
+
+    public static AllTypes createAllTypes()
+    {
+        AllTypes value = new AllTypes();
+        value.aBoolean = true;
+        value.aByte = 42;
+        value.aShort = 4242;
+        value.aInt = 424242;
+        value.aLong = 4242424242L;
+        value.aDouble = 42.42;
+        value.aString = "forty-two";
+        value.aBinary = ByteBuffer.wrap("binary forty-two".getBytes(Charsets.UTF_8));
+        value.aStruct = new Point(4, 2);
+        value.aEnum = Color.BLUE;
+
+        value.aIntegerList = new ArrayList<>();
+        value.aLongList = new ArrayList<>();
+        value.aDoubleList = new ArrayList<>();
+        value.aStringList = new ArrayList<>();
+        value.aStructList = new ArrayList<>();
+        value.aIntegerSet = new HashSet<>();
+        value.aStringSet = new HashSet<>();
+        value.aStringLongMap = new HashMap<>();
+        value.aIntegerStructMap = new HashMap<>();
+        for (int i = 0; i < SMALL_COLLECTION_SIZE; i++) {
+            value.aIntegerList.add(i);
+            value.aLongList.add((long) i << 32);
+            value.aDoubleList.add(i / 3.0);
+            value.aStringList.add("string-" + i);
+            value.aStructList.add(new Point(i, -i));
+            value.aIntegerSet.add(i);
+            value.aStringSet.add("set-" + i);
+            value.aStringLongMap.put("key-" + i, (long) i);
+            value.aIntegerStructMap.put(i, new Point(-i, i));
+        }
+        value.aEnumSet = EnumSet.of(Color.RED, Color.GREEN, Color.YELLOW);
+        return value;
+    }
+
+    public static Forest createForest()
+    {
+        Forest forest = new Forest();
+        forest.name = "forest";
+        forest.trees = new ArrayList<>();
+        for (int t = 0; t < TREES_PER_FOREST; t++) {
+            Tree tree = new Tree();
+            tree.name = "tree-" + t;
+            tree.trunk = createBranch(tree.name + "-trunk");
+            tree.branches = new ArrayList<>();
+            tree.branchesByName = new HashMap<>();
+            for (int b = 0; b < BRANCHES_PER_TREE; b++) {
+                Branch branch = createBranch(tree.name + "-branch-" + b);
+                tree.branches.add(branch);
+                tree.branchesByName.put(branch.name, branch);
+            }
+            forest.trees.add(tree);
+        }
+        return forest;
+    }
+
+    private static Branch createBranch(String name)
+    {
+        Branch branch = new Branch();
+        branch.name = name;
+        branch.leaves = new ArrayList<>();
+        for (int i = 0; i < LEAVES_PER_BRANCH; i++) {
+            Leaf leaf = new Leaf();
+            leaf.id = i;
+            leaf.name = name + "-leaf-" + i;
+            leaf.location = new Point(i, i * 2);
+            branch.leaves.add(leaf);
+        }
+        branch.first = branch.leaves.get(0);
+        return branch;
+    }
+
+    public static LargeCollections createLargeCollections()
+    {
+        return createLargeCollections(LARGE_COLLECTION_SIZE);
+    }
+
+    public static LargeCollections createLargeCollections(int size)
+    {
+        List<Integer> integers = new ArrayList<>(size);
+        List<Long> longs = new ArrayList<>(size);
+        List<Double> doubles = new ArrayList<>(size);
+        List<String> strings = new ArrayList<>(size);
+        Set<Long> longSet = new HashSet<>(size);
+        Map<String, Integer> stringIntegerMap = new HashMap<>(size);
+        Map<Long, Point> longStructMap = new HashMap<>(size);
+        for (int i = 0; i < size; i++) {
+            integers.add(i);
+            longs.add(i * 1000003L);
+            doubles.add(i * 0.5);
+            strings.add("value-" + i);
+            longSet.add((long) i);
+            stringIntegerMap.put("key-" + i, i);
+            longStructMap.put((long) i, new Point(i, i + 1));
+        }
+
+        LargeCollections value = new LargeCollections();
+        value.integers = integers;
+        value.longs = longs;
+        value.doubles = doubles;
+        value.strings = strings;
+        value.longSet = longSet;
+        value.stringIntegerMap = stringIntegerMap;
+        value.longStructMap = longStructMap;
+        return value;
+    }
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.facebook.swift.benchmarks;
+
+import com.facebook.swift.service.ThriftMethod;
+import com.facebook.swift.service.ThriftService;
+import org.apache.thrift.TException;
+
+import java.io.Closeable;
+
+@ThriftService("BenchmarkService")
+public interface BenchmarkService extends Closeable
+{
+    @ThriftMethod
+    int add(int a, int b) throws TException;
+
+    @ThriftMethod
+    AllTypes echoAllTypes(AllTypes value) throws TException;
+
+    @ThriftMethod
+    Forest echoForest(Forest value) throws TException;
+
+    @ThriftMethod
+    int countLargeCollections(LargeCollections value) throws TException;
+
+    @Override
+    void close();
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.facebook.swift.benchmarks;
+
+public class BenchmarkServiceHandler implements BenchmarkService
+{
+    @Override
+    public int add(int a, int b)
+    {
+        return a + b;
+    }
+
+    @Override
+    public AllTypes echoAllTypes(AllTypes value)
+    {
+        return value;
+    }
+
+    @Override
+    public Forest echoForest(Forest value)
+    {
+        return value;
+    }
+
+    @Override
+    public int countLargeCollections(LargeCollections value)
+    {
+        return value.integers.size() + value.longs.size() + value.doubles.size() + value.strings.size() +
+                value.longSet.size() + value.stringIntegerMap.size() + value.longStructMap.size();
+    }
+
+    @Override
+    public void close()
+    {
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.facebook.swift.benchmarks;
+
+import com.facebook.nifty.client.FramedClientConnector;
+import com.facebook.swift.codec.ThriftCodecManager;
+import com.facebook.swift.service.ThriftClientManager;
+import com.facebook.swift.service.ThriftServer;
+import com.facebook.swift.service.ThriftServiceProcessor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.net.HostAndPort.fromParts;
+
+/**
+ * Measures synchronous client calls, which serialize the arguments and deserialize the result
+ * through ThriftMethodHandler, against an in-process server on the loopback interface.  The
+ * result includes the network and server time; see {@link MethodHandlerBenchmark} for the
+ * client side alone.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+public class ClientBenchmark
+{
+    private ThriftServer server;
+    private ThriftClientManager clientManager;
+    private BenchmarkService client;
+
+    private AllTypes allTypes;
+    private Forest forest;
+    private LargeCollections largeCollections;
+
+    @Setup
+    public void setup()
+            throws Exception
+    {
+        ThriftServiceProcessor processor = new ThriftServiceProcessor(new ThriftCodecManager(), new BenchmarkServiceHandler());
+        server = new ThriftServer(processor).start();
+        clientManager = new ThriftClientManager();
+        client = clientManager.createClient(new FramedClientConnector(fromParts("localhost", server.getPort())), BenchmarkService.class).get();
+
+        allTypes = BenchmarkData.createAllTypes();
+        forest = BenchmarkData.createForest();
+        largeCollections = BenchmarkData.createLargeCollections();
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        client.close();
+        clientManager.close();
+        server.close();
+    }
+
+    @Benchmark
+    public int add()
+            throws Exception
+    {
+        return client.add(40, 2);
+    }
+
+    @Benchmark
+    public AllTypes echoAllTypes()
+            throws Exception
+    {
+        return client.echoAllTypes(allTypes);
+    }
+
+    @Benchmark
+    public Forest echoForest()
+            throws Exception
+    {
+        return client.echoForest(forest);
+    }
+
+    @Benchmark
+    public int countLargeCollections()
+            throws Exception
+    {
+        return client.countLargeCollections(largeCollections);
+    }
+}
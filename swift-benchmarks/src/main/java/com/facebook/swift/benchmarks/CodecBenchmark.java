@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.facebook.swift.benchmarks;
+
+import com.facebook.swift.codec.ThriftCodec;
+import com.facebook.swift.codec.ThriftCodecManager;
+import com.facebook.swift.codec.internal.ThriftCodecFactory;
+import com.facebook.swift.codec.internal.compiler.CompilerThriftCodecFactory;
+import com.facebook.swift.codec.internal.reflection.ReflectionThriftCodecFactory;
+import org.apache.thrift.protocol.TBinaryProtocol;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.transport.TIOStreamTransport;
+import org.apache.thrift.transport.TMemoryInputTransport;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures struct serialization and deserialization with the bytecode-generated codecs against
+ * the reflection based codecs.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+public class CodecBenchmark
+{
+    @Param({"compiler", "reflection"})
+    public String codecFactory;
+
+    private final ByteArrayOutputStream output = new ByteArrayOutputStream();
+    private final TProtocol outputProtocol = new TBinaryProtocol(new TIOStreamTransport(output));
+    private final TMemoryInputTransport input = new TMemoryInputTransport();
+    private final TProtocol inputProtocol = new TBinaryProtocol(input);
+
+    private ThriftCodec<AllTypes> allTypesCodec;
+    private ThriftCodec<Forest> forestCodec;
+    private ThriftCodec<LargeCollections> largeCollectionsCodec;
+
+    private AllTypes allTypes;
+    private Forest forest;
+    private LargeCollections largeCollections;
+
+    private byte[] allTypesBytes;
+    private byte[] forestBytes;
+    private byte[] largeCollectionsBytes;
+
+    @Setup
+    public void setup()
+            throws Exception
+    {
+        ThriftCodecManager codecManager = new ThriftCodecManager(createCodecFactory(codecFactory));
+        allTypesCodec = codecManager.getCodec(AllTypes.class);
+        forestCodec = codecManager.getCodec(Forest.class);
+        largeCollectionsCodec = codecManager.getCodec(LargeCollections.class);
+
+        allTypes = BenchmarkData.createAllTypes();
+        forest = BenchmarkData.createForest();
+        largeCollections = BenchmarkData.createLargeCollections();
+
+        allTypesBytes = serialize(allTypesCodec, allTypes);
+        forestBytes = serialize(forestCodec, forest);
+        largeCollectionsBytes = serialize(largeCollectionsCodec, largeCollections);
+    }
+
+    @Benchmark
+    public int writeAllTypes()
+            throws Exception
+    {
+        return write(allTypesCodec, allTypes);
+    }
+
+    @Benchmark
+    public AllTypes readAllTypes()
+            throws Exception
+    {
+        return read(allTypesCodec, allTypesBytes);
+    }
+
+    @Benchmark
+    public int writeForest()
+            throws Exception
+    {
+        return write(forestCodec, forest);
+    }
+
+    @Benchmark
+    public Forest readForest()
+            throws Exception
+    {
+        return read(forestCodec, forestBytes);
+    }
+
+    @Benchmark
+    public int writeLargeCollections()
+            throws Exception
+    {
+        return write(largeCollectionsCodec, largeCollections);
+    }
+
+    @Benchmark
+    public LargeCollections readLargeCollections()
+            throws Exception
+    {
+        return read(largeCollectionsCodec, largeCollectionsBytes);
+    }
+
+    private <T> int write(ThriftCodec<T> codec, T value)
+            throws Exception
+    {
+        output.reset();
+        codec.write(value, outputProtocol);
+        return output.size();
+    }
+
+    private <T> T read(ThriftCodec<T> codec, byte[] bytes)
+            throws Exception
+    {
+        input.reset(bytes);
+        return codec.read(inputProtocol);
+    }
+
+    private <T> byte[] serialize(ThriftCodec<T> codec, T value)
+            throws Exception
+    {
+        write(codec, value);
+        return output.toByteArray();
+    }
+
+    static ThriftCodecFactory createCodecFactory(String name)
+    {
+        switch (name) {
+            case "compiler":
+                return new CompilerThriftCodecFactory(false);
+            case "reflection":
+                return new ReflectionThriftCodecFactory();
+            default:
+                throw new IllegalArgumentException("Unknown codec factory: " + name);
+        }
+    }
+}
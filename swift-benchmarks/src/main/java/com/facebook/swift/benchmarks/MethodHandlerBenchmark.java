@@ -0,0 +1,242 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.facebook.swift.benchmarks;
+
+import com.facebook.nifty.client.NiftyClientChannel;
+import com.facebook.swift.codec.ThriftCodecManager;
+import com.facebook.swift.service.ThriftClientManager;
+import com.facebook.swift.service.ThriftMethodHandler;
+import com.facebook.swift.service.ThriftServiceProcessor;
+import io.airlift.units.Duration;
+import org.apache.thrift.TException;
+import org.apache.thrift.protocol.TProtocolFactory;
+import org.apache.thrift.transport.TIOStreamTransport;
+import org.apache.thrift.transport.TMemoryInputTransport;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.Channel;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayOutputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static com.facebook.swift.benchmarks.ServiceProcessorBenchmark.createProtocolFactory;
+
+/**
+ * Measures client side request processing in ThriftMethodHandler (argument encoding, response
+ * header checks and result decoding) over an in-memory channel.  Each method's response is
+ * computed once by the service and replayed, so neither the network nor the server is measured.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+public class MethodHandlerBenchmark
+{
+    private static final int SEQUENCE_ID = 1;
+
+    @Param({"binary", "compact"})
+    public String protocol;
+
+    private TProtocolFactory protocolFactory;
+    private ThriftClientManager clientManager;
+
+    private ThriftMethodHandler addHandler;
+    private ThriftMethodHandler echoAllTypesHandler;
+    private ThriftMethodHandler echoForestHandler;
+    private ThriftMethodHandler countLargeCollectionsHandler;
+
+    private InMemoryChannel addChannel;
+    private InMemoryChannel echoAllTypesChannel;
+    private InMemoryChannel echoForestChannel;
+    private InMemoryChannel countLargeCollectionsChannel;
+
+    private AllTypes allTypes;
+    private Forest forest;
+    private LargeCollections largeCollections;
+
+    @Setup
+    public void setup()
+            throws Exception
+    {
+        protocolFactory = createProtocolFactory(protocol);
+        ThriftServiceProcessor processor = new ThriftServiceProcessor(new ThriftCodecManager(), new BenchmarkServiceHandler());
+
+        clientManager = new ThriftClientManager();
+        Map<String, ThriftMethodHandler> handlers = new HashMap<>();
+        for (ThriftMethodHandler handler : clientManager.getClientMetadata(BenchmarkService.class, ThriftClientManager.DEFAULT_NAME).getMethodHandlers().values()) {
+            handlers.put(handler.getName(), handler);
+        }
+        addHandler = handlers.get("add");
+        echoAllTypesHandler = handlers.get("echoAllTypes");
+        echoForestHandler = handlers.get("echoForest");
+        countLargeCollectionsHandler = handlers.get("countLargeCollections");
+
+        allTypes = BenchmarkData.createAllTypes();
+        forest = BenchmarkData.createForest();
+        largeCollections = BenchmarkData.createLargeCollections();
+
+        addChannel = new InMemoryChannel(processor, protocolFactory);
+        echoAllTypesChannel = new InMemoryChannel(processor, protocolFactory);
+        echoForestChannel = new InMemoryChannel(processor, protocolFactory);
+        countLargeCollectionsChannel = new InMemoryChannel(processor, protocolFactory);
+
+        // the first call of each method records the response of the service
+        add();
+        echoAllTypes();
+        echoForest();
+        countLargeCollections();
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        clientManager.close();
+    }
+
+    @Benchmark
+    public Object add()
+            throws Exception
+    {
+        return addHandler.invoke(protocolFactory, protocolFactory, addChannel, SEQUENCE_ID, 40, 2);
+    }
+
+    @Benchmark
+    public Object echoAllTypes()
+            throws Exception
+    {
+        return echoAllTypesHandler.invoke(protocolFactory, protocolFactory, echoAllTypesChannel, SEQUENCE_ID, allTypes);
+    }
+
+    @Benchmark
+    public Object echoForest()
+            throws Exception
+    {
+        return echoForestHandler.invoke(protocolFactory, protocolFactory, echoForestChannel, SEQUENCE_ID, forest);
+    }
+
+    @Benchmark
+    public Object countLargeCollections()
+            throws Exception
+    {
+        return countLargeCollectionsHandler.invoke(protocolFactory, protocolFactory, countLargeCollectionsChannel, SEQUENCE_ID, largeCollections);
+    }
+
+    /**
+     * Channel that runs the first request through the service processor and answers every
+     * request with that response, on the calling thread.
+     */
+    private static class InMemoryChannel
+            implements NiftyClientChannel
+    {
+        private final ThriftServiceProcessor processor;
+        private final TProtocolFactory protocolFactory;
+        private ChannelBuffer response;
+
+        private InMemoryChannel(ThriftServiceProcessor processor, TProtocolFactory protocolFactory)
+        {
+            this.processor = processor;
+            this.protocolFactory = protocolFactory;
+        }
+
+        @Override
+        public void sendAsynchronousRequest(ChannelBuffer request, boolean oneway, Listener listener)
+                throws TException
+        {
+            if (response == null) {
+                byte[] requestBytes = new byte[request.readableBytes()];
+                request.getBytes(request.readerIndex(), requestBytes);
+
+                ByteArrayOutputStream output = new ByteArrayOutputStream();
+                processor.process(
+                        protocolFactory.getProtocol(new TMemoryInputTransport(requestBytes)),
+                        protocolFactory.getProtocol(new TIOStreamTransport(output)));
+                response = ChannelBuffers.wrappedBuffer(output.toByteArray());
+            }
+
+            listener.onRequestSent();
+            if (!oneway) {
+                listener.onResponseReceived(response.duplicate());
+            }
+        }
+
+        @Override
+        public void setSendTimeout(Duration sendTimeout)
+        {
+        }
+
+        @Override
+        public Duration getSendTimeout()
+        {
+            return null;
+        }
+
+        @Override
+        public void setReceiveTimeout(Duration receiveTimeout)
+        {
+        }
+
+        @Override
+        public Duration getReceiveTimeout()
+        {
+            return null;
+        }
+
+        @Override
+        public void close()
+        {
+        }
+
+        @Override
+        public boolean hasError()
+        {
+            return false;
+        }
+
+        @Override
+        public TException getError()
+        {
+            return null;
+        }
+
+        @Override
+        public void executeInIoThread(Runnable runnable)
+        {
+            runnable.run();
+        }
+
+        @Override
+        public Channel getNettyChannel()
+        {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
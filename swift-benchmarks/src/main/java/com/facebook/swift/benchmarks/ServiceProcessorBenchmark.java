@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.facebook.swift.benchmarks;
+
+import com.facebook.swift.codec.ThriftCodecManager;
+import com.facebook.swift.codec.internal.TProtocolWriter;
+import com.facebook.swift.service.ThriftServiceProcessor;
+import org.apache.thrift.protocol.TBinaryProtocol;
+import org.apache.thrift.protocol.TCompactProtocol;
+import org.apache.thrift.protocol.TMessage;
+import org.apache.thrift.protocol.TMessageType;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.protocol.TProtocolFactory;
+import org.apache.thrift.transport.TIOStreamTransport;
+import org.apache.thrift.transport.TMemoryInputTransport;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures server side request processing (message header, method lookup, argument decoding,
+ * handler dispatch and reply encoding) with pre-encoded requests read from memory.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+public class ServiceProcessorBenchmark
+{
+    @Param({"binary", "compact"})
+    public String protocol;
+
+    private final ByteArrayOutputStream output = new ByteArrayOutputStream();
+    private final TMemoryInputTransport input = new TMemoryInputTransport();
+    private TProtocol inputProtocol;
+    private TProtocol outputProtocol;
+
+    private ThriftServiceProcessor processor;
+
+    private byte[] addRequest;
+    private byte[] echoAllTypesRequest;
+    private byte[] echoForestRequest;
+    private byte[] countLargeCollectionsRequest;
+
+    @Setup
+    public void setup()
+            throws Exception
+    {
+        TProtocolFactory protocolFactory = createProtocolFactory(protocol);
+        inputProtocol = protocolFactory.getProtocol(input);
+        outputProtocol = protocolFactory.getProtocol(new TIOStreamTransport(output));
+
+        ThriftCodecManager codecManager = new ThriftCodecManager();
+        processor = new ThriftServiceProcessor(codecManager, new BenchmarkServiceHandler());
+
+        TProtocolWriter writer = beginRequest("add");
+        writer.writeI32Field("a", (short) 1, 40);
+        writer.writeI32Field("b", (short) 2, 2);
+        addRequest = endRequest();
+
+        writer = beginRequest("echoAllTypes");
+        writer.writeField("value", (short) 1, codecManager.getCodec(AllTypes.class), BenchmarkData.createAllTypes());
+        echoAllTypesRequest = endRequest();
+
+        writer = beginRequest("echoForest");
+        writer.writeField("value", (short) 1, codecManager.getCodec(Forest.class), BenchmarkData.createForest());
+        echoForestRequest = endRequest();
+
+        writer = beginRequest("countLargeCollections");
+        writer.writeField("value", (short) 1, codecManager.getCodec(LargeCollections.class), BenchmarkData.createLargeCollections());
+        countLargeCollectionsRequest = endRequest();
+    }
+
+    @Benchmark
+    public int add()
+            throws Exception
+    {
+        return process(addRequest);
+    }
+
+    @Benchmark
+    public int echoAllTypes()
+            throws Exception
+    {
+        return process(echoAllTypesRequest);
+    }
+
+    @Benchmark
+    public int echoForest()
+            throws Exception
+    {
+        return process(echoForestRequest);
+    }
+
+    @Benchmark
+    public int countLargeCollections()
+            throws Exception
+    {
+        return process(countLargeCollectionsRequest);
+    }
+
+    private int process(byte[] request)
+            throws Exception
+    {
+        input.reset(request);
+        output.reset();
+        if (!processor.process(inputProtocol, outputProtocol)) {
+            throw new IllegalStateException("Request was not processed");
+        }
+        return output.size();
+    }
+
+    private TProtocolWriter beginRequest(String methodName)
+            throws Exception
+    {
+        output.reset();
+        outputProtocol.writeMessageBegin(new TMessage(methodName, TMessageType.CALL, 1));
+        TProtocolWriter writer = new TProtocolWriter(outputProtocol);
+        writer.writeStructBegin(methodName + "_args");
+        return writer;
+    }
+
+    private byte[] endRequest()
+            throws Exception
+    {
+        outputProtocol.writeFieldStop();
+        outputProtocol.writeStructEnd();
+        outputProtocol.writeMessageEnd();
+        return output.toByteArray();
+    }
+
+    static TProtocolFactory createProtocolFactory(String name)
+    {
+        switch (name) {
+            case "binary":
+                return new TBinaryProtocol.Factory();
+            case "compact":
+                return new TCompactProtocol.Factory();
+            default:
+                throw new IllegalArgumentException("Unknown protocol: " + name);
+        }
+    }
+}
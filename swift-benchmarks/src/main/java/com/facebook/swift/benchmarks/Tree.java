@@ -0,0 +1,35 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.facebook.swift.benchmarks;
+
+import com.facebook.swift.codec.ThriftField;
+import com.facebook.swift.codec.ThriftStruct;
+
+import java.util.List;
+import java.util.Map;
+
+@ThriftStruct
+public class Tree
+{
+    @ThriftField(1)
+    public String name;
+    @ThriftField(2)
+    public Branch trunk;
+    @ThriftField(3)
+    public List<Branch> branches;
+    @ThriftField(4)
+    public Map<String, Branch> branchesByName;
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.facebook.swift.codec;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Holder for a struct, list, set or map field that is decoded on first access. Declaring a
+ * field, parameter or property as {@code LazyThriftValue<T>} instead of {@code T} makes the codec
+ * record the encoded bytes of the value and skip over them; {@link #get()} decodes them. A value
+ * that is written back without having been decoded is copied verbatim when the output uses the
+ * same encoding it was read with.
+ * <p/>
+ * Values are only captured when the protocol is binary or compact and the transport exposes its
+ * buffer; otherwise the value is decoded immediately.
+ */
+public abstract class LazyThriftValue<T>
+{
+    public static <T> LazyThriftValue<T> of(T value)
+    {
+        return new DecodedValue<>(value);
+    }
+
+    protected LazyThriftValue()
+    {
+    }
+
+    /**
+     * Returns the value, decoding it if this is the first access.
+     *
+     * @throws RuntimeException if the encoded value can not be decoded
+     */
+    public abstract T get();
+
+    /**
+     * Returns true if the value has been decoded, or was never encoded.
+     */
+    public abstract boolean isDecoded();
+
+    @Override
+    public final boolean equals(Object o)
+    {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof LazyThriftValue)) {
+            return false;
+        }
+        return get().equals(((LazyThriftValue<?>) o).get());
+    }
+
+    @Override
+    public final int hashCode()
+    {
+        return get().hashCode();
+    }
+
+    @Override
+    public String toString()
+    {
+        if (!isDecoded()) {
+            return "LazyThriftValue{encoded}";
+        }
+        return "LazyThriftValue{" + get() + "}";
+    }
+
+    private static class DecodedValue<T> extends LazyThriftValue<T>
+    {
+        private final T value;
+
+        private DecodedValue(T value)
+        {
+            this.value = Preconditions.checkNotNull(value, "value is null");
+        }
+
+        @Override
+        public T get()
+        {
+            return value;
+        }
+
+        @Override
+        public boolean isDecoded()
+        {
+            return true;
+        }
+    }
+}
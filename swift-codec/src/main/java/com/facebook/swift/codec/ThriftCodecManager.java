@@ -16,21 +16,31 @@
 package com.facebook.swift.codec;
 
 import com.facebook.swift.codec.internal.EnumThriftCodec;
+import com.facebook.swift.codec.internal.ProjectingThriftCodecFactory;
 import com.facebook.swift.codec.internal.ThriftCodecFactory;
+import com.facebook.swift.codec.internal.ThriftCodecWarmUp;
 import com.facebook.swift.codec.internal.builtin.BooleanThriftCodec;
 import com.facebook.swift.codec.internal.builtin.ByteBufferThriftCodec;
 import com.facebook.swift.codec.internal.builtin.ByteThriftCodec;
+import com.facebook.swift.codec.internal.builtin.CachedEncodingThriftCodec;
+import com.facebook.swift.codec.internal.builtin.DoubleArrayThriftCodec;
 import com.facebook.swift.codec.internal.builtin.DoubleThriftCodec;
+import com.facebook.swift.codec.internal.builtin.IntegerArrayThriftCodec;
 import com.facebook.swift.codec.internal.builtin.IntegerThriftCodec;
+import com.facebook.swift.codec.internal.builtin.LazyThriftCodec;
 import com.facebook.swift.codec.internal.builtin.ListThriftCodec;
+import com.facebook.swift.codec.internal.builtin.LongArrayThriftCodec;
 import com.facebook.swift.codec.internal.builtin.LongThriftCodec;
 import com.facebook.swift.codec.internal.builtin.MapThriftCodec;
 import com.facebook.swift.codec.internal.builtin.SetThriftCodec;
 import com.facebook.swift.codec.internal.builtin.ShortThriftCodec;
+import com.facebook.swift.codec.internal.builtin.StringThriftCodec;
 import com.facebook.swift.codec.internal.builtin.VoidThriftCodec;
 import com.facebook.swift.codec.internal.coercion.CoercionThriftCodec;
 import com.facebook.swift.codec.internal.compiler.CompilerThriftCodecFactory;
+import com.facebook.swift.codec.internal.compiler.PrecompiledThriftCodecFactory;
 import com.facebook.swift.codec.metadata.ThriftCatalog;
+import com.facebook.swift.codec.metadata.ThriftStructMetadata;
 import com.facebook.swift.codec.metadata.ThriftType;
 import com.facebook.swift.codec.metadata.TypeCoercion;
 import com.google.common.base.Preconditions;
@@ -39,12 +49,16 @@ import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedSet;
 import com.google.common.reflect.TypeToken;
 import com.google.inject.Inject;
 import org.apache.thrift.protocol.TProtocol;
 
+import javax.annotation.concurrent.Immutable;
 import javax.annotation.concurrent.ThreadSafe;
 import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Set;
 import java.util.concurrent.ExecutionException;
 
@@ -58,16 +72,17 @@ public class ThriftCodecManager
 {
     private final ThriftCatalog catalog;
     private final LoadingCache<ThriftType, ThriftCodec<?>> typeCodecs;
+    private final LoadingCache<ProjectedType, ThriftCodec<?>> projectedCodecs;
 
     public ThriftCodecManager(ThriftCodec<?>... codecs)
     {
-        this(new CompilerThriftCodecFactory(), codecs);
+        this(new PrecompiledThriftCodecFactory(new CompilerThriftCodecFactory()), codecs);
     }
 
     @Inject
     public ThriftCodecManager(@InternalThriftCodec Set<ThriftCodec<?>> codecs)
     {
-        this(new CompilerThriftCodecFactory(), codecs);
+        this(new PrecompiledThriftCodecFactory(new CompilerThriftCodecFactory()), codecs);
     }
 
     public ThriftCodecManager(ThriftCodecFactory factory, ThriftCodec<?>... codecs)
@@ -92,9 +107,18 @@ public class ThriftCodecManager
             public ThriftCodec<?> load(ThriftType type)
                     throws Exception
             {
+                if (type.isLazy()) {
+                    ThriftCodec<?> valueCodec = typeCodecs.get(type.getValueType());
+                    return new LazyThriftCodec<>(type, valueCodec);
+                }
+
                 switch (type.getProtocolType()) {
                     case STRUCT: {
-                        return factory.generateThriftTypeCodec(ThriftCodecManager.this, type.getStructMetadata());
+                        ThriftCodec<?> structCodec = factory.generateThriftTypeCodec(ThriftCodecManager.this, type.getStructMetadata());
+                        if (type.getStructMetadata().isEncodingCached()) {
+                            return new CachedEncodingThriftCodec<>(structCodec);
+                        }
+                        return structCodec;
                     }
                     case MAP: {
                         ThriftCodec<?> keyCodec = typeCodecs.get(type.getKeyType());
@@ -123,13 +147,33 @@ public class ThriftCodecManager
             }
         });
 
+        projectedCodecs = CacheBuilder.newBuilder().build(new CacheLoader<ProjectedType, ThriftCodec<?>>()
+        {
+            public ThriftCodec<?> load(ProjectedType projectedType)
+                    throws Exception
+            {
+                if (!(factory instanceof ProjectingThriftCodecFactory)) {
+                    // the factory can not skip fields, so decode the whole struct
+                    return getCodec(projectedType.getType());
+                }
+                return ((ProjectingThriftCodecFactory) factory).generateThriftTypeCodec(
+                        ThriftCodecManager.this,
+                        projectedType.getType().getStructMetadata(),
+                        projectedType.getFieldIds());
+            }
+        });
+
         addBuiltinCodec(new BooleanThriftCodec());
         addBuiltinCodec(new ByteThriftCodec());
         addBuiltinCodec(new ShortThriftCodec());
         addBuiltinCodec(new IntegerThriftCodec());
         addBuiltinCodec(new LongThriftCodec());
         addBuiltinCodec(new DoubleThriftCodec());
+        addBuiltinCodec(new IntegerArrayThriftCodec());
+        addBuiltinCodec(new LongArrayThriftCodec());
+        addBuiltinCodec(new DoubleArrayThriftCodec());
         addBuiltinCodec(new ByteBufferThriftCodec());
+        addBuiltinCodec(new StringThriftCodec());
         addBuiltinCodec(new VoidThriftCodec());
 
         for (ThriftCodec<?> codec : codecs) {
@@ -167,6 +211,57 @@ public class ThriftCodecManager
         return (ThriftCodec<T>) getCodec(type.getType());
     }
 
+    /**
+     * Gets a codec for the specified struct type that only decodes the fields with the specified
+     * ids.  All other fields are skipped without being decoded and are left at their default
+     * values in the returned instances.  Writes are not affected by the projection.  If the codec
+     * factory of this manager is not a {@link ProjectingThriftCodecFactory}, the full codec for the
+     * struct is returned instead.
+     */
+    public <T> ThriftCodec<T> getCodec(Class<T> javaType, Set<Short> fieldIds)
+    {
+        ThriftType thriftType = catalog.getThriftType(javaType);
+        Preconditions.checkArgument(thriftType != null, "Unsupported java type %s", javaType.getName());
+        return (ThriftCodec<T>) getCodec(thriftType, fieldIds);
+    }
+
+    public ThriftCodec<?> getCodec(ThriftType type, Set<Short> fieldIds)
+    {
+        Preconditions.checkNotNull(type, "type is null");
+        Preconditions.checkNotNull(fieldIds, "fieldIds is null");
+        Preconditions.checkArgument(type.getProtocolType() == ThriftProtocolType.STRUCT, "Only struct codecs can be projected: %s", type);
+
+        ThriftStructMetadata<?> metadata = type.getStructMetadata();
+        for (short fieldId : fieldIds) {
+            Preconditions.checkArgument(metadata.getField(fieldId) != null, "Struct %s does not contain field %s", metadata.getStructName(), fieldId);
+        }
+
+        try {
+            return projectedCodecs.get(new ProjectedType(type, ImmutableSortedSet.copyOf(fieldIds)));
+        }
+        catch (ExecutionException e) {
+            throw Throwables.propagate(e);
+        }
+    }
+
+    /**
+     * Generates the codecs for the specified types and every type reachable from them in parallel,
+     * and then exercises each struct codec the specified number of times with a synthetic value,
+     * so the codecs are generated and compiled before the first request needs them.
+     */
+    public void warmUp(Iterable<? extends Type> javaTypes, int iterations)
+    {
+        Preconditions.checkNotNull(javaTypes, "javaTypes is null");
+
+        List<ThriftType> thriftTypes = new ArrayList<>();
+        for (Type javaType : javaTypes) {
+            ThriftType thriftType = catalog.getThriftType(javaType);
+            Preconditions.checkArgument(thriftType != null, "Unsupported java type %s", javaType);
+            thriftTypes.add(thriftType);
+        }
+        new ThriftCodecWarmUp(this).warmUp(thriftTypes, iterations);
+    }
+
     /**
      * Adds or replaces the codec associated with the type contained in the codec.  This does not
      * replace any current users of the existing codec associated with the type.
@@ -216,4 +311,47 @@ public class ThriftCodecManager
         ThriftCodec<Object> codec = (ThriftCodec<Object>) getCodec(type);
         codec.write(value, protocol);
     }
+
+    @Immutable
+    private static final class ProjectedType
+    {
+        private final ThriftType type;
+        private final Set<Short> fieldIds;
+
+        private ProjectedType(ThriftType type, Set<Short> fieldIds)
+        {
+            this.type = type;
+            this.fieldIds = fieldIds;
+        }
+
+        public ThriftType getType()
+        {
+            return type;
+        }
+
+        public Set<Short> getFieldIds()
+        {
+            return fieldIds;
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+
+            ProjectedType that = (ProjectedType) o;
+            return type.equals(that.type) && fieldIds.equals(that.fieldIds);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return 31 * type.hashCode() + fieldIds.hashCode();
+        }
+    }
 }
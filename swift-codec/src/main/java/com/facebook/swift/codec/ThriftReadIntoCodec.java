@@ -0,0 +1,41 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.facebook.swift.codec;
+
+import org.apache.thrift.protocol.TProtocol;
+
+/**
+ * A codec that can decode into an existing instance, so consumers reading many values of the
+ * same type can reuse a few instances instead of allocating one per value.  Only structs whose
+ * fields are all injected after construction with a no-argument constructor support this.
+ *
+ * @param <T> the type this codec supports
+ */
+public interface ThriftReadIntoCodec<T>
+        extends ThriftCodec<T>
+{
+    /**
+     * Reads a value from the specified protocol into the instance.  Every injected field of the
+     * instance is set: fields that are not in the data are reset to null, or to zero for
+     * primitive fields.
+     *
+     * @param protocol the protocol to read from
+     * @param instance the instance to read into; not null
+     * @throws Exception if any problems occurred when reading or coercing the value
+     */
+    public void readInto(TProtocol protocol, T instance)
+            throws Exception;
+}
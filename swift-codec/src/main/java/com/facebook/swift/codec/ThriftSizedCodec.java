@@ -0,0 +1,38 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.facebook.swift.codec;
+
+/**
+ * A codec that can compute the encoded size of a value without encoding it, so output buffers
+ * can be allocated at their final size instead of growing while the value is written.
+ * <p/>
+ * The size is exact for the binary protocol.  The compact protocol encodes most values in fewer
+ * bytes, so the size is an upper bound for it except for integers of very large magnitude.
+ *
+ * @param <T> the type this codec supports
+ */
+public interface ThriftSizedCodec<T>
+        extends ThriftCodec<T>
+{
+    /**
+     * Gets the number of bytes the value takes when written by this codec.
+     *
+     * @param value the value to size; not null
+     * @throws Exception if any problems occurred when coercing the value
+     */
+    public int sizeOf(T value)
+            throws Exception;
+}
@@ -30,4 +30,11 @@ public @interface ThriftStruct
     String value() default "";
 
     Class<?> builder() default void.class;
+
+    /**
+     * Caches the encoded form of each instance and writes the cached bytes when the same instance
+     * is written again with the same encoding.  Only immutable structs, whose fields are all set
+     * by the constructor or builder, may cache their encoding.
+     */
+    boolean cacheEncoding() default false;
 }
@@ -15,7 +15,7 @@
  */
 package com.facebook.swift.codec.internal;
 
-import com.facebook.swift.codec.ThriftCodec;
+import com.facebook.swift.codec.ThriftSizedCodec;
 import com.facebook.swift.codec.metadata.ThriftEnumMetadata;
 import com.facebook.swift.codec.metadata.ThriftType;
 import com.google.common.base.Preconditions;
@@ -28,7 +28,7 @@ import javax.annotation.concurrent.Immutable;
  * class handles converting this vale to a Java enum constant.
  */
 @Immutable
-public class EnumThriftCodec<T extends Enum<T>> implements ThriftCodec<T>
+public class EnumThriftCodec<T extends Enum<T>> implements ThriftSizedCodec<T>
 {
     private final ThriftType type;
     private final ThriftEnumMetadata<T> enumMetadata;
@@ -50,19 +50,9 @@ public class EnumThriftCodec<T extends Enum<T>> implements ThriftCodec<T>
             throws Exception
     {
         int enumValue = protocol.readI32();
-        if (enumValue >= 0) {
-            if (enumMetadata.hasExplicitThriftValue()) {
-                T enumConstant = enumMetadata.getByEnumValue().get(enumValue);
-                if (enumConstant != null) {
-                    return enumConstant;
-                }
-            }
-            else {
-                T[] enumConstants = enumMetadata.getEnumClass().getEnumConstants();
-                if (enumValue < enumConstants.length) {
-                    return enumConstants[enumValue];
-                }
-            }
+        T enumConstant = enumMetadata.getEnumConstant(enumValue);
+        if (enumConstant != null) {
+            return enumConstant;
         }
         throw new IllegalArgumentException(
                 String.format(
@@ -79,13 +69,12 @@ public class EnumThriftCodec<T extends Enum<T>> implements ThriftCodec<T>
     {
         Preconditions.checkNotNull(enumConstant, "enumConstant is null");
 
-        int enumValue;
-        if (enumMetadata.hasExplicitThriftValue()) {
-            enumValue = enumMetadata.getByEnumConstant().get(enumConstant);
-        }
-        else {
-            enumValue = enumConstant.ordinal();
-        }
-        protocol.writeI32(enumValue);
+        protocol.writeI32(enumMetadata.getEnumValue(enumConstant));
+    }
+
+    @Override
+    public int sizeOf(T value)
+    {
+        return 4;
     }
 }
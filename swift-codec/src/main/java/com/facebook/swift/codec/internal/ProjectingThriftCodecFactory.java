@@ -0,0 +1,36 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.facebook.swift.codec.internal;
+
+import com.facebook.swift.codec.ThriftCodec;
+import com.facebook.swift.codec.ThriftCodecManager;
+import com.facebook.swift.codec.metadata.ThriftStructMetadata;
+
+import java.util.Set;
+
+/**
+ * A codec factory that can also create codecs which only decode some of the fields of a struct.
+ * Factories that do not implement this interface are given full codecs for projections.
+ * Implementations of this interface are expected to be thread safe.
+ */
+public interface ProjectingThriftCodecFactory extends ThriftCodecFactory
+{
+    /**
+     * Creates a codec that only decodes the fields with the specified ids.  All other fields are
+     * skipped on read and left at their default values.  Writes are not affected by the projection.
+     */
+    <T> ThriftCodec<T> generateThriftTypeCodec(ThriftCodecManager codecManager, ThriftStructMetadata<T> metadata, Set<Short> fieldIds);
+}
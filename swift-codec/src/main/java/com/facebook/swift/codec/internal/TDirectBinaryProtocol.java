@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.facebook.swift.codec.internal;
+
+import org.apache.thrift.TException;
+import org.apache.thrift.protocol.TBinaryProtocol;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.protocol.TProtocolException;
+import org.apache.thrift.protocol.TProtocolFactory;
+import org.apache.thrift.protocol.TType;
+import org.apache.thrift.transport.TTransport;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * Binary protocol that reads and writes struct, field and collection headers without allocating
+ * header objects.  The encoding is identical to {@link TBinaryProtocol}, and primitive values are
+ * read directly from the transport buffer when the transport exposes one.  Strings are encoded
+ * into a reusable buffer and decoded without an intermediate byte array.
+ */
+@NotThreadSafe
+public class TDirectBinaryProtocol extends TBinaryProtocol implements TDirectProtocol
+{
+    private short lastFieldId;
+    private byte lastKeyType;
+    private byte lastElementType;
+    private final Utf8Buffer utf8 = new Utf8Buffer();
+
+    public TDirectBinaryProtocol(TTransport transport)
+    {
+        super(transport);
+    }
+
+    @Override
+    public String readString()
+            throws TException
+    {
+        int length = readI32();
+        checkReadLength(length);
+        return utf8.read(trans_, length);
+    }
+
+    @Override
+    public void writeString(String value)
+            throws TException
+    {
+        int length = utf8.encode(value);
+        writeI32(length);
+        trans_.write(utf8.getBuffer(), 0, length);
+    }
+
+    @Override
+    public byte readFieldHeader()
+            throws TException
+    {
+        byte type = readByte();
+        lastFieldId = (type == TType.STOP) ? 0 : readI16();
+        return type;
+    }
+
+    @Override
+    public short getLastFieldId()
+    {
+        return lastFieldId;
+    }
+
+    @Override
+    public int readListHeader()
+            throws TException
+    {
+        lastElementType = readByte();
+        return readSize();
+    }
+
+    @Override
+    public int readSetHeader()
+            throws TException
+    {
+        lastElementType = readByte();
+        return readSize();
+    }
+
+    @Override
+    public int readMapHeader()
+            throws TException
+    {
+        lastKeyType = readByte();
+        lastElementType = readByte();
+        return readSize();
+    }
+
+    @Override
+    public byte getLastKeyType()
+    {
+        return lastKeyType;
+    }
+
+    @Override
+    public byte getLastElementType()
+    {
+        return lastElementType;
+    }
+
+    @Override
+    public void writeStructHeader()
+    {
+        // the binary encoding has no struct header
+    }
+
+    @Override
+    public void writeFieldHeader(byte type, short id)
+            throws TException
+    {
+        writeByte(type);
+        writeI16(id);
+    }
+
+    @Override
+    public void writeListHeader(byte elementType, int size)
+            throws TException
+    {
+        writeByte(elementType);
+        writeI32(size);
+    }
+
+    @Override
+    public void writeSetHeader(byte elementType, int size)
+            throws TException
+    {
+        writeByte(elementType);
+        writeI32(size);
+    }
+
+    @Override
+    public void writeMapHeader(byte keyType, byte valueType, int size)
+            throws TException
+    {
+        writeByte(keyType);
+        writeByte(valueType);
+        writeI32(size);
+    }
+
+    private int readSize()
+            throws TException
+    {
+        int size = readI32();
+        if (size < 0) {
+            throw new TProtocolException(TProtocolException.NEGATIVE_SIZE, "Negative size: " + size);
+        }
+        return size;
+    }
+
+    public static class Factory implements TProtocolFactory
+    {
+        @Override
+        public TProtocol getProtocol(TTransport transport)
+        {
+            return new TDirectBinaryProtocol(transport);
+        }
+    }
+}
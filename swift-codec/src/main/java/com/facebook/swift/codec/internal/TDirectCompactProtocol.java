@@ -0,0 +1,819 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.facebook.swift.codec.internal;
+
+import org.apache.thrift.TException;
+import org.apache.thrift.protocol.TCompactProtocol;
+import org.apache.thrift.protocol.TField;
+import org.apache.thrift.protocol.TList;
+import org.apache.thrift.protocol.TMap;
+import org.apache.thrift.protocol.TMessage;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.protocol.TProtocolException;
+import org.apache.thrift.protocol.TProtocolFactory;
+import org.apache.thrift.protocol.TSet;
+import org.apache.thrift.protocol.TStruct;
+import org.apache.thrift.protocol.TType;
+import org.apache.thrift.transport.TTransport;
+
+import javax.annotation.concurrent.NotThreadSafe;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Compact protocol that reads and writes struct, field and collection headers without allocating
+ * header objects.  The encoding is identical to {@link TCompactProtocol}, which keeps the field id
+ * and boolean field state needed for this in private fields, so the encoding is implemented here
+ * in full.  Values are read directly from the transport buffer when the transport exposes one,
+ * and are encoded into a reusable scratch buffer on write.
+ */
+@NotThreadSafe
+public class TDirectCompactProtocol extends TProtocol implements TDirectProtocol
+{
+    private static final TStruct ANONYMOUS_STRUCT = new TStruct("");
+    private static final TField STOP_FIELD = new TField("", TType.STOP, (short) 0);
+
+    private static final byte PROTOCOL_ID = (byte) 0x82;
+    private static final byte VERSION = 1;
+    private static final byte VERSION_MASK = 0x1f;
+    private static final byte TYPE_MASK = (byte) 0xe0;
+    private static final byte TYPE_BITS = 0x07;
+    private static final int TYPE_SHIFT_AMOUNT = 5;
+
+    // type ids of the compact encoding
+    private static final byte COMPACT_STOP = 0x00;
+    private static final byte COMPACT_BOOLEAN_TRUE = 0x01;
+    private static final byte COMPACT_BOOLEAN_FALSE = 0x02;
+    private static final byte COMPACT_BYTE = 0x03;
+    private static final byte COMPACT_I16 = 0x04;
+    private static final byte COMPACT_I32 = 0x05;
+    private static final byte COMPACT_I64 = 0x06;
+    private static final byte COMPACT_DOUBLE = 0x07;
+    private static final byte COMPACT_BINARY = 0x08;
+    private static final byte COMPACT_LIST = 0x09;
+    private static final byte COMPACT_SET = 0x0a;
+    private static final byte COMPACT_MAP = 0x0b;
+    private static final byte COMPACT_STRUCT = 0x0c;
+
+    // field ids are delta encoded against the previous field of the enclosing struct
+    private short[] fieldIdStack = new short[16];
+    private int fieldIdStackSize;
+    private short lastFieldId;
+
+    // the header of a bool field is written together with its value
+    private boolean boolFieldPending;
+    private short boolFieldId;
+
+    // the value of a bool field is read together with its header
+    private boolean boolValuePending;
+    private boolean boolValue;
+
+    private byte lastKeyType;
+    private byte lastElementType;
+
+    private final byte[] scratch = new byte[10];
+    private final Utf8Buffer utf8 = new Utf8Buffer();
+
+    public TDirectCompactProtocol(TTransport transport)
+    {
+        super(transport);
+    }
+
+    @Override
+    public void reset()
+    {
+        fieldIdStackSize = 0;
+        lastFieldId = 0;
+        boolFieldPending = false;
+        boolValuePending = false;
+    }
+
+    //
+    // Headers
+    //
+
+    @Override
+    public byte readFieldHeader()
+            throws TException
+    {
+        byte header = readByte();
+        if (header == COMPACT_STOP) {
+            return TType.STOP;
+        }
+
+        // a zero delta means the field id follows the header
+        int delta = (header & 0xf0) >> 4;
+        if (delta == 0) {
+            lastFieldId = readI16();
+        }
+        else {
+            lastFieldId = (short) (lastFieldId + delta);
+        }
+
+        byte compactType = (byte) (header & 0x0f);
+        if (compactType == COMPACT_BOOLEAN_TRUE || compactType == COMPACT_BOOLEAN_FALSE) {
+            boolValuePending = true;
+            boolValue = (compactType == COMPACT_BOOLEAN_TRUE);
+        }
+        return getType(compactType);
+    }
+
+    @Override
+    public short getLastFieldId()
+    {
+        return lastFieldId;
+    }
+
+    @Override
+    public int readListHeader()
+            throws TException
+    {
+        byte sizeAndType = readByte();
+        int size = (sizeAndType >> 4) & 0x0f;
+        if (size == 15) {
+            size = checkSize(readVarint32());
+        }
+        lastElementType = getType(sizeAndType);
+        return size;
+    }
+
+    @Override
+    public int readSetHeader()
+            throws TException
+    {
+        return readListHeader();
+    }
+
+    @Override
+    public int readMapHeader()
+            throws TException
+    {
+        int size = checkSize(readVarint32());
+        byte keyAndValueType = (size == 0) ? 0 : readByte();
+        lastKeyType = getType((byte) (keyAndValueType >> 4));
+        lastElementType = getType(keyAndValueType);
+        return size;
+    }
+
+    @Override
+    public byte getLastKeyType()
+    {
+        return lastKeyType;
+    }
+
+    @Override
+    public byte getLastElementType()
+    {
+        return lastElementType;
+    }
+
+    @Override
+    public void writeStructHeader()
+    {
+        pushFieldId();
+    }
+
+    @Override
+    public void writeFieldHeader(byte type, short id)
+            throws TException
+    {
+        if (type == TType.BOOL) {
+            boolFieldPending = true;
+            boolFieldId = id;
+        }
+        else {
+            writeCompactFieldHeader(id, getCompactType(type));
+        }
+    }
+
+    @Override
+    public void writeListHeader(byte elementType, int size)
+            throws TException
+    {
+        if (size <= 14) {
+            writeByte((byte) ((size << 4) | getCompactType(elementType)));
+        }
+        else {
+            writeByte((byte) (0xf0 | getCompactType(elementType)));
+            writeVarint32(size);
+        }
+    }
+
+    @Override
+    public void writeSetHeader(byte elementType, int size)
+            throws TException
+    {
+        writeListHeader(elementType, size);
+    }
+
+    @Override
+    public void writeMapHeader(byte keyType, byte valueType, int size)
+            throws TException
+    {
+        if (size == 0) {
+            writeByte((byte) 0);
+        }
+        else {
+            writeVarint32(size);
+            writeByte((byte) ((getCompactType(keyType) << 4) | getCompactType(valueType)));
+        }
+    }
+
+    private void writeCompactFieldHeader(short id, byte compactType)
+            throws TException
+    {
+        if (id > lastFieldId && id - lastFieldId <= 15) {
+            writeByte((byte) (((id - lastFieldId) << 4) | compactType));
+        }
+        else {
+            writeByte(compactType);
+            writeI16(id);
+        }
+        lastFieldId = id;
+    }
+
+    private void pushFieldId()
+    {
+        if (fieldIdStackSize == fieldIdStack.length) {
+            fieldIdStack = Arrays.copyOf(fieldIdStack, fieldIdStackSize * 2);
+        }
+        fieldIdStack[fieldIdStackSize++] = lastFieldId;
+        lastFieldId = 0;
+    }
+
+    private void popFieldId()
+    {
+        lastFieldId = fieldIdStack[--fieldIdStackSize];
+    }
+
+    //
+    // Reading
+    //
+
+    @Override
+    public TMessage readMessageBegin()
+            throws TException
+    {
+        byte protocolId = readByte();
+        if (protocolId != PROTOCOL_ID) {
+            throw new TProtocolException(TProtocolException.BAD_VERSION, "Expected protocol id " + Integer.toHexString(PROTOCOL_ID & 0xff) + " but got " + Integer.toHexString(protocolId & 0xff));
+        }
+        byte versionAndType = readByte();
+        byte version = (byte) (versionAndType & VERSION_MASK);
+        if (version != VERSION) {
+            throw new TProtocolException(TProtocolException.BAD_VERSION, "Expected version " + VERSION + " but got " + version);
+        }
+        byte type = (byte) ((versionAndType >> TYPE_SHIFT_AMOUNT) & TYPE_BITS);
+        int sequenceId = readVarint32();
+        String name = readString();
+        return new TMessage(name, type, sequenceId);
+    }
+
+    @Override
+    public void readMessageEnd()
+    {
+    }
+
+    @Override
+    public TStruct readStructBegin()
+    {
+        pushFieldId();
+        return ANONYMOUS_STRUCT;
+    }
+
+    @Override
+    public void readStructEnd()
+    {
+        popFieldId();
+    }
+
+    @Override
+    public TField readFieldBegin()
+            throws TException
+    {
+        byte type = readFieldHeader();
+        if (type == TType.STOP) {
+            return STOP_FIELD;
+        }
+        return new TField("", type, lastFieldId);
+    }
+
+    @Override
+    public void readFieldEnd()
+    {
+    }
+
+    @Override
+    public TMap readMapBegin()
+            throws TException
+    {
+        int size = readMapHeader();
+        return new TMap(lastKeyType, lastElementType, size);
+    }
+
+    @Override
+    public void readMapEnd()
+    {
+    }
+
+    @Override
+    public TList readListBegin()
+            throws TException
+    {
+        int size = readListHeader();
+        return new TList(lastElementType, size);
+    }
+
+    @Override
+    public void readListEnd()
+    {
+    }
+
+    @Override
+    public TSet readSetBegin()
+            throws TException
+    {
+        int size = readSetHeader();
+        return new TSet(lastElementType, size);
+    }
+
+    @Override
+    public void readSetEnd()
+    {
+    }
+
+    @Override
+    public boolean readBool()
+            throws TException
+    {
+        if (boolValuePending) {
+            boolValuePending = false;
+            return boolValue;
+        }
+        return readByte() == COMPACT_BOOLEAN_TRUE;
+    }
+
+    @Override
+    public byte readByte()
+            throws TException
+    {
+        if (trans_.getBytesRemainingInBuffer() > 0) {
+            byte value = trans_.getBuffer()[trans_.getBufferPosition()];
+            trans_.consumeBuffer(1);
+            return value;
+        }
+        trans_.readAll(scratch, 0, 1);
+        return scratch[0];
+    }
+
+    @Override
+    public short readI16()
+            throws TException
+    {
+        return (short) zigzagToInt(readVarint32());
+    }
+
+    @Override
+    public int readI32()
+            throws TException
+    {
+        return zigzagToInt(readVarint32());
+    }
+
+    @Override
+    public long readI64()
+            throws TException
+    {
+        return zigzagToLong(readVarint64());
+    }
+
+    @Override
+    public double readDouble()
+            throws TException
+    {
+        boolean buffered = trans_.getBytesRemainingInBuffer() >= 8;
+        byte[] bytes;
+        int offset;
+        if (buffered) {
+            bytes = trans_.getBuffer();
+            offset = trans_.getBufferPosition();
+        }
+        else {
+            trans_.readAll(scratch, 0, 8);
+            bytes = scratch;
+            offset = 0;
+        }
+
+        // doubles are written little endian
+        long bits = ((bytes[offset + 7] & 0xffL) << 56) |
+                ((bytes[offset + 6] & 0xffL) << 48) |
+                ((bytes[offset + 5] & 0xffL) << 40) |
+                ((bytes[offset + 4] & 0xffL) << 32) |
+                ((bytes[offset + 3] & 0xffL) << 24) |
+                ((bytes[offset + 2] & 0xffL) << 16) |
+                ((bytes[offset + 1] & 0xffL) << 8) |
+                (bytes[offset] & 0xffL);
+
+        if (buffered) {
+            trans_.consumeBuffer(8);
+        }
+        return Double.longBitsToDouble(bits);
+    }
+
+    @Override
+    public String readString()
+            throws TException
+    {
+        return utf8.read(trans_, checkSize(readVarint32()));
+    }
+
+    @Override
+    public ByteBuffer readBinary()
+            throws TException
+    {
+        int length = checkSize(readVarint32());
+        byte[] bytes = new byte[length];
+        trans_.readAll(bytes, 0, length);
+        return ByteBuffer.wrap(bytes);
+    }
+
+    protected int readVarint32()
+            throws TException
+    {
+        int result = 0;
+        int shift = 0;
+        if (trans_.getBytesRemainingInBuffer() >= 5) {
+            byte[] buffer = trans_.getBuffer();
+            int position = trans_.getBufferPosition();
+            int length = 0;
+            while (true) {
+                byte b = buffer[position + length];
+                length++;
+                result |= (b & 0x7f) << shift;
+                if ((b & 0x80) != 0x80) {
+                    break;
+                }
+                shift += 7;
+                if (shift > 28) {
+                    throw new TProtocolException(TProtocolException.INVALID_DATA, "Variable length integer is too long");
+                }
+            }
+            trans_.consumeBuffer(length);
+            return result;
+        }
+
+        while (true) {
+            byte b = readByte();
+            result |= (b & 0x7f) << shift;
+            if ((b & 0x80) != 0x80) {
+                return result;
+            }
+            shift += 7;
+            if (shift > 28) {
+                throw new TProtocolException(TProtocolException.INVALID_DATA, "Variable length integer is too long");
+            }
+        }
+    }
+
+    private long readVarint64()
+            throws TException
+    {
+        long result = 0;
+        int shift = 0;
+        if (trans_.getBytesRemainingInBuffer() >= 10) {
+            byte[] buffer = trans_.getBuffer();
+            int position = trans_.getBufferPosition();
+            int length = 0;
+            while (true) {
+                byte b = buffer[position + length];
+                length++;
+                result |= (long) (b & 0x7f) << shift;
+                if ((b & 0x80) != 0x80) {
+                    break;
+                }
+                shift += 7;
+                if (shift > 63) {
+                    throw new TProtocolException(TProtocolException.INVALID_DATA, "Variable length integer is too long");
+                }
+            }
+            trans_.consumeBuffer(length);
+            return result;
+        }
+
+        while (true) {
+            byte b = readByte();
+            result |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) != 0x80) {
+                return result;
+            }
+            shift += 7;
+            if (shift > 63) {
+                throw new TProtocolException(TProtocolException.INVALID_DATA, "Variable length integer is too long");
+            }
+        }
+    }
+
+    //
+    // Writing
+    //
+
+    @Override
+    public void writeMessageBegin(TMessage message)
+            throws TException
+    {
+        writeByte(PROTOCOL_ID);
+        writeByte((byte) ((VERSION & VERSION_MASK) | ((message.type << TYPE_SHIFT_AMOUNT) & TYPE_MASK)));
+        writeVarint32(message.seqid);
+        writeString(message.name);
+    }
+
+    @Override
+    public void writeMessageEnd()
+    {
+    }
+
+    @Override
+    public void writeStructBegin(TStruct struct)
+    {
+        writeStructHeader();
+    }
+
+    @Override
+    public void writeStructEnd()
+    {
+        popFieldId();
+    }
+
+    @Override
+    public void writeFieldBegin(TField field)
+            throws TException
+    {
+        writeFieldHeader(field.type, field.id);
+    }
+
+    @Override
+    public void writeFieldEnd()
+    {
+    }
+
+    @Override
+    public void writeFieldStop()
+            throws TException
+    {
+        writeByte(COMPACT_STOP);
+    }
+
+    @Override
+    public void writeMapBegin(TMap map)
+            throws TException
+    {
+        writeMapHeader(map.keyType, map.valueType, map.size);
+    }
+
+    @Override
+    public void writeMapEnd()
+    {
+    }
+
+    @Override
+    public void writeListBegin(TList list)
+            throws TException
+    {
+        writeListHeader(list.elemType, list.size);
+    }
+
+    @Override
+    public void writeListEnd()
+    {
+    }
+
+    @Override
+    public void writeSetBegin(TSet set)
+            throws TException
+    {
+        writeSetHeader(set.elemType, set.size);
+    }
+
+    @Override
+    public void writeSetEnd()
+    {
+    }
+
+    @Override
+    public void writeBool(boolean value)
+            throws TException
+    {
+        byte compactType = value ? COMPACT_BOOLEAN_TRUE : COMPACT_BOOLEAN_FALSE;
+        if (boolFieldPending) {
+            boolFieldPending = false;
+            writeCompactFieldHeader(boolFieldId, compactType);
+        }
+        else {
+            writeByte(compactType);
+        }
+    }
+
+    @Override
+    public void writeByte(byte value)
+            throws TException
+    {
+        scratch[0] = value;
+        trans_.write(scratch, 0, 1);
+    }
+
+    @Override
+    public void writeI16(short value)
+            throws TException
+    {
+        writeVarint32(intToZigzag(value));
+    }
+
+    @Override
+    public void writeI32(int value)
+            throws TException
+    {
+        writeVarint32(intToZigzag(value));
+    }
+
+    @Override
+    public void writeI64(long value)
+            throws TException
+    {
+        writeVarint64(longToZigzag(value));
+    }
+
+    @Override
+    public void writeDouble(double value)
+            throws TException
+    {
+        long bits = Double.doubleToLongBits(value);
+        for (int i = 0; i < 8; i++) {
+            scratch[i] = (byte) (bits >>> (i * 8));
+        }
+        trans_.write(scratch, 0, 8);
+    }
+
+    @Override
+    public void writeString(String value)
+            throws TException
+    {
+        int length = utf8.encode(value);
+        writeVarint32(length);
+        trans_.write(utf8.getBuffer(), 0, length);
+    }
+
+    @Override
+    public void writeBinary(ByteBuffer value)
+            throws TException
+    {
+        int length = value.limit() - value.position();
+        writeVarint32(length);
+        trans_.write(value.array(), value.arrayOffset() + value.position(), length);
+    }
+
+    private void writeVarint32(int value)
+            throws TException
+    {
+        int length = 0;
+        while ((value & ~0x7f) != 0) {
+            scratch[length++] = (byte) ((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        scratch[length++] = (byte) value;
+        trans_.write(scratch, 0, length);
+    }
+
+    private void writeVarint64(long value)
+            throws TException
+    {
+        int length = 0;
+        while ((value & ~0x7fL) != 0) {
+            scratch[length++] = (byte) ((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        scratch[length++] = (byte) value;
+        trans_.write(scratch, 0, length);
+    }
+
+    //
+    // Helpers
+    //
+
+    private static int checkSize(int size)
+            throws TProtocolException
+    {
+        if (size < 0) {
+            throw new TProtocolException(TProtocolException.NEGATIVE_SIZE, "Negative size: " + size);
+        }
+        return size;
+    }
+
+    private static int intToZigzag(int value)
+    {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    private static long longToZigzag(long value)
+    {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static int zigzagToInt(int value)
+    {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static long zigzagToLong(long value)
+    {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static byte getType(byte compactType)
+            throws TProtocolException
+    {
+        switch ((byte) (compactType & 0x0f)) {
+            case COMPACT_STOP:
+                return TType.STOP;
+            case COMPACT_BOOLEAN_TRUE:
+            case COMPACT_BOOLEAN_FALSE:
+                return TType.BOOL;
+            case COMPACT_BYTE:
+                return TType.BYTE;
+            case COMPACT_I16:
+                return TType.I16;
+            case COMPACT_I32:
+                return TType.I32;
+            case COMPACT_I64:
+                return TType.I64;
+            case COMPACT_DOUBLE:
+                return TType.DOUBLE;
+            case COMPACT_BINARY:
+                return TType.STRING;
+            case COMPACT_LIST:
+                return TType.LIST;
+            case COMPACT_SET:
+                return TType.SET;
+            case COMPACT_MAP:
+                return TType.MAP;
+            case COMPACT_STRUCT:
+                return TType.STRUCT;
+            default:
+                throw new TProtocolException(TProtocolException.INVALID_DATA, "Unknown compact type " + (compactType & 0x0f));
+        }
+    }
+
+    private static byte getCompactType(byte type)
+            throws TProtocolException
+    {
+        switch (type) {
+            case TType.STOP:
+                return COMPACT_STOP;
+            case TType.BOOL:
+                return COMPACT_BOOLEAN_TRUE;
+            case TType.BYTE:
+                return COMPACT_BYTE;
+            case TType.I16:
+                return COMPACT_I16;
+            case TType.I32:
+                return COMPACT_I32;
+            case TType.I64:
+                return COMPACT_I64;
+            case TType.DOUBLE:
+                return COMPACT_DOUBLE;
+            case TType.STRING:
+                return COMPACT_BINARY;
+            case TType.LIST:
+                return COMPACT_LIST;
+            case TType.SET:
+                return COMPACT_SET;
+            case TType.MAP:
+                return COMPACT_MAP;
+            case TType.STRUCT:
+                return COMPACT_STRUCT;
+            default:
+                throw new TProtocolException(TProtocolException.INVALID_DATA, "Type " + type + " can not be written with the compact protocol");
+        }
+    }
+
+    public static class Factory implements TProtocolFactory
+    {
+        @Override
+        public TProtocol getProtocol(TTransport transport)
+        {
+            return new TDirectCompactProtocol(transport);
+        }
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.facebook.swift.codec.internal;
+
+import org.apache.thrift.TException;
+
+/**
+ * A protocol that reads and writes struct, field and collection headers as primitives instead of
+ * allocating the libthrift {@code TStruct}, {@code TField}, {@code TList}, {@code TSet} and
+ * {@code TMap} header objects.  {@link TProtocolReader} and {@link TProtocolWriter} use these
+ * methods in place of the header methods of {@code TProtocol} when the protocol implements this
+ * interface.
+ */
+public interface TDirectProtocol
+{
+    /**
+     * Reads a field header and returns the type of the field, or {@code TType.STOP} at the end of
+     * the struct.  The id of the field is available from {@link #getLastFieldId()}.
+     */
+    byte readFieldHeader()
+            throws TException;
+
+    short getLastFieldId();
+
+    /**
+     * Reads a list header and returns the number of elements.  The element type is available from
+     * {@link #getLastElementType()}.
+     */
+    int readListHeader()
+            throws TException;
+
+    /**
+     * Reads a set header and returns the number of elements.  The element type is available from
+     * {@link #getLastElementType()}.
+     */
+    int readSetHeader()
+            throws TException;
+
+    /**
+     * Reads a map header and returns the number of entries.  The key type is available from
+     * {@link #getLastKeyType()} and the value type from {@link #getLastElementType()}.
+     */
+    int readMapHeader()
+            throws TException;
+
+    byte getLastKeyType();
+
+    byte getLastElementType();
+
+    void writeStructHeader()
+            throws TException;
+
+    void writeFieldHeader(byte type, short id)
+            throws TException;
+
+    void writeListHeader(byte elementType, int size)
+            throws TException;
+
+    void writeSetHeader(byte elementType, int size)
+            throws TException;
+
+    void writeMapHeader(byte keyType, byte valueType, int size)
+            throws TException;
+}
@@ -18,11 +18,8 @@ package com.facebook.swift.codec.internal;
 import com.facebook.swift.codec.ThriftCodec;
 import org.apache.thrift.TException;
 import org.apache.thrift.protocol.TField;
-import org.apache.thrift.protocol.TList;
-import org.apache.thrift.protocol.TMap;
 import org.apache.thrift.protocol.TProtocol;
 import org.apache.thrift.protocol.TProtocolUtil;
-import org.apache.thrift.protocol.TSet;
 import org.apache.thrift.protocol.TType;
 
 import javax.annotation.concurrent.NotThreadSafe;
@@ -41,11 +38,16 @@ import static com.google.common.base.Preconditions.checkState;
 public class TProtocolReader
 {
     private final TProtocol protocol;
-    private TField currentField;
+    private final TDirectProtocol directProtocol;
+
+    private boolean hasCurrentField;
+    private byte currentFieldType;
+    private short currentFieldId;
 
     public TProtocolReader(TProtocol protocol)
     {
         this.protocol = protocol;
+        this.directProtocol = (protocol instanceof TDirectProtocol) ? (TDirectProtocol) protocol : null;
     }
 
     public TProtocol getProtocol()
@@ -57,17 +59,17 @@ public class TProtocolReader
             throws TException
     {
         protocol.readStructBegin();
-        currentField = null;
+        hasCurrentField = false;
     }
 
     public void readStructEnd()
             throws TException
     {
-        if (currentField == null || currentField.id != TType.STOP) {
+        if (!hasCurrentField || currentFieldType != TType.STOP) {
             throw new IllegalStateException("Some fields have not been consumed");
         }
 
-        currentField = null;
+        hasCurrentField = false;
         protocol.readStructEnd();
     }
 
@@ -75,35 +77,44 @@ public class TProtocolReader
             throws TException
     {
         // if the current field is a stop record, the caller must call readStructEnd.
-        if (currentField != null && currentField.id == TType.STOP) {
+        if (hasCurrentField && currentFieldType == TType.STOP) {
             throw new NoSuchElementException();
         }
-        checkState(currentField == null, "Current field was not read");
+        checkState(!hasCurrentField, "Current field was not read");
 
         // advance to the next field
-        currentField = protocol.readFieldBegin();
+        if (directProtocol != null) {
+            currentFieldType = directProtocol.readFieldHeader();
+            currentFieldId = (currentFieldType == TType.STOP) ? 0 : directProtocol.getLastFieldId();
+        }
+        else {
+            TField field = protocol.readFieldBegin();
+            currentFieldType = field.type;
+            currentFieldId = field.id;
+        }
+        hasCurrentField = true;
 
-        return currentField.type != TType.STOP;
+        return currentFieldType != TType.STOP;
     }
 
     public short getFieldId()
     {
-        checkState(currentField != null, "No current field");
-        return currentField.id;
+        checkState(hasCurrentField, "No current field");
+        return currentFieldId;
     }
 
     public byte getFieldType()
     {
-        checkState(currentField != null, "No current field");
-        return currentField.type;
+        checkState(hasCurrentField, "No current field");
+        return currentFieldType;
     }
 
     public void skipFieldData()
             throws TException
     {
-        TProtocolUtil.skip(protocol, currentField.type);
+        skip(currentFieldType);
         protocol.readFieldEnd();
-        currentField = null;
+        hasCurrentField = false;
     }
 
     public Object readField(ThriftCodec<?> codec)
@@ -112,7 +123,7 @@ public class TProtocolReader
         if (!checkReadState(codec.getType().getProtocolType().getType())) {
             return null;
         }
-        currentField = null;
+        hasCurrentField = false;
         return codec.read(protocol);
     }
 
@@ -124,7 +135,7 @@ public class TProtocolReader
         }
 
         ByteBuffer value = protocol.readBinary();
-        currentField = null;
+        hasCurrentField = false;
         return value;
     }
 
@@ -134,7 +145,7 @@ public class TProtocolReader
         if (!checkReadState(TType.BOOL)) {
             return false;
         }
-        currentField = null;
+        hasCurrentField = false;
         return protocol.readBool();
     }
 
@@ -144,7 +155,7 @@ public class TProtocolReader
         if (!checkReadState(TType.BYTE)) {
             return 0;
         }
-        currentField = null;
+        hasCurrentField = false;
         return protocol.readByte();
     }
 
@@ -154,7 +165,7 @@ public class TProtocolReader
         if (!checkReadState(TType.DOUBLE)) {
             return 0;
         }
-        currentField = null;
+        hasCurrentField = false;
         return protocol.readDouble();
     }
 
@@ -164,7 +175,7 @@ public class TProtocolReader
         if (!checkReadState(TType.I16)) {
             return 0;
         }
-        currentField = null;
+        hasCurrentField = false;
         return protocol.readI16();
     }
 
@@ -174,7 +185,7 @@ public class TProtocolReader
         if (!checkReadState(TType.I32)) {
             return 0;
         }
-        currentField = null;
+        hasCurrentField = false;
         return protocol.readI32();
     }
 
@@ -184,7 +195,7 @@ public class TProtocolReader
         if (!checkReadState(TType.I64)) {
             return 0;
         }
-        currentField = null;
+        hasCurrentField = false;
         return protocol.readI64();
     }
 
@@ -194,7 +205,7 @@ public class TProtocolReader
         if (!checkReadState(TType.STRING)) {
             return null;
         }
-        currentField = null;
+        hasCurrentField = false;
         return protocol.readString();
     }
 
@@ -204,7 +215,7 @@ public class TProtocolReader
         if (!checkReadState(TType.STRUCT)) {
             return null;
         }
-        currentField = null;
+        hasCurrentField = false;
         return codec.read(protocol);
     }
 
@@ -214,7 +225,7 @@ public class TProtocolReader
         if (!checkReadState(TType.SET)) {
             return null;
         }
-        currentField = null;
+        hasCurrentField = false;
         return setCodec.read(protocol);
     }
 
@@ -224,7 +235,7 @@ public class TProtocolReader
         if (!checkReadState(TType.LIST)) {
             return null;
         }
-        currentField = null;
+        hasCurrentField = false;
         return listCodec.read(protocol);
     }
 
@@ -234,7 +245,7 @@ public class TProtocolReader
         if (!checkReadState(TType.MAP)) {
             return null;
         }
-        currentField = null;
+        hasCurrentField = false;
         return mapCodec.read(protocol);
     }
 
@@ -244,10 +255,54 @@ public class TProtocolReader
         if (!checkReadState(TType.I32)) {
             return null;
         }
-        currentField = null;
+        hasCurrentField = false;
+        return enumCodec.read(protocol);
+    }
+
+    /**
+     * Reads an enum field with the standard enum codec, which is a direct call rather than a call
+     * through the ThriftCodec interface.
+     */
+    public <T extends Enum<T>> T readEnumField(EnumThriftCodec<T> enumCodec)
+            throws Exception
+    {
+        if (!checkReadState(TType.I32)) {
+            return null;
+        }
+        hasCurrentField = false;
         return enumCodec.read(protocol);
     }
 
+    public int[] readI32ArrayField()
+            throws TException
+    {
+        if (!checkReadState(TType.LIST)) {
+            return null;
+        }
+        hasCurrentField = false;
+        return readI32Array();
+    }
+
+    public long[] readI64ArrayField()
+            throws TException
+    {
+        if (!checkReadState(TType.LIST)) {
+            return null;
+        }
+        hasCurrentField = false;
+        return readI64Array();
+    }
+
+    public double[] readDoubleArrayField()
+            throws TException
+    {
+        if (!checkReadState(TType.LIST)) {
+            return null;
+        }
+        hasCurrentField = false;
+        return readDoubleArray();
+    }
+
     public ByteBuffer readBinary()
             throws TException
     {
@@ -299,9 +354,9 @@ public class TProtocolReader
     public <E> Set<E> readSet(ThriftCodec<E> elementCodec)
             throws Exception
     {
-        TSet tSet = protocol.readSetBegin();
+        int size = readSetBegin();
         Set<E> set = new HashSet<>();
-        for (int i = 0; i < tSet.size; i++) {
+        for (int i = 0; i < size; i++) {
             E element = elementCodec.read(protocol);
             set.add(element);
         }
@@ -312,9 +367,9 @@ public class TProtocolReader
     public <E> List<E> readList(ThriftCodec<E> elementCodec)
             throws Exception
     {
-        TList tList = protocol.readListBegin();
+        int size = readListBegin();
         List<E> list = new ArrayList<>();
-        for (int i = 0; i < tList.size; i++) {
+        for (int i = 0; i < size; i++) {
             E element = elementCodec.read(protocol);
             list.add(element);
         }
@@ -322,14 +377,47 @@ public class TProtocolReader
         return list;
     }
 
+    public int[] readI32Array()
+            throws TException
+    {
+        int[] array = new int[readListBegin()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = protocol.readI32();
+        }
+        protocol.readListEnd();
+        return array;
+    }
+
+    public long[] readI64Array()
+            throws TException
+    {
+        long[] array = new long[readListBegin()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = protocol.readI64();
+        }
+        protocol.readListEnd();
+        return array;
+    }
+
+    public double[] readDoubleArray()
+            throws TException
+    {
+        double[] array = new double[readListBegin()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = protocol.readDouble();
+        }
+        protocol.readListEnd();
+        return array;
+    }
+
 
     public <K, V> Map<K, V> readMap(ThriftCodec<K> keyCodec, ThriftCodec<V> valueCodec)
             throws Exception
     {
 
-        TMap tMap = protocol.readMapBegin();
+        int size = readMapBegin();
         Map<K, V> map = new HashMap<>();
-        for (int i = 0; i < tMap.size; i++) {
+        for (int i = 0; i < size; i++) {
             K key = keyCodec.read(protocol);
             V value = valueCodec.read(protocol);
             map.put(key, value);
@@ -341,24 +429,134 @@ public class TProtocolReader
     private boolean checkReadState(byte expectedType)
             throws TException
     {
-        checkState(currentField != null, "No current field");
+        checkState(hasCurrentField, "No current field");
 
-        if (currentField.type != expectedType) {
-            TProtocolUtil.skip(protocol, currentField.type);
+        if (currentFieldType != expectedType) {
+            skip(currentFieldType);
             protocol.readFieldEnd();
-            currentField = null;
+            hasCurrentField = false;
             return false;
         }
 
         return true;
     }
 
+    private int readListBegin()
+            throws TException
+    {
+        if (directProtocol != null) {
+            return directProtocol.readListHeader();
+        }
+        return protocol.readListBegin().size;
+    }
+
+    private int readSetBegin()
+            throws TException
+    {
+        if (directProtocol != null) {
+            return directProtocol.readSetHeader();
+        }
+        return protocol.readSetBegin().size;
+    }
+
+    private int readMapBegin()
+            throws TException
+    {
+        if (directProtocol != null) {
+            return directProtocol.readMapHeader();
+        }
+        return protocol.readMapBegin().size;
+    }
+
+    /**
+     * Skips a value of the specified type.  This is {@link TProtocolUtil#skip} using the header
+     * methods of {@link TDirectProtocol} when they are available.
+     */
+    private void skip(byte type)
+            throws TException
+    {
+        if (directProtocol == null) {
+            TProtocolUtil.skip(protocol, type);
+            return;
+        }
+
+        switch (type) {
+            case TType.BOOL:
+                protocol.readBool();
+                break;
+            case TType.BYTE:
+                protocol.readByte();
+                break;
+            case TType.I16:
+                protocol.readI16();
+                break;
+            case TType.I32:
+                protocol.readI32();
+                break;
+            case TType.I64:
+                protocol.readI64();
+                break;
+            case TType.DOUBLE:
+                protocol.readDouble();
+                break;
+            case TType.STRING:
+                protocol.readBinary();
+                break;
+            case TType.STRUCT: {
+                protocol.readStructBegin();
+                while (true) {
+                    byte fieldType = directProtocol.readFieldHeader();
+                    if (fieldType == TType.STOP) {
+                        break;
+                    }
+                    skip(fieldType);
+                    protocol.readFieldEnd();
+                }
+                protocol.readStructEnd();
+                break;
+            }
+            case TType.MAP: {
+                int size = directProtocol.readMapHeader();
+                byte keyType = directProtocol.getLastKeyType();
+                byte valueType = directProtocol.getLastElementType();
+                for (int i = 0; i < size; i++) {
+                    skip(keyType);
+                    skip(valueType);
+                }
+                protocol.readMapEnd();
+                break;
+            }
+            case TType.SET: {
+                int size = directProtocol.readSetHeader();
+                byte elementType = directProtocol.getLastElementType();
+                for (int i = 0; i < size; i++) {
+                    skip(elementType);
+                }
+                protocol.readSetEnd();
+                break;
+            }
+            case TType.LIST: {
+                int size = directProtocol.readListHeader();
+                byte elementType = directProtocol.getLastElementType();
+                for (int i = 0; i < size; i++) {
+                    skip(elementType);
+                }
+                protocol.readListEnd();
+                break;
+            }
+            default:
+                break;
+        }
+    }
+
     @Override
     public String toString()
     {
         final StringBuilder sb = new StringBuilder();
         sb.append("TProtocolReader");
-        sb.append("{currentField=").append(currentField);
+        sb.append("{hasCurrentField=").append(hasCurrentField);
+        sb.append(", currentFieldType=").append(currentFieldType);
+        sb.append(", currentFieldId=").append(currentFieldId);
         sb.append('}');
         return sb.toString();
     }
@@ -35,16 +35,23 @@ import java.util.Set;
 public class TProtocolWriter
 {
     private final TProtocol protocol;
+    private final TDirectProtocol directProtocol;
 
     public TProtocolWriter(TProtocol protocol)
     {
         this.protocol = protocol;
+        this.directProtocol = (protocol instanceof TDirectProtocol) ? (TDirectProtocol) protocol : null;
     }
 
     public void writeStructBegin(String name)
             throws TException
     {
-        protocol.writeStructBegin(new TStruct(name));
+        if (directProtocol != null) {
+            directProtocol.writeStructHeader();
+        }
+        else {
+            protocol.writeStructBegin(new TStruct(name));
+        }
     }
 
     public void writeStructEnd()
@@ -61,7 +68,7 @@ public class TProtocolWriter
             return;
         }
 
-        protocol.writeFieldBegin(new TField(name, codec.getType().getProtocolType().getType(), id));
+        writeFieldBegin(name, codec.getType().getProtocolType().getType(), id);
         codec.write(value, protocol);
         protocol.writeFieldEnd();
     }
@@ -72,7 +79,7 @@ public class TProtocolWriter
         if (buf == null) {
             return;
         }
-        protocol.writeFieldBegin(new TField(name, TType.STRING, id));
+        writeFieldBegin(name, TType.STRING, id);
         protocol.writeBinary(buf);
         protocol.writeFieldEnd();
     }
@@ -80,7 +87,7 @@ public class TProtocolWriter
     public void writeBoolField(String name, short id, boolean b)
             throws TException
     {
-        protocol.writeFieldBegin(new TField(name, TType.BOOL, id));
+        writeFieldBegin(name, TType.BOOL, id);
         protocol.writeBool(b);
         protocol.writeFieldEnd();
     }
@@ -88,7 +95,7 @@ public class TProtocolWriter
     public void writeByteField(String name, short id, byte b)
             throws TException
     {
-        protocol.writeFieldBegin(new TField(name, TType.BYTE, id));
+        writeFieldBegin(name, TType.BYTE, id);
         protocol.writeByte(b);
         protocol.writeFieldEnd();
     }
@@ -96,7 +103,7 @@ public class TProtocolWriter
     public void writeDoubleField(String name, short id, double dub)
             throws TException
     {
-        protocol.writeFieldBegin(new TField(name, TType.DOUBLE, id));
+        writeFieldBegin(name, TType.DOUBLE, id);
         protocol.writeDouble(dub);
         protocol.writeFieldEnd();
     }
@@ -104,7 +111,7 @@ public class TProtocolWriter
     public void writeI16Field(String name, short id, short i16)
             throws TException
     {
-        protocol.writeFieldBegin(new TField(name, TType.I16, id));
+        writeFieldBegin(name, TType.I16, id);
         protocol.writeI16(i16);
         protocol.writeFieldEnd();
     }
@@ -112,7 +119,7 @@ public class TProtocolWriter
     public void writeI32Field(String name, short id, int i32)
             throws TException
     {
-        protocol.writeFieldBegin(new TField(name, TType.I32, id));
+        writeFieldBegin(name, TType.I32, id);
         protocol.writeI32(i32);
         protocol.writeFieldEnd();
     }
@@ -120,7 +127,7 @@ public class TProtocolWriter
     public void writeI64Field(String name, short id, long i64)
             throws TException
     {
-        protocol.writeFieldBegin(new TField(name, TType.I64, id));
+        writeFieldBegin(name, TType.I64, id);
         protocol.writeI64(i64);
         protocol.writeFieldEnd();
     }
@@ -132,7 +139,7 @@ public class TProtocolWriter
             return;
         }
 
-        protocol.writeFieldBegin(new TField(name, TType.STRING, id));
+        writeFieldBegin(name, TType.STRING, id);
         protocol.writeString(string);
         protocol.writeFieldEnd();
     }
@@ -144,7 +151,7 @@ public class TProtocolWriter
             return;
         }
 
-        protocol.writeFieldBegin(new TField(name, TType.STRUCT, id));
+        writeFieldBegin(name, TType.STRUCT, id);
         codec.write(struct, protocol);
         protocol.writeFieldEnd();
     }
@@ -156,7 +163,7 @@ public class TProtocolWriter
             return;
         }
 
-        protocol.writeFieldBegin(new TField(name, TType.SET, id));
+        writeFieldBegin(name, TType.SET, id);
         codec.write(set, protocol);
         protocol.writeFieldEnd();
     }
@@ -168,7 +175,7 @@ public class TProtocolWriter
             return;
         }
 
-        protocol.writeFieldBegin(new TField(name, TType.LIST, id));
+        writeFieldBegin(name, TType.LIST, id);
         codec.write(list, protocol);
         protocol.writeFieldEnd();
     }
@@ -180,7 +187,7 @@ public class TProtocolWriter
             return;
         }
 
-        protocol.writeFieldBegin(new TField(name, TType.MAP, id));
+        writeFieldBegin(name, TType.MAP, id);
         codec.write(map, protocol);
         protocol.writeFieldEnd();
     }
@@ -193,11 +200,63 @@ public class TProtocolWriter
             return;
         }
 
-        protocol.writeFieldBegin(new TField(name, TType.I32, id));
+        writeFieldBegin(name, TType.I32, id);
+        codec.write(enumValue, protocol);
+        protocol.writeFieldEnd();
+    }
+
+    /**
+     * Writes an enum field with the standard enum codec, which is a direct call rather than a call
+     * through the ThriftCodec interface.
+     */
+    public <T extends Enum<T>> void writeEnumField(String name, short id, EnumThriftCodec<T> codec, T enumValue)
+            throws Exception
+    {
+        if (enumValue == null) {
+            return;
+        }
+
+        writeFieldBegin(name, TType.I32, id);
         codec.write(enumValue, protocol);
         protocol.writeFieldEnd();
     }
 
+    public void writeI32ArrayField(String name, short id, int[] array)
+            throws TException
+    {
+        if (array == null) {
+            return;
+        }
+
+        writeFieldBegin(name, TType.LIST, id);
+        writeI32Array(array);
+        protocol.writeFieldEnd();
+    }
+
+    public void writeI64ArrayField(String name, short id, long[] array)
+            throws TException
+    {
+        if (array == null) {
+            return;
+        }
+
+        writeFieldBegin(name, TType.LIST, id);
+        writeI64Array(array);
+        protocol.writeFieldEnd();
+    }
+
+    public void writeDoubleArrayField(String name, short id, double[] array)
+            throws TException
+    {
+        if (array == null) {
+            return;
+        }
+
+        writeFieldBegin(name, TType.LIST, id);
+        writeDoubleArray(array);
+        protocol.writeFieldEnd();
+    }
+
     public void writeBinary(ByteBuffer buf)
             throws TException
     {
@@ -259,7 +318,7 @@ public class TProtocolWriter
             return;
         }
 
-        protocol.writeSetBegin(new TSet(elementCodec.getType().getProtocolType().getType(), set.size()));
+        writeSetBegin(elementCodec.getType().getProtocolType().getType(), set.size());
 
         for (T element : set) {
             elementCodec.write(element, protocol);
@@ -275,7 +334,7 @@ public class TProtocolWriter
             return;
         }
 
-        protocol.writeListBegin(new TList(elementCodec.getType().getProtocolType().getType(), list.size()));
+        writeListBegin(elementCodec.getType().getProtocolType().getType(), list.size());
 
         for (T element : list) {
             elementCodec.write(element, protocol);
@@ -284,6 +343,54 @@ public class TProtocolWriter
         protocol.writeListEnd();
     }
 
+    public void writeI32Array(int[] array)
+            throws TException
+    {
+        if (array == null) {
+            return;
+        }
+
+        writeListBegin(TType.I32, array.length);
+
+        for (int element : array) {
+            protocol.writeI32(element);
+        }
+
+        protocol.writeListEnd();
+    }
+
+    public void writeI64Array(long[] array)
+            throws TException
+    {
+        if (array == null) {
+            return;
+        }
+
+        writeListBegin(TType.I64, array.length);
+
+        for (long element : array) {
+            protocol.writeI64(element);
+        }
+
+        protocol.writeListEnd();
+    }
+
+    public void writeDoubleArray(double[] array)
+            throws TException
+    {
+        if (array == null) {
+            return;
+        }
+
+        writeListBegin(TType.DOUBLE, array.length);
+
+        for (double element : array) {
+            protocol.writeDouble(element);
+        }
+
+        protocol.writeListEnd();
+    }
+
     public <K, V> void writeMap(ThriftCodec<K> keyCodec, ThriftCodec<V> valueCodec, Map<K, V> map)
             throws Exception
     {
@@ -292,7 +399,7 @@ public class TProtocolWriter
             return;
         }
 
-        protocol.writeMapBegin(new TMap(keyCodec.getType().getProtocolType().getType(), valueCodec.getType().getProtocolType().getType(), map.size()));
+        writeMapBegin(keyCodec.getType().getProtocolType().getType(), valueCodec.getType().getProtocolType().getType(), map.size());
 
         for (Map.Entry<K, V> entry : map.entrySet()) {
             keyCodec.write(entry.getKey(), protocol);
@@ -301,4 +408,48 @@ public class TProtocolWriter
 
         protocol.writeMapEnd();
     }
+
+    private void writeFieldBegin(String name, byte type, short id)
+            throws TException
+    {
+        if (directProtocol != null) {
+            directProtocol.writeFieldHeader(type, id);
+        }
+        else {
+            protocol.writeFieldBegin(new TField(name, type, id));
+        }
+    }
+
+    private void writeListBegin(byte elementType, int size)
+            throws TException
+    {
+        if (directProtocol != null) {
+            directProtocol.writeListHeader(elementType, size);
+        }
+        else {
+            protocol.writeListBegin(new TList(elementType, size));
+        }
+    }
+
+    private void writeSetBegin(byte elementType, int size)
+            throws TException
+    {
+        if (directProtocol != null) {
+            directProtocol.writeSetHeader(elementType, size);
+        }
+        else {
+            protocol.writeSetBegin(new TSet(elementType, size));
+        }
+    }
+
+    private void writeMapBegin(byte keyType, byte valueType, int size)
+            throws TException
+    {
+        if (directProtocol != null) {
+            directProtocol.writeMapHeader(keyType, valueType, size);
+        }
+        else {
+            protocol.writeMapBegin(new TMap(keyType, valueType, size));
+        }
+    }
 }
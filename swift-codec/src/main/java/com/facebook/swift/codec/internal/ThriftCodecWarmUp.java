@@ -0,0 +1,356 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.facebook.swift.codec.internal;
+
+import com.facebook.swift.codec.ThriftCodec;
+import com.facebook.swift.codec.ThriftCodecManager;
+import com.facebook.swift.codec.metadata.ThriftEnumMetadata;
+import com.facebook.swift.codec.metadata.ThriftFieldMetadata;
+import com.facebook.swift.codec.metadata.ThriftStructMetadata;
+import com.facebook.swift.codec.metadata.ThriftType;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.collect.Iterables;
+import org.apache.thrift.TException;
+import org.apache.thrift.protocol.TField;
+import org.apache.thrift.protocol.TList;
+import org.apache.thrift.protocol.TMap;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.protocol.TProtocolFactory;
+import org.apache.thrift.protocol.TSet;
+import org.apache.thrift.protocol.TStruct;
+import org.apache.thrift.transport.TMemoryBuffer;
+import org.apache.thrift.transport.TMemoryInputTransport;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import javax.annotation.concurrent.Immutable;
+
+import static com.facebook.swift.codec.ThriftProtocolType.STRUCT;
+
+/**
+ * Generates the codecs for a graph of Thrift types ahead of the first request.  The struct codecs
+ * are generated in parallel on a fork-join pool, one level of the graph at a time starting with
+ * the structs that do not contain other structs, so a codec is only generated once all the codecs
+ * it depends on exist.  The codecs can then be exercised with synthetic values, so the generated
+ * code is compiled by the JIT before the first real request arrives.
+ */
+@Immutable
+public class ThriftCodecWarmUp
+{
+    private static final byte[] EMPTY_BYTES = new byte[0];
+
+    private final ThriftCodecManager codecManager;
+    private final int parallelism;
+
+    public ThriftCodecWarmUp(ThriftCodecManager codecManager)
+    {
+        this(codecManager, Runtime.getRuntime().availableProcessors());
+    }
+
+    public ThriftCodecWarmUp(ThriftCodecManager codecManager, int parallelism)
+    {
+        Preconditions.checkNotNull(codecManager, "codecManager is null");
+        Preconditions.checkArgument(parallelism > 0, "parallelism must be positive");
+
+        this.codecManager = codecManager;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Generates the codecs for the specified types and all the types reachable from them, and
+     * then reads and writes a synthetic value of each struct type the specified number of times
+     * with both the binary and the compact protocol.
+     */
+    public void warmUp(Iterable<ThriftType> types, int iterations)
+    {
+        Preconditions.checkNotNull(types, "types is null");
+        Preconditions.checkArgument(iterations >= 0, "iterations is negative");
+
+        Set<ThriftType> allTypes = new LinkedHashSet<>();
+        for (ThriftType type : types) {
+            collectTypes(type, allTypes);
+        }
+
+        // group the structs by the depth of the structs they contain
+        Map<ThriftType, Integer> depths = new HashMap<>();
+        List<List<ThriftType>> levels = new ArrayList<>();
+        for (ThriftType type : allTypes) {
+            if (isStruct(type)) {
+                int depth = getDepth(type, depths);
+                while (levels.size() <= depth) {
+                    levels.add(new ArrayList<ThriftType>());
+                }
+                levels.get(depth).add(type);
+            }
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            for (List<ThriftType> level : levels) {
+                List<Callable<Void>> tasks = new ArrayList<>();
+                for (ThriftType type : level) {
+                    tasks.add(new GenerateCodecTask(type));
+                }
+                invokeAll(pool, tasks);
+            }
+
+            // the remaining container and enum codecs are cheap to create
+            for (ThriftType type : allTypes) {
+                codecManager.getCodec(type);
+            }
+
+            if (iterations > 0) {
+                List<Callable<Void>> tasks = new ArrayList<>();
+                for (List<ThriftType> level : levels) {
+                    for (ThriftType type : level) {
+                        tasks.add(new ExerciseCodecTask(type, iterations));
+                    }
+                }
+                invokeAll(pool, tasks);
+            }
+        }
+        finally {
+            pool.shutdown();
+        }
+    }
+
+    private static void invokeAll(ForkJoinPool pool, List<Callable<Void>> tasks)
+    {
+        for (Future<Void> future : pool.invokeAll(tasks)) {
+            try {
+                future.get();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw Throwables.propagate(e);
+            }
+            catch (ExecutionException e) {
+                throw Throwables.propagate(e.getCause());
+            }
+        }
+    }
+
+    private static void collectTypes(ThriftType type, Set<ThriftType> types)
+    {
+        if (!types.add(type)) {
+            return;
+        }
+
+        if (type.isLazy()) {
+            collectTypes(type.getValueType(), types);
+            return;
+        }
+        switch (type.getProtocolType()) {
+            case STRUCT:
+                if (isStruct(type)) {
+                    for (ThriftFieldMetadata field : type.getStructMetadata().getFields()) {
+                        collectTypes(field.getType(), types);
+                    }
+                }
+                break;
+            case MAP:
+                collectTypes(type.getKeyType(), types);
+                collectTypes(type.getValueType(), types);
+                break;
+            case SET:
+            case LIST:
+                collectTypes(type.getValueType(), types);
+                break;
+            default:
+                break;
+        }
+    }
+
+    private static int getDepth(ThriftType type, Map<ThriftType, Integer> depths)
+    {
+        Integer depth = depths.get(type);
+        if (depth != null) {
+            return depth;
+        }
+
+        // recursive structs are not supported by the codecs, so just break the cycle here
+        depths.put(type, 0);
+
+        int maxDepth = -1;
+        Set<ThriftType> containedTypes = new LinkedHashSet<>();
+        for (ThriftFieldMetadata field : type.getStructMetadata().getFields()) {
+            collectTypes(field.getType(), containedTypes);
+        }
+        for (ThriftType containedType : containedTypes) {
+            if (isStruct(containedType)) {
+                maxDepth = Math.max(maxDepth, getDepth(containedType, depths));
+            }
+        }
+
+        depths.put(type, maxDepth + 1);
+        return maxDepth + 1;
+    }
+
+    private static boolean isStruct(ThriftType type)
+    {
+        return !type.isLazy() && type.getProtocolType() == STRUCT && type.getJavaType() != void.class;
+    }
+
+    /**
+     * Writes a value of the specified type with every field set to the zero value of its type and
+     * every collection empty.
+     */
+    private static void writeSyntheticValue(ThriftType type, TProtocol protocol)
+            throws TException
+    {
+        if (type.isLazy()) {
+            writeSyntheticValue(type.getValueType(), protocol);
+            return;
+        }
+
+        switch (type.getProtocolType()) {
+            case BOOL:
+                protocol.writeBool(false);
+                break;
+            case BYTE:
+                protocol.writeByte((byte) 0);
+                break;
+            case DOUBLE:
+                protocol.writeDouble(0);
+                break;
+            case I16:
+                protocol.writeI16((short) 0);
+                break;
+            case I32:
+                protocol.writeI32(0);
+                break;
+            case I64:
+                protocol.writeI64(0);
+                break;
+            case ENUM:
+                protocol.writeI32(getSyntheticEnumValue(type.getEnumMetadata()));
+                break;
+            case STRING:
+                protocol.writeBinary(ByteBuffer.wrap(EMPTY_BYTES));
+                break;
+            case STRUCT: {
+                ThriftStructMetadata<?> metadata = type.getStructMetadata();
+                protocol.writeStructBegin(new TStruct(metadata.getStructName()));
+                for (ThriftFieldMetadata field : metadata.getFields()) {
+                    ThriftType fieldType = field.getType().isLazy() ? field.getType().getValueType() : field.getType();
+                    protocol.writeFieldBegin(new TField(field.getName(), fieldType.getProtocolType().getType(), field.getId()));
+                    writeSyntheticValue(fieldType, protocol);
+                    protocol.writeFieldEnd();
+                }
+                protocol.writeFieldStop();
+                protocol.writeStructEnd();
+                break;
+            }
+            case MAP:
+                protocol.writeMapBegin(new TMap(type.getKeyType().getProtocolType().getType(), type.getValueType().getProtocolType().getType(), 0));
+                protocol.writeMapEnd();
+                break;
+            case SET:
+                protocol.writeSetBegin(new TSet(type.getValueType().getProtocolType().getType(), 0));
+                protocol.writeSetEnd();
+                break;
+            case LIST:
+                protocol.writeListBegin(new TList(type.getValueType().getProtocolType().getType(), 0));
+                protocol.writeListEnd();
+                break;
+            default:
+                throw new IllegalArgumentException("Unsupported Thrift type " + type);
+        }
+    }
+
+    private static int getSyntheticEnumValue(ThriftEnumMetadata<?> enumMetadata)
+    {
+        if (enumMetadata.hasExplicitThriftValue()) {
+            return Iterables.getFirst(enumMetadata.getByEnumValue().keySet(), 0);
+        }
+        return 0;
+    }
+
+    private class GenerateCodecTask
+            implements Callable<Void>
+    {
+        private final ThriftType type;
+
+        private GenerateCodecTask(ThriftType type)
+        {
+            this.type = type;
+        }
+
+        @Override
+        public Void call()
+        {
+            codecManager.getCodec(type);
+            return null;
+        }
+    }
+
+    private class ExerciseCodecTask
+            implements Callable<Void>
+    {
+        private final ThriftType type;
+        private final int iterations;
+
+        private ExerciseCodecTask(ThriftType type, int iterations)
+        {
+            this.type = type;
+            this.iterations = iterations;
+        }
+
+        @Override
+        public Void call()
+                throws Exception
+        {
+            @SuppressWarnings("unchecked")
+            ThriftCodec<Object> codec = (ThriftCodec<Object>) codecManager.getCodec(type);
+
+            TMemoryBuffer binaryBuffer = new TMemoryBuffer(64);
+            writeSyntheticValue(type, new TDirectBinaryProtocol(binaryBuffer));
+            TMemoryBuffer compactBuffer = new TMemoryBuffer(64);
+            writeSyntheticValue(type, new TDirectCompactProtocol(compactBuffer));
+
+            exercise(codec, binaryBuffer, new TDirectBinaryProtocol.Factory());
+            exercise(codec, compactBuffer, new TDirectCompactProtocol.Factory());
+            return null;
+        }
+
+        private void exercise(ThriftCodec<Object> codec, TMemoryBuffer encoded, TProtocolFactory protocolFactory)
+                throws Exception
+        {
+            byte[] bytes = encoded.getArray();
+            int length = encoded.length();
+
+            TMemoryInputTransport input = new TMemoryInputTransport();
+            TProtocol inputProtocol = protocolFactory.getProtocol(input);
+
+            for (int i = 0; i < iterations; i++) {
+                input.reset(bytes, 0, length);
+                Object value = codec.read(inputProtocol);
+                codec.write(value, protocolFactory.getProtocol(new TMemoryBuffer(length)));
+            }
+        }
+    }
+}
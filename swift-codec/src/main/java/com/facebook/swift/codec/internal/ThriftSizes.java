@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.facebook.swift.codec.internal;
+
+import com.facebook.swift.codec.ThriftCodec;
+import com.facebook.swift.codec.ThriftSizedCodec;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Encoded sizes of Thrift values in the binary protocol, which are used by the generated
+ * {@link ThriftSizedCodec#sizeOf} methods.  The field sizes include the field header.
+ */
+public final class ThriftSizes
+{
+    public static final int FIELD_HEADER_SIZE = 3;
+    public static final int FIELD_STOP_SIZE = 1;
+    public static final int LIST_HEADER_SIZE = 5;
+    public static final int SET_HEADER_SIZE = 5;
+    public static final int MAP_HEADER_SIZE = 6;
+    public static final int BINARY_HEADER_SIZE = 4;
+
+    private ThriftSizes()
+    {
+    }
+
+    /**
+     * Gets the encoded size of the value, or zero when the codec cannot compute sizes or the
+     * value is null, which the codec will reject when it is written.
+     */
+    @SuppressWarnings("unchecked")
+    public static int sizeOf(ThriftCodec<?> codec, Object value)
+            throws Exception
+    {
+        if (value != null && codec instanceof ThriftSizedCodec) {
+            return ((ThriftSizedCodec<Object>) codec).sizeOf(value);
+        }
+        return 0;
+    }
+
+    public static int sizeOf(String value)
+    {
+        return BINARY_HEADER_SIZE + getUtf8Length(value);
+    }
+
+    public static int sizeOf(ByteBuffer value)
+    {
+        return BINARY_HEADER_SIZE + value.remaining();
+    }
+
+    public static int fieldSize(ThriftCodec<?> codec, Object value)
+            throws Exception
+    {
+        return FIELD_HEADER_SIZE + sizeOf(codec, value);
+    }
+
+    public static int fieldSize(boolean value)
+    {
+        return FIELD_HEADER_SIZE + 1;
+    }
+
+    public static int fieldSize(byte value)
+    {
+        return FIELD_HEADER_SIZE + 1;
+    }
+
+    public static int fieldSize(short value)
+    {
+        return FIELD_HEADER_SIZE + 2;
+    }
+
+    public static int fieldSize(int value)
+    {
+        return FIELD_HEADER_SIZE + 4;
+    }
+
+    public static int fieldSize(long value)
+    {
+        return FIELD_HEADER_SIZE + 8;
+    }
+
+    public static int fieldSize(double value)
+    {
+        return FIELD_HEADER_SIZE + 8;
+    }
+
+    public static int fieldSize(String value)
+    {
+        return FIELD_HEADER_SIZE + sizeOf(value);
+    }
+
+    public static int fieldSize(ByteBuffer value)
+    {
+        return FIELD_HEADER_SIZE + sizeOf(value);
+    }
+
+    public static int fieldSize(int[] value)
+    {
+        return FIELD_HEADER_SIZE + LIST_HEADER_SIZE + 4 * value.length;
+    }
+
+    public static int fieldSize(long[] value)
+    {
+        return FIELD_HEADER_SIZE + LIST_HEADER_SIZE + 8 * value.length;
+    }
+
+    public static int fieldSize(double[] value)
+    {
+        return FIELD_HEADER_SIZE + LIST_HEADER_SIZE + 8 * value.length;
+    }
+
+    /**
+     * Gets the number of bytes of the UTF-8 encoding of the value, matching the encoding of
+     * {@link String#getBytes(java.nio.charset.Charset)}.
+     */
+    public static int getUtf8Length(String value)
+    {
+        int length = value.length();
+        int utf8Length = length;
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c >= 0x80) {
+                if (c < 0x800) {
+                    utf8Length += 1;
+                }
+                else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                    // the pair is encoded in four bytes
+                    utf8Length += 2;
+                    i++;
+                }
+                else if (!Character.isSurrogate(c)) {
+                    utf8Length += 2;
+                }
+                // unpaired surrogates are encoded as a single '?'
+            }
+        }
+        return utf8Length;
+    }
+}
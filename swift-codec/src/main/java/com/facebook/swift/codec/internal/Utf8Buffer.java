@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.facebook.swift.codec.internal;
+
+import org.apache.thrift.TException;
+import org.apache.thrift.transport.TTransport;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+import static com.google.common.base.Charsets.UTF_8;
+
+/**
+ * Encodes and decodes UTF-8 strings for a protocol.  Strings are encoded into a reusable buffer
+ * and decoded directly from the transport buffer when the transport exposes one, and ASCII
+ * strings, which are the common case, skip the charset machinery entirely.  The encoding is
+ * identical to {@link String#getBytes(java.nio.charset.Charset)}.
+ */
+@NotThreadSafe
+final class Utf8Buffer
+{
+    private static final int INITIAL_BUFFER_SIZE = 256;
+
+    // a buffer grown past this size is released by the next smaller string, so one huge string
+    // does not pin a huge buffer for the lifetime of the protocol
+    private static final int MAX_RETAINED_BUFFER_SIZE = 64 * 1024;
+
+    private byte[] buffer = new byte[INITIAL_BUFFER_SIZE];
+
+    /**
+     * Encodes the value into the buffer returned by {@link #getBuffer} and returns the length of
+     * the encoded value.
+     */
+    public int encode(String value)
+    {
+        // a char never takes more than three bytes, since surrogate pairs take four bytes for two chars
+        byte[] bytes = ensureCapacity(value.length() * 3);
+
+        int length = value.length();
+        int position = 0;
+        int index = 0;
+
+        // ASCII fast path
+        while (index < length) {
+            char c = value.charAt(index);
+            if (c >= 0x80) {
+                break;
+            }
+            bytes[position++] = (byte) c;
+            index++;
+        }
+
+        while (index < length) {
+            char c = value.charAt(index++);
+            if (c < 0x80) {
+                bytes[position++] = (byte) c;
+            }
+            else if (c < 0x800) {
+                bytes[position++] = (byte) (0xc0 | (c >> 6));
+                bytes[position++] = (byte) (0x80 | (c & 0x3f));
+            }
+            else if (Character.isSurrogate(c)) {
+                if (Character.isHighSurrogate(c) && index < length && Character.isLowSurrogate(value.charAt(index))) {
+                    int codePoint = Character.toCodePoint(c, value.charAt(index++));
+                    bytes[position++] = (byte) (0xf0 | (codePoint >> 18));
+                    bytes[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+                    bytes[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+                    bytes[position++] = (byte) (0x80 | (codePoint & 0x3f));
+                }
+                else {
+                    // unpaired surrogates are replaced the same way as String.getBytes does
+                    bytes[position++] = (byte) '?';
+                }
+            }
+            else {
+                bytes[position++] = (byte) (0xe0 | (c >> 12));
+                bytes[position++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                bytes[position++] = (byte) (0x80 | (c & 0x3f));
+            }
+        }
+        return position;
+    }
+
+    public byte[] getBuffer()
+    {
+        return buffer;
+    }
+
+    /**
+     * Reads a string of the specified encoded length from the transport.
+     */
+    public String read(TTransport transport, int length)
+            throws TException
+    {
+        if (length == 0) {
+            return "";
+        }
+        if (transport.getBytesRemainingInBuffer() >= length) {
+            String value = decode(transport.getBuffer(), transport.getBufferPosition(), length);
+            transport.consumeBuffer(length);
+            return value;
+        }
+
+        byte[] bytes = ensureCapacity(length);
+        transport.readAll(bytes, 0, length);
+        return decode(bytes, 0, length);
+    }
+
+    private byte[] ensureCapacity(int size)
+    {
+        if (buffer.length < size || (buffer.length > MAX_RETAINED_BUFFER_SIZE && size <= MAX_RETAINED_BUFFER_SIZE)) {
+            buffer = new byte[Math.max(size, INITIAL_BUFFER_SIZE)];
+        }
+        return buffer;
+    }
+
+    @SuppressWarnings("deprecation")
+    private static String decode(byte[] bytes, int offset, int length)
+    {
+        for (int i = offset; i < offset + length; i++) {
+            if (bytes[i] < 0) {
+                return new String(bytes, offset, length, UTF_8);
+            }
+        }
+        // every byte is ASCII, so the deprecated constructor that copies the low bytes directly is exact
+        return new String(bytes, 0, offset, length);
+    }
+}
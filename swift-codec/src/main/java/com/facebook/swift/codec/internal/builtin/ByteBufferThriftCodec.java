@@ -15,7 +15,8 @@
  */
 package com.facebook.swift.codec.internal.builtin;
 
-import com.facebook.swift.codec.ThriftCodec;
+import com.facebook.swift.codec.ThriftSizedCodec;
+import com.facebook.swift.codec.internal.ThriftSizes;
 import com.facebook.swift.codec.metadata.ThriftType;
 import com.google.common.base.Preconditions;
 import org.apache.thrift.protocol.TProtocol;
@@ -24,7 +25,7 @@ import javax.annotation.concurrent.Immutable;
 import java.nio.ByteBuffer;
 
 @Immutable
-public class ByteBufferThriftCodec implements ThriftCodec<ByteBuffer>
+public class ByteBufferThriftCodec implements ThriftSizedCodec<ByteBuffer>
 {
     @Override
     public ThriftType getType()
@@ -48,4 +49,11 @@ public class ByteBufferThriftCodec implements ThriftCodec<ByteBuffer>
         Preconditions.checkNotNull(protocol, "protocol is null");
         protocol.writeBinary(value);
     }
+
+    @Override
+    public int sizeOf(ByteBuffer value)
+    {
+        Preconditions.checkNotNull(value, "value is null");
+        return ThriftSizes.sizeOf(value);
+    }
 }
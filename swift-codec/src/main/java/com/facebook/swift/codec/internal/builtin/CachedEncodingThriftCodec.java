@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.facebook.swift.codec.internal.builtin;
+
+import com.facebook.swift.codec.ThriftCodec;
+import com.facebook.swift.codec.ThriftSizedCodec;
+import com.facebook.swift.codec.internal.TDirectBinaryProtocol;
+import com.facebook.swift.codec.internal.ThriftSizes;
+import com.facebook.swift.codec.metadata.ThriftType;
+import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.protocol.TProtocolFactory;
+import org.apache.thrift.transport.TMemoryBuffer;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.Arrays;
+
+/**
+ * Codec for structs that cache their encoding (see
+ * {@link com.facebook.swift.codec.ThriftStruct#cacheEncoding}).  The first time an instance is
+ * written with the binary or compact encoding its bytes are cached, and later writes of the same
+ * instance with that encoding copy the cached bytes to the transport.  Instances are weakly
+ * referenced and compared by identity, so the cache never keeps a struct alive.
+ */
+@ThreadSafe
+public class CachedEncodingThriftCodec<T> implements ThriftSizedCodec<T>
+{
+    private static final int INITIAL_BUFFER_SIZE = 1024;
+
+    private final ThriftCodec<T> codec;
+    private final Cache<T, byte[]> binaryEncodings = CacheBuilder.newBuilder().weakKeys().build();
+    private final Cache<T, byte[]> compactEncodings = CacheBuilder.newBuilder().weakKeys().build();
+
+    public CachedEncodingThriftCodec(ThriftCodec<T> codec)
+    {
+        Preconditions.checkNotNull(codec, "codec is null");
+        Preconditions.checkArgument(codec.getType().getStructMetadata().isEncodingCached(), "struct does not cache its encoding");
+
+        this.codec = codec;
+    }
+
+    @Override
+    public ThriftType getType()
+    {
+        return codec.getType();
+    }
+
+    @Override
+    public T read(TProtocol protocol)
+            throws Exception
+    {
+        return codec.read(protocol);
+    }
+
+    @Override
+    public void write(T value, TProtocol protocol)
+            throws Exception
+    {
+        Preconditions.checkNotNull(value, "value is null");
+        Preconditions.checkNotNull(protocol, "protocol is null");
+
+        TProtocolFactory protocolFactory = LazyThriftCodec.getProtocolFactory(protocol);
+        if (protocolFactory == null) {
+            codec.write(value, protocol);
+            return;
+        }
+
+        Cache<T, byte[]> encodings = getEncodings(protocolFactory);
+        byte[] encoded = encodings.getIfPresent(value);
+        if (encoded == null) {
+            // concurrent writers may both encode the value, which is harmless since the bytes are equal
+            TMemoryBuffer buffer = new TMemoryBuffer(INITIAL_BUFFER_SIZE);
+            codec.write(value, protocolFactory.getProtocol(buffer));
+            encoded = Arrays.copyOf(buffer.getArray(), buffer.length());
+            encodings.put(value, encoded);
+        }
+        protocol.getTransport().write(encoded);
+    }
+
+    @Override
+    public int sizeOf(T value)
+            throws Exception
+    {
+        Preconditions.checkNotNull(value, "value is null");
+
+        byte[] encoded = binaryEncodings.getIfPresent(value);
+        if (encoded != null) {
+            return encoded.length;
+        }
+        return ThriftSizes.sizeOf(codec, value);
+    }
+
+    private Cache<T, byte[]> getEncodings(TProtocolFactory protocolFactory)
+    {
+        if (protocolFactory instanceof TDirectBinaryProtocol.Factory) {
+            return binaryEncodings;
+        }
+        return compactEncodings;
+    }
+}
@@ -15,7 +15,7 @@
  */
 package com.facebook.swift.codec.internal.builtin;
 
-import com.facebook.swift.codec.ThriftCodec;
+import com.facebook.swift.codec.ThriftSizedCodec;
 import com.facebook.swift.codec.metadata.ThriftType;
 import com.google.common.base.Preconditions;
 import org.apache.thrift.protocol.TProtocol;
@@ -23,7 +23,7 @@ import org.apache.thrift.protocol.TProtocol;
 import javax.annotation.concurrent.Immutable;
 
 @Immutable
-public class DoubleThriftCodec implements ThriftCodec<Double>
+public class DoubleThriftCodec implements ThriftSizedCodec<Double>
 {
     @Override
     public ThriftType getType()
@@ -47,4 +47,10 @@ public class DoubleThriftCodec implements ThriftCodec<Double>
         Preconditions.checkNotNull(protocol, "protocol is null");
         protocol.writeDouble(value);
     }
+
+    @Override
+    public int sizeOf(Double value)
+    {
+        return 8;
+    }
 }
@@ -15,7 +15,7 @@
  */
 package com.facebook.swift.codec.internal.builtin;
 
-import com.facebook.swift.codec.ThriftCodec;
+import com.facebook.swift.codec.ThriftSizedCodec;
 import com.facebook.swift.codec.metadata.ThriftType;
 import com.google.common.base.Preconditions;
 import org.apache.thrift.protocol.TProtocol;
@@ -23,7 +23,7 @@ import org.apache.thrift.protocol.TProtocol;
 import javax.annotation.concurrent.Immutable;
 
 @Immutable
-public class IntegerThriftCodec implements ThriftCodec<Integer>
+public class IntegerThriftCodec implements ThriftSizedCodec<Integer>
 {
     @Override
     public ThriftType getType()
@@ -47,4 +47,10 @@ public class IntegerThriftCodec implements ThriftCodec<Integer>
         Preconditions.checkNotNull(protocol, "protocol is null");
         protocol.writeI32(value);
     }
+
+    @Override
+    public int sizeOf(Integer value)
+    {
+        return 4;
+    }
 }
@@ -0,0 +1,200 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.facebook.swift.codec.internal.builtin;
+
+import com.facebook.swift.codec.LazyThriftValue;
+import com.facebook.swift.codec.ThriftCodec;
+import com.facebook.swift.codec.ThriftSizedCodec;
+import com.facebook.swift.codec.internal.TDirectBinaryProtocol;
+import com.facebook.swift.codec.internal.TDirectCompactProtocol;
+import com.facebook.swift.codec.internal.ThriftSizes;
+import com.facebook.swift.codec.metadata.ThriftType;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import org.apache.thrift.protocol.TBinaryProtocol;
+import org.apache.thrift.protocol.TCompactProtocol;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.protocol.TProtocolFactory;
+import org.apache.thrift.protocol.TProtocolUtil;
+import org.apache.thrift.transport.TMemoryInputTransport;
+import org.apache.thrift.transport.TTransport;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.Arrays;
+
+/**
+ * Codec for {@link LazyThriftValue} fields. When the transport exposes its buffer, reading skips
+ * over the value and keeps a copy of its encoded bytes, which are decoded on first access or
+ * copied verbatim when the untouched value is written with the same encoding.
+ */
+@Immutable
+public class LazyThriftCodec<T> implements ThriftSizedCodec<LazyThriftValue<T>>
+{
+    private static final TProtocolFactory BINARY_PROTOCOL_FACTORY = new TDirectBinaryProtocol.Factory();
+    private static final TProtocolFactory COMPACT_PROTOCOL_FACTORY = new TDirectCompactProtocol.Factory();
+
+    private final ThriftType type;
+    private final ThriftCodec<T> valueCodec;
+
+    public LazyThriftCodec(ThriftType type, ThriftCodec<T> valueCodec)
+    {
+        Preconditions.checkNotNull(type, "type is null");
+        Preconditions.checkNotNull(valueCodec, "valueCodec is null");
+        Preconditions.checkArgument(type.isLazy(), "type is not lazy");
+
+        this.type = type;
+        this.valueCodec = valueCodec;
+    }
+
+    @Override
+    public ThriftType getType()
+    {
+        return type;
+    }
+
+    @Override
+    public LazyThriftValue<T> read(TProtocol protocol)
+            throws Exception
+    {
+        Preconditions.checkNotNull(protocol, "protocol is null");
+
+        TProtocolFactory protocolFactory = getProtocolFactory(protocol);
+        TTransport transport = protocol.getTransport();
+        byte[] buffer = transport.getBuffer();
+        if (protocolFactory == null || buffer == null || transport.getBytesRemainingInBuffer() < 0) {
+            return LazyThriftValue.of(valueCodec.read(protocol));
+        }
+
+        int start = transport.getBufferPosition();
+        TProtocolUtil.skip(protocol, type.getProtocolType().getType());
+        if (transport.getBuffer() != buffer) {
+            throw new IllegalStateException("Transport replaced its buffer while skipping a lazy value");
+        }
+        byte[] encoded = Arrays.copyOfRange(buffer, start, transport.getBufferPosition());
+        return new EncodedValue<>(valueCodec, protocolFactory, encoded);
+    }
+
+    @Override
+    public void write(LazyThriftValue<T> value, TProtocol protocol)
+            throws Exception
+    {
+        Preconditions.checkNotNull(value, "value is null");
+        Preconditions.checkNotNull(protocol, "protocol is null");
+
+        if (value instanceof EncodedValue) {
+            byte[] encoded = ((EncodedValue<T>) value).getEncoded(getProtocolFactory(protocol));
+            if (encoded != null) {
+                protocol.getTransport().write(encoded);
+                return;
+            }
+        }
+        valueCodec.write(value.get(), protocol);
+    }
+
+    @Override
+    public int sizeOf(LazyThriftValue<T> value)
+            throws Exception
+    {
+        Preconditions.checkNotNull(value, "value is null");
+
+        // an untouched value is sized by its encoded bytes, so it is not decoded just to be sized
+        if (value instanceof EncodedValue) {
+            int encodedLength = ((EncodedValue<T>) value).getEncodedLength();
+            if (encodedLength >= 0) {
+                return encodedLength;
+            }
+        }
+        return ThriftSizes.sizeOf(valueCodec, value.get());
+    }
+
+    /**
+     * Gets the direct protocol factory with the same encoding as the protocol, or null if the
+     * encoding is not known.
+     */
+    static TProtocolFactory getProtocolFactory(TProtocol protocol)
+    {
+        if (protocol instanceof TBinaryProtocol) {
+            return BINARY_PROTOCOL_FACTORY;
+        }
+        if (protocol instanceof TCompactProtocol || protocol instanceof TDirectCompactProtocol) {
+            return COMPACT_PROTOCOL_FACTORY;
+        }
+        return null;
+    }
+
+    @ThreadSafe
+    private static class EncodedValue<T> extends LazyThriftValue<T>
+    {
+        private final ThriftCodec<T> codec;
+        private final TProtocolFactory protocolFactory;
+
+        @GuardedBy("this")
+        private byte[] encoded;
+        @GuardedBy("this")
+        private T value;
+
+        private EncodedValue(ThriftCodec<T> codec, TProtocolFactory protocolFactory, byte[] encoded)
+        {
+            this.codec = codec;
+            this.protocolFactory = protocolFactory;
+            this.encoded = encoded;
+        }
+
+        @Override
+        public synchronized T get()
+        {
+            if (encoded != null) {
+                try {
+                    value = codec.read(protocolFactory.getProtocol(new TMemoryInputTransport(encoded)));
+                }
+                catch (Exception e) {
+                    throw Throwables.propagate(e);
+                }
+                // once decoded the value may be modified, so the encoded form is stale
+                encoded = null;
+            }
+            return value;
+        }
+
+        @Override
+        public synchronized boolean isDecoded()
+        {
+            return encoded == null;
+        }
+
+        /**
+         * Returns the length of the encoded value if it has not been decoded; otherwise -1.
+         */
+        private synchronized int getEncodedLength()
+        {
+            return encoded == null ? -1 : encoded.length;
+        }
+
+        /**
+         * Returns the encoded value if it has not been decoded and was read with the specified
+         * encoding; otherwise null.
+         */
+        private synchronized byte[] getEncoded(TProtocolFactory protocolFactory)
+        {
+            if (this.protocolFactory != protocolFactory) {
+                return null;
+            }
+            return encoded;
+        }
+    }
+}
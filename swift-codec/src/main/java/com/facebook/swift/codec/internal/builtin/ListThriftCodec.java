@@ -16,8 +16,10 @@
 package com.facebook.swift.codec.internal.builtin;
 
 import com.facebook.swift.codec.ThriftCodec;
+import com.facebook.swift.codec.ThriftSizedCodec;
 import com.facebook.swift.codec.internal.TProtocolReader;
 import com.facebook.swift.codec.internal.TProtocolWriter;
+import com.facebook.swift.codec.internal.ThriftSizes;
 import com.facebook.swift.codec.metadata.ThriftType;
 import com.google.common.base.Preconditions;
 import org.apache.thrift.protocol.TProtocol;
@@ -26,7 +28,7 @@ import javax.annotation.concurrent.Immutable;
 import java.util.List;
 
 @Immutable
-public class ListThriftCodec<T> implements ThriftCodec<List<T>>
+public class ListThriftCodec<T> implements ThriftSizedCodec<List<T>>
 {
     private final ThriftCodec<T> elementCodec;
     private final ThriftType type;
@@ -62,4 +64,16 @@ public class ListThriftCodec<T> implements ThriftCodec<List<T>>
         Preconditions.checkNotNull(protocol, "protocol is null");
         new TProtocolWriter(protocol).writeList(elementCodec, value);
     }
+
+    @Override
+    public int sizeOf(List<T> value)
+            throws Exception
+    {
+        Preconditions.checkNotNull(value, "value is null");
+        int size = ThriftSizes.LIST_HEADER_SIZE;
+        for (T element : value) {
+            size += ThriftSizes.sizeOf(elementCodec, element);
+        }
+        return size;
+    }
 }
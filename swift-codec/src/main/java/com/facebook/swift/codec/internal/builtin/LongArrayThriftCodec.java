@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.facebook.swift.codec.internal.builtin;
+
+import com.facebook.swift.codec.ThriftSizedCodec;
+import com.facebook.swift.codec.internal.TProtocolReader;
+import com.facebook.swift.codec.internal.TProtocolWriter;
+import com.facebook.swift.codec.internal.ThriftSizes;
+import com.facebook.swift.codec.metadata.ThriftType;
+import com.google.common.base.Preconditions;
+import org.apache.thrift.protocol.TProtocol;
+
+import javax.annotation.concurrent.Immutable;
+
+@Immutable
+public class LongArrayThriftCodec implements ThriftSizedCodec<long[]>
+{
+    @Override
+    public ThriftType getType()
+    {
+        return ThriftType.I64_ARRAY;
+    }
+
+    @Override
+    public long[] read(TProtocol protocol)
+            throws Exception
+    {
+        Preconditions.checkNotNull(protocol, "protocol is null");
+        return new TProtocolReader(protocol).readI64Array();
+    }
+
+    @Override
+    public void write(long[] value, TProtocol protocol)
+            throws Exception
+    {
+        Preconditions.checkNotNull(value, "value is null");
+        Preconditions.checkNotNull(protocol, "protocol is null");
+        new TProtocolWriter(protocol).writeI64Array(value);
+    }
+
+    @Override
+    public int sizeOf(long[] value)
+    {
+        Preconditions.checkNotNull(value, "value is null");
+        return ThriftSizes.LIST_HEADER_SIZE + 8 * value.length;
+    }
+}
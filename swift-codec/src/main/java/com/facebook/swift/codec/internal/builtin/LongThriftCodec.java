@@ -15,7 +15,7 @@
  */
 package com.facebook.swift.codec.internal.builtin;
 
-import com.facebook.swift.codec.ThriftCodec;
+import com.facebook.swift.codec.ThriftSizedCodec;
 import com.facebook.swift.codec.metadata.ThriftType;
 import com.google.common.base.Preconditions;
 import org.apache.thrift.protocol.TProtocol;
@@ -23,7 +23,7 @@ import org.apache.thrift.protocol.TProtocol;
 import javax.annotation.concurrent.Immutable;
 
 @Immutable
-public class LongThriftCodec implements ThriftCodec<Long>
+public class LongThriftCodec implements ThriftSizedCodec<Long>
 {
     @Override
     public ThriftType getType()
@@ -47,4 +47,10 @@ public class LongThriftCodec implements ThriftCodec<Long>
         Preconditions.checkNotNull(protocol, "protocol is null");
         protocol.writeI64(value);
     }
+
+    @Override
+    public int sizeOf(Long value)
+    {
+        return 8;
+    }
 }
@@ -16,8 +16,10 @@
 package com.facebook.swift.codec.internal.builtin;
 
 import com.facebook.swift.codec.ThriftCodec;
+import com.facebook.swift.codec.ThriftSizedCodec;
 import com.facebook.swift.codec.internal.TProtocolReader;
 import com.facebook.swift.codec.internal.TProtocolWriter;
+import com.facebook.swift.codec.internal.ThriftSizes;
 import com.facebook.swift.codec.metadata.ThriftType;
 import com.google.common.base.Preconditions;
 import org.apache.thrift.protocol.TProtocol;
@@ -26,7 +28,7 @@ import javax.annotation.concurrent.Immutable;
 import java.util.Map;
 
 @Immutable
-public class MapThriftCodec<K, V> implements ThriftCodec<Map<K, V>>
+public class MapThriftCodec<K, V> implements ThriftSizedCodec<Map<K, V>>
 {
     private final ThriftType thriftType;
     private final ThriftCodec<K> keyCodec;
@@ -65,4 +67,17 @@ public class MapThriftCodec<K, V> implements ThriftCodec<Map<K, V>>
         Preconditions.checkNotNull(protocol, "protocol is null");
         new TProtocolWriter(protocol).writeMap(keyCodec, valueCodec, value);
     }
+
+    @Override
+    public int sizeOf(Map<K, V> value)
+            throws Exception
+    {
+        Preconditions.checkNotNull(value, "value is null");
+        int size = ThriftSizes.MAP_HEADER_SIZE;
+        for (Map.Entry<K, V> entry : value.entrySet()) {
+            size += ThriftSizes.sizeOf(keyCodec, entry.getKey());
+            size += ThriftSizes.sizeOf(valueCodec, entry.getValue());
+        }
+        return size;
+    }
 }
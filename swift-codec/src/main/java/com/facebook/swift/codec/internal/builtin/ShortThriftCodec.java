@@ -15,7 +15,7 @@
  */
 package com.facebook.swift.codec.internal.builtin;
 
-import com.facebook.swift.codec.ThriftCodec;
+import com.facebook.swift.codec.ThriftSizedCodec;
 import com.facebook.swift.codec.metadata.ThriftType;
 import com.google.common.base.Preconditions;
 import org.apache.thrift.protocol.TProtocol;
@@ -23,7 +23,7 @@ import org.apache.thrift.protocol.TProtocol;
 import javax.annotation.concurrent.Immutable;
 
 @Immutable
-public class ShortThriftCodec implements ThriftCodec<Short>
+public class ShortThriftCodec implements ThriftSizedCodec<Short>
 {
     @Override
     public ThriftType getType()
@@ -47,4 +47,10 @@ public class ShortThriftCodec implements ThriftCodec<Short>
         Preconditions.checkNotNull(protocol, "protocol is null");
         protocol.writeI16(value);
     }
+
+    @Override
+    public int sizeOf(Short value)
+    {
+        return 2;
+    }
 }
@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.facebook.swift.codec.internal.builtin;
+
+import com.facebook.swift.codec.ThriftSizedCodec;
+import com.facebook.swift.codec.internal.ThriftSizes;
+import com.facebook.swift.codec.metadata.ThriftType;
+import com.google.common.base.Preconditions;
+import org.apache.thrift.protocol.TProtocol;
+
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * Reads and writes strings with the string methods of the protocol, instead of coercing them from
+ * a ByteBuffer, so the protocol can encode and decode the UTF-8 bytes without copying them twice.
+ */
+@Immutable
+public class StringThriftCodec implements ThriftSizedCodec<String>
+{
+    private static final ThriftType STRING_TYPE = new ThriftType(ThriftType.STRING, String.class);
+
+    @Override
+    public ThriftType getType()
+    {
+        return STRING_TYPE;
+    }
+
+    @Override
+    public String read(TProtocol protocol)
+            throws Exception
+    {
+        Preconditions.checkNotNull(protocol, "protocol is null");
+        return protocol.readString();
+    }
+
+    @Override
+    public void write(String value, TProtocol protocol)
+            throws Exception
+    {
+        Preconditions.checkNotNull(value, "value is null");
+        Preconditions.checkNotNull(protocol, "protocol is null");
+        protocol.writeString(value);
+    }
+
+    @Override
+    public int sizeOf(String value)
+    {
+        Preconditions.checkNotNull(value, "value is null");
+        return ThriftSizes.sizeOf(value);
+    }
+}
@@ -15,7 +15,7 @@
  */
 package com.facebook.swift.codec.internal.builtin;
 
-import com.facebook.swift.codec.ThriftCodec;
+import com.facebook.swift.codec.ThriftSizedCodec;
 import com.facebook.swift.codec.metadata.ThriftType;
 import com.google.common.base.Preconditions;
 import org.apache.thrift.protocol.TProtocol;
@@ -26,7 +26,7 @@ import javax.annotation.concurrent.Immutable;
  * VoidThriftCodec is a convenience codec used for service invocations that return void type.
  */
 @Immutable
-public class VoidThriftCodec implements ThriftCodec<Void>
+public class VoidThriftCodec implements ThriftSizedCodec<Void>
 {
     @Override
     public ThriftType getType()
@@ -54,4 +54,10 @@ public class VoidThriftCodec implements ThriftCodec<Void>
     {
         Preconditions.checkNotNull(protocol, "protocol is null");
     }
+
+    @Override
+    public int sizeOf(Void value)
+    {
+        return 0;
+    }
 }
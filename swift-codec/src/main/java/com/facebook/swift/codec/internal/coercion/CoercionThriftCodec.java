@@ -16,27 +16,42 @@
 package com.facebook.swift.codec.internal.coercion;
 
 import com.facebook.swift.codec.ThriftCodec;
+import com.facebook.swift.codec.ThriftSizedCodec;
+import com.facebook.swift.codec.internal.ThriftSizes;
 import com.facebook.swift.codec.metadata.ThriftType;
 import com.facebook.swift.codec.metadata.TypeCoercion;
+import com.google.common.base.Throwables;
 import org.apache.thrift.protocol.TProtocol;
 
 import javax.annotation.concurrent.Immutable;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
 
 /**
  * CoercionThriftCodec encapsulates a ThriftCodec and coerces the values to another type using
- * the supplied ThriftCoercion.
+ * the supplied ThriftCoercion.  The coercion methods are bound to method handles when the codec
+ * is created, so coercing a value is a direct call instead of a reflective one.
+ * <p/>
+ * Generated struct codecs call the coercion methods of their fields directly, so this codec is
+ * only used for coerced values in containers and by reflection codecs.
  */
 @Immutable
-public class CoercionThriftCodec<T> implements ThriftCodec<T>
+public class CoercionThriftCodec<T> implements ThriftSizedCodec<T>
 {
+    private static final MethodType COERCION_TYPE = MethodType.methodType(Object.class, Object.class);
+
     private final ThriftCodec<Object> codec;
-    private final TypeCoercion typeCoercion;
+    private final MethodHandle toThrift;
+    private final MethodHandle fromThrift;
     private final ThriftType thriftType;
 
     public CoercionThriftCodec(ThriftCodec<?> codec, TypeCoercion typeCoercion)
     {
         this.codec = (ThriftCodec<Object>) codec;
-        this.typeCoercion = typeCoercion;
+        this.toThrift = toMethodHandle(typeCoercion.getToThrift());
+        this.fromThrift = toMethodHandle(typeCoercion.getFromThrift());
         this.thriftType = typeCoercion.getThriftType();
     }
 
@@ -51,7 +66,7 @@ public class CoercionThriftCodec<T> implements ThriftCodec<T>
             throws Exception
     {
         Object thriftValue = codec.read(protocol);
-        T javaValue = (T) typeCoercion.getFromThrift().invoke(null, thriftValue);
+        T javaValue = (T) coerce(fromThrift, thriftValue);
         return javaValue;
     }
 
@@ -59,7 +74,37 @@ public class CoercionThriftCodec<T> implements ThriftCodec<T>
     public void write(T javaValue, TProtocol protocol)
             throws Exception
     {
-        Object thriftValue = typeCoercion.getToThrift().invoke(null, javaValue);
+        Object thriftValue = coerce(toThrift, javaValue);
         codec.write(thriftValue, protocol);
     }
+
+    @Override
+    public int sizeOf(T javaValue)
+            throws Exception
+    {
+        Object thriftValue = coerce(toThrift, javaValue);
+        return ThriftSizes.sizeOf(codec, thriftValue);
+    }
+
+    private static Object coerce(MethodHandle coercion, Object value)
+            throws Exception
+    {
+        try {
+            return (Object) coercion.invokeExact(value);
+        }
+        catch (Throwable e) {
+            Throwables.propagateIfInstanceOf(e, Exception.class);
+            throw Throwables.propagate(e);
+        }
+    }
+
+    private static MethodHandle toMethodHandle(Method coercion)
+    {
+        try {
+            return MethodHandles.lookup().unreflect(coercion).asType(COERCION_TYPE);
+        }
+        catch (IllegalAccessException e) {
+            throw new IllegalArgumentException("Coercion method is not accessible: " + coercion, e);
+        }
+    }
 }
@@ -17,11 +17,12 @@ package com.facebook.swift.codec.internal.compiler;
 
 import com.facebook.swift.codec.ThriftCodec;
 import com.facebook.swift.codec.ThriftCodecManager;
-import com.facebook.swift.codec.internal.ThriftCodecFactory;
+import com.facebook.swift.codec.internal.ProjectingThriftCodecFactory;
 import com.facebook.swift.codec.metadata.ThriftStructMetadata;
 
 import java.security.AccessController;
 import java.security.PrivilegedAction;
+import java.util.Set;
 
 import javax.annotation.concurrent.Immutable;
 
@@ -29,7 +30,7 @@ import javax.annotation.concurrent.Immutable;
  * Creates Thrift codecs directly in byte code.
  */
 @Immutable
-public class CompilerThriftCodecFactory implements ThriftCodecFactory
+public class CompilerThriftCodecFactory implements ProjectingThriftCodecFactory
 {
     private final boolean debug;
     private final DynamicClassLoader classLoader;
@@ -62,6 +63,19 @@ public class CompilerThriftCodecFactory implements ThriftCodecFactory
         return generator.getThriftCodec();
     }
 
+    @Override
+    public <T> ThriftCodec<T> generateThriftTypeCodec(ThriftCodecManager codecManager, ThriftStructMetadata<T> metadata, Set<Short> fieldIds)
+    {
+        ThriftCodecByteCodeGenerator<T> generator = new ThriftCodecByteCodeGenerator<>(
+                codecManager,
+                metadata,
+                fieldIds,
+                classLoader,
+                debug
+        );
+        return generator.getThriftCodec();
+    }
+
     private static DynamicClassLoader getPriviledgedClassLoader()
     {
         return AccessController.doPrivileged(new PrivilegedAction<DynamicClassLoader>() {
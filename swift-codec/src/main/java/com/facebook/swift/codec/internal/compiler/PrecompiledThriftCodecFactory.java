@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.facebook.swift.codec.internal.compiler;
+
+import com.facebook.swift.codec.ThriftCodec;
+import com.facebook.swift.codec.ThriftCodecManager;
+import com.facebook.swift.codec.internal.ProjectingThriftCodecFactory;
+import com.facebook.swift.codec.internal.ThriftCodecFactory;
+import com.facebook.swift.codec.metadata.ThriftStructMetadata;
+import com.facebook.swift.codec.metadata.ThriftType;
+import com.google.common.base.Preconditions;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.Set;
+
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * Uses the codecs generated at build time by the swift-maven-plugin when they are available
+ * from the class loader of the struct, and falls back to the specified factory otherwise.
+ * A precompiled codec is only used if it was generated from the same struct metadata, so
+ * a stale codec left over from an older version of the struct is ignored.
+ */
+@Immutable
+public class PrecompiledThriftCodecFactory implements ProjectingThriftCodecFactory
+{
+    private final ThriftCodecFactory fallback;
+
+    public PrecompiledThriftCodecFactory(ThriftCodecFactory fallback)
+    {
+        this.fallback = Preconditions.checkNotNull(fallback, "fallback is null");
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> ThriftCodec<T> generateThriftTypeCodec(ThriftCodecManager codecManager, ThriftStructMetadata<T> metadata)
+    {
+        Class<T> structClass = metadata.getStructClass();
+        Class<?> codecClass;
+        try {
+            codecClass = Class.forName(ThriftCodecByteCodeGenerator.getPrecompiledCodecClassName(structClass), true, structClass.getClassLoader());
+        }
+        catch (ClassNotFoundException e) {
+            return fallback.generateThriftTypeCodec(codecManager, metadata);
+        }
+
+        if (!ThriftCodecByteCodeGenerator.isPrecompiledCodecCurrent(codecClass, metadata)) {
+            return fallback.generateThriftTypeCodec(codecManager, metadata);
+        }
+
+        try {
+            return (ThriftCodec<T>) codecClass.getConstructor(ThriftType.class, ThriftCodecManager.class)
+                    .newInstance(ThriftType.struct(metadata), codecManager);
+        }
+        catch (InvocationTargetException e) {
+            throw new IllegalStateException("Precompiled codec " + codecClass.getName() + " could not be created", e.getCause());
+        }
+        catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Precompiled codec " + codecClass.getName() + " is not valid", e);
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> ThriftCodec<T> generateThriftTypeCodec(ThriftCodecManager codecManager, ThriftStructMetadata<T> metadata, Set<Short> fieldIds)
+    {
+        // projections are not known at build time
+        if (fallback instanceof ProjectingThriftCodecFactory) {
+            return ((ProjectingThriftCodecFactory) fallback).generateThriftTypeCodec(codecManager, metadata, fieldIds);
+        }
+        // the fallback can not skip fields, so reuse the full codec of the manager
+        return (ThriftCodec<T>) codecManager.getCodec(ThriftType.struct(metadata));
+    }
+}
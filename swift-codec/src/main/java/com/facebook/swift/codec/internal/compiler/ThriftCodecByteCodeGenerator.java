@@ -15,11 +15,17 @@
  */
 package com.facebook.swift.codec.internal.compiler;
 
+import com.facebook.swift.codec.LazyThriftValue;
 import com.facebook.swift.codec.ThriftCodec;
 import com.facebook.swift.codec.ThriftCodecManager;
 import com.facebook.swift.codec.ThriftProtocolType;
+import com.facebook.swift.codec.ThriftReadIntoCodec;
+import com.facebook.swift.codec.ThriftSizedCodec;
+import com.facebook.swift.codec.internal.EnumThriftCodec;
 import com.facebook.swift.codec.internal.TProtocolReader;
 import com.facebook.swift.codec.internal.TProtocolWriter;
+import com.facebook.swift.codec.internal.ThriftSizes;
+import com.facebook.swift.codec.internal.coercion.DefaultJavaCoercions;
 import com.facebook.swift.codec.internal.compiler.byteCode.CaseStatement;
 import com.facebook.swift.codec.internal.compiler.byteCode.ClassDefinition;
 import com.facebook.swift.codec.internal.compiler.byteCode.FieldDefinition;
@@ -38,10 +44,15 @@ import com.facebook.swift.codec.metadata.ThriftMethodInjection;
 import com.facebook.swift.codec.metadata.ThriftParameterInjection;
 import com.facebook.swift.codec.metadata.ThriftStructMetadata;
 import com.facebook.swift.codec.metadata.ThriftType;
+import com.google.common.base.Charsets;
 import com.google.common.base.Function;
+import com.google.common.base.Joiner;
 import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSortedSet;
 import com.google.common.collect.Lists;
+import com.google.common.hash.Hashing;
 import com.google.common.reflect.TypeToken;
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import org.apache.thrift.protocol.TProtocol;
@@ -52,6 +63,7 @@ import org.objectweb.asm.util.CheckClassAdapter;
 import java.io.PrintWriter;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Method;
+import java.lang.reflect.Type;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
@@ -77,6 +89,7 @@ import static com.facebook.swift.codec.internal.compiler.byteCode.Access.BRIDGE;
 import static com.facebook.swift.codec.internal.compiler.byteCode.Access.FINAL;
 import static com.facebook.swift.codec.internal.compiler.byteCode.Access.PRIVATE;
 import static com.facebook.swift.codec.internal.compiler.byteCode.Access.PUBLIC;
+import static com.facebook.swift.codec.internal.compiler.byteCode.Access.STATIC;
 import static com.facebook.swift.codec.internal.compiler.byteCode.Access.SUPER;
 import static com.facebook.swift.codec.internal.compiler.byteCode.Access.SYNTHETIC;
 import static com.facebook.swift.codec.internal.compiler.byteCode.Access.a;
@@ -88,12 +101,29 @@ import static com.facebook.swift.codec.internal.compiler.byteCode.ParameterizedT
 public class ThriftCodecByteCodeGenerator<T>
 {
     private static final String PACKAGE = "$wift";
+    private static final String FINGERPRINT_FIELD = "FINGERPRINT";
 
     private static final Map<ThriftProtocolType, Method> READ_METHODS;
     private static final Map<ThriftProtocolType, Method> WRITE_METHODS;
+    private static final Map<Type, Method> ARRAY_READ_METHODS;
+    private static final Map<Type, Method> ARRAY_WRITE_METHODS;
+    private static final Map<ThriftProtocolType, Method> SIZE_METHODS;
+    private static final Map<Type, Method> ARRAY_SIZE_METHODS;
+    private static final Method CODEC_SIZE_METHOD;
+    private static final Method STRING_SIZE_METHOD;
+    private static final Method LAZY_READ_METHOD;
+    private static final Method LAZY_WRITE_METHOD;
+    private static final Method ENUM_CODEC_READ_METHOD;
+    private static final Method ENUM_CODEC_WRITE_METHOD;
+    private static final Method STRING_READ_METHOD;
+    private static final Method STRING_WRITE_METHOD;
+    private static final Method BYTE_BUFFER_TO_STRING_METHOD;
+    private static final Method STRING_TO_BYTE_BUFFER_METHOD;
 
     private final ThriftCodecManager codecManager;
+    private final ClassLoader classLoader;
     private final ThriftStructMetadata<T> metadata;
+    private final List<ThriftFieldMetadata> readFields;
     private final ParameterizedType structType;
     private final ParameterizedType codecType;
 
@@ -104,30 +134,77 @@ public class ThriftCodecByteCodeGenerator<T>
     private final FieldDefinition typeField;
     private final Map<Short, FieldDefinition> codecFields;
 
+    private final boolean precompiled;
+    private final byte[] byteCode;
     private final ThriftCodec<T> thriftCodec;
 
-    @SuppressFBWarnings("DM_DEFAULT_ENCODING")
     public ThriftCodecByteCodeGenerator(
             ThriftCodecManager codecManager,
             ThriftStructMetadata<T> metadata,
             DynamicClassLoader classLoader,
             boolean debug
     )
+    {
+        this(codecManager, metadata, null, classLoader, debug);
+    }
+
+    /**
+     * Generates a codec that only reads the fields with the specified ids; if readFieldIds is null
+     * all fields are read.  Fields that are not read fall through to the skipFieldData default case.
+     */
+    public ThriftCodecByteCodeGenerator(
+            ThriftCodecManager codecManager,
+            ThriftStructMetadata<T> metadata,
+            Set<Short> readFieldIds,
+            DynamicClassLoader classLoader,
+            boolean debug
+    )
+    {
+        this(codecManager, metadata, readFieldIds, classLoader, debug, false);
+    }
+
+    @SuppressFBWarnings("DM_DEFAULT_ENCODING")
+    private ThriftCodecByteCodeGenerator(
+            ThriftCodecManager codecManager,
+            ThriftStructMetadata<T> metadata,
+            Set<Short> readFieldIds,
+            DynamicClassLoader classLoader,
+            boolean debug,
+            boolean precompiled
+    )
     {
         this.codecManager = codecManager;
         this.metadata = metadata;
+        this.classLoader = classLoader;
+        this.precompiled = precompiled;
+
+        ImmutableList.Builder<ThriftFieldMetadata> readFields = ImmutableList.builder();
+        for (ThriftFieldMetadata field : metadata.getFields()) {
+            if (readFieldIds == null || readFieldIds.contains(field.getId())) {
+                readFields.add(field);
+            }
+        }
+        this.readFields = readFields.build();
 
         structType = type(metadata.getStructClass());
-        codecType = toCodecType(metadata);
+        codecType = precompiled ? type(getPrecompiledCodecClassName(metadata.getStructClass()).replace('.', '/')) : toCodecType(metadata, readFieldIds);
 
+        List<ParameterizedType> interfaces = new ArrayList<>();
+        interfaces.add(type(ThriftSizedCodec.class, structType));
+        if (supportsReadInto()) {
+            interfaces.add(type(ThriftReadIntoCodec.class, structType));
+        }
         classDefinition = new ClassDefinition(
                 a(PUBLIC, SUPER),
                 codecType.getClassName(),
                 type(Object.class),
-                type(ThriftCodec.class, structType)
+                interfaces.toArray(new ParameterizedType[interfaces.size()])
         );
 
         // declare the class fields
+        if (precompiled) {
+            declareFingerprintField();
+        }
         typeField = declareTypeField();
         codecFields = declareCodecFields();
 
@@ -135,16 +212,30 @@ public class ThriftCodecByteCodeGenerator<T>
         defineConstructor();
         defineGetTypeMethod();
         defineReadMethod();
+        if (supportsReadInto()) {
+            defineReadIntoMethod();
+        }
         defineWriteMethod();
+        defineSizeOfMethod();
 
-        // add the non-generic bridge read and write methods
+        // add the non-generic bridge read, write and sizeOf methods
         defineReadBridgeMethod();
         defineWriteBridgeMethod();
+        defineSizeOfBridgeMethod();
+        if (supportsReadInto()) {
+            defineReadIntoBridgeMethod();
+        }
 
         // generate the byte code
-        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_FRAMES);
+        ClassWriter cw = precompiled ? new StructClassWriter(metadata.getStructClass().getClassLoader()) : new ClassWriter(ClassWriter.COMPUTE_FRAMES);
         classDefinition.getClassNode().accept(cw);
-        byte[] byteCode = cw.toByteArray();
+        byteCode = cw.toByteArray();
+
+        // precompiled codecs are written out by the build and loaded later
+        if (precompiled) {
+            thriftCodec = null;
+            return;
+        }
 
         // Run the asm verifier only in debug mode (prints a ton of info)
         if (debug) {
@@ -169,6 +260,55 @@ public class ThriftCodecByteCodeGenerator<T>
         return thriftCodec;
     }
 
+    /**
+     * Generates the byte code of a codec for the specified struct that can be compiled ahead of
+     * time, at build time, and loaded later from the class loader of the struct.  The codec class
+     * is named by {@link #getPrecompiledCodecClassName} and has a public constructor taking the
+     * ThriftType of the struct and the ThriftCodecManager to get the field codecs from.
+     */
+    public static byte[] generatePrecompiledCodec(ThriftStructMetadata<?> metadata)
+    {
+        return new ThriftCodecByteCodeGenerator<>(null, metadata, null, null, false, true).byteCode;
+    }
+
+    public static String getPrecompiledCodecClassName(Class<?> structClass)
+    {
+        return PACKAGE + "." + structClass.getName() + "Codec";
+    }
+
+    /**
+     * Returns true if the precompiled codec class was generated from metadata equal to the
+     * specified metadata.  Codecs generated before the struct (or a coercion it uses) changed
+     * have a different fingerprint, and must not be used.
+     */
+    public static boolean isPrecompiledCodecCurrent(Class<?> codecClass, ThriftStructMetadata<?> metadata)
+    {
+        try {
+            return getFingerprint(metadata).equals(codecClass.getField(FINGERPRINT_FIELD).get(null));
+        }
+        catch (ReflectiveOperationException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Computes a hash of everything in the struct metadata the generated code depends on: the
+     * struct and builder classes, the fields with their types, injections, extractions and
+     * coercions, the constructor and the injected methods.
+     */
+    private static String getFingerprint(ThriftStructMetadata<?> metadata)
+    {
+        return Hashing.sha1().hashBytes(metadata.toString().getBytes(Charsets.UTF_8)).toString();
+    }
+
+    /**
+     * Declares the public static FINGERPRINT constant of a precompiled codec.
+     */
+    private void declareFingerprintField()
+    {
+        classDefinition.addField(new FieldDefinition(a(PUBLIC, STATIC, FINAL), FINGERPRINT_FIELD, type(String.class), getFingerprint(metadata)));
+    }
+
     /**
      * Declares the private ThriftType field type.
      */
@@ -178,7 +318,9 @@ public class ThriftCodecByteCodeGenerator<T>
         classDefinition.addField(typeField);
 
         // add constructor parameter to initialize this field
-        parameters.add(typeField, ThriftType.struct(metadata));
+        if (!precompiled) {
+            parameters.add(typeField, ThriftType.class, ThriftType.struct(metadata));
+        }
 
         return typeField;
     }
@@ -193,15 +335,31 @@ public class ThriftCodecByteCodeGenerator<T>
         Map<Short, FieldDefinition> codecFields = new TreeMap<>();
         for (ThriftFieldMetadata fieldMetadata : metadata.getFields()) {
             if (needsCodec(fieldMetadata)) {
+                String fieldName = fieldMetadata.getName() + "Codec";
+
+                // precompiled codecs get their delegates from the codec manager at runtime, so
+                // the concrete codec classes are unknown
+                if (precompiled) {
+                    FieldDefinition codecField = new FieldDefinition(a(PRIVATE, FINAL), fieldName, type(ThriftCodec.class));
+                    classDefinition.addField(codecField);
+                    codecFields.put(fieldMetadata.getId(), codecField);
+                    continue;
+                }
 
                 ThriftCodec<?> codec = codecManager.getCodec(fieldMetadata.getType());
-                String fieldName = fieldMetadata.getName() + "Codec";
 
-                FieldDefinition codecField = new FieldDefinition(a(PRIVATE, FINAL), fieldName, type(codec.getClass()));
+                // delegates the generated class can not link against, such as precompiled codecs
+                // defined by the class loader of another struct, are held as a plain ThriftCodec
+                Class<?> codecClass = codec.getClass();
+                if (!isVisible(codecClass)) {
+                    codecClass = ThriftCodec.class;
+                }
+
+                FieldDefinition codecField = new FieldDefinition(a(PRIVATE, FINAL), fieldName, type(codecClass));
                 classDefinition.addField(codecField);
                 codecFields.put(fieldMetadata.getId(), codecField);
 
-                parameters.add(codecField, codec);
+                parameters.add(codecField, codecClass, codec);
             }
         }
         return codecFields;
@@ -213,6 +371,11 @@ public class ThriftCodecByteCodeGenerator<T>
      */
     private void defineConstructor()
     {
+        if (precompiled) {
+            definePrecompiledConstructor();
+            return;
+        }
+
         //
         // declare the constructor
         MethodDefinition constructor = new MethodDefinition(
@@ -238,6 +401,47 @@ public class ThriftCodecByteCodeGenerator<T>
         classDefinition.addMethod(constructor);
     }
 
+    /**
+     * Defines the constructor of a precompiled codec, which takes the ThriftType of the struct
+     * and looks up each delegate codec in the codec manager by the type of its field.
+     */
+    private void definePrecompiledConstructor()
+    {
+        MethodDefinition constructor = new MethodDefinition(
+                a(PUBLIC),
+                "<init>",
+                type(void.class),
+                arg("type", ThriftType.class),
+                arg("codecManager", ThriftCodecManager.class)
+        );
+
+        // invoke super (Object) constructor
+        constructor.loadThis().invokeConstructor(type(Object.class));
+
+        // this.type = type;
+        constructor.loadThis()
+                .loadVariable("type")
+                .putField(codecType, typeField);
+
+        // this.fooCodec = codecManager.getCodec(type.getStructMetadata().getField(id).getType());
+        for (Map.Entry<Short, FieldDefinition> entry : codecFields.entrySet()) {
+            constructor.loadThis()
+                    .loadVariable("codecManager")
+                    .loadVariable("type")
+                    .invokeVirtual(ThriftType.class, "getStructMetadata", ThriftStructMetadata.class)
+                    .loadConstant(entry.getKey())
+                    .invokeVirtual(ThriftStructMetadata.class, "getField", ThriftFieldMetadata.class, int.class)
+                    .invokeVirtual(ThriftFieldMetadata.class, "getType", ThriftType.class)
+                    .invokeVirtual(ThriftCodecManager.class, "getCodec", ThriftCodec.class, ThriftType.class)
+                    .putField(codecType, entry.getValue());
+        }
+
+        // return; (implicit)
+        constructor.ret();
+
+        classDefinition.addMethod(constructor);
+    }
+
     /**
      * Defines the getType method which simply returns the value of the type field.
      */
@@ -278,6 +482,51 @@ public class ThriftCodecByteCodeGenerator<T>
         buildStruct(read, structData);
     }
 
+    /**
+     * Defines the readInto method, which injects the data into an existing instance instead of
+     * constructing one.  Fields that are not in the data are injected with null (or zero), so
+     * nothing from the previous value of the instance remains.
+     */
+    private void defineReadIntoMethod()
+    {
+        MethodDefinition read = new MethodDefinition(
+                a(PUBLIC),
+                "readInto",
+                null,
+                arg("protocol", TProtocol.class),
+                arg("struct", structType)
+        ).addException(Exception.class);
+
+        // TProtocolReader reader = new TProtocolReader(protocol);
+        read.addLocalVariable(type(TProtocolReader.class), "reader");
+        read.newObject(TProtocolReader.class);
+        read.dup();
+        read.loadVariable("protocol");
+        read.invokeConstructor(type(TProtocolReader.class), type(TProtocol.class));
+        read.storeVariable("reader");
+
+        // read all of the data in to local variables
+        Map<Short, LocalVariableDefinition> structData = readFieldValues(read);
+
+        // inject all fields and methods, including the ones with null values
+        LocalVariableDefinition instance = read.getLocalVariable("struct");
+        injectFields(read, instance, structData, true);
+        injectMethods(read, instance, structData, true);
+
+        read.ret();
+
+        classDefinition.addMethod(read);
+    }
+
+    /**
+     * Structs can be read into an existing instance when they are not built by a builder and
+     * all of their fields are injected after a no-argument constructor.
+     */
+    private boolean supportsReadInto()
+    {
+        return metadata.getBuilderClass() == null && metadata.getConstructor().getParameters().isEmpty();
+    }
+
     /**
      * Defines the code to read all of the data from the protocol into local variables.
      */
@@ -310,12 +559,12 @@ public class ThriftCodecByteCodeGenerator<T>
         // switch (protocol.getFieldId())
         read.loadVariable(protocol).invokeVirtual(TProtocolReader.class, "getFieldId", short.class);
         List<CaseStatement> cases = new ArrayList<>();
-        for (ThriftFieldMetadata field : metadata.getFields()) {
+        for (ThriftFieldMetadata field : readFields) {
             cases.add(caseStatement(field.getId(), field.getName() + "-field"));
         }
         read.switchStatement("default", cases);
 
-        for (ThriftFieldMetadata field : metadata.getFields()) {
+        for (ThriftFieldMetadata field : readFields) {
             // case field.id:
             read.visitLabel(field.getName() + "-field");
 
@@ -328,10 +577,18 @@ public class ThriftCodecByteCodeGenerator<T>
                 read.loadThis().getField(codecType, codecField);
             }
 
+            // strings are decoded by the protocol, so they are neither cast nor coerced
+            if (isDirectString(field)) {
+                read.invokeVirtual(STRING_READ_METHOD);
+                read.storeVariable(structData.get(field.getId()));
+                read.gotoLabel("while-begin");
+                continue;
+            }
+
             // read value
-            Method readMethod = READ_METHODS.get(field.getType().getProtocolType());
-            if (readMethod == null) {
-                throw new IllegalArgumentException("Unsupported field type " + field.getType().getProtocolType());
+            Method readMethod = getReadMethod(field.getType());
+            if (isEnumThriftCodec(codecField)) {
+                readMethod = ENUM_CODEC_READ_METHOD;
             }
             read.invokeVirtual(readMethod);
 
@@ -378,10 +635,10 @@ public class ThriftCodecByteCodeGenerator<T>
         LocalVariableDefinition instance = constructInstance(read, structData);
 
         // inject fields
-        injectFields(read, instance, structData);
+        injectFields(read, instance, structData, false);
 
         // inject methods
-        injectMethods(read, instance, structData);
+        injectMethods(read, instance, structData, false);
 
         // invoke factory method if present
         invokeFactoryMethod(read, structData, instance);
@@ -422,9 +679,10 @@ public class ThriftCodecByteCodeGenerator<T>
     }
 
     /**
-     * Defines the code to inject data into the struct public fields.
+     * Defines the code to inject data into the struct public fields.  Null values are only
+     * injected when injectNulls is set.
      */
-    private void injectFields(MethodDefinition read, LocalVariableDefinition instance, Map<Short, LocalVariableDefinition> structData)
+    private void injectFields(MethodDefinition read, LocalVariableDefinition instance, Map<Short, LocalVariableDefinition> structData, boolean injectNulls)
     {
         for (ThriftFieldMetadata field : metadata.getFields()) {
             for (ThriftInjection injection : field.getInjections()) {
@@ -433,7 +691,8 @@ public class ThriftCodecByteCodeGenerator<T>
                     ThriftFieldInjection fieldInjection = (ThriftFieldInjection) injection;
 
                     // if field is an Object && field != null
-                    if (!isProtocolTypeJavaPrimitive(field)) {
+                    boolean checkNull = !injectNulls && !isProtocolTypeJavaPrimitive(field);
+                    if (checkNull) {
                         read.loadVariable(structData.get(field.getId()))
                                 .ifNullGoto("field_is_null_" + field.getName());
                     }
@@ -444,7 +703,7 @@ public class ThriftCodecByteCodeGenerator<T>
                             .putField(fieldInjection.getField());
 
                     // else do nothing
-                    if (!isProtocolTypeJavaPrimitive(field)) {
+                    if (checkNull) {
                         read.visitLabel("field_is_null_" + field.getName());
                     }
                 }
@@ -453,14 +712,15 @@ public class ThriftCodecByteCodeGenerator<T>
     }
 
     /**
-     * Defines the code to inject data into the struct methods.
+     * Defines the code to inject data into the struct methods.  Methods with only null parameters
+     * are only invoked when injectNulls is set.
      */
-    private void injectMethods(MethodDefinition read, LocalVariableDefinition instance, Map<Short, LocalVariableDefinition> structData)
+    private void injectMethods(MethodDefinition read, LocalVariableDefinition instance, Map<Short, LocalVariableDefinition> structData, boolean injectNulls)
     {
         for (ThriftMethodInjection methodInjection : metadata.getMethodInjections()) {
             // if any parameter is non-null, invoke the method
             for (ThriftParameterInjection parameter : methodInjection.getParameters()) {
-                if (!isParameterTypeJavaPrimitive(parameter)) {
+                if (!injectNulls && !isParameterTypeJavaPrimitive(parameter)) {
                     read.loadVariable(structData.get(parameter.getId()));
                     read.ifNotNullGoto("invoke_" + methodInjection.getMethod().toGenericString());
                 }
@@ -569,8 +829,8 @@ public class ThriftCodecByteCodeGenerator<T>
                 write.ifNullGoto("field_is_null_" + field.getName());
             }
 
-            // coerce value
-            if (field.getCoercion() != null) {
+            // coerce value (strings are encoded by the protocol)
+            if (field.getCoercion() != null && !isDirectString(field)) {
                 write.invokeStatic(field.getCoercion().getToThrift());
 
                 // if coerced value is null, don't write the field
@@ -581,11 +841,12 @@ public class ThriftCodecByteCodeGenerator<T>
             }
 
             // write value
-            Method writeMethod = WRITE_METHODS.get(field.getType().getProtocolType());
-            if (writeMethod == null) {
-                throw new IllegalArgumentException(
-                        "Unsupported field type " + field.getType().getProtocolType()
-                );
+            Method writeMethod = getWriteMethod(field.getType());
+            if (isEnumThriftCodec(codecField)) {
+                writeMethod = ENUM_CODEC_WRITE_METHOD;
+            }
+            if (isDirectString(field)) {
+                writeMethod = STRING_WRITE_METHOD;
             }
             write.invokeVirtual(writeMethod);
 
@@ -621,6 +882,82 @@ public class ThriftCodecByteCodeGenerator<T>
         write.ret();
     }
 
+    /**
+     * Define the sizeOf method, which adds up the binary protocol sizes of the fields the write
+     * method writes.
+     */
+    private void defineSizeOfMethod()
+    {
+        MethodDefinition sizeOf = new MethodDefinition(
+                a(PUBLIC),
+                "sizeOf",
+                type(int.class),
+                arg("struct", structType)
+        );
+        sizeOf.addException(Exception.class);
+        classDefinition.addMethod(sizeOf);
+
+        // int size = 1; (field stop)
+        LocalVariableDefinition size = sizeOf.addLocalVariable(type(int.class), "size");
+        sizeOf.loadConstant(ThriftSizes.FIELD_STOP_SIZE);
+        sizeOf.storeVariable(size);
+
+        for (ThriftFieldMetadata field : metadata.getFields()) {
+            // push size
+            sizeOf.loadVariable(size);
+
+            // push ThriftTypeCodec for this field
+            FieldDefinition codecField = codecFields.get(field.getId());
+            if (codecField != null) {
+                sizeOf.loadThis().getField(codecType, codecField);
+            }
+
+            // push field value
+            loadFieldValue(sizeOf, field);
+
+            // if field value is null, the field is not written
+            if (!isFieldTypeJavaPrimitive(field)) {
+                sizeOf.dup();
+                sizeOf.ifNullGoto("field_is_null_" + field.getName());
+            }
+
+            // coerce value (strings are sized directly)
+            if (field.getCoercion() != null && !isDirectString(field)) {
+                sizeOf.invokeStatic(field.getCoercion().getToThrift());
+
+                if (!isProtocolTypeJavaPrimitive(field)) {
+                    sizeOf.dup();
+                    sizeOf.ifNullGoto("field_is_null_" + field.getName());
+                }
+            }
+
+            // size += ThriftSizes.fieldSize(...);
+            sizeOf.invokeStatic(getSizeMethod(field, codecField));
+            sizeOf.addInt();
+            sizeOf.storeVariable(size);
+
+            if (!isProtocolTypeJavaPrimitive(field) || !isFieldTypeJavaPrimitive(field)) {
+                sizeOf.gotoLabel("field_end_" + field.getName());
+
+                // cleanup stack for null field value
+                sizeOf.visitLabel("field_is_null_" + field.getName());
+                // pop value
+                sizeOf.pop();
+                // pop codec
+                if (codecField != null) {
+                    sizeOf.pop();
+                }
+                // pop size
+                sizeOf.pop();
+
+                sizeOf.visitLabel("field_end_" + field.getName());
+            }
+        }
+
+        sizeOf.loadVariable(size);
+        sizeOf.retInt();
+    }
+
     private void loadFieldValue(MethodDefinition write, ThriftFieldMetadata field)
     {
         write.loadVariable("struct");
@@ -672,6 +1009,43 @@ public class ThriftCodecByteCodeGenerator<T>
         );
     }
 
+    /**
+     * Defines the generics bridge method with untyped args to the type specific sizeOf method.
+     */
+    private void defineSizeOfBridgeMethod()
+    {
+        classDefinition.addMethod(
+                new MethodDefinition(a(PUBLIC, BRIDGE, SYNTHETIC), "sizeOf", type(int.class), arg("struct", Object.class))
+                        .addException(Exception.class)
+                        .loadThis()
+                        .loadVariable("struct", structType)
+                        .invokeVirtual(codecType, "sizeOf", type(int.class), structType)
+                        .retInt()
+        );
+    }
+
+    /**
+     * Defines the generics bridge method with untyped args to the type specific readInto method.
+     */
+    private void defineReadIntoBridgeMethod()
+    {
+        classDefinition.addMethod(
+                new MethodDefinition(a(PUBLIC, BRIDGE, SYNTHETIC), "readInto", null, arg("protocol", TProtocol.class), arg("struct", Object.class))
+                        .addException(Exception.class)
+                        .loadThis()
+                        .loadVariable("protocol")
+                        .loadVariable("struct", structType)
+                        .invokeVirtual(
+                                codecType,
+                                "readInto",
+                                type(void.class),
+                                type(TProtocol.class),
+                                structType
+                        )
+                        .ret()
+        );
+    }
+
     private boolean isParameterTypeJavaPrimitive(ThriftParameterInjection parameter)
     {
         return isJavaPrimitive(TypeToken.of(parameter.getJavaType()));
@@ -699,6 +1073,86 @@ public class ThriftCodecByteCodeGenerator<T>
                 .isPrimitive();
     }
 
+    private static Method getReadMethod(ThriftType type)
+    {
+        // lazy values are read by their codec, which does not return the protocol value type
+        if (type.isLazy()) {
+            return LAZY_READ_METHOD;
+        }
+        Method readMethod = ARRAY_READ_METHODS.get(type.getJavaType());
+        if (readMethod == null) {
+            readMethod = READ_METHODS.get(type.getProtocolType());
+        }
+        if (readMethod == null) {
+            throw new IllegalArgumentException("Unsupported field type " + type.getProtocolType());
+        }
+        return readMethod;
+    }
+
+    private static Method getWriteMethod(ThriftType type)
+    {
+        if (type.isLazy()) {
+            return LAZY_WRITE_METHOD;
+        }
+        Method writeMethod = ARRAY_WRITE_METHODS.get(type.getJavaType());
+        if (writeMethod == null) {
+            writeMethod = WRITE_METHODS.get(type.getProtocolType());
+        }
+        if (writeMethod == null) {
+            throw new IllegalArgumentException("Unsupported field type " + type.getProtocolType());
+        }
+        return writeMethod;
+    }
+
+    private static Method getSizeMethod(ThriftFieldMetadata field, FieldDefinition codecField)
+    {
+        if (codecField != null) {
+            return CODEC_SIZE_METHOD;
+        }
+        if (isDirectString(field)) {
+            return STRING_SIZE_METHOD;
+        }
+        Method sizeMethod = ARRAY_SIZE_METHODS.get(field.getType().getJavaType());
+        if (sizeMethod == null) {
+            sizeMethod = SIZE_METHODS.get(field.getType().getProtocolType());
+        }
+        if (sizeMethod == null) {
+            throw new IllegalArgumentException("Unsupported field type " + field.getType().getProtocolType());
+        }
+        return sizeMethod;
+    }
+
+    private boolean isVisible(Class<?> type)
+    {
+        try {
+            return Class.forName(type.getName(), false, classLoader) == type;
+        }
+        catch (ClassNotFoundException e) {
+            return false;
+        }
+    }
+
+    /**
+     * The standard enum codec is called directly instead of through the ThriftCodec interface,
+     * which lets the JIT inline the enum lookup into the struct codec.
+     */
+    private static boolean isEnumThriftCodec(FieldDefinition codecField)
+    {
+        return codecField != null && codecField.getType().getType().equals(type(EnumThriftCodec.class).getType());
+    }
+
+    /**
+     * String fields with the default coercion are read and written with the string methods of
+     * the protocol, which encode and decode UTF-8 without an intermediate ByteBuffer.
+     */
+    private static boolean isDirectString(ThriftFieldMetadata field)
+    {
+        return field.getType().getJavaType() == String.class &&
+                field.getCoercion() != null &&
+                field.getCoercion().getFromThrift().equals(BYTE_BUFFER_TO_STRING_METHOD) &&
+                field.getCoercion().getToThrift().equals(STRING_TO_BYTE_BUFFER_METHOD);
+    }
+
     private static boolean needsCastAfterRead(ThriftFieldMetadata field, Method readMethod)
     {
         Class<?> methodReturn = readMethod.getReturnType();
@@ -715,6 +1169,11 @@ public class ThriftCodecByteCodeGenerator<T>
 
     private boolean needsCodec(ThriftFieldMetadata fieldMetadata)
     {
+        // primitive arrays are read and written directly by TProtocolReader and TProtocolWriter
+        if (ARRAY_READ_METHODS.containsKey(fieldMetadata.getType().getJavaType())) {
+            return false;
+        }
+
         ThriftProtocolType protocolType = fieldMetadata.getType().getProtocolType();
         return protocolType == ENUM ||
                 protocolType == STRUCT ||
@@ -723,19 +1182,69 @@ public class ThriftCodecByteCodeGenerator<T>
                 protocolType == MAP;
     }
 
-    private ParameterizedType toCodecType(ThriftStructMetadata<?> metadata)
+    private ParameterizedType toCodecType(ThriftStructMetadata<?> metadata, Set<Short> readFieldIds)
     {
-        return type(PACKAGE + "/" + type(metadata.getStructClass()).getClassName() + "Codec");
+        String className = PACKAGE + "/" + type(metadata.getStructClass()).getClassName() + "Codec";
+        if (readFieldIds != null) {
+            // each projection is a separate class
+            className += "_Projection_" + Joiner.on('_').join(ImmutableSortedSet.copyOf(readFieldIds));
+        }
+        return type(className);
+    }
+
+    /**
+     * Resolves the common super classes needed to compute stack map frames using the class loader
+     * of the struct, which is not the class loader of ASM when codecs are generated at build time.
+     */
+    private static class StructClassWriter extends ClassWriter
+    {
+        private final ClassLoader classLoader;
+
+        private StructClassWriter(ClassLoader classLoader)
+        {
+            super(ClassWriter.COMPUTE_FRAMES);
+            this.classLoader = classLoader;
+        }
+
+        @Override
+        protected String getCommonSuperClass(String type1, String type2)
+        {
+            Class<?> class1;
+            Class<?> class2;
+            try {
+                class1 = Class.forName(type1.replace('/', '.'), false, classLoader);
+                class2 = Class.forName(type2.replace('/', '.'), false, classLoader);
+            }
+            catch (ClassNotFoundException e) {
+                throw new IllegalStateException("Unable to load class for stack map frame", e);
+            }
+
+            if (class1.isAssignableFrom(class2)) {
+                return type1;
+            }
+            if (class2.isAssignableFrom(class1)) {
+                return type2;
+            }
+            if (class1.isInterface() || class2.isInterface()) {
+                return "java/lang/Object";
+            }
+            do {
+                class1 = class1.getSuperclass();
+            } while (!class1.isAssignableFrom(class2));
+            return class1.getName().replace('.', '/');
+        }
     }
 
     private static class ConstructorParameters
     {
         private final List<FieldDefinition> fields = new ArrayList<>();
+        private final List<Class<?>> types = new ArrayList<>();
         private final List<Object> values = new ArrayList<>();
 
-        private void add(FieldDefinition field, Object value)
+        private void add(FieldDefinition field, Class<?> type, Object value)
         {
             fields.add(field);
+            types.add(type);
             values.add(value);
         }
 
@@ -762,20 +1271,15 @@ public class ThriftCodecByteCodeGenerator<T>
 
         public Class<?>[] getTypes()
         {
-            List<Class<?>> types = Lists.transform(values, new Function<Object, Class<?>>()
-            {
-                public Class<?> apply(Object value)
-                {
-                    return value.getClass();
-                }
-            });
-
             return types.toArray(new Class<?>[types.size()]);
         }
     }
 
     public static ParameterizedType toParameterizedType(ThriftType type)
     {
+        if (type.isLazy()) {
+            return type(LazyThriftValue.class, toParameterizedType(type.getValueType()));
+        }
         switch (type.getProtocolType()) {
             case BOOL:
             case BYTE:
@@ -792,6 +1296,9 @@ public class ThriftCodecByteCodeGenerator<T>
             case SET:
                 return type(Set.class, toParameterizedType(type.getValueType()));
             case LIST:
+                if (ARRAY_READ_METHODS.containsKey(type.getJavaType())) {
+                    return type((Class<?>) type.getJavaType());
+                }
                 return type(List.class, toParameterizedType(type.getValueType()));
             default:
                 throw new IllegalArgumentException("Unsupported thrift field type " + type);
@@ -801,6 +1308,10 @@ public class ThriftCodecByteCodeGenerator<T>
     static {
         ImmutableMap.Builder<ThriftProtocolType, Method> writeBuilder = ImmutableMap.builder();
         ImmutableMap.Builder<ThriftProtocolType, Method> readBuilder = ImmutableMap.builder();
+        ImmutableMap.Builder<Type, Method> arrayWriteBuilder = ImmutableMap.builder();
+        ImmutableMap.Builder<Type, Method> arrayReadBuilder = ImmutableMap.builder();
+        ImmutableMap.Builder<ThriftProtocolType, Method> sizeBuilder = ImmutableMap.builder();
+        ImmutableMap.Builder<Type, Method> arraySizeBuilder = ImmutableMap.builder();
 
         try {
             writeBuilder.put(BOOL, TProtocolWriter.class.getMethod("writeBoolField", String.class, short.class, boolean.class));
@@ -828,11 +1339,46 @@ public class ThriftCodecByteCodeGenerator<T>
             readBuilder.put(SET, TProtocolReader.class.getMethod("readSetField", ThriftCodec.class));
             readBuilder.put(LIST, TProtocolReader.class.getMethod("readListField", ThriftCodec.class));
             readBuilder.put(ENUM, TProtocolReader.class.getMethod("readEnumField", ThriftCodec.class));
+
+            arrayWriteBuilder.put(int[].class, TProtocolWriter.class.getMethod("writeI32ArrayField", String.class, short.class, int[].class));
+            arrayWriteBuilder.put(long[].class, TProtocolWriter.class.getMethod("writeI64ArrayField", String.class, short.class, long[].class));
+            arrayWriteBuilder.put(double[].class, TProtocolWriter.class.getMethod("writeDoubleArrayField", String.class, short.class, double[].class));
+
+            arrayReadBuilder.put(int[].class, TProtocolReader.class.getMethod("readI32ArrayField"));
+            arrayReadBuilder.put(long[].class, TProtocolReader.class.getMethod("readI64ArrayField"));
+            arrayReadBuilder.put(double[].class, TProtocolReader.class.getMethod("readDoubleArrayField"));
+
+            sizeBuilder.put(BOOL, ThriftSizes.class.getMethod("fieldSize", boolean.class));
+            sizeBuilder.put(BYTE, ThriftSizes.class.getMethod("fieldSize", byte.class));
+            sizeBuilder.put(DOUBLE, ThriftSizes.class.getMethod("fieldSize", double.class));
+            sizeBuilder.put(I16, ThriftSizes.class.getMethod("fieldSize", short.class));
+            sizeBuilder.put(I32, ThriftSizes.class.getMethod("fieldSize", int.class));
+            sizeBuilder.put(I64, ThriftSizes.class.getMethod("fieldSize", long.class));
+            sizeBuilder.put(STRING, ThriftSizes.class.getMethod("fieldSize", ByteBuffer.class));
+
+            arraySizeBuilder.put(int[].class, ThriftSizes.class.getMethod("fieldSize", int[].class));
+            arraySizeBuilder.put(long[].class, ThriftSizes.class.getMethod("fieldSize", long[].class));
+            arraySizeBuilder.put(double[].class, ThriftSizes.class.getMethod("fieldSize", double[].class));
+
+            CODEC_SIZE_METHOD = ThriftSizes.class.getMethod("fieldSize", ThriftCodec.class, Object.class);
+            STRING_SIZE_METHOD = ThriftSizes.class.getMethod("fieldSize", String.class);
+            LAZY_WRITE_METHOD = TProtocolWriter.class.getMethod("writeField", String.class, short.class, ThriftCodec.class, Object.class);
+            LAZY_READ_METHOD = TProtocolReader.class.getMethod("readField", ThriftCodec.class);
+            ENUM_CODEC_WRITE_METHOD = TProtocolWriter.class.getMethod("writeEnumField", String.class, short.class, EnumThriftCodec.class, Enum.class);
+            ENUM_CODEC_READ_METHOD = TProtocolReader.class.getMethod("readEnumField", EnumThriftCodec.class);
+            STRING_WRITE_METHOD = TProtocolWriter.class.getMethod("writeStringField", String.class, short.class, String.class);
+            STRING_READ_METHOD = TProtocolReader.class.getMethod("readStringField");
+            BYTE_BUFFER_TO_STRING_METHOD = DefaultJavaCoercions.class.getMethod("byteBufferToString", ByteBuffer.class);
+            STRING_TO_BYTE_BUFFER_METHOD = DefaultJavaCoercions.class.getMethod("stringToByteBuffer", String.class);
         }
         catch (NoSuchMethodException e) {
             throw Throwables.propagate(e);
         }
         WRITE_METHODS = writeBuilder.build();
         READ_METHODS = readBuilder.build();
+        ARRAY_WRITE_METHODS = arrayWriteBuilder.build();
+        ARRAY_READ_METHODS = arrayReadBuilder.build();
+        SIZE_METHODS = sizeBuilder.build();
+        ARRAY_SIZE_METHODS = arraySizeBuilder.build();
     }
 }
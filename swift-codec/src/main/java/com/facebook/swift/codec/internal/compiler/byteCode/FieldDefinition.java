@@ -30,12 +30,22 @@ public class FieldDefinition
     private final ImmutableSet<Access> access;
     private final String name;
     private final ParameterizedType type;
+    private final Object value;
 
     public FieldDefinition(EnumSet<Access> access, String name, ParameterizedType type)
+    {
+        this(access, name, type, null);
+    }
+
+    /**
+     * Declares a field with a constant value, which is only used for static fields.
+     */
+    public FieldDefinition(EnumSet<Access> access, String name, ParameterizedType type, Object value)
     {
         this.access = Sets.immutableEnumSet(access);
         this.name = name;
         this.type = type;
+        this.value = value;
     }
 
     public ImmutableSet<Access> getAccess()
@@ -60,7 +70,7 @@ public class FieldDefinition
                 name,
                 type.getType(),
                 type.getGenericSignature(),
-                null);
+                value);
     }
 
     @Override
@@ -31,6 +31,7 @@ import org.objectweb.asm.tree.LdcInsnNode;
 import org.objectweb.asm.tree.LookupSwitchInsnNode;
 import org.objectweb.asm.tree.MethodInsnNode;
 import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.TryCatchBlockNode;
 import org.objectweb.asm.tree.TypeInsnNode;
 import org.objectweb.asm.tree.VarInsnNode;
 
@@ -64,6 +65,7 @@ public class MethodDefinition
     private final List<ParameterizedType> parameters;
     private final List<ParameterizedType> exceptions = new ArrayList<>();
     private final InsnList instructionList = new InsnList();
+    private final List<TryCatchBlockNode> tryCatchBlocks = new ArrayList<>();
 
     private final Map<String, LocalVariableDefinition> localVariables = new TreeMap<>();
     private final Map<String, Label> labels = new TreeMap<>();
@@ -182,6 +184,16 @@ public class MethodDefinition
         return new LabelNode(label);
     }
 
+    /**
+     * Adds an exception handler for the instructions between the start and end labels. When
+     * the handler label is reached the caught exception is on the stack.
+     */
+    public MethodDefinition tryCatch(String startLabel, String endLabel, String handlerLabel, Class<? extends Throwable> exceptionType)
+    {
+        tryCatchBlocks.add(new TryCatchBlockNode(getLabel(startLabel), getLabel(endLabel), getLabel(handlerLabel), type(exceptionType).getClassName()));
+        return this;
+    }
+
     public MethodDefinition switchStatement(String defaultCase, CaseStatement... cases)
     {
         switchStatement(defaultCase, ImmutableList.copyOf(cases));
@@ -220,6 +232,7 @@ public class MethodDefinition
             methodNode.exceptions.add(exception.getClassName());
         }
         methodNode.instructions.add(instructionList);
+        methodNode.tryCatchBlocks = new ArrayList<>(tryCatchBlocks);
         return methodNode;
     }
 
@@ -400,12 +413,24 @@ public class MethodDefinition
         return this;
     }
 
+    public MethodDefinition retInt()
+    {
+        instructionList.add(new InsnNode(IRETURN));
+        return this;
+    }
+
     public MethodDefinition retObject()
     {
         instructionList.add(new InsnNode(ARETURN));
         return this;
     }
 
+    public MethodDefinition throwObject()
+    {
+        instructionList.add(new InsnNode(ATHROW));
+        return this;
+    }
+
     public MethodDefinition newObject(Class<?> type)
     {
         instructionList.add(new TypeInsnNode(NEW, type(type).getClassName()));
@@ -418,6 +443,12 @@ public class MethodDefinition
         return this;
     }
 
+    public MethodDefinition addInt()
+    {
+        instructionList.add(new InsnNode(IADD));
+        return this;
+    }
+
     public MethodDefinition dup()
     {
         instructionList.add(new InsnNode(DUP));
@@ -17,8 +17,10 @@ package com.facebook.swift.codec.internal.reflection;
 
 import com.facebook.swift.codec.ThriftCodec;
 import com.facebook.swift.codec.ThriftCodecManager;
+import com.facebook.swift.codec.ThriftSizedCodec;
 import com.facebook.swift.codec.internal.TProtocolReader;
 import com.facebook.swift.codec.internal.TProtocolWriter;
+import com.facebook.swift.codec.internal.ThriftSizes;
 import com.facebook.swift.codec.metadata.ThriftConstructorInjection;
 import com.facebook.swift.codec.metadata.ThriftExtraction;
 import com.facebook.swift.codec.metadata.ThriftFieldExtractor;
@@ -30,38 +32,123 @@ import com.facebook.swift.codec.metadata.ThriftMethodInjection;
 import com.facebook.swift.codec.metadata.ThriftParameterInjection;
 import com.facebook.swift.codec.metadata.ThriftStructMetadata;
 import com.facebook.swift.codec.metadata.ThriftType;
+import com.google.common.base.Defaults;
 import com.google.common.base.Throwables;
-import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.ImmutableList;
+import com.google.common.reflect.TypeToken;
 import org.apache.thrift.protocol.TProtocol;
 
 import javax.annotation.concurrent.Immutable;
-import java.lang.reflect.InvocationTargetException;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.SortedMap;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
 
 import static java.lang.String.format;
 
+/**
+ * Reflection based codec for structs that cannot use generated codecs.  The constructor, field
+ * injections, method injections and extractors are bound to method handles when the codec is
+ * created, and the field values of a struct being read are kept in an array indexed by the
+ * position of the field in the struct, so reading does not box field ids or hash them.
+ */
 @Immutable
-public class ReflectionThriftCodec<T> implements ThriftCodec<T>
+public class ReflectionThriftCodec<T> implements ThriftSizedCodec<T>
 {
+    private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+    private static final MethodType SETTER_TYPE = MethodType.methodType(void.class, Object.class, Object.class);
+    private static final MethodType CONSTRUCTOR_TYPE = MethodType.methodType(Object.class, Object[].class);
+    private static final MethodType METHOD_TYPE = MethodType.methodType(void.class, Object.class, Object[].class);
+    private static final MethodType BUILDER_METHOD_TYPE = MethodType.methodType(Object.class, Object.class, Object[].class);
+
     private final ThriftStructMetadata<T> metadata;
-    private final SortedMap<Short, ThriftCodec<?>> fields;
+    private final ThriftType type;
+
+    // sorted field ids; the index of an id is the slot of the field
+    private final short[] fieldIds;
+    private final ThriftFieldMetadata[] fields;
+    private final ThriftCodec<?>[] codecs;
+    // codecs of the fields that are read, or null for fields that are skipped
+    private final ThriftCodec<?>[] readCodecs;
+    // extractors of the fields that are written, or null for read only fields
+    private final MethodHandle[] getters;
+
+    private final Invocation constructor;
+    private final List<FieldSetter> fieldSetters;
+    private final List<Invocation> methodInjections;
+    private final Invocation builderMethod;
 
     public ReflectionThriftCodec(ThriftCodecManager manager, ThriftStructMetadata<T> metadata)
+    {
+        this(manager, metadata, null);
+    }
+
+    /**
+     * Creates a codec that only reads the fields with the specified ids; if fieldIds is null all
+     * fields are read.
+     */
+    public ReflectionThriftCodec(ThriftCodecManager manager, ThriftStructMetadata<T> metadata, Set<Short> fieldIds)
     {
         this.metadata = metadata;
-        ImmutableSortedMap.Builder<Short, ThriftCodec<?>> fields = ImmutableSortedMap.naturalOrder();
-        for (ThriftFieldMetadata fieldMetadata : metadata.getFields()) {
-            fields.put(fieldMetadata.getId(), manager.getCodec(fieldMetadata.getType()));
+        this.type = ThriftType.struct(metadata);
+
+        // metadata fields are sorted by id
+        int fieldCount = metadata.getFields().size();
+        this.fieldIds = new short[fieldCount];
+        this.fields = new ThriftFieldMetadata[fieldCount];
+        this.codecs = new ThriftCodec<?>[fieldCount];
+        this.readCodecs = new ThriftCodec<?>[fieldCount];
+        this.getters = new MethodHandle[fieldCount];
+
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        ImmutableList.Builder<FieldSetter> fieldSetters = ImmutableList.builder();
+        try {
+            int slot = 0;
+            for (ThriftFieldMetadata field : metadata.getFields()) {
+                this.fieldIds[slot] = field.getId();
+                fields[slot] = field;
+                codecs[slot] = manager.getCodec(field.getType());
+                if ((fieldIds == null || fieldIds.contains(field.getId())) && !field.isWriteOnly()) {
+                    readCodecs[slot] = codecs[slot];
+                }
+                if (!field.isReadOnly()) {
+                    getters[slot] = getGetter(lookup, field.getExtraction());
+                }
+                for (ThriftInjection injection : field.getInjections()) {
+                    if (injection instanceof ThriftFieldInjection) {
+                        MethodHandle setter = lookup.unreflectSetter(((ThriftFieldInjection) injection).getField()).asType(SETTER_TYPE);
+                        fieldSetters.add(new FieldSetter(setter, slot));
+                    }
+                }
+                slot++;
+            }
+            this.fieldSetters = fieldSetters.build();
+
+            ThriftConstructorInjection constructorInjection = metadata.getConstructor();
+            MethodHandle constructorHandle = lookup.unreflectConstructor(constructorInjection.getConstructor()).asFixedArity();
+            this.constructor = new Invocation(
+                    constructorHandle.asSpreader(Object[].class, constructorHandle.type().parameterCount()).asType(CONSTRUCTOR_TYPE),
+                    constructorInjection.getParameters());
+
+            ImmutableList.Builder<Invocation> methodInjections = ImmutableList.builder();
+            for (ThriftMethodInjection methodInjection : metadata.getMethodInjections()) {
+                methodInjections.add(toInvocation(lookup, methodInjection, METHOD_TYPE));
+            }
+            this.methodInjections = methodInjections.build();
+
+            this.builderMethod = metadata.getBuilderMethod() == null ? null : toInvocation(lookup, metadata.getBuilderMethod(), BUILDER_METHOD_TYPE);
+        }
+        catch (IllegalAccessException e) {
+            throw new IllegalArgumentException(format("Struct %s is not accessible", metadata.getStructClass().getName()), e);
         }
-        this.fields = fields.build();
     }
 
     @Override
     public ThriftType getType()
     {
-        return ThriftType.struct(metadata);
+        return type;
     }
 
     @Override
@@ -71,31 +158,17 @@ public class ReflectionThriftCodec<T> implements ThriftCodec<T>
         TProtocolReader reader = new TProtocolReader(protocol);
         reader.readStructBegin();
 
-        Map<Short, Object> data = new HashMap<>(metadata.getFields().size());
+        Object[] data = new Object[fieldIds.length];
         while (reader.nextField()) {
-            short fieldId = reader.getFieldId();
-
-            // do we have a codec for this field
-            ThriftCodec<?> codec = fields.get(fieldId);
-            if (codec == null) {
-                reader.skipFieldData();
-                continue;
-            }
-
-            // is this field readable
-            ThriftFieldMetadata field = metadata.getField(fieldId);
-            if (field.isWriteOnly()) {
+            // do we have a codec for this field, and was it requested
+            int slot = Arrays.binarySearch(fieldIds, reader.getFieldId());
+            if (slot < 0 || readCodecs[slot] == null) {
                 reader.skipFieldData();
                 continue;
             }
 
             // read the value
-            Object value = reader.readField(codec);
-            if (value == null) {
-                continue;
-            }
-
-            data.put(fieldId, value);
+            data[slot] = reader.readField(readCodecs[slot]);
         }
         reader.readStructEnd();
 
@@ -110,97 +183,67 @@ public class ReflectionThriftCodec<T> implements ThriftCodec<T>
         TProtocolWriter writer = new TProtocolWriter(protocol);
         writer.writeStructBegin(metadata.getStructName());
 
-        for (ThriftFieldMetadata fieldMetadata : metadata.getFields()) {
+        for (int slot = 0; slot < fields.length; slot++) {
             // is the field writable?
-            if (fieldMetadata.isReadOnly()) {
+            if (getters[slot] == null) {
                 continue;
             }
 
             // get the field value
-            Object fieldValue = getFieldValue(instance, fieldMetadata);
+            Object fieldValue = getFieldValue(instance, slot);
 
             // write the field
             if (fieldValue != null) {
-                ThriftCodec<Object> codec = (ThriftCodec<Object>) fields.get(fieldMetadata.getId());
-                writer.writeField(fieldMetadata.getName(), fieldMetadata.getId(), codec, fieldValue);
+                ThriftCodec<Object> codec = (ThriftCodec<Object>) codecs[slot];
+                writer.writeField(fields[slot].getName(), fieldIds[slot], codec, fieldValue);
             }
         }
         writer.writeStructEnd();
     }
 
-    private T constructStruct(Map<Short, Object> data)
+    @Override
+    public int sizeOf(T instance)
             throws Exception
     {
-        // construct instance
-        Object instance;
-        {
-            ThriftConstructorInjection constructor = metadata.getConstructor();
-            Object[] parametersValues = new Object[constructor.getParameters().size()];
-            for (ThriftParameterInjection parameter : constructor.getParameters()) {
-                Object value = data.get(parameter.getId());
-                parametersValues[parameter.getParameterIndex()] = value;
+        int size = ThriftSizes.FIELD_STOP_SIZE;
+        for (int slot = 0; slot < fields.length; slot++) {
+            if (getters[slot] == null) {
+                continue;
             }
 
-            try {
-                instance = constructor.getConstructor().newInstance(parametersValues);
-            }
-            catch (InvocationTargetException e) {
-                if (e.getTargetException() != null) {
-                    Throwables.propagateIfInstanceOf(e.getTargetException(), Exception.class);
-                }
-                throw e;
+            Object fieldValue = getFieldValue(instance, slot);
+            if (fieldValue != null) {
+                size += ThriftSizes.fieldSize(codecs[slot], fieldValue);
             }
         }
+        return size;
+    }
 
-        // inject fields
-        for (ThriftFieldMetadata fieldMetadata : metadata.getFields()) {
-            for (ThriftInjection injection : fieldMetadata.getInjections()) {
-                if (injection instanceof ThriftFieldInjection) {
-                    ThriftFieldInjection fieldInjection = (ThriftFieldInjection) injection;
-                    Object value = data.get(fieldInjection.getId());
-                    if (value != null) {
-                        fieldInjection.getField().set(instance, value);
-                    }
-                }
-            }
-        }
+    private T constructStruct(Object[] data)
+            throws Exception
+    {
+        try {
+            // construct instance
+            Object instance = (Object) constructor.getHandle().invokeExact(constructor.getArguments(data));
 
-        // inject methods
-        for (ThriftMethodInjection methodInjection : metadata.getMethodInjections()) {
-            boolean shouldInvoke = false;
-            Object[] parametersValues = new Object[methodInjection.getParameters().size()];
-            for (ThriftParameterInjection parameter : methodInjection.getParameters()) {
-                Object value = data.get(parameter.getId());
+            // inject fields
+            for (FieldSetter fieldSetter : fieldSetters) {
+                Object value = data[fieldSetter.getSlot()];
                 if (value != null) {
-                    parametersValues[parameter.getParameterIndex()] = value;
-                    shouldInvoke = true;
+                    fieldSetter.getHandle().invokeExact(instance, value);
                 }
             }
 
-            if (shouldInvoke) {
-                try {
-                    methodInjection.getMethod().invoke(instance, parametersValues);
+            // inject methods
+            for (Invocation methodInjection : methodInjections) {
+                if (methodInjection.hasArguments(data)) {
+                    methodInjection.getHandle().invokeExact(instance, methodInjection.getArguments(data));
                 }
-                catch (InvocationTargetException e) {
-                    if (e.getTargetException() != null) {
-                        Throwables.propagateIfInstanceOf(e.getTargetException(), Exception.class);
-                    }
-                    throw e;
-                }
-            }
-        }
-
-        // builder method
-        if (metadata.getBuilderMethod() != null) {
-            ThriftMethodInjection builderMethod = metadata.getBuilderMethod();
-            Object[] parametersValues = new Object[builderMethod.getParameters().size()];
-            for (ThriftParameterInjection parameter : builderMethod.getParameters()) {
-                Object value = data.get(parameter.getId());
-                parametersValues[parameter.getParameterIndex()] = value;
             }
 
-            try {
-                instance = builderMethod.getMethod().invoke(instance, parametersValues);
+            // builder method
+            if (builderMethod != null) {
+                instance = (Object) builderMethod.getHandle().invokeExact(instance, builderMethod.getArguments(data));
                 if (instance == null) {
                     throw new IllegalArgumentException("Builder method returned a null instance");
 
@@ -211,42 +254,127 @@ public class ReflectionThriftCodec<T> implements ThriftCodec<T>
                             metadata.getStructClass().getName()));
                 }
             }
-            catch (InvocationTargetException e) {
-                if (e.getTargetException() != null) {
-                    Throwables.propagateIfInstanceOf(e.getTargetException(), Exception.class);
-                }
-                throw e;
-            }
-        }
 
-        return (T) instance;
+            return (T) instance;
+        }
+        catch (Throwable e) {
+            Throwables.propagateIfInstanceOf(e, Exception.class);
+            throw Throwables.propagate(e);
+        }
     }
 
-    private Object getFieldValue(Object instance, ThriftFieldMetadata field)
+    private Object getFieldValue(Object instance, int slot)
             throws Exception
     {
         try {
-            ThriftExtraction extraction = field.getExtraction();
-            Object value;
-            if (extraction instanceof ThriftFieldExtractor) {
-                ThriftFieldExtractor thriftFieldExtractor = (ThriftFieldExtractor) extraction;
-                value = thriftFieldExtractor.getField().get(instance);
-            }
-            else if (extraction instanceof ThriftMethodExtractor) {
-                ThriftMethodExtractor thriftMethodExtractor = (ThriftMethodExtractor) extraction;
-                value = thriftMethodExtractor.getMethod().invoke(instance);
-            }
-            else {
-                throw new IllegalAccessException("Unsupported field extractor type " + extraction.getClass().getName());
+            return (Object) getters[slot].invokeExact(instance);
+        }
+        catch (Throwable e) {
+            Throwables.propagateIfInstanceOf(e, Exception.class);
+            throw Throwables.propagate(e);
+        }
+    }
+
+    private static MethodHandle getGetter(MethodHandles.Lookup lookup, ThriftExtraction extraction)
+            throws IllegalAccessException
+    {
+        if (extraction instanceof ThriftFieldExtractor) {
+            return lookup.unreflectGetter(((ThriftFieldExtractor) extraction).getField()).asType(GETTER_TYPE);
+        }
+        else if (extraction instanceof ThriftMethodExtractor) {
+            return lookup.unreflect(((ThriftMethodExtractor) extraction).getMethod()).asType(GETTER_TYPE);
+        }
+        else {
+            throw new IllegalArgumentException("Unsupported field extractor type " + extraction.getClass().getName());
+        }
+    }
+
+    private Invocation toInvocation(MethodHandles.Lookup lookup, ThriftMethodInjection methodInjection, MethodType methodType)
+            throws IllegalAccessException
+    {
+        MethodHandle handle = lookup.unreflect(methodInjection.getMethod()).asFixedArity();
+        // the receiver is the first parameter of the handle
+        handle = handle.asSpreader(Object[].class, handle.type().parameterCount() - 1).asType(methodType);
+        return new Invocation(handle, methodInjection.getParameters());
+    }
+
+    private int getSlot(short fieldId)
+    {
+        int slot = Arrays.binarySearch(fieldIds, fieldId);
+        if (slot < 0) {
+            throw new IllegalArgumentException(format("Struct %s does not have a field %s", metadata.getStructName(), fieldId));
+        }
+        return slot;
+    }
+
+    @Immutable
+    private static class FieldSetter
+    {
+        private final MethodHandle handle;
+        private final int slot;
+
+        private FieldSetter(MethodHandle handle, int slot)
+        {
+            this.handle = handle;
+            this.slot = slot;
+        }
+
+        public MethodHandle getHandle()
+        {
+            return handle;
+        }
+
+        public int getSlot()
+        {
+            return slot;
+        }
+    }
+
+    /**
+     * A constructor or method with the slots of its parameters.  Parameters without a value are
+     * passed as null, or as the default value for primitive parameters.
+     */
+    @Immutable
+    private class Invocation
+    {
+        private final MethodHandle handle;
+        private final int[] slots;
+        private final Object[] defaults;
+
+        private Invocation(MethodHandle handle, List<ThriftParameterInjection> parameters)
+        {
+            this.handle = handle;
+            this.slots = new int[parameters.size()];
+            this.defaults = new Object[parameters.size()];
+            for (ThriftParameterInjection parameter : parameters) {
+                slots[parameter.getParameterIndex()] = getSlot(parameter.getId());
+                defaults[parameter.getParameterIndex()] = Defaults.defaultValue(TypeToken.of(parameter.getJavaType()).getRawType());
             }
+        }
 
-            return value;
+        public MethodHandle getHandle()
+        {
+            return handle;
         }
-        catch (InvocationTargetException e) {
-            if (e.getTargetException() != null) {
-                Throwables.propagateIfInstanceOf(e.getTargetException(), Exception.class);
+
+        public boolean hasArguments(Object[] data)
+        {
+            for (int slot : slots) {
+                if (data[slot] != null) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        public Object[] getArguments(Object[] data)
+        {
+            Object[] arguments = new Object[slots.length];
+            for (int i = 0; i < slots.length; i++) {
+                Object value = data[slots[i]];
+                arguments[i] = value != null ? value : defaults[i];
             }
-            throw e;
+            return arguments;
         }
     }
 }
@@ -17,20 +17,27 @@ package com.facebook.swift.codec.internal.reflection;
 
 import com.facebook.swift.codec.ThriftCodec;
 import com.facebook.swift.codec.ThriftCodecManager;
-import com.facebook.swift.codec.internal.ThriftCodecFactory;
+import com.facebook.swift.codec.internal.ProjectingThriftCodecFactory;
 import com.facebook.swift.codec.metadata.ThriftStructMetadata;
 
 import javax.annotation.concurrent.Immutable;
+import java.util.Set;
 
 /**
  * Creates reflection based thrift codecs.
  */
 @Immutable
-public class ReflectionThriftCodecFactory implements ThriftCodecFactory
+public class ReflectionThriftCodecFactory implements ProjectingThriftCodecFactory
 {
     @Override
     public <T> ThriftCodec<T> generateThriftTypeCodec(ThriftCodecManager codecManager, ThriftStructMetadata<T> metadata)
     {
         return new ReflectionThriftCodec<>(codecManager, metadata);
     }
+
+    @Override
+    public <T> ThriftCodec<T> generateThriftTypeCodec(ThriftCodecManager codecManager, ThriftStructMetadata<T> metadata, Set<Short> fieldIds)
+    {
+        return new ReflectionThriftCodec<>(codecManager, metadata, fieldIds);
+    }
 }
@@ -15,6 +15,7 @@
  */
 package com.facebook.swift.codec.metadata;
 
+import com.facebook.swift.codec.LazyThriftValue;
 import com.facebook.swift.codec.ThriftField;
 import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
@@ -53,6 +54,7 @@ public final class ReflectionHelper
     private static final Type ITERATOR_TYPE;
     private static final Type ITERATOR_ELEMENT_TYPE;
     private static final Type FUTURE_RETURN_TYPE;
+    private static final Type LAZY_VALUE_TYPE;
 
     static {
         try {
@@ -65,6 +67,8 @@ public final class ReflectionHelper
 
             Method futureGetMethod = Future.class.getMethod("get");
             FUTURE_RETURN_TYPE = futureGetMethod.getGenericReturnType();
+
+            LAZY_VALUE_TYPE = LazyThriftValue.class.getMethod("get").getGenericReturnType();
         }
         catch (Exception e) {
             throw Throwables.propagate(e);
@@ -91,6 +95,11 @@ public final class ReflectionHelper
         return TypeToken.of(type).resolveType(FUTURE_RETURN_TYPE).getType();
     }
 
+    public static Type getLazyValueType(Type type)
+    {
+        return TypeToken.of(type).resolveType(LAZY_VALUE_TYPE).getType();
+    }
+
     public static <T extends Annotation> Set<T> getAllClassAnnotations(Class<?> type, Class<T> annotation)
     {
         // if the class is directly annotated, it is considered the only annotation
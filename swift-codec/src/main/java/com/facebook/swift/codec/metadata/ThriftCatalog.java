@@ -15,6 +15,7 @@
  */
 package com.facebook.swift.codec.metadata;
 
+import com.facebook.swift.codec.LazyThriftValue;
 import com.facebook.swift.codec.ThriftStruct;
 import com.facebook.swift.codec.internal.coercion.DefaultJavaCoercions;
 import com.facebook.swift.codec.internal.coercion.FromThrift;
@@ -44,17 +45,22 @@ import javax.annotation.concurrent.ThreadSafe;
 
 import static com.facebook.swift.codec.metadata.ReflectionHelper.getFutureReturnType;
 import static com.facebook.swift.codec.metadata.ReflectionHelper.getIterableType;
+import static com.facebook.swift.codec.metadata.ReflectionHelper.getLazyValueType;
 import static com.facebook.swift.codec.metadata.ReflectionHelper.getMapKeyType;
 import static com.facebook.swift.codec.metadata.ReflectionHelper.getMapValueType;
 import static com.facebook.swift.codec.metadata.ThriftType.BOOL;
 import static com.facebook.swift.codec.metadata.ThriftType.BYTE;
 import static com.facebook.swift.codec.metadata.ThriftType.DOUBLE;
+import static com.facebook.swift.codec.metadata.ThriftType.DOUBLE_ARRAY;
 import static com.facebook.swift.codec.metadata.ThriftType.I16;
 import static com.facebook.swift.codec.metadata.ThriftType.I32;
+import static com.facebook.swift.codec.metadata.ThriftType.I32_ARRAY;
 import static com.facebook.swift.codec.metadata.ThriftType.I64;
+import static com.facebook.swift.codec.metadata.ThriftType.I64_ARRAY;
 import static com.facebook.swift.codec.metadata.ThriftType.STRING;
 import static com.facebook.swift.codec.metadata.ThriftType.VOID;
 import static com.facebook.swift.codec.metadata.ThriftType.enumType;
+import static com.facebook.swift.codec.metadata.ThriftType.lazy;
 import static com.facebook.swift.codec.metadata.ThriftType.list;
 import static com.facebook.swift.codec.metadata.ThriftType.map;
 import static com.facebook.swift.codec.metadata.ThriftType.set;
@@ -225,6 +231,15 @@ public class ThriftCatalog
         if (double.class == rawType) {
             return DOUBLE;
         }
+        if (int[].class == rawType) {
+            return I32_ARRAY;
+        }
+        if (long[].class == rawType) {
+            return I64_ARRAY;
+        }
+        if (double[].class == rawType) {
+            return DOUBLE_ARRAY;
+        }
         if (ByteBuffer.class.isAssignableFrom(rawType)) {
             return STRING;
         }
@@ -246,6 +261,10 @@ public class ThriftCatalog
             Type elementType = getIterableType(javaType);
             return list(getThriftType(elementType));
         }
+        if (LazyThriftValue.class.isAssignableFrom(rawType)) {
+            Type valueType = getLazyValueType(javaType);
+            return lazy(getThriftType(valueType));
+        }
         // The void type is used by service methods and is encoded as an empty struct
         if (void.class.isAssignableFrom(rawType) || Void.class.isAssignableFrom(rawType)) {
             return VOID;
@@ -289,6 +308,9 @@ public class ThriftCatalog
         if (double.class == rawType) {
             return true;
         }
+        if (int[].class == rawType || long[].class == rawType || double[].class == rawType) {
+            return true;
+        }
         if (ByteBuffer.class.isAssignableFrom(rawType)) {
             return true;
         }
@@ -308,6 +330,18 @@ public class ThriftCatalog
             Type elementType = getIterableType(javaType);
             return isSupportedStructFieldType(elementType);
         }
+        if (LazyThriftValue.class.isAssignableFrom(rawType)) {
+            // only structs and containers can be decoded lazily
+            Type valueType = getLazyValueType(javaType);
+            Class<?> valueRawType = TypeToken.of(valueType).getRawType();
+            if (!Iterable.class.isAssignableFrom(valueRawType) &&
+                    !Map.class.isAssignableFrom(valueRawType) &&
+                    !valueRawType.isAnnotationPresent(ThriftStruct.class) &&
+                    !valueRawType.isArray()) {
+                return false;
+            }
+            return isSupportedStructFieldType(valueType);
+        }
         if (rawType.isAnnotationPresent(ThriftStruct.class)) {
             return true;
         }
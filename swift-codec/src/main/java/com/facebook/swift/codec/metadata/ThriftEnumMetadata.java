@@ -19,6 +19,7 @@ import com.facebook.swift.codec.ThriftEnumValue;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableMap;
 
+import java.lang.reflect.Array;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.util.Map;
@@ -30,9 +31,15 @@ import static java.lang.String.format;
 @Immutable
 public class ThriftEnumMetadata<T extends Enum<T>>
 {
+    private static final int MIN_DENSE_ENUM_VALUES = 64;
+    private static final int MAX_DENSE_ENUM_VALUES_PER_CONSTANT = 4;
+
     private final Class<T> enumClass;
     private final Map<Integer, T> byEnumValue;
     private final Map<T, Integer> byEnumConstant;
+    private final T[] enumConstants;
+    private final int[] enumValuesByOrdinal;
+    private final T[] enumConstantsByValue;
 
     public ThriftEnumMetadata(Class<T> enumClass)
             throws RuntimeException
@@ -96,6 +103,35 @@ public class ThriftEnumMetadata<T extends Enum<T>>
             byEnumValue = null;
             byEnumConstant = null;
         }
+
+        // index the constants by their Thrift value, so reads and writes are array lookups
+        enumConstants = enumClass.getEnumConstants();
+        if (byEnumValue == null) {
+            enumValuesByOrdinal = null;
+            enumConstantsByValue = enumConstants;
+        }
+        else {
+            enumValuesByOrdinal = new int[enumConstants.length];
+            int maxEnumValue = -1;
+            for (T enumConstant : enumConstants) {
+                int value = byEnumConstant.get(enumConstant);
+                enumValuesByOrdinal[enumConstant.ordinal()] = value;
+                maxEnumValue = Math.max(maxEnumValue, value);
+            }
+
+            // sparse values are left to the map lookup
+            if (maxEnumValue < MAX_DENSE_ENUM_VALUES_PER_CONSTANT * enumConstants.length + MIN_DENSE_ENUM_VALUES) {
+                enumConstantsByValue = (T[]) Array.newInstance(enumClass, maxEnumValue + 1);
+                for (Map.Entry<Integer, T> entry : byEnumValue.entrySet()) {
+                    if (entry.getKey() >= 0) {
+                        enumConstantsByValue[entry.getKey()] = entry.getValue();
+                    }
+                }
+            }
+            else {
+                enumConstantsByValue = null;
+            }
+        }
     }
 
     public Class<T> getEnumClass()
@@ -118,6 +154,35 @@ public class ThriftEnumMetadata<T extends Enum<T>>
         return byEnumConstant;
     }
 
+    /**
+     * Gets the enum constant for the specified Thrift value, or null if the enum does not have a
+     * constant for the value.  Negative values never match a constant.
+     */
+    public T getEnumConstant(int enumValue)
+    {
+        if (enumValue < 0) {
+            return null;
+        }
+        if (enumConstantsByValue != null) {
+            if (enumValue < enumConstantsByValue.length) {
+                return enumConstantsByValue[enumValue];
+            }
+            return null;
+        }
+        return byEnumValue.get(enumValue);
+    }
+
+    /**
+     * Gets the Thrift value of the specified enum constant.
+     */
+    public int getEnumValue(T enumConstant)
+    {
+        if (enumValuesByOrdinal != null) {
+            return enumValuesByOrdinal[enumConstant.ordinal()];
+        }
+        return enumConstant.ordinal();
+    }
+
     @Override
     public boolean equals(Object o)
     {
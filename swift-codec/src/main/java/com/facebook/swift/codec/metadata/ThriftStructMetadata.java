@@ -42,6 +42,8 @@ public class ThriftStructMetadata<T>
     private final ThriftConstructorInjection constructor;
     private final List<ThriftMethodInjection> methodInjections;
 
+    private final boolean encodingCached;
+
     public ThriftStructMetadata(
             String structName,
             Class<T> structClass,
@@ -49,7 +51,8 @@ public class ThriftStructMetadata<T>
             ThriftMethodInjection builderMethod,
             List<ThriftFieldMetadata> fields,
             ThriftConstructorInjection constructor,
-            List<ThriftMethodInjection> methodInjections)
+            List<ThriftMethodInjection> methodInjections,
+            boolean encodingCached)
     {
         this.builderClass = builderClass;
         this.builderMethod = builderMethod;
@@ -65,6 +68,7 @@ public class ThriftStructMetadata<T>
             }
         }));
         this.methodInjections = ImmutableList.copyOf(checkNotNull(methodInjections, "methodInjections is null"));
+        this.encodingCached = encodingCached;
     }
 
     public String getStructName()
@@ -107,6 +111,11 @@ public class ThriftStructMetadata<T>
         return methodInjections;
     }
 
+    public boolean isEncodingCached()
+    {
+        return encodingCached;
+    }
+
     @Override
     public String toString()
     {
@@ -119,6 +128,7 @@ public class ThriftStructMetadata<T>
         sb.append(", fields=").append(fields);
         sb.append(", constructor=").append(constructor);
         sb.append(", methodInjections=").append(methodInjections);
+        sb.append(", encodingCached=").append(encodingCached);
         sb.append('}');
         return sb.toString();
     }
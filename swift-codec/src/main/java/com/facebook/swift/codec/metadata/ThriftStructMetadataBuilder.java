@@ -68,6 +68,7 @@ public class ThriftStructMetadataBuilder<T>
     private final String structName;
     private final Class<T> structClass;
     private final Class<?> builderClass;
+    private final boolean encodingCached;
 
     private final List<FieldMetadata> fields = newArrayList();
 
@@ -96,6 +97,8 @@ public class ThriftStructMetadataBuilder<T>
         structName = extractStructName();
         // get the builder class from the annotation or from the Java class
         builderClass = extractBuilderClass();
+        // check if the encoded form of instances is cached
+        encodingCached = extractEncodingCached();
         // extract all of the annotated constructor and report an error if
         // there is more than one or none
         // also extract thrift fields from the annotated parameters and verify
@@ -107,6 +110,12 @@ public class ThriftStructMetadataBuilder<T>
 
         // finally normalize the field metadata using things like
         normalizeThriftFields(catalog);
+
+        // a cached encoding is stale once a field changes, so the struct must not be injected
+        // after construction (builder injections happen before the struct is constructed)
+        if (encodingCached && builderClass == null && (!fieldInjections.isEmpty() || !methodInjections.isEmpty())) {
+            metadataErrors.addError("ThriftStruct %s caches its encoding but has fields that are set after construction", structName);
+        }
     }
 
     public MetadataErrors getMetadataErrors()
@@ -154,6 +163,12 @@ public class ThriftStructMetadataBuilder<T>
         }
     }
 
+    private boolean extractEncodingCached()
+    {
+        ThriftStruct annotation = structClass.getAnnotation(ThriftStruct.class);
+        return annotation != null && annotation.cacheEncoding();
+    }
+
     private void extractFromConstructors()
     {
         if (builderClass == null) {
@@ -621,7 +636,8 @@ public class ThriftStructMetadataBuilder<T>
                 builderMethodInjection,
                 ImmutableList.copyOf(fieldsMetadata),
                 constructorInjection,
-                methodInjections
+                methodInjections,
+                encodingCached
         );
     }
 
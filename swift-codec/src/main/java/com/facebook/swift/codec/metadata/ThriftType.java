@@ -15,14 +15,17 @@
  */
 package com.facebook.swift.codec.metadata;
 
+import com.facebook.swift.codec.LazyThriftValue;
 import com.facebook.swift.codec.ThriftProtocolType;
 import com.google.common.base.Preconditions;
 import com.google.common.reflect.TypeParameter;
 import com.google.common.reflect.TypeToken;
 
 import javax.annotation.concurrent.Immutable;
+import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
 import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -47,21 +50,24 @@ public class ThriftType
     public static final ThriftType STRING = new ThriftType(ThriftProtocolType.STRING, ByteBuffer.class);
     public static final ThriftType VOID = new ThriftType(ThriftProtocolType.STRUCT, void.class);
 
+    // primitive arrays are encoded as lists, but are read and written without boxing the elements
+    public static final ThriftType I32_ARRAY = new ThriftType(ThriftProtocolType.LIST, int[].class, null, I32);
+    public static final ThriftType I64_ARRAY = new ThriftType(ThriftProtocolType.LIST, long[].class, null, I64);
+    public static final ThriftType DOUBLE_ARRAY = new ThriftType(ThriftProtocolType.LIST, double[].class, null, DOUBLE);
+
     public static ThriftType struct(ThriftStructMetadata<?> structMetadata)
     {
         return new ThriftType(structMetadata);
     }
 
-    public static <K, V> ThriftType map(ThriftType keyType, ThriftType valueType)
+    public static ThriftType map(ThriftType keyType, ThriftType valueType)
     {
         checkNotNull(keyType, "keyType is null");
         checkNotNull(valueType, "valueType is null");
 
-        @SuppressWarnings("serial")
-        Type javaType = new TypeToken<Map<K, V>>(){}
-                .where(new TypeParameter<K>(){}, (TypeToken<K>) TypeToken.of(keyType.getJavaType()))
-                .where(new TypeParameter<V>(){}, (TypeToken<V>) TypeToken.of(valueType.getJavaType()))
-                .getType();
+        // chained TypeToken.where calls do not substitute the second type variable with Guava 13
+        // on Java 8, which made every map with the same key type share one java type
+        Type javaType = new MapType(keyType.getJavaType(), valueType.getJavaType());
         return new ThriftType(ThriftProtocolType.MAP, javaType, keyType, valueType);
     }
 
@@ -87,6 +93,25 @@ public class ThriftType
         return new ThriftType(ThriftProtocolType.LIST, javaType, null, valueType);
     }
 
+    public static <T> ThriftType lazy(ThriftType valueType)
+    {
+        checkNotNull(valueType, "valueType is null");
+        ThriftProtocolType protocolType = valueType.getProtocolType();
+        Preconditions.checkArgument(
+                protocolType == STRUCT ||
+                protocolType == ThriftProtocolType.SET ||
+                protocolType == ThriftProtocolType.LIST ||
+                protocolType == ThriftProtocolType.MAP,
+                "Lazy decoding is not supported for %s", protocolType
+        );
+
+        @SuppressWarnings("serial")
+        Type javaType = new TypeToken<LazyThriftValue<T>>(){}
+                .where(new TypeParameter<T>(){}, (TypeToken<T>) TypeToken.of(valueType.getJavaType()))
+                .getType();
+        return new ThriftType(valueType, javaType, true);
+    }
+
     public static ThriftType enumType(ThriftEnumMetadata<?> enumMetadata)
     {
         checkNotNull(enumMetadata, "enumMetadata is null");
@@ -100,6 +125,7 @@ public class ThriftType
     private final ThriftStructMetadata<?> structMetadata;
     private final ThriftEnumMetadata<?> enumMetadata;
     private final ThriftType uncoercedType;
+    private final boolean lazy;
 
     private ThriftType(ThriftProtocolType protocolType, Type javaType)
     {
@@ -113,6 +139,7 @@ public class ThriftType
         structMetadata = null;
         enumMetadata = null;
         uncoercedType = null;
+        lazy = false;
     }
 
     private ThriftType(ThriftProtocolType protocolType, Type javaType, ThriftType keyType, ThriftType valueType)
@@ -128,6 +155,7 @@ public class ThriftType
         this.structMetadata = null;
         this.enumMetadata = null;
         this.uncoercedType = null;
+        this.lazy = false;
     }
 
     private ThriftType(ThriftStructMetadata<?> structMetadata)
@@ -141,6 +169,7 @@ public class ThriftType
         this.structMetadata = structMetadata;
         this.enumMetadata = null;
         this.uncoercedType = null;
+        this.lazy = false;
     }
 
     private ThriftType(ThriftEnumMetadata<?> enumMetadata)
@@ -154,6 +183,7 @@ public class ThriftType
         this.structMetadata = null;
         this.enumMetadata = enumMetadata;
         this.uncoercedType = null;
+        this.lazy = false;
     }
 
     public ThriftType(ThriftType uncoercedType, Type javaType)
@@ -166,6 +196,19 @@ public class ThriftType
         valueType = null;
         structMetadata = null;
         enumMetadata = null;
+        lazy = false;
+    }
+
+    private ThriftType(ThriftType valueType, Type javaType, boolean lazy)
+    {
+        this.protocolType = valueType.getProtocolType();
+        this.javaType = javaType;
+        keyType = null;
+        this.valueType = valueType;
+        structMetadata = null;
+        enumMetadata = null;
+        uncoercedType = null;
+        this.lazy = lazy;
     }
 
     public Type getJavaType()
@@ -207,6 +250,14 @@ public class ThriftType
         return uncoercedType != null;
     }
 
+    /**
+     * Returns true if this is a {@link LazyThriftValue} holder for the value type.
+     */
+    public boolean isLazy()
+    {
+        return lazy;
+    }
+
     public ThriftType coerceTo(Type javaType)
     {
         if (javaType == this.javaType) {
@@ -278,4 +329,65 @@ public class ThriftType
         sb.append('}');
         return sb.toString();
     }
+
+    private static final class MapType
+            implements ParameterizedType
+    {
+        private final Type keyType;
+        private final Type valueType;
+
+        private MapType(Type keyType, Type valueType)
+        {
+            this.keyType = keyType;
+            this.valueType = valueType;
+        }
+
+        @Override
+        public Type[] getActualTypeArguments()
+        {
+            return new Type[] {keyType, valueType};
+        }
+
+        @Override
+        public Type getRawType()
+        {
+            return Map.class;
+        }
+
+        @Override
+        public Type getOwnerType()
+        {
+            return null;
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (!(o instanceof ParameterizedType)) {
+                return false;
+            }
+            ParameterizedType that = (ParameterizedType) o;
+            return Map.class.equals(that.getRawType()) &&
+                    that.getOwnerType() == null &&
+                    Arrays.equals(getActualTypeArguments(), that.getActualTypeArguments());
+        }
+
+        @Override
+        public int hashCode()
+        {
+            // same as the JDK and Guava implementations, so equal types hash alike
+            return Arrays.hashCode(getActualTypeArguments()) ^ Map.class.hashCode();
+        }
+
+        @Override
+        public String toString()
+        {
+            return Map.class.getName() + "<" + typeName(keyType) + ", " + typeName(valueType) + ">";
+        }
+
+        private static String typeName(Type type)
+        {
+            return (type instanceof Class) ? ((Class<?>) type).getName() : type.toString();
+        }
+    }
 }
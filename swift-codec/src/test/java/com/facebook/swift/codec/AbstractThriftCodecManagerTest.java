@@ -15,29 +15,42 @@
  */
 package com.facebook.swift.codec;
 
+import com.facebook.swift.codec.internal.TDirectBinaryProtocol;
+import com.facebook.swift.codec.internal.TDirectCompactProtocol;
 import com.facebook.swift.codec.internal.builtin.BooleanThriftCodec;
+import com.facebook.swift.codec.internal.builtin.CachedEncodingThriftCodec;
 import com.facebook.swift.codec.internal.builtin.SetThriftCodec;
 import com.facebook.swift.codec.internal.coercion.DefaultJavaCoercions;
 import com.facebook.swift.codec.metadata.ThriftCatalog;
 import com.facebook.swift.codec.metadata.ThriftStructMetadata;
 import com.facebook.swift.codec.metadata.ThriftType;
+import com.google.common.base.Strings;
 import com.google.common.collect.HashBiMap;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.reflect.TypeToken;
+import org.apache.thrift.protocol.TBinaryProtocol;
 import org.apache.thrift.protocol.TCompactProtocol;
+import org.apache.thrift.protocol.TProtocolFactory;
 import org.apache.thrift.transport.TMemoryBuffer;
+import org.apache.thrift.transport.TMemoryInputTransport;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
 import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
 import static com.google.common.base.Charsets.UTF_8;
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
 import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
 
 public abstract class AbstractThriftCodecManagerTest
 {
@@ -183,6 +196,217 @@ public abstract class AbstractThriftCodecManagerTest
         testRoundTripSerialize(coercion);
     }
 
+    @Test
+    public void testPrimitiveArrays()
+            throws Exception
+    {
+        PrimitiveArrays arrays = new PrimitiveArrays(
+                new int[] {1, -2, Integer.MAX_VALUE},
+                new long[] {3L, -4L, Long.MIN_VALUE},
+                new double[] {5.5, -6.6, Double.NaN});
+        testRoundTripSerialize(arrays);
+
+        testRoundTripSerialize(new PrimitiveArrays(new int[0], new long[0], new double[0]));
+        testRoundTripSerialize(new PrimitiveArrays());
+    }
+
+    @Test
+    public void testPrimitiveArraysMatchListEncoding()
+            throws Exception
+    {
+        TMemoryBuffer transport = new TMemoryBuffer(10 * 1024);
+        TCompactProtocol protocol = new TCompactProtocol(transport);
+
+        codecManager.getCodec(int[].class).write(new int[] {1, 2, 3}, protocol);
+        List<Integer> list = codecManager.getCodec(new TypeToken<List<Integer>>() {}).read(protocol);
+        assertEquals(list, ImmutableList.of(1, 2, 3));
+
+        codecManager.getCodec(new TypeToken<List<Long>>() {}).write(ImmutableList.of(4L, 5L), protocol);
+        assertTrue(Arrays.equals(codecManager.getCodec(long[].class).read(protocol), new long[] {4L, 5L}));
+    }
+
+    @Test
+    public void testLazyFields()
+            throws Exception
+    {
+        LazyStruct lazy = new LazyStruct(
+                "header",
+                LazyThriftValue.of(new BonkField("message", 42)),
+                LazyThriftValue.<List<String>>of(ImmutableList.of("a", "b")));
+        testRoundTripSerialize(lazy);
+        testRoundTripSerialize(new LazyStruct());
+
+        ThriftCodec<LazyStruct> codec = codecManager.getCodec(LazyStruct.class);
+        TMemoryBuffer transport = new TMemoryBuffer(10 * 1024);
+        codec.write(lazy, new TCompactProtocol(transport));
+        byte[] encoded = Arrays.copyOf(transport.getArray(), transport.length());
+
+        // values are only captured when the transport exposes its buffer
+        LazyStruct copy = codec.read(new TCompactProtocol(new TMemoryInputTransport(encoded)));
+        assertEquals(copy.header, "header");
+        assertFalse(copy.body.isDecoded());
+        assertFalse(copy.tags.isDecoded());
+
+        // untouched values are written verbatim
+        TMemoryBuffer forwarded = new TMemoryBuffer(10 * 1024);
+        codec.write(copy, new TCompactProtocol(forwarded));
+        assertTrue(Arrays.equals(Arrays.copyOf(forwarded.getArray(), forwarded.length()), encoded));
+        assertFalse(copy.body.isDecoded());
+
+        assertEquals(copy.body.get(), new BonkField("message", 42));
+        assertTrue(copy.body.isDecoded());
+        assertEquals(copy.tags.get(), ImmutableList.of("a", "b"));
+    }
+
+    @Test
+    public void testProjection()
+            throws Exception
+    {
+        OneOfEverything one = createOneOfEverything();
+        ThriftCodec<OneOfEverything> codec = codecManager.getCodec(OneOfEverything.class);
+        TMemoryBuffer transport = new TMemoryBuffer(10 * 1024);
+        codec.write(one, new TCompactProtocol(transport));
+
+        ThriftCodec<OneOfEverything> projection = codecManager.getCodec(OneOfEverything.class, ImmutableSet.of((short) 4, (short) 7, (short) 8));
+        assertSame(codecManager.getCodec(OneOfEverything.class, ImmutableSet.of((short) 8, (short) 7, (short) 4)), projection);
+
+        OneOfEverything copy = projection.read(new TCompactProtocol(transport));
+        assertEquals(copy.aInt, one.aInt);
+        assertEquals(copy.aString, one.aString);
+        assertEquals(copy.aStruct, one.aStruct);
+        assertEquals(copy.aLong, 0);
+        assertNull(copy.aStringSet);
+        assertNull(copy.aStructList);
+
+        // projected fields of constructor injected structs
+        BonkConstructor bonk = new BonkConstructor("message", 42);
+        transport = new TMemoryBuffer(10 * 1024);
+        codecManager.getCodec(BonkConstructor.class).write(bonk, new TCompactProtocol(transport));
+        BonkConstructor projectedBonk = codecManager.getCodec(BonkConstructor.class, ImmutableSet.of((short) 2)).read(new TCompactProtocol(transport));
+        assertEquals(projectedBonk, new BonkConstructor(null, 42));
+    }
+
+    @Test
+    public void testWarmUp()
+            throws Exception
+    {
+        codecManager.warmUp(ImmutableList.of(OneOfEverything.class, BonkConstructor.class, LazyStruct.class), 10);
+        testRoundTripSerialize(createOneOfEverything());
+        testRoundTripSerialize(new BonkConstructor("message", 42));
+    }
+
+    @Test
+    public void testDirectProtocols()
+            throws Exception
+    {
+        OneOfEverything one = createOneOfEverything();
+        one.aBooleanList = ImmutableList.of(true, false, true, false, true, false, true, false, true, false, true, false, true, false, true, false);
+        testDirectProtocol(one, new TBinaryProtocol.Factory(), new TDirectBinaryProtocol.Factory());
+        testDirectProtocol(one, new TCompactProtocol.Factory(), new TDirectCompactProtocol.Factory());
+        testDirectProtocol(new OneOfEverything(), new TCompactProtocol.Factory(), new TDirectCompactProtocol.Factory());
+
+        // skipped fields are read with the header methods of the direct protocol
+        ThriftCodec<OneOfEverything> projection = codecManager.getCodec(OneOfEverything.class, ImmutableSet.of((short) 7));
+        OneOfEverything copy = projection.read(new TDirectCompactProtocol(new TMemoryInputTransport(encode(one, new TDirectCompactProtocol.Factory()))));
+        assertEquals(copy.aString, one.aString);
+        assertNull(copy.aMapOfListToSet);
+    }
+
+    @Test
+    public void testDirectProtocolStrings()
+            throws Exception
+    {
+        List<String> strings = ImmutableList.of(
+                "",
+                "ascii",
+                "caf\u00e9",
+                "\u65e5\u672c\u8a9e",
+                "\ud83d\ude00 smile",
+                Strings.repeat("mixed \u00e9\u65e5\ud83d\ude00 ", 10000));
+        for (String string : strings) {
+            OneOfEverything value = new OneOfEverything();
+            value.aString = string;
+            testDirectProtocol(value, new TBinaryProtocol.Factory(), new TDirectBinaryProtocol.Factory());
+            testDirectProtocol(value, new TCompactProtocol.Factory(), new TDirectCompactProtocol.Factory());
+        }
+
+        // unpaired surrogates are replaced exactly like String.getBytes replaces them
+        OneOfEverything unpaired = new OneOfEverything();
+        unpaired.aString = "a\ud800b\udc00";
+        assertTrue(Arrays.equals(encode(unpaired, new TDirectBinaryProtocol.Factory()), encode(unpaired, new TBinaryProtocol.Factory())));
+        assertTrue(Arrays.equals(encode(unpaired, new TDirectCompactProtocol.Factory()), encode(unpaired, new TCompactProtocol.Factory())));
+    }
+
+    @Test
+    public void testSizeOf()
+            throws Exception
+    {
+        OneOfEverything one = createOneOfEverything();
+        testSizeOf(one);
+        testSizeOf(new OneOfEverything());
+
+        one.aString = "mixed \u00e9\u65e5\ud83d\ude00 a\ud800b";
+        testSizeOf(one);
+    }
+
+    private void testSizeOf(OneOfEverything value)
+            throws Exception
+    {
+        ThriftSizedCodec<OneOfEverything> codec = (ThriftSizedCodec<OneOfEverything>) codecManager.getCodec(OneOfEverything.class);
+        assertEquals(codec.sizeOf(value), encode(value, new TBinaryProtocol.Factory()).length);
+    }
+
+    @Test
+    public void testCachedEncoding()
+            throws Exception
+    {
+        ThriftCodec<BonkCachedEncoding> codec = codecManager.getCodec(BonkCachedEncoding.class);
+        assertTrue(codec instanceof CachedEncodingThriftCodec);
+        testRoundTripSerialize(new BonkCachedEncoding("message", 42));
+
+        // cached bytes are identical to the bytes of a struct that is encoded every time
+        BonkCachedEncoding cached = new BonkCachedEncoding("caf\u00e9", 42);
+        BonkConstructor uncached = new BonkConstructor("caf\u00e9", 42);
+        ThriftCodec<BonkConstructor> uncachedCodec = codecManager.getCodec(BonkConstructor.class);
+        for (TProtocolFactory protocolFactory : ImmutableList.of(new TBinaryProtocol.Factory(), new TCompactProtocol.Factory(), new TDirectCompactProtocol.Factory())) {
+            byte[] expected = encode(uncachedCodec, uncached, protocolFactory);
+            assertTrue(Arrays.equals(encode(codec, cached, protocolFactory), expected));
+            assertTrue(Arrays.equals(encode(codec, cached, protocolFactory), expected));
+        }
+        assertEquals(((ThriftSizedCodec<BonkCachedEncoding>) codec).sizeOf(cached), encode(uncachedCodec, uncached, new TBinaryProtocol.Factory()).length);
+    }
+
+    private <T> byte[] encode(ThriftCodec<T> codec, T value, TProtocolFactory protocolFactory)
+            throws Exception
+    {
+        TMemoryBuffer transport = new TMemoryBuffer(10 * 1024);
+        codec.write(value, protocolFactory.getProtocol(transport));
+        return Arrays.copyOf(transport.getArray(), transport.length());
+    }
+
+    private void testDirectProtocol(OneOfEverything value, TProtocolFactory standardFactory, TProtocolFactory directFactory)
+            throws Exception
+    {
+        byte[] standard = encode(value, standardFactory);
+        byte[] direct = encode(value, directFactory);
+        assertTrue(Arrays.equals(direct, standard));
+
+        // read both from a transport that exposes its buffer and from one that does not
+        ThriftCodec<OneOfEverything> codec = codecManager.getCodec(OneOfEverything.class);
+        assertEquals(codec.read(directFactory.getProtocol(new TMemoryInputTransport(standard))), value);
+        TMemoryBuffer unbuffered = new TMemoryBuffer(standard.length);
+        unbuffered.write(standard);
+        assertEquals(codec.read(directFactory.getProtocol(unbuffered)), value);
+    }
+
+    private byte[] encode(OneOfEverything value, TProtocolFactory protocolFactory)
+            throws Exception
+    {
+        TMemoryBuffer transport = new TMemoryBuffer(10 * 1024);
+        codecManager.getCodec(OneOfEverything.class).write(value, protocolFactory.getProtocol(transport));
+        return Arrays.copyOf(transport.getArray(), transport.length());
+    }
+
     @Test
     public void testIsSetBean()
             throws Exception
@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.facebook.swift.codec;
+
+import javax.annotation.concurrent.Immutable;
+
+@Immutable
+@ThriftStruct(value = "Bonk", cacheEncoding = true)
+public class BonkCachedEncoding
+{
+    private final String message;
+    private final int type;
+
+    @ThriftConstructor
+    public BonkCachedEncoding(String message, int type)
+    {
+        this.message = message;
+        this.type = type;
+    }
+
+    @ThriftField(1)
+    public String getMessage()
+    {
+        return message;
+    }
+
+    @ThriftField(2)
+    public int getType()
+    {
+        return type;
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+
+        BonkCachedEncoding that = (BonkCachedEncoding) o;
+
+        if (type != that.type) {
+            return false;
+        }
+        if (message != null ? !message.equals(that.message) : that.message != null) {
+            return false;
+        }
+
+        return true;
+    }
+
+    @Override
+    public int hashCode()
+    {
+        int result = message != null ? message.hashCode() : 0;
+        result = 31 * result + type;
+        return result;
+    }
+
+    @Override
+    public String toString()
+    {
+        final StringBuilder sb = new StringBuilder();
+        sb.append("BonkCachedEncoding");
+        sb.append("{message='").append(message).append('\'');
+        sb.append(", type=").append(type);
+        sb.append('}');
+        return sb.toString();
+    }
+}
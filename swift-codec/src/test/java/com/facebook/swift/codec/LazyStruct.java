@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.facebook.swift.codec;
+
+import java.util.List;
+
+@ThriftStruct
+public class LazyStruct
+{
+    @ThriftField(1)
+    public String header;
+    @ThriftField(2)
+    public LazyThriftValue<BonkField> body;
+    @ThriftField(3)
+    public LazyThriftValue<List<String>> tags;
+
+    public LazyStruct()
+    {
+    }
+
+    public LazyStruct(String header, LazyThriftValue<BonkField> body, LazyThriftValue<List<String>> tags)
+    {
+        this.header = header;
+        this.body = body;
+        this.tags = tags;
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+
+        LazyStruct that = (LazyStruct) o;
+
+        if (header != null ? !header.equals(that.header) : that.header != null) {
+            return false;
+        }
+        if (body != null ? !body.equals(that.body) : that.body != null) {
+            return false;
+        }
+        if (tags != null ? !tags.equals(that.tags) : that.tags != null) {
+            return false;
+        }
+
+        return true;
+    }
+
+    @Override
+    public int hashCode()
+    {
+        int result = header != null ? header.hashCode() : 0;
+        result = 31 * result + (body != null ? body.hashCode() : 0);
+        result = 31 * result + (tags != null ? tags.hashCode() : 0);
+        return result;
+    }
+
+    @Override
+    public String toString()
+    {
+        final StringBuilder sb = new StringBuilder();
+        sb.append("LazyStruct");
+        sb.append("{header='").append(header).append('\'');
+        sb.append(", body=").append(body);
+        sb.append(", tags=").append(tags);
+        sb.append('}');
+        return sb.toString();
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.facebook.swift.codec;
+
+import java.util.Arrays;
+
+@ThriftStruct
+public class PrimitiveArrays
+{
+    @ThriftField(1)
+    public int[] intArray;
+    @ThriftField(2)
+    public long[] longArray;
+    @ThriftField(3)
+    public double[] doubleArray;
+
+    public PrimitiveArrays()
+    {
+    }
+
+    public PrimitiveArrays(int[] intArray, long[] longArray, double[] doubleArray)
+    {
+        this.intArray = intArray;
+        this.longArray = longArray;
+        this.doubleArray = doubleArray;
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+
+        PrimitiveArrays that = (PrimitiveArrays) o;
+
+        if (!Arrays.equals(intArray, that.intArray)) {
+            return false;
+        }
+        if (!Arrays.equals(longArray, that.longArray)) {
+            return false;
+        }
+        if (!Arrays.equals(doubleArray, that.doubleArray)) {
+            return false;
+        }
+
+        return true;
+    }
+
+    @Override
+    public int hashCode()
+    {
+        int result = Arrays.hashCode(intArray);
+        result = 31 * result + Arrays.hashCode(longArray);
+        result = 31 * result + Arrays.hashCode(doubleArray);
+        return result;
+    }
+
+    @Override
+    public String toString()
+    {
+        final StringBuilder sb = new StringBuilder();
+        sb.append("PrimitiveArrays");
+        sb.append("{intArray=").append(Arrays.toString(intArray));
+        sb.append(", longArray=").append(Arrays.toString(longArray));
+        sb.append(", doubleArray=").append(Arrays.toString(doubleArray));
+        sb.append('}');
+        return sb.toString();
+    }
+}
@@ -16,7 +16,19 @@
 package com.facebook.swift.codec.internal.compiler;
 
 import com.facebook.swift.codec.AbstractThriftCodecManagerTest;
+import com.facebook.swift.codec.BonkBean;
+import com.facebook.swift.codec.BonkConstructor;
+import com.facebook.swift.codec.BonkField;
+import com.facebook.swift.codec.ThriftCodec;
 import com.facebook.swift.codec.ThriftCodecManager;
+import com.facebook.swift.codec.ThriftReadIntoCodec;
+import org.apache.thrift.protocol.TBinaryProtocol;
+import org.apache.thrift.transport.TMemoryBuffer;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
 
 public class TestCompilerThriftCodecFactory extends AbstractThriftCodecManagerTest
 {
@@ -25,4 +37,40 @@ public class TestCompilerThriftCodecFactory extends AbstractThriftCodecManagerTe
     {
         return new ThriftCodecManager(new CompilerThriftCodecFactory(true));
     }
+
+    @Test
+    public void testReadInto()
+            throws Exception
+    {
+        ThriftCodecManager codecManager = createCodecManager();
+
+        // setter injection
+        BonkBean bean = new BonkBean("stale", 7);
+        readInto(codecManager.getCodec(BonkBean.class), new BonkBean("message", 42), bean);
+        assertEquals(bean, new BonkBean("message", 42));
+
+        // unset fields are reset
+        readInto(codecManager.getCodec(BonkBean.class), new BonkBean(), bean);
+        assertEquals(bean, new BonkBean());
+
+        // field injection
+        BonkField field = new BonkField("stale", 7);
+        readInto(codecManager.getCodec(BonkField.class), new BonkField("message", 42), field);
+        assertEquals(field, new BonkField("message", 42));
+
+        readInto(codecManager.getCodec(BonkField.class), new BonkField(null, 3), field);
+        assertNull(field.message);
+        assertEquals(field.type, 3);
+
+        // constructor injected structs are always constructed
+        assertFalse(codecManager.getCodec(BonkConstructor.class) instanceof ThriftReadIntoCodec);
+    }
+
+    private <T> void readInto(ThriftCodec<T> codec, T value, T instance)
+            throws Exception
+    {
+        TMemoryBuffer transport = new TMemoryBuffer(1024);
+        codec.write(value, new TBinaryProtocol(transport));
+        ((ThriftReadIntoCodec<T>) codec).readInto(new TBinaryProtocol(transport), instance);
+    }
 }
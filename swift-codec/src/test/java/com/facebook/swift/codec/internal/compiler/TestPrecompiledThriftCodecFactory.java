@@ -0,0 +1,204 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.facebook.swift.codec.internal.compiler;
+
+import com.facebook.swift.codec.AbstractThriftCodecManagerTest;
+import com.facebook.swift.codec.BonkField;
+import com.facebook.swift.codec.ThriftCodec;
+import com.facebook.swift.codec.ThriftCodecManager;
+import com.facebook.swift.codec.internal.ProjectingThriftCodecFactory;
+import com.facebook.swift.codec.internal.ThriftCodecFactory;
+import com.facebook.swift.codec.metadata.ThriftCatalog;
+import com.facebook.swift.codec.metadata.ThriftStructMetadata;
+import com.facebook.swift.codec.metadata.ThriftType;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.ByteStreams;
+import org.apache.thrift.protocol.TBinaryProtocol;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.transport.TMemoryBuffer;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Set;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertSame;
+
+/**
+ * Runs the codec tests with codecs generated the same way as the swift-maven-plugin generates
+ * them at build time.
+ */
+public class TestPrecompiledThriftCodecFactory extends AbstractThriftCodecManagerTest
+{
+    @Override
+    public ThriftCodecManager createCodecManager()
+    {
+        return new ThriftCodecManager(new PrecompiledThriftCodecFactory(new ProjectingThriftCodecFactory()
+        {
+            @Override
+            @SuppressWarnings("unchecked")
+            public <T> ThriftCodec<T> generateThriftTypeCodec(ThriftCodecManager codecManager, ThriftStructMetadata<T> metadata)
+            {
+                // the test structs are not precompiled, so define the precompiled codec here
+                Class<?> structClass = metadata.getStructClass();
+                DynamicClassLoader classLoader = new DynamicClassLoader(structClass.getClassLoader());
+                Class<?> codecClass = classLoader.defineClass(
+                        ThriftCodecByteCodeGenerator.getPrecompiledCodecClassName(structClass),
+                        ThriftCodecByteCodeGenerator.generatePrecompiledCodec(metadata));
+                try {
+                    return (ThriftCodec<T>) codecClass.getConstructor(ThriftType.class, ThriftCodecManager.class)
+                            .newInstance(ThriftType.struct(metadata), codecManager);
+                }
+                catch (Exception e) {
+                    throw Throwables.propagate(e);
+                }
+            }
+
+            @Override
+            public <T> ThriftCodec<T> generateThriftTypeCodec(ThriftCodecManager codecManager, ThriftStructMetadata<T> metadata, Set<Short> fieldIds)
+            {
+                return new CompilerThriftCodecFactory().generateThriftTypeCodec(codecManager, metadata, fieldIds);
+            }
+        }));
+    }
+
+    @Test
+    public void testCurrentPrecompiledCodec()
+            throws Exception
+    {
+        PrecompiledClassLoader classLoader = new PrecompiledClassLoader(BonkField.class.getName());
+        Class<?> structClass = classLoader.loadClass(BonkField.class.getName());
+        ThriftStructMetadata<?> metadata = new ThriftCatalog().getThriftStructMetadata(structClass);
+        classLoader.setCodec(ThriftCodecByteCodeGenerator.generatePrecompiledCodec(metadata));
+
+        ThriftCodec<?> codec = testRoundTrip(structClass);
+        assertSame(codec.getClass().getClassLoader(), classLoader);
+    }
+
+    @Test
+    public void testStalePrecompiledCodec()
+            throws Exception
+    {
+        PrecompiledClassLoader classLoader = new PrecompiledClassLoader(BonkField.class.getName());
+        Class<?> structClass = classLoader.loadClass(BonkField.class.getName());
+
+        // a codec generated before the struct had field 2
+        ThriftStructMetadata<?> metadata = new ThriftCatalog().getThriftStructMetadata(structClass);
+        ThriftStructMetadata<?> staleMetadata = new ThriftStructMetadata<>(
+                metadata.getStructName(),
+                metadata.getStructClass(),
+                metadata.getBuilderClass(),
+                metadata.getBuilderMethod(),
+                ImmutableList.of(metadata.getField(1)),
+                metadata.getConstructor(),
+                metadata.getMethodInjections(),
+                metadata.isEncodingCached());
+        classLoader.setCodec(ThriftCodecByteCodeGenerator.generatePrecompiledCodec(staleMetadata));
+
+        // the stale codec is ignored and the codec is compiled at runtime
+        ThriftCodec<?> codec = testRoundTrip(structClass);
+        assertNotSame(codec.getClass().getClassLoader(), classLoader);
+    }
+
+    @Test
+    public void testProjectionWithoutProjectingFallback()
+            throws Exception
+    {
+        final ThriftCodecFactory compiler = new CompilerThriftCodecFactory();
+        ThriftCodecManager codecManager = new ThriftCodecManager(new PrecompiledThriftCodecFactory(new ThriftCodecFactory()
+        {
+            @Override
+            public <T> ThriftCodec<T> generateThriftTypeCodec(ThriftCodecManager codecManager, ThriftStructMetadata<T> metadata)
+            {
+                return compiler.generateThriftTypeCodec(codecManager, metadata);
+            }
+        }));
+
+        // the fallback can not skip fields, so the projection decodes all of them
+        BonkField bonk = new BonkField("message", 42);
+        TMemoryBuffer buffer = new TMemoryBuffer(1024);
+        TProtocol protocol = new TBinaryProtocol(buffer);
+        codecManager.getCodec(BonkField.class).write(bonk, protocol);
+        assertEquals(codecManager.getCodec(BonkField.class, ImmutableSet.of((short) 2)).read(protocol), bonk);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static ThriftCodec<?> testRoundTrip(Class<?> structClass)
+            throws Exception
+    {
+        // runtime codecs must be defined in a child of the struct class loader to link against it
+        ThriftCodecFactory fallback = new CompilerThriftCodecFactory(false, new DynamicClassLoader(structClass.getClassLoader()));
+        ThriftCodecManager codecManager = new ThriftCodecManager(new PrecompiledThriftCodecFactory(fallback));
+        ThriftCodec<Object> codec = (ThriftCodec<Object>) codecManager.getCodec(structClass);
+
+        Object value = structClass.getConstructor(String.class, int.class).newInstance("message", 42);
+        TMemoryBuffer buffer = new TMemoryBuffer(1024);
+        TProtocol protocol = new TBinaryProtocol(buffer);
+        codec.write(value, protocol);
+        assertEquals(codec.read(protocol), value);
+
+        return codec;
+    }
+
+    /**
+     * Defines the struct class itself, so a precompiled codec for the struct can be found from
+     * the class loader of the struct, as if both were packaged in the same jar.
+     */
+    private static class PrecompiledClassLoader
+            extends ClassLoader
+    {
+        private final String structClassName;
+        private byte[] codec;
+
+        private PrecompiledClassLoader(String structClassName)
+        {
+            super(PrecompiledClassLoader.class.getClassLoader());
+            this.structClassName = structClassName;
+        }
+
+        public void setCodec(byte[] codec)
+        {
+            this.codec = codec;
+        }
+
+        @Override
+        protected synchronized Class<?> loadClass(String name, boolean resolve)
+                throws ClassNotFoundException
+        {
+            Class<?> type = findLoadedClass(name);
+            if (type != null) {
+                return type;
+            }
+            if (name.equals(structClassName)) {
+                try (InputStream in = getParent().getResourceAsStream(name.replace('.', '/') + ".class")) {
+                    byte[] byteCode = ByteStreams.toByteArray(in);
+                    return defineClass(name, byteCode, 0, byteCode.length);
+                }
+                catch (IOException e) {
+                    throw new ClassNotFoundException(name, e);
+                }
+            }
+            if (codec != null && name.equals(ThriftCodecByteCodeGenerator.getPrecompiledCodecClassName(BonkField.class))) {
+                return defineClass(name, codec, 0, codec.length);
+            }
+            return super.loadClass(name, resolve);
+        }
+    }
+}
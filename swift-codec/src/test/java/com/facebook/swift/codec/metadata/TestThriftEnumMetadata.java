@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.facebook.swift.codec.metadata;
+
+import com.facebook.swift.codec.Fruit;
+import com.facebook.swift.codec.Letter;
+import com.facebook.swift.codec.ThriftEnumValue;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+
+public class TestThriftEnumMetadata
+{
+    @Test
+    public void testOrdinalValues()
+    {
+        ThriftEnumMetadata<Fruit> metadata = new ThriftEnumMetadata<>(Fruit.class);
+        for (Fruit fruit : Fruit.values()) {
+            assertEquals(metadata.getEnumValue(fruit), fruit.ordinal());
+            assertSame(metadata.getEnumConstant(fruit.ordinal()), fruit);
+        }
+        assertNull(metadata.getEnumConstant(-1));
+        assertNull(metadata.getEnumConstant(Fruit.values().length));
+    }
+
+    @Test
+    public void testDenseExplicitValues()
+    {
+        ThriftEnumMetadata<Letter> metadata = new ThriftEnumMetadata<>(Letter.class);
+        for (Letter letter : Letter.values()) {
+            assertEquals(metadata.getEnumValue(letter), letter.getAsciiValue());
+            assertSame(metadata.getEnumConstant(letter.getAsciiValue()), letter);
+        }
+        assertNull(metadata.getEnumConstant(0));
+        assertNull(metadata.getEnumConstant(64));
+        assertNull(metadata.getEnumConstant(69));
+        assertNull(metadata.getEnumConstant(-65));
+    }
+
+    @Test
+    public void testSparseExplicitValues()
+    {
+        ThriftEnumMetadata<Sparse> metadata = new ThriftEnumMetadata<>(Sparse.class);
+        for (Sparse sparse : Sparse.values()) {
+            assertEquals(metadata.getEnumValue(sparse), sparse.getValue());
+        }
+        assertSame(metadata.getEnumConstant(1), Sparse.SMALL);
+        assertSame(metadata.getEnumConstant(1000000), Sparse.LARGE);
+        assertNull(metadata.getEnumConstant(2));
+        assertNull(metadata.getEnumConstant(-7));
+    }
+
+    public enum Sparse
+    {
+        SMALL(1), LARGE(1000000), NEGATIVE(-7);
+
+        private final int value;
+
+        Sparse(int value)
+        {
+            this.value = value;
+        }
+
+        @ThriftEnumValue
+        public int getValue()
+        {
+            return value;
+        }
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.facebook.swift.codec.metadata;
+
+import org.testng.annotations.Test;
+
+import java.lang.reflect.Type;
+import java.util.List;
+import java.util.Map;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotEquals;
+
+public class TestThriftType
+{
+    public Map<String, Long> stringLongMap;
+    public Map<String, Integer> stringIntegerMap;
+    public Map<Integer, List<String>> integerListMap;
+
+    @Test
+    public void testMapJavaType()
+            throws Exception
+    {
+        ThriftCatalog catalog = new ThriftCatalog();
+        for (String fieldName : new String[] {"stringLongMap", "stringIntegerMap", "integerListMap"}) {
+            Type fieldType = getClass().getField(fieldName).getGenericType();
+            Type javaType = catalog.getThriftType(fieldType).getJavaType();
+
+            assertEquals(javaType, fieldType);
+            assertEquals(fieldType, javaType);
+            assertEquals(javaType.hashCode(), fieldType.hashCode());
+            assertEquals(javaType.toString(), fieldType.toString());
+        }
+
+        // maps with the same key type must not share a java type
+        assertNotEquals(
+                catalog.getThriftType(getClass().getField("stringLongMap").getGenericType()),
+                catalog.getThriftType(getClass().getField("stringIntegerMap").getGenericType()));
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.facebook.mojo;
+
+import com.facebook.swift.codec.ThriftStruct;
+import com.facebook.swift.codec.internal.compiler.ThriftCodecByteCodeGenerator;
+import com.facebook.swift.codec.metadata.ThriftCatalog;
+import com.facebook.swift.codec.metadata.ThriftStructMetadata;
+import com.google.common.base.Throwables;
+import com.google.common.io.Files;
+import com.pyx4j.log4j.MavenLogAppender;
+import org.apache.log4j.Logger;
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.project.MavenProject;
+import org.codehaus.plexus.util.FileUtils;
+
+import java.io.File;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Generates Thrift codecs for all compiled {@link ThriftStruct} classes, so the codecs do not
+ * have to be generated in byte code when the application starts.  The ThriftCodecManager
+ * loads these codecs from the class path and only generates codecs for the structs that
+ * are missing.
+ *
+ * @requiresProject true
+ * @requiresDependencyResolution compile
+ * @goal generate-codecs
+ * @phase process-classes
+ */
+public class SwiftCodecMojo extends AbstractMojo
+{
+    private static final Logger LOG = Logger.getLogger(SwiftCodecMojo.class);
+
+    /**
+     * Skip the plugin execution.
+     *
+     * @parameter default-value="false"
+     */
+    private boolean skip = false;
+
+    /**
+     * Folder containing the compiled classes to generate codecs for. The codecs are written
+     * to the same folder, so they are packaged with the structs.
+     *
+     * @parameter default-value="${project.build.outputDirectory}"
+     * @required
+     */
+    private File classesFolder = null;
+
+    /**
+     * @parameter expression="${project}"
+     * @required
+     * @readonly
+     */
+    protected MavenProject project;
+
+    @Override
+    public final void execute() throws MojoExecutionException, MojoFailureException
+    {
+        MavenLogAppender.startPluginLog(this);
+
+        try {
+            if (!skip && classesFolder.isDirectory()) {
+                List<URL> urls = new ArrayList<>();
+                for (Object element : project.getCompileClasspathElements()) {
+                    urls.add(new File((String) element).toURI().toURL());
+                }
+
+                // the swift classes must be shared with the plugin so the annotations match
+                URLClassLoader classLoader = new URLClassLoader(urls.toArray(new URL[urls.size()]), getClass().getClassLoader());
+
+                ThriftCatalog catalog = new ThriftCatalog();
+                int codecCount = 0;
+
+                @SuppressWarnings("unchecked")
+                final List<String> classFiles = FileUtils.getFileNames(classesFolder, "**/*.class", "$wift/**", false);
+
+                for (String classFile : classFiles) {
+                    String className = classFile.substring(0, classFile.length() - ".class".length()).replace(File.separatorChar, '.');
+                    Class<?> structClass = classLoader.loadClass(className);
+                    if (!structClass.isAnnotationPresent(ThriftStruct.class)) {
+                        continue;
+                    }
+
+                    ThriftStructMetadata<?> metadata = catalog.getThriftStructMetadata(structClass);
+                    byte[] byteCode = ThriftCodecByteCodeGenerator.generatePrecompiledCodec(metadata);
+
+                    String codecClassName = ThriftCodecByteCodeGenerator.getPrecompiledCodecClassName(structClass);
+                    File codecFile = new File(classesFolder, codecClassName.replace('.', File.separatorChar) + ".class");
+                    Files.createParentDirs(codecFile);
+                    Files.write(byteCode, codecFile);
+                    codecCount++;
+                }
+
+                LOG.info(String.format("Generated %d Thrift codecs in %s", codecCount, classesFolder));
+            }
+        }
+        catch (Exception e) {
+            Throwables.propagateIfInstanceOf(e, MojoExecutionException.class);
+            Throwables.propagateIfInstanceOf(e, MojoFailureException.class);
+
+            LOG.error(String.format("While executing Mojo %s", this.getClass().getSimpleName()), e);
+            throw new MojoExecutionException("Failure:" ,e);
+        }
+        finally {
+            MavenLogAppender.endPluginLog(this);
+        }
+    }
+}
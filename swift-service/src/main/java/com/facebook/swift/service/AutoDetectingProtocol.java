@@ -0,0 +1,572 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.facebook.swift.service;
+
+import com.facebook.swift.codec.internal.TDirectProtocol;
+import com.google.common.base.Preconditions;
+import org.apache.thrift.TException;
+import org.apache.thrift.protocol.TField;
+import org.apache.thrift.protocol.TList;
+import org.apache.thrift.protocol.TMap;
+import org.apache.thrift.protocol.TMessage;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.protocol.TProtocolFactory;
+import org.apache.thrift.protocol.TSet;
+import org.apache.thrift.protocol.TStruct;
+import org.apache.thrift.transport.TTransport;
+import org.apache.thrift.transport.TTransportException;
+
+import javax.annotation.concurrent.NotThreadSafe;
+import java.nio.ByteBuffer;
+
+/**
+ * Protocol that chooses between the binary and compact encodings by looking at the first byte
+ * of the message. Compact messages always start with the compact protocol id (0x82), strict
+ * binary messages start with 0x80 and old style binary messages start with the high byte of the
+ * method name length, so anything other than the compact id is read as binary.
+ *
+ * The protocol is chosen on the first read and never changes afterwards. Writes issued before
+ * any read use the binary protocol. Both protocols implement {@link TDirectProtocol}, so the
+ * header methods of that interface are delegated as well.
+ */
+@NotThreadSafe
+class AutoDetectingProtocol extends TProtocol implements TDirectProtocol
+{
+    private static final byte COMPACT_PROTOCOL_ID = (byte) 0x82;
+
+    private ThriftProtocol protocol;
+    private TProtocol delegate;
+
+    AutoDetectingProtocol(TTransport transport)
+    {
+        super(transport);
+    }
+
+    /**
+     * Peeks at the first byte of the message, if that has not already been done, and returns
+     * the protocol used to encode it.
+     */
+    public ThriftProtocol detectProtocol()
+            throws TException
+    {
+        if (protocol == null) {
+            byte firstByte;
+            TTransport transport = getTransport();
+            if (transport.getBytesRemainingInBuffer() > 0) {
+                firstByte = transport.getBuffer()[transport.getBufferPosition()];
+            }
+            else {
+                // transport can not peek so read the byte and replay it to the real protocol
+                byte[] buffer = new byte[1];
+                transport.readAll(buffer, 0, 1);
+                firstByte = buffer[0];
+                transport = new PushbackTransport(firstByte, transport);
+            }
+
+            protocol = (firstByte == COMPACT_PROTOCOL_ID) ? ThriftProtocol.COMPACT : ThriftProtocol.BINARY;
+            delegate = protocol.getProtocolFactory().getProtocol(transport);
+        }
+        return protocol;
+    }
+
+    private TProtocol getReadDelegate()
+            throws TException
+    {
+        if (delegate == null) {
+            detectProtocol();
+        }
+        return delegate;
+    }
+
+    private TProtocol getWriteDelegate()
+    {
+        if (delegate == null) {
+            protocol = ThriftProtocol.BINARY;
+            delegate = protocol.getProtocolFactory().getProtocol(getTransport());
+        }
+        return delegate;
+    }
+
+    @Override
+    public void reset()
+    {
+        protocol = null;
+        delegate = null;
+    }
+
+    @Override
+    public TMessage readMessageBegin()
+            throws TException
+    {
+        return getReadDelegate().readMessageBegin();
+    }
+
+    @Override
+    public void readMessageEnd()
+            throws TException
+    {
+        getReadDelegate().readMessageEnd();
+    }
+
+    @Override
+    public TStruct readStructBegin()
+            throws TException
+    {
+        return getReadDelegate().readStructBegin();
+    }
+
+    @Override
+    public void readStructEnd()
+            throws TException
+    {
+        getReadDelegate().readStructEnd();
+    }
+
+    @Override
+    public TField readFieldBegin()
+            throws TException
+    {
+        return getReadDelegate().readFieldBegin();
+    }
+
+    @Override
+    public void readFieldEnd()
+            throws TException
+    {
+        getReadDelegate().readFieldEnd();
+    }
+
+    @Override
+    public TMap readMapBegin()
+            throws TException
+    {
+        return getReadDelegate().readMapBegin();
+    }
+
+    @Override
+    public void readMapEnd()
+            throws TException
+    {
+        getReadDelegate().readMapEnd();
+    }
+
+    @Override
+    public TList readListBegin()
+            throws TException
+    {
+        return getReadDelegate().readListBegin();
+    }
+
+    @Override
+    public void readListEnd()
+            throws TException
+    {
+        getReadDelegate().readListEnd();
+    }
+
+    @Override
+    public TSet readSetBegin()
+            throws TException
+    {
+        return getReadDelegate().readSetBegin();
+    }
+
+    @Override
+    public void readSetEnd()
+            throws TException
+    {
+        getReadDelegate().readSetEnd();
+    }
+
+    @Override
+    public boolean readBool()
+            throws TException
+    {
+        return getReadDelegate().readBool();
+    }
+
+    @Override
+    public byte readByte()
+            throws TException
+    {
+        return getReadDelegate().readByte();
+    }
+
+    @Override
+    public short readI16()
+            throws TException
+    {
+        return getReadDelegate().readI16();
+    }
+
+    @Override
+    public int readI32()
+            throws TException
+    {
+        return getReadDelegate().readI32();
+    }
+
+    @Override
+    public long readI64()
+            throws TException
+    {
+        return getReadDelegate().readI64();
+    }
+
+    @Override
+    public double readDouble()
+            throws TException
+    {
+        return getReadDelegate().readDouble();
+    }
+
+    @Override
+    public String readString()
+            throws TException
+    {
+        return getReadDelegate().readString();
+    }
+
+    @Override
+    public ByteBuffer readBinary()
+            throws TException
+    {
+        return getReadDelegate().readBinary();
+    }
+
+    @Override
+    public void writeMessageBegin(TMessage message)
+            throws TException
+    {
+        getWriteDelegate().writeMessageBegin(message);
+    }
+
+    @Override
+    public void writeMessageEnd()
+            throws TException
+    {
+        getWriteDelegate().writeMessageEnd();
+    }
+
+    @Override
+    public void writeStructBegin(TStruct struct)
+            throws TException
+    {
+        getWriteDelegate().writeStructBegin(struct);
+    }
+
+    @Override
+    public void writeStructEnd()
+            throws TException
+    {
+        getWriteDelegate().writeStructEnd();
+    }
+
+    @Override
+    public void writeFieldBegin(TField field)
+            throws TException
+    {
+        getWriteDelegate().writeFieldBegin(field);
+    }
+
+    @Override
+    public void writeFieldEnd()
+            throws TException
+    {
+        getWriteDelegate().writeFieldEnd();
+    }
+
+    @Override
+    public void writeFieldStop()
+            throws TException
+    {
+        getWriteDelegate().writeFieldStop();
+    }
+
+    @Override
+    public void writeMapBegin(TMap map)
+            throws TException
+    {
+        getWriteDelegate().writeMapBegin(map);
+    }
+
+    @Override
+    public void writeMapEnd()
+            throws TException
+    {
+        getWriteDelegate().writeMapEnd();
+    }
+
+    @Override
+    public void writeListBegin(TList list)
+            throws TException
+    {
+        getWriteDelegate().writeListBegin(list);
+    }
+
+    @Override
+    public void writeListEnd()
+            throws TException
+    {
+        getWriteDelegate().writeListEnd();
+    }
+
+    @Override
+    public void writeSetBegin(TSet set)
+            throws TException
+    {
+        getWriteDelegate().writeSetBegin(set);
+    }
+
+    @Override
+    public void writeSetEnd()
+            throws TException
+    {
+        getWriteDelegate().writeSetEnd();
+    }
+
+    @Override
+    public void writeBool(boolean value)
+            throws TException
+    {
+        getWriteDelegate().writeBool(value);
+    }
+
+    @Override
+    public void writeByte(byte value)
+            throws TException
+    {
+        getWriteDelegate().writeByte(value);
+    }
+
+    @Override
+    public void writeI16(short value)
+            throws TException
+    {
+        getWriteDelegate().writeI16(value);
+    }
+
+    @Override
+    public void writeI32(int value)
+            throws TException
+    {
+        getWriteDelegate().writeI32(value);
+    }
+
+    @Override
+    public void writeI64(long value)
+            throws TException
+    {
+        getWriteDelegate().writeI64(value);
+    }
+
+    @Override
+    public void writeDouble(double value)
+            throws TException
+    {
+        getWriteDelegate().writeDouble(value);
+    }
+
+    @Override
+    public void writeString(String value)
+            throws TException
+    {
+        getWriteDelegate().writeString(value);
+    }
+
+    @Override
+    public void writeBinary(ByteBuffer value)
+            throws TException
+    {
+        getWriteDelegate().writeBinary(value);
+    }
+
+    @Override
+    public byte readFieldHeader()
+            throws TException
+    {
+        return getDirectReadDelegate().readFieldHeader();
+    }
+
+    @Override
+    public short getLastFieldId()
+    {
+        return getDirectReadResult().getLastFieldId();
+    }
+
+    @Override
+    public int readListHeader()
+            throws TException
+    {
+        return getDirectReadDelegate().readListHeader();
+    }
+
+    @Override
+    public int readSetHeader()
+            throws TException
+    {
+        return getDirectReadDelegate().readSetHeader();
+    }
+
+    @Override
+    public int readMapHeader()
+            throws TException
+    {
+        return getDirectReadDelegate().readMapHeader();
+    }
+
+    @Override
+    public byte getLastKeyType()
+    {
+        return getDirectReadResult().getLastKeyType();
+    }
+
+    @Override
+    public byte getLastElementType()
+    {
+        return getDirectReadResult().getLastElementType();
+    }
+
+    @Override
+    public void writeStructHeader()
+            throws TException
+    {
+        getDirectWriteDelegate().writeStructHeader();
+    }
+
+    @Override
+    public void writeFieldHeader(byte type, short id)
+            throws TException
+    {
+        getDirectWriteDelegate().writeFieldHeader(type, id);
+    }
+
+    @Override
+    public void writeListHeader(byte elementType, int size)
+            throws TException
+    {
+        getDirectWriteDelegate().writeListHeader(elementType, size);
+    }
+
+    @Override
+    public void writeSetHeader(byte elementType, int size)
+            throws TException
+    {
+        getDirectWriteDelegate().writeSetHeader(elementType, size);
+    }
+
+    @Override
+    public void writeMapHeader(byte keyType, byte valueType, int size)
+            throws TException
+    {
+        getDirectWriteDelegate().writeMapHeader(keyType, valueType, size);
+    }
+
+    private TDirectProtocol getDirectReadDelegate()
+            throws TException
+    {
+        return (TDirectProtocol) getReadDelegate();
+    }
+
+    private TDirectProtocol getDirectWriteDelegate()
+    {
+        return (TDirectProtocol) getWriteDelegate();
+    }
+
+    /**
+     * Returns the delegate that read the last header. The getLast methods report on a header
+     * that was already read, so unlike the read methods they can not detect the protocol.
+     */
+    private TDirectProtocol getDirectReadResult()
+    {
+        Preconditions.checkState(delegate != null, "no header has been read");
+        return (TDirectProtocol) delegate;
+    }
+
+    public static class Factory implements TProtocolFactory
+    {
+        @Override
+        public TProtocol getProtocol(TTransport transport)
+        {
+            return new AutoDetectingProtocol(transport);
+        }
+    }
+
+    /**
+     * Transport that returns a single byte already consumed from the underlying transport
+     * before continuing with the underlying transport.
+     */
+    private static class PushbackTransport extends TTransport
+    {
+        private final TTransport transport;
+        private final byte pushedBack;
+        private boolean consumed;
+
+        private PushbackTransport(byte pushedBack, TTransport transport)
+        {
+            this.transport = Preconditions.checkNotNull(transport, "transport is null");
+            this.pushedBack = pushedBack;
+        }
+
+        @Override
+        public boolean isOpen()
+        {
+            return transport.isOpen();
+        }
+
+        @Override
+        public void open()
+                throws TTransportException
+        {
+            transport.open();
+        }
+
+        @Override
+        public void close()
+        {
+            transport.close();
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length)
+                throws TTransportException
+        {
+            if (length == 0) {
+                return 0;
+            }
+            if (!consumed) {
+                consumed = true;
+                buffer[offset] = pushedBack;
+                return 1;
+            }
+            return transport.read(buffer, offset, length);
+        }
+
+        @Override
+        public void write(byte[] buffer, int offset, int length)
+                throws TTransportException
+        {
+            transport.write(buffer, offset, length);
+        }
+
+        @Override
+        public void flush()
+                throws TTransportException
+        {
+            transport.flush();
+        }
+    }
+}
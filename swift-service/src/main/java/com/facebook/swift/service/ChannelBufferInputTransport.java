@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.facebook.swift.service;
+
+import com.google.common.base.Preconditions;
+import org.apache.thrift.transport.TTransport;
+import org.apache.thrift.transport.TTransportException;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+
+import javax.annotation.concurrent.NotThreadSafe;
+import java.nio.ByteBuffer;
+
+/**
+ * Input transport over a received frame. Heap backed frames expose their array, so the
+ * protocols read directly from the frame instead of copying it through {@link #read}, and
+ * {@link #readSlice} lets the zero-copy protocols return binary values as views of the frame.
+ */
+@NotThreadSafe
+class ChannelBufferInputTransport extends TTransport
+{
+    private ChannelBuffer buffer;
+
+    public ChannelBufferInputTransport()
+    {
+        this(ChannelBuffers.EMPTY_BUFFER);
+    }
+
+    public ChannelBufferInputTransport(ChannelBuffer buffer)
+    {
+        setBuffer(buffer);
+    }
+
+    public void setBuffer(ChannelBuffer buffer)
+    {
+        this.buffer = Preconditions.checkNotNull(buffer, "buffer is null");
+    }
+
+    /**
+     * Returns the next {@code length} bytes of the frame. Heap backed frames return a writable
+     * view that shares the frame array; other frames are copied. Callers that keep or modify the
+     * bytes should copy the view with {@link ZeroCopyBinaryProtocol#copyOf}.
+     */
+    public ByteBuffer readSlice(int length)
+            throws TTransportException
+    {
+        if (length < 0 || buffer.readableBytes() < length) {
+            throw new TTransportException(TTransportException.END_OF_FILE,
+                                          "Frame has " + buffer.readableBytes() + " bytes remaining, but " + length + " are required");
+        }
+        if (!buffer.hasArray()) {
+            byte[] bytes = new byte[length];
+            buffer.readBytes(bytes);
+            return ByteBuffer.wrap(bytes);
+        }
+        ByteBuffer slice = ByteBuffer.wrap(buffer.array(), buffer.arrayOffset() + buffer.readerIndex(), length).slice();
+        buffer.skipBytes(length);
+        return slice;
+    }
+
+    @Override
+    public boolean isOpen()
+    {
+        return true;
+    }
+
+    @Override
+    public void open()
+    {
+    }
+
+    @Override
+    public void close()
+    {
+    }
+
+    @Override
+    public int read(byte[] buf, int off, int len)
+    {
+        int bytesRead = Math.min(buffer.readableBytes(), len);
+        buffer.readBytes(buf, off, bytesRead);
+        return bytesRead;
+    }
+
+    @Override
+    public void write(byte[] buf, int off, int len)
+    {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public byte[] getBuffer()
+    {
+        if (!buffer.hasArray()) {
+            return null;
+        }
+        return buffer.array();
+    }
+
+    @Override
+    public int getBufferPosition()
+    {
+        if (!buffer.hasArray()) {
+            return 0;
+        }
+        return buffer.arrayOffset() + buffer.readerIndex();
+    }
+
+    @Override
+    public int getBytesRemainingInBuffer()
+    {
+        if (!buffer.hasArray()) {
+            return -1;
+        }
+        return buffer.readableBytes();
+    }
+
+    @Override
+    public void consumeBuffer(int len)
+    {
+        buffer.skipBytes(len);
+    }
+}
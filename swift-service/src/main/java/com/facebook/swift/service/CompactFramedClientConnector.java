@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.facebook.swift.service;
+
+import com.facebook.nifty.client.FramedClientChannel;
+import com.facebook.nifty.client.FramedClientConnector;
+import com.facebook.nifty.client.NiftyClientChannel;
+import com.facebook.nifty.client.NiftyClientConnector;
+import com.google.common.base.Preconditions;
+import org.apache.thrift.transport.TTransportException;
+import org.jboss.netty.bootstrap.ClientBootstrap;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.ChannelPipelineFactory;
+import org.jboss.netty.util.Timer;
+
+/**
+ * Connects framed channels for clients that speak the compact protocol.  The Nifty client
+ * channels match responses to requests by a sequence id read at the offsets of the binary
+ * message header, so compact messages need a channel that reads the compact header instead.
+ */
+final class CompactFramedClientConnector implements NiftyClientConnector<FramedClientChannel>
+{
+    private final FramedClientConnector connector;
+
+    CompactFramedClientConnector(FramedClientConnector connector)
+    {
+        this.connector = Preconditions.checkNotNull(connector, "connector is null");
+    }
+
+    /**
+     * Returns true if the channel was connected by a compact framed connector.
+     */
+    static boolean isCompactChannel(NiftyClientChannel channel)
+    {
+        return channel instanceof CompactFramedClientChannel;
+    }
+
+    @Override
+    public ChannelFuture connect(ClientBootstrap bootstrap)
+    {
+        return connector.connect(bootstrap);
+    }
+
+    @Override
+    public FramedClientChannel newThriftClientChannel(Channel nettyChannel, Timer timer)
+    {
+        CompactFramedClientChannel channel = new CompactFramedClientChannel(nettyChannel, timer);
+        nettyChannel.getPipeline().addLast("thriftHandler", channel);
+        return channel;
+    }
+
+    @Override
+    public ChannelPipelineFactory newChannelPipelineFactory(int maxFrameSize)
+    {
+        return connector.newChannelPipelineFactory(maxFrameSize);
+    }
+
+    @Override
+    public String toString()
+    {
+        return connector.toString();
+    }
+
+    private static class CompactFramedClientChannel extends FramedClientChannel
+    {
+        private CompactFramedClientChannel(Channel channel, Timer timer)
+        {
+            super(channel, timer);
+        }
+
+        @Override
+        protected int extractSequenceId(ChannelBuffer message)
+                throws TTransportException
+        {
+            // protocol id, version and type, then the sequence id as a varint
+            try {
+                int sequenceId = 0;
+                int index = 2;
+                for (int shift = 0; shift < 32; shift += 7) {
+                    byte b = message.getByte(index++);
+                    sequenceId |= (b & 0x7f) << shift;
+                    if ((b & 0x80) == 0) {
+                        return sequenceId;
+                    }
+                }
+            }
+            catch (IndexOutOfBoundsException e) {
+                // fall through
+            }
+            throw new TTransportException("Could not find sequenceId in Thrift message");
+        }
+    }
+}
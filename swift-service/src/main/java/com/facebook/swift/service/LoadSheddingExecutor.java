@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.facebook.swift.service;
+
+import io.airlift.stats.TimedStat;
+import io.airlift.units.Duration;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static io.airlift.units.Duration.nanosSince;
+
+/**
+ * Worker pool of the server with a bounded queue.  Requests are shed instead of processed when
+ * the queue is full or when they waited in the queue longer than the maximum queued time: a
+ * request rejected by the full queue is shed immediately on the I/O thread that submitted it, and
+ * a request that waited too long is shed by the worker that takes it.  A shed request is still
+ * run, but with {@link #isShedding} set, so {@link LoadSheddingProcessor} answers it without
+ * invoking the service.
+ */
+@ThreadSafe
+class LoadSheddingExecutor extends ThreadPoolExecutor
+{
+    private static final ThreadLocal<Boolean> SHEDDING = new ThreadLocal<>();
+
+    private final long maxQueuedNanos;
+    private final TimedStat queuedTime = new TimedStat();
+    private final AtomicLong shedRequests = new AtomicLong();
+
+    public LoadSheddingExecutor(int workerThreads, int maxQueuedRequests, @Nullable Duration maxQueuedTime, ThreadFactory threadFactory)
+    {
+        super(workerThreads,
+                workerThreads,
+                0L,
+                TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(maxQueuedRequests),
+                threadFactory,
+                new ShedPolicy());
+        this.maxQueuedNanos = maxQueuedTime == null ? Long.MAX_VALUE : (long) maxQueuedTime.convertTo(TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Is the request running on the current thread being shed?
+     */
+    public static boolean isShedding()
+    {
+        return SHEDDING.get() != null;
+    }
+
+    @Override
+    public void execute(Runnable command)
+    {
+        super.execute(new QueuedTask(command));
+    }
+
+    public TimedStat getQueuedTime()
+    {
+        return queuedTime;
+    }
+
+    public long getShedRequests()
+    {
+        return shedRequests.get();
+    }
+
+    private void run(Runnable command, boolean shed)
+    {
+        if (!shed) {
+            command.run();
+            return;
+        }
+
+        shedRequests.incrementAndGet();
+        SHEDDING.set(Boolean.TRUE);
+        try {
+            command.run();
+        }
+        finally {
+            SHEDDING.remove();
+        }
+    }
+
+    private class QueuedTask implements Runnable
+    {
+        private final Runnable command;
+        private final long queuedStart = System.nanoTime();
+
+        private QueuedTask(Runnable command)
+        {
+            this.command = command;
+        }
+
+        @Override
+        public void run()
+        {
+            Duration queued = nanosSince(queuedStart);
+            queuedTime.addValue(queued);
+            LoadSheddingExecutor.this.run(command, queued.convertTo(TimeUnit.NANOSECONDS) > maxQueuedNanos);
+        }
+
+        private void shed()
+        {
+            LoadSheddingExecutor.this.run(command, true);
+        }
+    }
+
+    private static class ShedPolicy implements RejectedExecutionHandler
+    {
+        @Override
+        public void rejectedExecution(Runnable task, ThreadPoolExecutor executor)
+        {
+            if (executor.isShutdown()) {
+                throw new RejectedExecutionException("Worker pool is shut down");
+            }
+            ((QueuedTask) task).shed();
+        }
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.facebook.swift.service;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableSet;
+import org.apache.thrift.TApplicationException;
+import org.apache.thrift.TException;
+import org.apache.thrift.TProcessor;
+import org.apache.thrift.protocol.TMessage;
+import org.apache.thrift.protocol.TMessageType;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.protocol.TProtocolUtil;
+import org.apache.thrift.protocol.TType;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.Set;
+
+import static org.apache.thrift.TApplicationException.INTERNAL_ERROR;
+
+/**
+ * Answers requests shed by {@link LoadSheddingExecutor} without invoking the service: the
+ * arguments are skipped and the client gets a TApplicationException right away, so it can retry
+ * elsewhere instead of timing out.  Shed oneway requests are dropped; when the delegate is a
+ * {@link ThriftServiceProcessor} the method metadata decides this, since some clients send
+ * oneway methods as CALL messages.
+ */
+@ThreadSafe
+class LoadSheddingProcessor implements TProcessor
+{
+    private final TProcessor delegate;
+    private final Set<String> onewayMethods;
+
+    public LoadSheddingProcessor(TProcessor delegate)
+    {
+        this.delegate = Preconditions.checkNotNull(delegate, "delegate is null");
+
+        ImmutableSet.Builder<String> onewayMethods = ImmutableSet.builder();
+        if (delegate instanceof ThriftServiceProcessor) {
+            for (ThriftMethodProcessor methodProcessor : ((ThriftServiceProcessor) delegate).getMethods().values()) {
+                if (methodProcessor.isOneway()) {
+                    onewayMethods.add(methodProcessor.getName());
+                }
+            }
+        }
+        this.onewayMethods = onewayMethods.build();
+    }
+
+    @Override
+    public boolean process(TProtocol in, TProtocol out)
+            throws TException
+    {
+        if (!LoadSheddingExecutor.isShedding()) {
+            return delegate.process(in, out);
+        }
+
+        TMessage message = in.readMessageBegin();
+        TProtocolUtil.skip(in, TType.STRUCT);
+        in.readMessageEnd();
+
+        if (message.type == TMessageType.ONEWAY || onewayMethods.contains(message.name)) {
+            return true;
+        }
+
+        TApplicationException exception = new TApplicationException(INTERNAL_ERROR, "Server is overloaded: " + message.name + " was not processed");
+        out.writeMessageBegin(new TMessage(message.name, TMessageType.EXCEPTION, message.seqid));
+        exception.write(out);
+        out.writeMessageEnd();
+        out.getTransport().flush();
+        return true;
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.facebook.swift.service;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+import java.util.Map;
+
+/**
+ * Maps UTF-8 encoded method names to the values of a service's methods without decoding them.
+ * The table is a perfect hash: a seed is chosen at construction so that every name hashes to its
+ * own slot, so a lookup is one hash of the bytes, one probe and one comparison.
+ */
+@Immutable
+final class MethodNameTable<T>
+{
+    private static final int SEEDS_PER_SIZE = 32;
+    private static final int MAX_TABLE_SIZE = 1 << 20;
+
+    private final Object[] values;
+    private final byte[][] encodedNames;
+    private final int mask;
+    private final int seed;
+
+    MethodNameTable(Map<String, ? extends T> methods)
+    {
+        Preconditions.checkNotNull(methods, "methods is null");
+
+        int initialSize = 2;
+        while (initialSize < methods.size() * 2) {
+            initialSize <<= 1;
+        }
+
+        Object[] values = null;
+        byte[][] encodedNames = null;
+        int seed = -1;
+        search:
+        for (int size = initialSize; size <= MAX_TABLE_SIZE; size <<= 1) {
+            for (int candidate = 0; candidate < SEEDS_PER_SIZE; candidate++) {
+                values = new Object[size];
+                encodedNames = new byte[size][];
+                if (fill(methods, candidate, values, encodedNames)) {
+                    seed = candidate;
+                    break search;
+                }
+            }
+        }
+        Preconditions.checkArgument(seed >= 0, "Could not build a method name table for %s", methods.keySet());
+
+        this.values = values;
+        this.encodedNames = encodedNames;
+        this.mask = values.length - 1;
+        this.seed = seed;
+    }
+
+    /**
+     * Returns the value of the method whose name is encoded in the specified bytes, or null if
+     * it is not the name of a method in this table.
+     */
+    @Nullable
+    @SuppressWarnings("unchecked")
+    public T get(byte[] buffer, int offset, int length)
+    {
+        int slot = hash(seed, buffer, offset, length) & mask;
+        byte[] name = encodedNames[slot];
+        if (name == null || name.length != length) {
+            return null;
+        }
+        for (int i = 0; i < length; i++) {
+            if (name[i] != buffer[offset + i]) {
+                return null;
+            }
+        }
+        return (T) values[slot];
+    }
+
+    private static boolean fill(Map<String, ?> methods, int seed, Object[] values, byte[][] encodedNames)
+    {
+        int mask = values.length - 1;
+        for (Map.Entry<String, ?> entry : methods.entrySet()) {
+            byte[] encodedName = entry.getKey().getBytes(Charsets.UTF_8);
+            int slot = hash(seed, encodedName, 0, encodedName.length) & mask;
+            if (encodedNames[slot] != null) {
+                return false;
+            }
+            values[slot] = entry.getValue();
+            encodedNames[slot] = encodedName;
+        }
+        return true;
+    }
+
+    private static int hash(int seed, byte[] buffer, int offset, int length)
+    {
+        // FNV-1a over the bytes, followed by the murmur3 finalizer so the low bits used to
+        // pick a slot depend on every bit of the name
+        int hash = 0x811c9dc5 ^ (seed * 0x9e3779b9);
+        for (int i = offset; i < offset + length; i++) {
+            hash ^= buffer[i] & 0xff;
+            hash *= 0x01000193;
+        }
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        hash *= 0xc2b2ae35;
+        hash ^= hash >>> 16;
+        return hash;
+    }
+}
@@ -0,0 +1,448 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.facebook.swift.service;
+
+import com.facebook.nifty.client.NiftyClientChannel;
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import io.airlift.units.Duration;
+import org.apache.thrift.TException;
+import org.apache.thrift.transport.TTransportException;
+import org.weakref.jmx.Managed;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+import java.io.Closeable;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static io.airlift.units.Duration.nanosSince;
+import static java.lang.System.nanoTime;
+
+/**
+ * Pool of connections to a single service address. Requests are sent on the connection with the
+ * fewest outstanding requests, and a new connection is opened in the background whenever all
+ * connections are busy and the pool is below its maximum size. A periodic health check drops
+ * failed connections, closes connections that have been idle longer than the idle timeout
+ * (keeping at least the minimum number of connections) and tops the pool back up to the minimum.
+ */
+@ThreadSafe
+public class NiftyClientChannelPool implements Closeable
+{
+    private final ChannelFactory channelFactory;
+    private final String description;
+    private final int minConnections;
+    private final int maxConnections;
+    private final Duration idleTimeout;
+
+    private final List<PooledChannel> channels = new CopyOnWriteArrayList<>();
+    private final ScheduledFuture<?> healthCheckTask;
+
+    @GuardedBy("this")
+    private final Set<ListenableFuture<PooledChannel>> pendingConnections = new HashSet<>();
+    @GuardedBy("this")
+    private boolean closed;
+
+    NiftyClientChannelPool(
+            ChannelFactory channelFactory,
+            String description,
+            int minConnections,
+            int maxConnections,
+            Duration idleTimeout,
+            Duration healthCheckInterval,
+            ScheduledExecutorService healthCheckExecutor)
+    {
+        Preconditions.checkNotNull(channelFactory, "channelFactory is null");
+        Preconditions.checkNotNull(description, "description is null");
+        Preconditions.checkArgument(minConnections >= 0, "minConnections is negative");
+        Preconditions.checkArgument(maxConnections >= 1, "maxConnections must be at least 1");
+        Preconditions.checkArgument(minConnections <= maxConnections, "minConnections is greater than maxConnections");
+        Preconditions.checkNotNull(idleTimeout, "idleTimeout is null");
+        Preconditions.checkNotNull(healthCheckInterval, "healthCheckInterval is null");
+        Preconditions.checkNotNull(healthCheckExecutor, "healthCheckExecutor is null");
+
+        this.channelFactory = channelFactory;
+        this.description = description;
+        this.minConnections = minConnections;
+        this.maxConnections = maxConnections;
+        this.idleTimeout = idleTimeout;
+
+        long intervalMillis = (long) healthCheckInterval.toMillis();
+        healthCheckTask = healthCheckExecutor.scheduleWithFixedDelay(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                checkHealth();
+            }
+        }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+
+        fillToMinimum();
+    }
+
+    @Managed
+    public int getMinConnections()
+    {
+        return minConnections;
+    }
+
+    @Managed
+    public int getMaxConnections()
+    {
+        return maxConnections;
+    }
+
+    @Managed
+    public int getConnectionCount()
+    {
+        return channels.size();
+    }
+
+    @Managed
+    public int getOutstandingRequests()
+    {
+        int outstanding = 0;
+        for (PooledChannel channel : channels) {
+            outstanding += Math.max(channel.getOutstandingRequests(), 0);
+        }
+        return outstanding;
+    }
+
+    /**
+     * Reserves the connection with the fewest outstanding requests. If the pool has no usable
+     * connection, this blocks until a new or pending connection is established, so the pool never
+     * holds more than the maximum number of connections. The returned channel must be handed back
+     * with {@link #release}.
+     */
+    PooledChannel acquire()
+            throws TException
+    {
+        while (true) {
+            PooledChannel channel = leastLoadedChannel();
+
+            ListenableFuture<PooledChannel> newChannel = null;
+            if (channel == null || channel.getOutstandingRequests() > 0) {
+                newChannel = tryOpenChannel();
+            }
+
+            if (channel == null) {
+                if (newChannel == null) {
+                    // pool is full of connections that are still being established
+                    newChannel = pendingConnection();
+                }
+                if (newChannel == null) {
+                    // the broken connections filling the pool were retired, so try again
+                    continue;
+                }
+                channel = waitForChannel(newChannel);
+            }
+
+            if (channel.tryAcquire()) {
+                return channel;
+            }
+            // channel was retired after it was selected, so pick again
+        }
+    }
+
+    void release(PooledChannel channel)
+    {
+        channel.release();
+        if (channel.getChannel().hasError()) {
+            retire(channel);
+        }
+    }
+
+    @Override
+    public void close()
+    {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        }
+
+        healthCheckTask.cancel(false);
+        for (PooledChannel channel : channels) {
+            channels.remove(channel);
+            channel.close();
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return description;
+    }
+
+    private PooledChannel leastLoadedChannel()
+    {
+        PooledChannel best = null;
+        int bestOutstanding = Integer.MAX_VALUE;
+        for (PooledChannel channel : channels) {
+            int outstanding = channel.getOutstandingRequests();
+            if (outstanding >= 0 && outstanding < bestOutstanding && !channel.getChannel().hasError()) {
+                best = channel;
+                bestOutstanding = outstanding;
+                if (outstanding == 0) {
+                    break;
+                }
+            }
+        }
+        return best;
+    }
+
+    private void checkHealth()
+    {
+        for (PooledChannel channel : channels) {
+            if (channel.getChannel().hasError()) {
+                retire(channel);
+            }
+        }
+
+        for (PooledChannel channel : channels) {
+            if (channels.size() <= minConnections) {
+                break;
+            }
+            if (channel.getIdleTime().compareTo(idleTimeout) > 0 && channel.tryRetire()) {
+                channels.remove(channel);
+                channel.close();
+            }
+        }
+
+        fillToMinimum();
+    }
+
+    private void fillToMinimum()
+    {
+        int missing;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            missing = minConnections - channels.size() - pendingConnections.size();
+        }
+        for (int i = 0; i < missing; i++) {
+            tryOpenChannel();
+        }
+    }
+
+    private void retire(PooledChannel channel)
+    {
+        if (channels.remove(channel)) {
+            channel.close();
+        }
+    }
+
+    private ListenableFuture<PooledChannel> tryOpenChannel()
+    {
+        SettableFuture<PooledChannel> future = SettableFuture.create();
+        synchronized (this) {
+            if (closed || channels.size() + pendingConnections.size() >= maxConnections) {
+                return null;
+            }
+            pendingConnections.add(future);
+        }
+        openChannel(future);
+        return future;
+    }
+
+    /**
+     * Returns a connection that is still being established. If there is none, the pool is full
+     * of broken connections, which are retired to make room, and null is returned.
+     */
+    private ListenableFuture<PooledChannel> pendingConnection()
+            throws TException
+    {
+        synchronized (this) {
+            if (closed) {
+                throw new TTransportException(TTransportException.NOT_OPEN, "Connection pool " + description + " is closed");
+            }
+            if (!pendingConnections.isEmpty()) {
+                return pendingConnections.iterator().next();
+            }
+        }
+
+        for (PooledChannel channel : channels) {
+            if (channel.getChannel().hasError()) {
+                retire(channel);
+            }
+        }
+        return null;
+    }
+
+    private void openChannel(final SettableFuture<PooledChannel> future)
+    {
+        ListenableFuture<? extends NiftyClientChannel> connectFuture;
+        try {
+            connectFuture = channelFactory.openChannel();
+        }
+        catch (RuntimeException e) {
+            synchronized (this) {
+                pendingConnections.remove(future);
+            }
+            future.setException(e);
+            return;
+        }
+
+        Futures.addCallback(connectFuture, new FutureCallback<NiftyClientChannel>()
+        {
+            @Override
+            public void onSuccess(NiftyClientChannel result)
+            {
+                PooledChannel channel = new PooledChannel(result);
+                boolean poolClosed;
+                synchronized (NiftyClientChannelPool.this) {
+                    pendingConnections.remove(future);
+                    poolClosed = closed;
+                    if (!poolClosed) {
+                        channels.add(channel);
+                    }
+                }
+                if (poolClosed) {
+                    channel.close();
+                }
+                future.set(channel);
+            }
+
+            @Override
+            public void onFailure(Throwable t)
+            {
+                synchronized (NiftyClientChannelPool.this) {
+                    pendingConnections.remove(future);
+                }
+                future.setException(t);
+            }
+        });
+    }
+
+    private static PooledChannel waitForChannel(ListenableFuture<PooledChannel> future)
+            throws TException
+    {
+        try {
+            return future.get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new TTransportException(TTransportException.UNKNOWN, "Interrupted while connecting", e);
+        }
+        catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof TException) {
+                throw (TException) cause;
+            }
+            throw new TTransportException(TTransportException.NOT_OPEN, "Unable to connect", cause);
+        }
+    }
+
+    /**
+     * Opens new connections for the pool. Connections are returned already configured with
+     * the read and write timeouts of the client.
+     */
+    interface ChannelFactory
+    {
+        ListenableFuture<? extends NiftyClientChannel> openChannel();
+    }
+
+    /**
+     * A pooled connection. Each connection has its own sequence ids, because responses are
+     * matched to requests by sequence id within a connection and several clients may share it.
+     */
+    @ThreadSafe
+    static class PooledChannel
+    {
+        private static final int RETIRED = -1;
+
+        private final NiftyClientChannel channel;
+        private final AtomicInteger sequenceId = new AtomicInteger(1);
+        private final AtomicInteger outstandingRequests = new AtomicInteger();
+        private volatile long lastUsedNanos = nanoTime();
+
+        private PooledChannel(NiftyClientChannel channel)
+        {
+            this.channel = channel;
+        }
+
+        public NiftyClientChannel getChannel()
+        {
+            return channel;
+        }
+
+        public int nextSequenceId()
+        {
+            return sequenceId.getAndIncrement();
+        }
+
+        private int getOutstandingRequests()
+        {
+            return outstandingRequests.get();
+        }
+
+        private Duration getIdleTime()
+        {
+            if (outstandingRequests.get() != 0) {
+                return new Duration(0, TimeUnit.NANOSECONDS);
+            }
+            return nanosSince(lastUsedNanos);
+        }
+
+        private boolean tryAcquire()
+        {
+            while (true) {
+                int outstanding = outstandingRequests.get();
+                if (outstanding == RETIRED) {
+                    return false;
+                }
+                if (outstandingRequests.compareAndSet(outstanding, outstanding + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        private void release()
+        {
+            lastUsedNanos = nanoTime();
+            while (true) {
+                int outstanding = outstandingRequests.get();
+                // a channel closed with requests in flight stays retired
+                if (outstanding == RETIRED || outstandingRequests.compareAndSet(outstanding, outstanding - 1)) {
+                    return;
+                }
+            }
+        }
+
+        private boolean tryRetire()
+        {
+            return outstandingRequests.compareAndSet(0, RETIRED);
+        }
+
+        private void close()
+        {
+            outstandingRequests.set(RETIRED);
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.facebook.swift.service;
+
+import com.facebook.nifty.client.TChannelBufferOutputTransport;
+import com.facebook.nifty.core.TNiftyTransport;
+import com.facebook.swift.codec.internal.ThriftSizes;
+import org.apache.thrift.transport.TTransport;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.DynamicChannelBuffer;
+
+/**
+ * Grows the output buffers of messages to their encoded size before the message is written, so
+ * large messages are copied once instead of each time the buffer doubles.  Sizes come from
+ * {@link com.facebook.swift.codec.ThriftSizedCodec} and are estimates for protocols other than
+ * binary, so the buffers can still grow while the message is written.
+ * <p/>
+ * Sizing a message walks the whole value, so it is only done when it can pay off: the transport
+ * must write to a growable buffer, and the previous message of the method must have been at
+ * least {@link #PRESIZE_THRESHOLD} bytes.
+ */
+final class OutputBuffers
+{
+    // version, name length and sequence id
+    private static final int MESSAGE_HEADER_SIZE = 12;
+
+    // smaller messages grow the buffer only a few times, which costs less than sizing the value
+    public static final int PRESIZE_THRESHOLD = 4 * 1024;
+
+    private OutputBuffers()
+    {
+    }
+
+    /**
+     * Gets the size of a message with the specified name without the fields of its struct.
+     */
+    public static int getMessageSize(String name)
+    {
+        return MESSAGE_HEADER_SIZE + ThriftSizes.getUtf8Length(name) + ThriftSizes.FIELD_STOP_SIZE;
+    }
+
+    /**
+     * Gets the buffer the transport writes to if it grows as needed, or null otherwise.  Messages
+     * written to transports without a growable buffer are not sized.
+     */
+    public static ChannelBuffer getGrowableBuffer(TTransport transport)
+    {
+        ChannelBuffer buffer = getOutputBuffer(transport);
+        if (buffer instanceof DynamicChannelBuffer) {
+            return buffer;
+        }
+        return null;
+    }
+
+    private static ChannelBuffer getOutputBuffer(TTransport transport)
+    {
+        if (transport instanceof TNiftyTransport) {
+            return ((TNiftyTransport) transport).getOutputBuffer();
+        }
+        if (transport instanceof TChannelBufferOutputTransport) {
+            return ((TChannelBufferOutputTransport) transport).getOutputBuffer();
+        }
+        if (transport instanceof SyncClientCall.OutputTransport) {
+            return ((SyncClientCall.OutputTransport) transport).getOutputBuffer();
+        }
+        return null;
+    }
+}
@@ -0,0 +1,236 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.facebook.swift.service;
+
+import com.facebook.nifty.client.NiftyClientChannel;
+import org.apache.thrift.TException;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.protocol.TProtocolFactory;
+import org.apache.thrift.transport.TTransport;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+
+import javax.annotation.concurrent.NotThreadSafe;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Reusable state for synchronous calls on an asynchronous {@link NiftyClientChannel}. Each thread
+ * owns one instance, which holds the request buffer, the transports and protocols over it, and
+ * acts as the channel listener, so a synchronous call does not allocate any of these. The calling
+ * thread parks until the listener is notified instead of waiting on a latch.
+ * <p/>
+ * If a call does not complete cleanly (the channel reports an error, sending fails or the thread
+ * is interrupted) the channel may still reference the request buffer or call the listener later,
+ * so the instance is dropped and the next call on the thread starts with a new one.
+ */
+@NotThreadSafe
+class SyncClientCall
+        implements NiftyClientChannel.Listener
+{
+    private static final int INITIAL_BUFFER_SIZE = 1024;
+    private static final int MAX_RETAINED_BUFFER_SIZE = 64 * 1024;
+
+    private static final ThreadLocal<SyncClientCall> CALLS = new ThreadLocal<SyncClientCall>()
+    {
+        @Override
+        protected SyncClientCall initialValue()
+        {
+            return new SyncClientCall(Thread.currentThread());
+        }
+    };
+
+    private final Thread waiter;
+    private final ChannelBuffer requestBuffer = ChannelBuffers.dynamicBuffer(INITIAL_BUFFER_SIZE);
+    private final OutputTransport outputTransport = new OutputTransport(requestBuffer);
+    private final ChannelBufferInputTransport inputTransport = new ChannelBufferInputTransport();
+
+    private TProtocolFactory outputProtocolFactory;
+    private TProtocol outputProtocol;
+    private TProtocolFactory inputProtocolFactory;
+    private TProtocol inputProtocol;
+
+    private boolean oneway;
+    private volatile boolean done;
+    private volatile ChannelBuffer response;
+    private volatile TException error;
+
+    private SyncClientCall(Thread waiter)
+    {
+        this.waiter = waiter;
+    }
+
+    public static SyncClientCall forCurrentThread()
+    {
+        return CALLS.get();
+    }
+
+    /**
+     * Clears the request buffer and returns a protocol that writes the new request into it.
+     */
+    public TProtocol startRequest(TProtocolFactory protocolFactory)
+    {
+        requestBuffer.clear();
+        if (protocolFactory != outputProtocolFactory) {
+            outputProtocolFactory = protocolFactory;
+            outputProtocol = protocolFactory.getProtocol(outputTransport);
+        }
+        else {
+            outputProtocol.reset();
+        }
+        return outputProtocol;
+    }
+
+    /**
+     * Sends the request and blocks until the response is received.
+     *
+     * @return a protocol positioned at the start of the response
+     * @throws TException if an error occurs while sending the request or receiving the response
+     * @throws InterruptedException if the thread is interrupted before the response arrives
+     */
+    public TProtocol sendTwoWay(NiftyClientChannel channel, TProtocolFactory protocolFactory)
+            throws TException, InterruptedException
+    {
+        send(channel, false);
+
+        inputTransport.setBuffer(response);
+        response = null;
+        if (protocolFactory != inputProtocolFactory) {
+            inputProtocolFactory = protocolFactory;
+            inputProtocol = protocolFactory.getProtocol(inputTransport);
+        }
+        else {
+            inputProtocol.reset();
+        }
+        return inputProtocol;
+    }
+
+    /**
+     * Sends the request and blocks until it has been written. Does not wait for a response.
+     *
+     * @throws TException if an error occurs while sending the request
+     * @throws InterruptedException if the thread is interrupted before the request is sent
+     */
+    public void sendOneWay(NiftyClientChannel channel)
+            throws TException, InterruptedException
+    {
+        send(channel, true);
+    }
+
+    private void send(NiftyClientChannel channel, boolean oneway)
+            throws TException, InterruptedException
+    {
+        this.oneway = oneway;
+        done = false;
+        error = null;
+        response = null;
+
+        boolean reusable = false;
+        try {
+            channel.sendAsynchronousRequest(requestBuffer, oneway, this);
+            while (!done) {
+                LockSupport.park(this);
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+            }
+            if (error != null) {
+                throw error;
+            }
+            reusable = requestBuffer.capacity() <= MAX_RETAINED_BUFFER_SIZE;
+        }
+        finally {
+            if (!reusable) {
+                CALLS.remove();
+            }
+        }
+    }
+
+    @Override
+    public void onRequestSent()
+    {
+        if (oneway) {
+            complete();
+        }
+    }
+
+    @Override
+    public void onResponseReceived(ChannelBuffer message)
+    {
+        response = message;
+        complete();
+    }
+
+    @Override
+    public void onChannelError(TException e)
+    {
+        error = e;
+        complete();
+    }
+
+    private void complete()
+    {
+        done = true;
+        LockSupport.unpark(waiter);
+    }
+
+    static class OutputTransport extends TTransport
+    {
+        private final ChannelBuffer buffer;
+
+        private OutputTransport(ChannelBuffer buffer)
+        {
+            this.buffer = buffer;
+        }
+
+        public ChannelBuffer getOutputBuffer()
+        {
+            return buffer;
+        }
+
+        @Override
+        public boolean isOpen()
+        {
+            return true;
+        }
+
+        @Override
+        public void open()
+        {
+        }
+
+        @Override
+        public void close()
+        {
+        }
+
+        @Override
+        public int read(byte[] buf, int off, int len)
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void write(byte[] buf, int off, int len)
+        {
+            buffer.writeBytes(buf, off, len);
+        }
+
+        @Override
+        public void flush()
+        {
+        }
+    }
+}
@@ -15,6 +15,7 @@
  */
 package com.facebook.swift.service;
 
+import com.facebook.nifty.client.FramedClientConnector;
 import com.facebook.nifty.client.NiftyClientChannel;
 import com.facebook.nifty.client.NiftyClientConnector;
 import com.google.common.base.Preconditions;
@@ -24,6 +25,9 @@ import com.google.inject.Inject;
 import io.airlift.units.Duration;
 import org.weakref.jmx.Managed;
 
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
 public class ThriftClient<T>
 {
     private final ThriftClientManager clientManager;
@@ -34,6 +38,9 @@ public class ThriftClient<T>
     private final Duration writeTimeout;
 
     private final HostAndPort socksProxy;
+    private final ThriftProtocol protocol;
+    private final ThriftClientConfig clientConfig;
+    private final ConcurrentMap<HostAndPort, NiftyClientChannelPool> channelPools = new ConcurrentHashMap<>();
 
     @Inject
     public ThriftClient(ThriftClientManager clientManager, Class<T> clientType)
@@ -58,6 +65,8 @@ public class ThriftClient<T>
         readTimeout = clientConfig.getReadTimeout();
         writeTimeout = clientConfig.getWriteTimeout();
         socksProxy = clientConfig.getSocksProxy();
+        protocol = clientConfig.getProtocol();
+        this.clientConfig = clientConfig;
     }
 
     @Managed
@@ -99,6 +108,22 @@ public class ThriftClient<T>
         return socksProxy.toString();
     }
 
+    @Managed
+    public String getProtocol()
+    {
+        return protocol.toString();
+    }
+
+    @Managed
+    public int getPooledConnections()
+    {
+        int connections = 0;
+        for (NiftyClientChannelPool pool : channelPools.values()) {
+            connections += pool.getConnectionCount();
+        }
+        return connections;
+    }
+
     /***
      * Asynchronously connect to a service to create a new client
      * @param connector Connector used to establish the new connection
@@ -113,16 +138,44 @@ public class ThriftClient<T>
                 readTimeout,
                 writeTimeout,
                 clientName,
-                socksProxy);
+                socksProxy,
+                protocol);
+    }
+
+    /***
+     * Create a client that sends requests over a pool of framed connections to the specified
+     * address. All pooled clients opened for the same address share one pool, which is sized
+     * by the pool settings in the client config and is closed with the client manager.
+     * Closing the returned client does not close the pooled connections.
+     * @param address Address of the service
+     * @return The new client
+     */
+    public T open(HostAndPort address)
+    {
+        Preconditions.checkNotNull(address, "address is null");
+
+        NiftyClientChannelPool pool = channelPools.get(address);
+        if (pool == null) {
+            synchronized (channelPools) {
+                pool = channelPools.get(address);
+                if (pool == null) {
+                    pool = clientManager.createChannelPool(new FramedClientConnector(address), clientConfig);
+                    channelPools.put(address, pool);
+                }
+            }
+        }
+        return clientManager.createClient(pool, clientType, clientName, protocol);
     }
 
     /***
-     * Create a new client from an existing connection
+     * Create a new client from an existing connection. A framed connection must have been
+     * opened with the protocol of this client.
      * @param channel Established client connection
      * @return The new client
+     * @throws IllegalArgumentException if the channel is a framed channel opened with another protocol
      */
     public T open(NiftyClientChannel channel)
     {
-        return clientManager.createClient(channel, clientType, clientName);
+        return clientManager.createClient(channel, clientType, clientName, protocol);
     }
 }
@@ -20,6 +20,8 @@ import io.airlift.configuration.Config;
 import io.airlift.units.Duration;
 import io.airlift.units.MinDuration;
 
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
 import java.util.concurrent.TimeUnit;
 
 public class ThriftClientConfig
@@ -27,11 +29,21 @@ public class ThriftClientConfig
     public static final Duration DEFAULT_CONNECT_TIMEOUT = new Duration(500, TimeUnit.MILLISECONDS);
     public static final Duration DEFAULT_READ_TIMEOUT = new Duration(1, TimeUnit.MINUTES);
     public static final Duration DEFAULT_WRITE_TIMEOUT = new Duration(1, TimeUnit.MINUTES);
+    public static final ThriftProtocol DEFAULT_PROTOCOL = ThriftProtocol.BINARY;
+    public static final int DEFAULT_POOL_MIN_CONNECTIONS = 0;
+    public static final int DEFAULT_POOL_MAX_CONNECTIONS = 8;
+    public static final Duration DEFAULT_POOL_IDLE_TIMEOUT = new Duration(1, TimeUnit.MINUTES);
+    public static final Duration DEFAULT_POOL_HEALTH_CHECK_INTERVAL = new Duration(10, TimeUnit.SECONDS);
 
     private Duration connectTimeout = DEFAULT_CONNECT_TIMEOUT;
     private Duration readTimeout = DEFAULT_READ_TIMEOUT;
     private Duration writeTimeout = DEFAULT_WRITE_TIMEOUT;
     private HostAndPort socksProxy;
+    private ThriftProtocol protocol = DEFAULT_PROTOCOL;
+    private int poolMinConnections = DEFAULT_POOL_MIN_CONNECTIONS;
+    private int poolMaxConnections = DEFAULT_POOL_MAX_CONNECTIONS;
+    private Duration poolIdleTimeout = DEFAULT_POOL_IDLE_TIMEOUT;
+    private Duration poolHealthCheckInterval = DEFAULT_POOL_HEALTH_CHECK_INTERVAL;
 
     @MinDuration("1ms")
     public Duration getConnectTimeout()
@@ -83,4 +95,69 @@ public class ThriftClientConfig
         this.socksProxy = socksProxy;
         return this;
     }
+
+    @NotNull
+    public ThriftProtocol getProtocol()
+    {
+        return protocol;
+    }
+
+    @Config("thrift.client.protocol")
+    public ThriftClientConfig setProtocol(ThriftProtocol protocol)
+    {
+        this.protocol = protocol;
+        return this;
+    }
+
+    @Min(0)
+    public int getPoolMinConnections()
+    {
+        return poolMinConnections;
+    }
+
+    @Config("thrift.client.pool.min-connections")
+    public ThriftClientConfig setPoolMinConnections(int poolMinConnections)
+    {
+        this.poolMinConnections = poolMinConnections;
+        return this;
+    }
+
+    @Min(1)
+    public int getPoolMaxConnections()
+    {
+        return poolMaxConnections;
+    }
+
+    @Config("thrift.client.pool.max-connections")
+    public ThriftClientConfig setPoolMaxConnections(int poolMaxConnections)
+    {
+        this.poolMaxConnections = poolMaxConnections;
+        return this;
+    }
+
+    @MinDuration("1ms")
+    public Duration getPoolIdleTimeout()
+    {
+        return poolIdleTimeout;
+    }
+
+    @Config("thrift.client.pool.idle-timeout")
+    public ThriftClientConfig setPoolIdleTimeout(Duration poolIdleTimeout)
+    {
+        this.poolIdleTimeout = poolIdleTimeout;
+        return this;
+    }
+
+    @MinDuration("1ms")
+    public Duration getPoolHealthCheckInterval()
+    {
+        return poolHealthCheckInterval;
+    }
+
+    @Config("thrift.client.pool.health-check-interval")
+    public ThriftClientConfig setPoolHealthCheckInterval(Duration poolHealthCheckInterval)
+    {
+        this.poolHealthCheckInterval = poolHealthCheckInterval;
+        return this;
+    }
 }
@@ -15,12 +15,17 @@
  */
 package com.facebook.swift.service;
 
+import com.facebook.nifty.client.FramedClientChannel;
+import com.facebook.nifty.client.FramedClientConnector;
 import com.facebook.nifty.client.NiftyClient;
 import com.facebook.nifty.client.NiftyClientChannel;
 import com.facebook.nifty.client.NiftyClientConnector;
 import com.facebook.swift.codec.ThriftCodecManager;
 import com.facebook.swift.service.metadata.ThriftMethodMetadata;
 import com.facebook.swift.service.metadata.ThriftServiceMetadata;
+import com.facebook.swift.service.NiftyClientChannelPool.PooledChannel;
+import com.google.common.base.Function;
+import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Strings;
 import com.google.common.cache.CacheBuilder;
@@ -31,11 +36,12 @@ import com.google.common.net.HostAndPort;
 import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import io.airlift.units.Duration;
 import org.apache.thrift.TApplicationException;
 import org.apache.thrift.TException;
-import org.apache.thrift.protocol.TBinaryProtocol;
 import org.apache.thrift.protocol.TProtocolException;
 import org.apache.thrift.protocol.TProtocolFactory;
 import org.apache.thrift.transport.TTransportException;
@@ -45,15 +51,21 @@ import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
 import java.net.InetSocketAddress;
+import java.util.Collections;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.annotation.PreDestroy;
 import javax.annotation.concurrent.Immutable;
 
 import static com.facebook.swift.service.ThriftClientConfig.DEFAULT_CONNECT_TIMEOUT;
+import static com.facebook.swift.service.ThriftClientConfig.DEFAULT_PROTOCOL;
 import static com.facebook.swift.service.ThriftClientConfig.DEFAULT_READ_TIMEOUT;
 import static com.facebook.swift.service.ThriftClientConfig.DEFAULT_WRITE_TIMEOUT;
+import static java.util.concurrent.Executors.newSingleThreadScheduledExecutor;
 import static org.apache.thrift.TApplicationException.UNKNOWN_METHOD;
 
 public class ThriftClientManager implements Closeable
@@ -63,6 +75,10 @@ public class ThriftClientManager implements Closeable
 
     private final ThriftCodecManager codecManager;
     private final NiftyClient niftyClient;
+    private final boolean compiledStubs;
+    private final Set<NiftyClientChannelPool> channelPools = Collections.newSetFromMap(new ConcurrentHashMap<NiftyClientChannelPool, Boolean>());
+    private final ScheduledExecutorService poolHealthCheckExecutor = newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("thrift-client-pool-%s").setDaemon(true).build());
     private final LoadingCache<TypeAndName, ThriftClientMetadata> clientMetadataCache = CacheBuilder.newBuilder()
             .build(new CacheLoader<TypeAndName, ThriftClientMetadata>()
             {
@@ -74,6 +90,36 @@ public class ThriftClientManager implements Closeable
                 }
             });
 
+    // Clients are compiled to concrete classes when the interface allows it and compiled stubs
+    // are enabled, and otherwise fall back to a java.lang.reflect.Proxy
+    private final LoadingCache<TypeAndName, Optional<ThriftClientStubGenerator>> clientStubGeneratorCache = CacheBuilder.newBuilder()
+            .build(new CacheLoader<TypeAndName, Optional<ThriftClientStubGenerator>>()
+            {
+                @Override
+                public Optional<ThriftClientStubGenerator> load(TypeAndName typeAndName)
+                        throws Exception
+                {
+                    ThriftClientMetadata clientMetadata = clientMetadataCache.getUnchecked(typeAndName);
+                    if (!ThriftClientStubGenerator.isSupported(typeAndName.getType(), clientMetadata)) {
+                        return Optional.absent();
+                    }
+                    return Optional.of(new ThriftClientStubGenerator(typeAndName.getType(), clientMetadata, codecManager));
+                }
+            });
+
+    // Responses are matched to requests by sequence id within a connection, so all clients
+    // sharing a channel must take their sequence ids from the same counter
+    private final LoadingCache<NiftyClientChannel, AtomicInteger> channelSequenceIds = CacheBuilder.newBuilder()
+            .weakKeys()
+            .build(new CacheLoader<NiftyClientChannel, AtomicInteger>()
+            {
+                @Override
+                public AtomicInteger load(NiftyClientChannel channel)
+                {
+                    return new AtomicInteger(1);
+                }
+            });
+
     public ThriftClientManager()
     {
         this(new ThriftCodecManager());
@@ -86,14 +132,37 @@ public class ThriftClientManager implements Closeable
 
     public ThriftClientManager(ThriftCodecManager codecManager)
     {
-        this.codecManager = codecManager;
-        this.niftyClient = new NiftyClient();
+        this(codecManager, true);
     }
 
     public ThriftClientManager(ThriftCodecManager codecManager, int maxFrameSize)
+    {
+        this(codecManager, maxFrameSize, true);
+    }
+
+    /**
+     * @param compiledStubs if false, clients are always implemented with a java.lang.reflect.Proxy
+     * instead of a compiled class, which is easier to step through in a debugger
+     */
+    public ThriftClientManager(ThriftCodecManager codecManager, boolean compiledStubs)
+    {
+        this(codecManager, new NiftyClient(), compiledStubs);
+    }
+
+    /**
+     * @param compiledStubs if false, clients are always implemented with a java.lang.reflect.Proxy
+     * instead of a compiled class, which is easier to step through in a debugger
+     */
+    public ThriftClientManager(ThriftCodecManager codecManager, int maxFrameSize, boolean compiledStubs)
+    {
+        this(codecManager, new NiftyClient(maxFrameSize), compiledStubs);
+    }
+
+    private ThriftClientManager(ThriftCodecManager codecManager, NiftyClient niftyClient, boolean compiledStubs)
     {
         this.codecManager = codecManager;
-        niftyClient = new NiftyClient(maxFrameSize);
+        this.niftyClient = niftyClient;
+        this.compiledStubs = compiledStubs;
     }
 
     public <T, C extends NiftyClientChannel> ListenableFuture<T> createClient(
@@ -118,29 +187,49 @@ public class ThriftClientManager implements Closeable
             final String clientName,
             HostAndPort socksProxy)
     {
+        return createClient(connector,
+                            type,
+                            connectTimeout,
+                            readTimeout,
+                            writeTimeout,
+                            clientName,
+                            socksProxy,
+                            DEFAULT_PROTOCOL);
+    }
+
+    public <T, C extends NiftyClientChannel> ListenableFuture<T> createClient(
+            final NiftyClientConnector<C> connector,
+            final Class<T> type,
+            final Duration connectTimeout,
+            final Duration readTimeout,
+            final Duration writeTimeout,
+            final String clientName,
+            HostAndPort socksProxy,
+            final ThriftProtocol protocol)
+    {
+        Preconditions.checkNotNull(protocol, "protocol is null");
+
         NiftyClientChannel channel = null;
         try {
             final SettableFuture<T> clientFuture = SettableFuture.create();
-            ListenableFuture<C> connectFuture =
-                    niftyClient.connectAsync(connector,
+            ListenableFuture<? extends NiftyClientChannel> connectFuture =
+                    niftyClient.connectAsync(forProtocol(connector, protocol),
                                              connectTimeout,
                                              readTimeout,
                                              writeTimeout,
                                              this.toSocksProxyAddress(socksProxy));
-            Futures.addCallback(connectFuture, new FutureCallback<C>()
+            Futures.addCallback(connectFuture, new FutureCallback<NiftyClientChannel>()
             {
                 @Override
-                public void onSuccess(C result)
+                public void onSuccess(NiftyClientChannel result)
                 {
                     NiftyClientChannel channel = result;
 
-                    if (readTimeout.toMillis() > 0) {
-                        channel.setReceiveTimeout(readTimeout);
-                    }
-                    if (writeTimeout.toMillis() > 0) {
-                        channel.setSendTimeout(writeTimeout);
-                    }
-                    clientFuture.set(createClient(channel, type, Strings.isNullOrEmpty(clientName) ? connector.toString() : clientName));
+                    applyTimeouts(channel, readTimeout, writeTimeout);
+                    clientFuture.set(createClient(channel,
+                                                  type,
+                                                  Strings.isNullOrEmpty(clientName) ? connector.toString() : clientName,
+                                                  protocol));
                 }
 
                 @Override
@@ -166,11 +255,43 @@ public class ThriftClientManager implements Closeable
 
     public <T> T createClient(NiftyClientChannel channel, Class<T> type, String name)
     {
+        return createClient(channel, type, name, DEFAULT_PROTOCOL);
+    }
+
+    /**
+     * Creates a client on an established channel. A framed channel finds the sequence id of a
+     * response in the message header, so the protocol must be the one the channel was connected
+     * with: framed channels connected with a FramedClientConnector speak binary, and compact
+     * clients need a framed channel connected by this client manager with a compact protocol.
+     */
+    public <T> T createClient(NiftyClientChannel channel, Class<T> type, String name, ThriftProtocol protocol)
+    {
+        Preconditions.checkNotNull(channel, "channel is null");
+        Preconditions.checkNotNull(protocol, "protocol is null");
+        Preconditions.checkArgument(
+                !(channel instanceof FramedClientChannel) || CompactFramedClientConnector.isCompactChannel(channel) == protocol.isCompact(),
+                "Framed channel %s was not connected with the %s protocol", channel, protocol);
+
         ThriftClientMetadata clientMetadata = clientMetadataCache.getUnchecked(new TypeAndName(type, name));
 
         String clientDescription = clientMetadata.getName() + " " + channel.toString();
 
-        ThriftInvocationHandler handler = new ThriftInvocationHandler(clientDescription, channel, clientMetadata.getMethodHandlers());
+        Optional<ThriftClientStubGenerator> stubGenerator = Optional.absent();
+        if (compiledStubs) {
+            stubGenerator = clientStubGeneratorCache.getUnchecked(new TypeAndName(type, name));
+        }
+        if (stubGenerator.isPresent()) {
+            return type.cast(stubGenerator.get().createClient(clientDescription,
+                                                              channel,
+                                                              channelSequenceIds.getUnchecked(channel),
+                                                              protocol.getProtocolFactory()));
+        }
+
+        ThriftInvocationHandler handler = new ThriftInvocationHandler(clientDescription,
+                                                                    channel,
+                                                                    channelSequenceIds.getUnchecked(channel),
+                                                                    protocol.getProtocolFactory(),
+                                                                    clientMetadata.getMethodHandlers());
 
         return type.cast(Proxy.newProxyInstance(
                 type.getClassLoader(),
@@ -179,6 +300,112 @@ public class ThriftClientManager implements Closeable
         ));
     }
 
+    /**
+     * Creates a pool of connections opened with the specified connector. The pool size, idle
+     * timeout and health check interval are taken from the pool settings of the config. The pool
+     * is closed when this client manager is closed.
+     */
+    public NiftyClientChannelPool createChannelPool(
+            final NiftyClientConnector<? extends NiftyClientChannel> connector,
+            final ThriftClientConfig config)
+    {
+        Preconditions.checkNotNull(connector, "connector is null");
+        Preconditions.checkNotNull(config, "config is null");
+
+        final NiftyClientConnector<? extends NiftyClientChannel> protocolConnector = forProtocol(connector, config.getProtocol());
+        NiftyClientChannelPool pool = new NiftyClientChannelPool(
+                new NiftyClientChannelPool.ChannelFactory()
+                {
+                    @Override
+                    public ListenableFuture<? extends NiftyClientChannel> openChannel()
+                    {
+                        return connectChannel(protocolConnector,
+                                              config.getConnectTimeout(),
+                                              config.getReadTimeout(),
+                                              config.getWriteTimeout(),
+                                              config.getSocksProxy());
+                    }
+                },
+                connector.toString(),
+                config.getPoolMinConnections(),
+                config.getPoolMaxConnections(),
+                config.getPoolIdleTimeout(),
+                config.getPoolHealthCheckInterval(),
+                poolHealthCheckExecutor);
+        channelPools.add(pool);
+        return pool;
+    }
+
+    public <T> T createClient(NiftyClientChannelPool pool, Class<T> type, String name, ThriftProtocol protocol)
+    {
+        Preconditions.checkNotNull(pool, "pool is null");
+        Preconditions.checkNotNull(protocol, "protocol is null");
+
+        ThriftClientMetadata clientMetadata = clientMetadataCache.getUnchecked(new TypeAndName(type, name));
+
+        String clientDescription = clientMetadata.getName() + " " + pool.toString();
+
+        PooledThriftInvocationHandler handler = new PooledThriftInvocationHandler(clientDescription,
+                                                                                pool,
+                                                                                protocol.getProtocolFactory(),
+                                                                                clientMetadata.getMethodHandlers());
+
+        return type.cast(Proxy.newProxyInstance(
+                type.getClassLoader(),
+                new Class<?>[]{ type, Closeable.class },
+                handler
+        ));
+    }
+
+    private <C extends NiftyClientChannel> ListenableFuture<C> connectChannel(
+            NiftyClientConnector<C> connector,
+            final Duration connectTimeout,
+            final Duration readTimeout,
+            final Duration writeTimeout,
+            HostAndPort socksProxy)
+    {
+        ListenableFuture<C> connectFuture =
+                niftyClient.connectAsync(connector,
+                                         connectTimeout,
+                                         readTimeout,
+                                         writeTimeout,
+                                         this.toSocksProxyAddress(socksProxy));
+        return Futures.transform(connectFuture, new Function<C, C>()
+        {
+            @Override
+            public C apply(C channel)
+            {
+                applyTimeouts(channel, readTimeout, writeTimeout);
+                return channel;
+            }
+        });
+    }
+
+    /**
+     * The Nifty framed channel finds the sequence id of a message in the binary message header, so
+     * framed connections of compact clients use a channel that reads the compact header instead.
+     * Other connectors are used as they are.
+     */
+    private static NiftyClientConnector<? extends NiftyClientChannel> forProtocol(
+            NiftyClientConnector<? extends NiftyClientChannel> connector,
+            ThriftProtocol protocol)
+    {
+        if (protocol.isCompact() && connector instanceof FramedClientConnector) {
+            return new CompactFramedClientConnector((FramedClientConnector) connector);
+        }
+        return connector;
+    }
+
+    private static void applyTimeouts(NiftyClientChannel channel, Duration readTimeout, Duration writeTimeout)
+    {
+        if (readTimeout.toMillis() > 0) {
+            channel.setReceiveTimeout(readTimeout);
+        }
+        if (writeTimeout.toMillis() > 0) {
+            channel.setSendTimeout(writeTimeout);
+        }
+    }
+
     private InetSocketAddress toInetSocketAddress(HostAndPort hostAndPort)
     {
         return new InetSocketAddress(hostAndPort.getHostText(), hostAndPort.getPort());
@@ -200,13 +427,23 @@ public class ThriftClientManager implements Closeable
     @PreDestroy
     public void close()
     {
+        for (NiftyClientChannelPool pool : channelPools) {
+            pool.close();
+        }
+        poolHealthCheckExecutor.shutdownNow();
         niftyClient.close();
     }
 
     public NiftyClientChannel getNiftyChannel(Object client)
     {
+        if (client instanceof ThriftClientStub) {
+            return ((ThriftClientStub) client).getChannel();
+        }
         try {
             InvocationHandler genericHandler = Proxy.getInvocationHandler(client);
+            if (genericHandler instanceof PooledThriftInvocationHandler) {
+                throw new IllegalArgumentException("Pooled swift clients are not bound to a single channel");
+            }
             ThriftInvocationHandler thriftHandler = ThriftInvocationHandler.class.cast(genericHandler);
             return thriftHandler.getChannel();
         }
@@ -215,6 +452,32 @@ public class ThriftClientManager implements Closeable
         }
     }
 
+    /**
+     * Returns the exception a client method should throw for a thrift exception: the exception
+     * itself if the method declares it, otherwise the matching runtime wrapper.
+     */
+    static Exception toClientException(TException e, Class<?>[] declaredExceptionTypes)
+    {
+        Class<? extends TException> thrownType = e.getClass();
+
+        for (Class<?> exceptionType : declaredExceptionTypes) {
+            if (exceptionType.isAssignableFrom(thrownType)) {
+                return e;
+            }
+        }
+
+        if (e instanceof TApplicationException) {
+            return new RuntimeTApplicationException(e.getMessage(), (TApplicationException) e);
+        }
+        if (e instanceof TProtocolException) {
+            return new RuntimeTProtocolException(e.getMessage(), (TProtocolException) e);
+        }
+        if (e instanceof TTransportException) {
+            return new RuntimeTTransportException(e.getMessage(), (TTransportException) e);
+        }
+        return new RuntimeTException(e.getMessage(), e);
+    }
+
     @Immutable
     public static class ThriftClientMetadata
     {
@@ -262,38 +525,37 @@ public class ThriftClientManager implements Closeable
         {
             return methodHandlers;
         }
+
+        public ThriftServiceMetadata getServiceMetadata()
+        {
+            return thriftServiceMetadata;
+        }
     }
 
-    private static class ThriftInvocationHandler implements InvocationHandler
+    private abstract static class AbstractThriftInvocationHandler implements InvocationHandler
     {
         private static final Object[] NO_ARGS = new Object[0];
         private final String clientDescription;
-        private final TProtocolFactory in;
-        private final TProtocolFactory out;
-
-        private final NiftyClientChannel channel;
+        protected final TProtocolFactory in;
+        protected final TProtocolFactory out;
 
         private final Map<Method, ThriftMethodHandler> methods;
-        private final AtomicInteger sequenceId = new AtomicInteger(1);
 
-        private ThriftInvocationHandler(
+        private AbstractThriftInvocationHandler(
                 String clientDescription,
-                NiftyClientChannel channel,
+                TProtocolFactory protocolFactory,
                 Map<Method, ThriftMethodHandler> methods)
         {
             this.clientDescription = clientDescription;
-            this.channel = channel;
             this.methods = methods;
-
-            TProtocolFactory protocolFactory = new TBinaryProtocol.Factory();
             this.in = protocolFactory;
             this.out = protocolFactory;
         }
 
-        public NiftyClientChannel getChannel()
-        {
-            return channel;
-        }
+        protected abstract Object invokeMethod(ThriftMethodHandler methodHandler, Object[] args)
+                throws Exception;
+
+        protected abstract void closeClient();
 
         @Override
         public Object invoke(Object proxy, Method method, Object[] args)
@@ -317,7 +579,7 @@ public class ThriftClientManager implements Closeable
             }
 
             if (args.length == 0 && "close".equals(method.getName())) {
-                channel.close();
+                closeClient();
                 return null;
             }
 
@@ -327,32 +589,98 @@ public class ThriftClientManager implements Closeable
                 if (methodHandler == null) {
                     throw new TApplicationException(UNKNOWN_METHOD, "Unknown method : '" + method + "'");
                 }
-                return methodHandler.invoke(in, out, channel, sequenceId.getAndIncrement(), args);
+                return invokeMethod(methodHandler, args);
             }
             catch (TException e) {
-                Class<? extends TException> thrownType = e.getClass();
+                throw toClientException(e, method.getExceptionTypes());
+            }
+        }
+    }
 
-                for (Class<?> exceptionType : method.getExceptionTypes()) {
-                    if (exceptionType.isAssignableFrom(thrownType)) {
-                        throw e;
-                    }
-                }
+    private static class ThriftInvocationHandler extends AbstractThriftInvocationHandler
+    {
+        private final NiftyClientChannel channel;
+        private final AtomicInteger sequenceId;
 
-                //noinspection InstanceofCatchParameter
-                if (e instanceof TApplicationException) {
-                    throw new RuntimeTApplicationException(e.getMessage(), (TApplicationException) e);
-                }
-                //noinspection InstanceofCatchParameter
-                if (e instanceof TProtocolException) {
-                    throw new RuntimeTProtocolException(e.getMessage(), (TProtocolException) e);
+        private ThriftInvocationHandler(
+                String clientDescription,
+                NiftyClientChannel channel,
+                AtomicInteger sequenceId,
+                TProtocolFactory protocolFactory,
+                Map<Method, ThriftMethodHandler> methods)
+        {
+            super(clientDescription, protocolFactory, methods);
+            this.channel = channel;
+            this.sequenceId = sequenceId;
+        }
+
+        public NiftyClientChannel getChannel()
+        {
+            return channel;
+        }
+
+        @Override
+        protected Object invokeMethod(ThriftMethodHandler methodHandler, Object[] args)
+                throws Exception
+        {
+            return methodHandler.invoke(in, out, channel, sequenceId.getAndIncrement(), args);
+        }
+
+        @Override
+        protected void closeClient()
+        {
+            channel.close();
+        }
+    }
+
+    private static class PooledThriftInvocationHandler extends AbstractThriftInvocationHandler
+    {
+        private final NiftyClientChannelPool pool;
+
+        private PooledThriftInvocationHandler(
+                String clientDescription,
+                NiftyClientChannelPool pool,
+                TProtocolFactory protocolFactory,
+                Map<Method, ThriftMethodHandler> methods)
+        {
+            super(clientDescription, protocolFactory, methods);
+            this.pool = pool;
+        }
+
+        @Override
+        protected Object invokeMethod(ThriftMethodHandler methodHandler, Object[] args)
+                throws Exception
+        {
+            final PooledChannel channel = pool.acquire();
+            boolean releaseOnReturn = true;
+            try {
+                Object result = methodHandler.invoke(in, out, channel.getChannel(), channel.nextSequenceId(), args);
+                if (result instanceof ListenableFuture) {
+                    // keep the request counted against the connection until the response arrives
+                    releaseOnReturn = false;
+                    ((ListenableFuture<?>) result).addListener(new Runnable()
+                    {
+                        @Override
+                        public void run()
+                        {
+                            pool.release(channel);
+                        }
+                    }, MoreExecutors.sameThreadExecutor());
                 }
-                //noinspection InstanceofCatchParameter
-                if (e instanceof TTransportException) {
-                    throw new RuntimeTTransportException(e.getMessage(), (TTransportException) e);
+                return result;
+            }
+            finally {
+                if (releaseOnReturn) {
+                    pool.release(channel);
                 }
-                throw new RuntimeTException(e.getMessage(), e);
             }
         }
+
+        @Override
+        protected void closeClient()
+        {
+            // connections belong to the pool, which is closed with the client manager
+        }
     }
 
     @Immutable
@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.facebook.swift.service;
+
+import com.facebook.nifty.client.NiftyClientChannel;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+import org.apache.thrift.TException;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.protocol.TProtocolFactory;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.io.Closeable;
+import java.lang.reflect.Method;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Base class of the client implementations compiled by {@link ThriftClientStubGenerator}.
+ * A generated subclass implements each method of the service interface by writing the
+ * arguments directly to the protocol returned by {@link #beginRequest}, then calling
+ * {@link #completeRequest} to send the request and read the result, or {@link #failRequest}
+ * if writing the arguments fails.
+ */
+@ThreadSafe
+public abstract class ThriftClientStub implements Closeable
+{
+    private final String clientDescription;
+    private final NiftyClientChannel channel;
+    private final AtomicInteger sequenceId;
+    private final TProtocolFactory protocolFactory;
+    private final Map<ThriftMethodHandler, Method> methods;
+
+    protected ThriftClientStub(String clientDescription,
+                               NiftyClientChannel channel,
+                               AtomicInteger sequenceId,
+                               TProtocolFactory protocolFactory,
+                               Map<Method, ThriftMethodHandler> methodHandlers)
+    {
+        Preconditions.checkNotNull(clientDescription, "clientDescription is null");
+        Preconditions.checkNotNull(channel, "channel is null");
+        Preconditions.checkNotNull(sequenceId, "sequenceId is null");
+        Preconditions.checkNotNull(protocolFactory, "protocolFactory is null");
+        Preconditions.checkNotNull(methodHandlers, "methodHandlers is null");
+
+        this.clientDescription = clientDescription;
+        this.channel = channel;
+        this.sequenceId = sequenceId;
+        this.protocolFactory = protocolFactory;
+
+        ImmutableMap.Builder<ThriftMethodHandler, Method> methods = ImmutableMap.builder();
+        for (Map.Entry<Method, ThriftMethodHandler> entry : methodHandlers.entrySet()) {
+            methods.put(entry.getValue(), entry.getKey());
+        }
+        this.methods = methods.build();
+    }
+
+    public NiftyClientChannel getChannel()
+    {
+        return channel;
+    }
+
+    @Override
+    public void close()
+    {
+        channel.close();
+    }
+
+    @Override
+    public String toString()
+    {
+        return clientDescription;
+    }
+
+    protected final int nextSequenceId()
+    {
+        return sequenceId.getAndIncrement();
+    }
+
+    protected final TProtocol beginRequest(ThriftMethodHandler methodHandler, int sequenceId)
+            throws Exception
+    {
+        return methodHandler.beginRequest(protocolFactory, channel, sequenceId);
+    }
+
+    protected final Object completeRequest(ThriftMethodHandler methodHandler, TProtocol out, int sequenceId, long start)
+            throws Exception
+    {
+        try {
+            return methodHandler.completeRequest(protocolFactory, out, channel, sequenceId, start);
+        }
+        catch (Exception e) {
+            throw translateException(methodHandler, e);
+        }
+    }
+
+    /**
+     * Records a request that failed between {@link #beginRequest} and {@link #completeRequest},
+     * and returns the exception to throw.
+     */
+    protected final Exception failRequest(ThriftMethodHandler methodHandler, long start, Exception e)
+    {
+        methodHandler.failRequest(start);
+        return translateException(methodHandler, e);
+    }
+
+    /**
+     * Applies the same exception translation as the proxy based clients: thrift exceptions
+     * not declared by the method become runtime exceptions, and other undeclared checked
+     * exceptions are wrapped in an {@link UndeclaredThrowableException}.
+     */
+    private Exception translateException(ThriftMethodHandler methodHandler, Exception e)
+    {
+        Class<?>[] exceptionTypes = methods.get(methodHandler).getExceptionTypes();
+        if (e instanceof TException) {
+            return ThriftClientManager.toClientException((TException) e, exceptionTypes);
+        }
+        if (e instanceof RuntimeException) {
+            return e;
+        }
+        for (Class<?> exceptionType : exceptionTypes) {
+            if (exceptionType.isInstance(e)) {
+                return e;
+            }
+        }
+        return new UndeclaredThrowableException(e);
+    }
+}
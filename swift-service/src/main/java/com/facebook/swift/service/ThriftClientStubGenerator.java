@@ -0,0 +1,504 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.facebook.swift.service;
+
+import com.facebook.nifty.client.NiftyClientChannel;
+import com.facebook.swift.codec.ThriftCodec;
+import com.facebook.swift.codec.ThriftCodecManager;
+import com.facebook.swift.codec.ThriftProtocolType;
+import com.facebook.swift.codec.internal.TProtocolWriter;
+import com.facebook.swift.codec.internal.compiler.DynamicClassLoader;
+import com.facebook.swift.codec.internal.compiler.byteCode.ClassDefinition;
+import com.facebook.swift.codec.internal.compiler.byteCode.FieldDefinition;
+import com.facebook.swift.codec.internal.compiler.byteCode.LocalVariableDefinition;
+import com.facebook.swift.codec.internal.compiler.byteCode.MethodDefinition;
+import com.facebook.swift.codec.internal.compiler.byteCode.NamedParameterDefinition;
+import com.facebook.swift.codec.internal.compiler.byteCode.ParameterizedType;
+import com.facebook.swift.codec.metadata.ThriftCatalog;
+import com.facebook.swift.codec.metadata.ThriftFieldMetadata;
+import com.facebook.swift.codec.metadata.ThriftParameterInjection;
+import com.facebook.swift.codec.metadata.ThriftType;
+import com.facebook.swift.codec.metadata.TypeCoercion;
+import com.facebook.swift.service.ThriftClientManager.ThriftClientMetadata;
+import com.facebook.swift.service.metadata.ThriftMethodMetadata;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.primitives.Primitives;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.protocol.TProtocolFactory;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.InsnNode;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.facebook.swift.codec.ThriftProtocolType.BOOL;
+import static com.facebook.swift.codec.ThriftProtocolType.BYTE;
+import static com.facebook.swift.codec.ThriftProtocolType.DOUBLE;
+import static com.facebook.swift.codec.ThriftProtocolType.I16;
+import static com.facebook.swift.codec.ThriftProtocolType.I32;
+import static com.facebook.swift.codec.ThriftProtocolType.I64;
+import static com.facebook.swift.codec.ThriftProtocolType.STRING;
+import static com.facebook.swift.codec.internal.compiler.byteCode.Access.FINAL;
+import static com.facebook.swift.codec.internal.compiler.byteCode.Access.PRIVATE;
+import static com.facebook.swift.codec.internal.compiler.byteCode.Access.PUBLIC;
+import static com.facebook.swift.codec.internal.compiler.byteCode.Access.SUPER;
+import static com.facebook.swift.codec.internal.compiler.byteCode.Access.a;
+import static com.facebook.swift.codec.internal.compiler.byteCode.NamedParameterDefinition.arg;
+import static com.facebook.swift.codec.internal.compiler.byteCode.ParameterizedType.type;
+import static org.objectweb.asm.Opcodes.AALOAD;
+import static org.objectweb.asm.Opcodes.IRETURN;
+
+/**
+ * Compiles a concrete client class for a thrift service interface. The generated class extends
+ * {@link ThriftClientStub}, and each method writes its arguments with the typed
+ * {@link TProtocolWriter} field methods, so primitive arguments are neither boxed into an
+ * argument array nor dispatched through {@link java.lang.reflect.Proxy}. Failures while writing
+ * the arguments are translated and recorded in the method stats like those of the proxy clients.
+ */
+@ThreadSafe
+class ThriftClientStubGenerator
+{
+    private static final String PACKAGE = "$wift";
+
+    private static final Map<ThriftProtocolType, Method> WRITE_METHODS;
+    private static final Method NANO_TIME;
+
+    private final ThriftCodecManager codecManager;
+    private final ThriftCatalog catalog;
+    private final Map<Method, ThriftMethodHandler> methodHandlers;
+    private final ParameterizedType stubType;
+    private final ClassDefinition classDefinition;
+
+    private final List<ThriftMethodHandler> handlerValues = new ArrayList<>();
+    private final List<ThriftCodec<?>> codecValues = new ArrayList<>();
+
+    private final Constructor<?> constructor;
+
+    ThriftClientStubGenerator(Class<?> clientType, ThriftClientMetadata clientMetadata, ThriftCodecManager codecManager)
+    {
+        this.codecManager = codecManager;
+        this.catalog = codecManager.getCatalog();
+        this.methodHandlers = clientMetadata.getMethodHandlers();
+
+        stubType = type(PACKAGE + "/" + type(clientType).getClassName() + "Client");
+
+        classDefinition = new ClassDefinition(
+                a(PUBLIC, SUPER),
+                stubType.getClassName(),
+                type(ThriftClientStub.class),
+                type(clientType)
+        );
+
+        // declare methods, which also declares the handler and codec fields they use
+        for (ThriftMethodMetadata methodMetadata : clientMetadata.getServiceMetadata().getMethods().values()) {
+            defineClientMethod(methodMetadata);
+        }
+        defineConstructor();
+
+        // generate the byte code
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_FRAMES);
+        classDefinition.getClassNode().accept(cw);
+        byte[] byteCode = cw.toByteArray();
+
+        // load the class
+        DynamicClassLoader classLoader = new DynamicClassLoader(clientType.getClassLoader());
+        Class<?> stubClass = classLoader.defineClass(stubType.getClassName().replace('/', '.'), byteCode);
+        try {
+            constructor = stubClass.getConstructor(
+                    String.class,
+                    NiftyClientChannel.class,
+                    AtomicInteger.class,
+                    TProtocolFactory.class,
+                    Map.class,
+                    ThriftMethodHandler[].class,
+                    ThriftCodec[].class);
+        }
+        catch (NoSuchMethodException e) {
+            throw new IllegalStateException("Generated class is invalid", e);
+        }
+    }
+
+    /**
+     * Returns true if a client class can be generated for the interface: the interface and
+     * the method return types must be public, and every method must be a thrift method or close.
+     */
+    static boolean isSupported(Class<?> clientType, ThriftClientMetadata clientMetadata)
+    {
+        if (!clientType.isInterface() || !isPublic(clientType)) {
+            return false;
+        }
+
+        Set<Method> thriftMethods = clientMetadata.getMethodHandlers().keySet();
+        Set<String> signatures = new HashSet<>();
+        for (Method method : clientType.getMethods()) {
+            if (!signatures.add(method.getName() + Type.getMethodDescriptor(method))) {
+                return false;
+            }
+            if (thriftMethods.contains(method)) {
+                if (!isPublic(method.getReturnType())) {
+                    return false;
+                }
+            }
+            else if (!isCloseMethod(method)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public Object createClient(String clientDescription,
+                               NiftyClientChannel channel,
+                               AtomicInteger sequenceId,
+                               TProtocolFactory protocolFactory)
+    {
+        try {
+            return constructor.newInstance(
+                    clientDescription,
+                    channel,
+                    sequenceId,
+                    protocolFactory,
+                    methodHandlers,
+                    handlerValues.toArray(new ThriftMethodHandler[handlerValues.size()]),
+                    codecValues.toArray(new ThriftCodec<?>[codecValues.size()]));
+        }
+        catch (InvocationTargetException e) {
+            throw Throwables.propagate(e.getCause());
+        }
+        catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Generated class is invalid", e);
+        }
+    }
+
+    /**
+     * Defines the constructor, which passes the common state to {@link ThriftClientStub} and
+     * assigns the handler and codec fields from the arrays.
+     */
+    private void defineConstructor()
+    {
+        MethodDefinition constructor = new MethodDefinition(
+                a(PUBLIC),
+                "<init>",
+                type(void.class),
+                arg("clientDescription", String.class),
+                arg("channel", NiftyClientChannel.class),
+                arg("sequenceId", AtomicInteger.class),
+                arg("protocolFactory", TProtocolFactory.class),
+                arg("methodHandlers", Map.class),
+                arg("handlers", ThriftMethodHandler[].class),
+                arg("codecs", ThriftCodec[].class)
+        );
+
+        // invoke super (ThriftClientStub) constructor
+        constructor.loadThis()
+                .loadVariable("clientDescription")
+                .loadVariable("channel")
+                .loadVariable("sequenceId")
+                .loadVariable("protocolFactory")
+                .loadVariable("methodHandlers")
+                .invokeConstructor(
+                        type(ThriftClientStub.class),
+                        type(String.class),
+                        type(NiftyClientChannel.class),
+                        type(AtomicInteger.class),
+                        type(TProtocolFactory.class),
+                        type(Map.class));
+
+        for (int i = 0; i < handlerValues.size(); i++) {
+            constructor.loadThis()
+                    .loadVariable("handlers")
+                    .loadConstant(i)
+                    .addInstruction(new InsnNode(AALOAD))
+                    .putField(stubType, "handler_" + i, type(ThriftMethodHandler.class));
+        }
+
+        for (int i = 0; i < codecValues.size(); i++) {
+            constructor.loadThis()
+                    .loadVariable("codecs")
+                    .loadConstant(i)
+                    .addInstruction(new InsnNode(AALOAD))
+                    .putField(stubType, "codec_" + i, type(ThriftCodec.class));
+        }
+
+        // return (implicit in source code)
+        constructor.ret();
+
+        classDefinition.addMethod(constructor);
+    }
+
+    /**
+     * Defines the implementation of one service method.
+     */
+    private void defineClientMethod(ThriftMethodMetadata methodMetadata)
+    {
+        Method method = methodMetadata.getMethod();
+        FieldDefinition handlerField = declareHandlerField(methodHandlers.get(method));
+
+        Class<?>[] parameterTypes = method.getParameterTypes();
+        List<NamedParameterDefinition> parameters = new ArrayList<>();
+        for (int i = 0; i < parameterTypes.length; i++) {
+            parameters.add(arg("arg" + i, parameterTypes[i]));
+        }
+
+        MethodDefinition write = new MethodDefinition(
+                a(PUBLIC),
+                method.getName(),
+                type(method.getReturnType()),
+                parameters
+        );
+        for (Class<?> exceptionType : method.getExceptionTypes()) {
+            write.addException(exceptionType.asSubclass(Throwable.class));
+        }
+
+        LocalVariableDefinition sequenceId = write.addLocalVariable(type(int.class), "sequenceId");
+        LocalVariableDefinition start = write.addLocalVariable(type(long.class), "start");
+        LocalVariableDefinition protocol = write.addLocalVariable(type(TProtocol.class), "protocol");
+        LocalVariableDefinition writer = write.addLocalVariable(type(TProtocolWriter.class), "writer");
+        LocalVariableDefinition exception = write.addLocalVariable(type(Exception.class), "exception");
+
+        // int sequenceId = nextSequenceId();
+        write.loadThis()
+                .invokeVirtual(type(ThriftClientStub.class), "nextSequenceId", type(int.class))
+                .storeVariable(sequenceId);
+
+        // long start = System.nanoTime();
+        write.invokeStatic(NANO_TIME)
+                .storeVariable(start);
+
+        // try {
+        write.visitLabel("write-begin");
+
+        // TProtocol protocol = beginRequest(handler, sequenceId);
+        write.loadThis()
+                .loadThis()
+                .getField(stubType, handlerField)
+                .loadVariable(sequenceId)
+                .invokeVirtual(
+                        type(ThriftClientStub.class),
+                        "beginRequest",
+                        type(TProtocol.class),
+                        type(ThriftMethodHandler.class),
+                        type(int.class))
+                .storeVariable(protocol);
+
+        // TProtocolWriter writer = new TProtocolWriter(protocol);
+        write.newObject(TProtocolWriter.class)
+                .dup()
+                .loadVariable(protocol)
+                .invokeConstructor(TProtocolWriter.class, TProtocol.class)
+                .storeVariable(writer);
+
+        // write each argument
+        for (ThriftFieldMetadata parameter : methodMetadata.getParameters()) {
+            int index = ((ThriftParameterInjection) parameter.getInjections().get(0)).getParameterIndex();
+            writeArgument(write, writer, "arg" + index, parameterTypes[index], parameter);
+        }
+
+        // }
+        write.visitLabel("write-end")
+                .gotoLabel("complete");
+
+        // catch (Exception e) { throw failRequest(handler, start, e); }
+        write.visitLabel("write-error")
+                .storeVariable(exception)
+                .loadThis()
+                .loadThis()
+                .getField(stubType, handlerField)
+                .loadVariable(start)
+                .loadVariable(exception)
+                .invokeVirtual(
+                        type(ThriftClientStub.class),
+                        "failRequest",
+                        type(Exception.class),
+                        type(ThriftMethodHandler.class),
+                        type(long.class),
+                        type(Exception.class))
+                .throwObject();
+
+        write.tryCatch("write-begin", "write-end", "write-error", Exception.class);
+
+        // Object result = completeRequest(handler, protocol, sequenceId, start);
+        write.visitLabel("complete")
+                .loadThis()
+                .loadThis()
+                .getField(stubType, handlerField)
+                .loadVariable(protocol)
+                .loadVariable(sequenceId)
+                .loadVariable(start)
+                .invokeVirtual(
+                        type(ThriftClientStub.class),
+                        "completeRequest",
+                        type(Object.class),
+                        type(ThriftMethodHandler.class),
+                        type(TProtocol.class),
+                        type(int.class),
+                        type(long.class));
+
+        // return (cast and unbox) result
+        Class<?> returnType = method.getReturnType();
+        if (returnType == void.class) {
+            write.pop().ret();
+        }
+        else if (returnType.isPrimitive()) {
+            Class<?> boxedType = Primitives.wrap(returnType);
+            write.checkCast(type(boxedType))
+                    .invokeVirtual(boxedType, returnType.getName() + "Value", returnType)
+                    .addInstruction(new InsnNode(Type.getType(returnType).getOpcode(IRETURN)));
+        }
+        else {
+            write.checkCast(type(returnType)).retObject();
+        }
+
+        classDefinition.addMethod(write);
+    }
+
+    /**
+     * Writes one argument. Primitive, string and binary arguments are written with the typed
+     * writer methods, applying the default coercion inline; other arguments use their codec.
+     */
+    private void writeArgument(MethodDefinition write,
+                               LocalVariableDefinition writer,
+                               String argumentName,
+                               Class<?> argumentType,
+                               ThriftFieldMetadata parameter)
+    {
+        ThriftType thriftType = parameter.getType();
+
+        Method writeMethod = WRITE_METHODS.get(thriftType.getProtocolType());
+        TypeCoercion coercion = null;
+        if (thriftType.isCoerced()) {
+            coercion = catalog.getDefaultCoercion(thriftType.getJavaType());
+        }
+
+        if (writeMethod == null || (thriftType.isCoerced() && coercion == null)) {
+            // writer.writeField(name, id, codec, argument), which skips null values
+            FieldDefinition codecField = declareCodecField(codecManager.getCodec(thriftType));
+            write.loadVariable(writer)
+                    .loadConstant(parameter.getName())
+                    .loadConstant(parameter.getId())
+                    .loadThis()
+                    .getField(stubType, codecField)
+                    .loadVariable(argumentName);
+            if (argumentType.isPrimitive()) {
+                box(write, argumentType);
+            }
+            write.invokeVirtual(TProtocolWriter.class, "writeField", void.class, String.class, short.class, ThriftCodec.class, Object.class);
+            return;
+        }
+
+        // null arguments are not written
+        String skipLabel = "skip_" + argumentName;
+        if (!argumentType.isPrimitive()) {
+            write.loadVariable(argumentName).ifNullGoto(skipLabel);
+        }
+
+        // writer.writeXxxField(name, id, coerce(argument));
+        write.loadVariable(writer)
+                .loadConstant(parameter.getName())
+                .loadConstant(parameter.getId())
+                .loadVariable(argumentName);
+        if (coercion != null) {
+            write.invokeStatic(coercion.getToThrift());
+        }
+        write.invokeVirtual(writeMethod);
+
+        if (!argumentType.isPrimitive()) {
+            write.visitLabel(skipLabel);
+        }
+    }
+
+    private static void box(MethodDefinition write, Class<?> primitiveType)
+    {
+        try {
+            write.invokeStatic(Primitives.wrap(primitiveType).getMethod("valueOf", primitiveType));
+        }
+        catch (NoSuchMethodException e) {
+            throw Throwables.propagate(e);
+        }
+    }
+
+    private FieldDefinition declareHandlerField(ThriftMethodHandler handler)
+    {
+        FieldDefinition field = new FieldDefinition(a(PRIVATE, FINAL), "handler_" + handlerValues.size(), type(ThriftMethodHandler.class));
+        classDefinition.addField(field);
+        handlerValues.add(handler);
+        return field;
+    }
+
+    private FieldDefinition declareCodecField(ThriftCodec<?> codec)
+    {
+        FieldDefinition field = new FieldDefinition(a(PRIVATE, FINAL), "codec_" + codecValues.size(), type(ThriftCodec.class));
+        classDefinition.addField(field);
+        codecValues.add(codec);
+        return field;
+    }
+
+    private static boolean isCloseMethod(Method method)
+    {
+        return method.getName().equals("close") &&
+                method.getParameterTypes().length == 0 &&
+                method.getReturnType() == void.class;
+    }
+
+    private static boolean isPublic(Class<?> type)
+    {
+        while (type.isArray()) {
+            type = type.getComponentType();
+        }
+        for (Class<?> current = type; current != null; current = current.getEnclosingClass()) {
+            if (!current.isPrimitive() && !Modifier.isPublic(current.getModifiers())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static {
+        ImmutableMap.Builder<ThriftProtocolType, Method> writeBuilder = ImmutableMap.builder();
+
+        try {
+            writeBuilder.put(BOOL, TProtocolWriter.class.getMethod("writeBoolField", String.class, short.class, boolean.class));
+            writeBuilder.put(BYTE, TProtocolWriter.class.getMethod("writeByteField", String.class, short.class, byte.class));
+            writeBuilder.put(DOUBLE, TProtocolWriter.class.getMethod("writeDoubleField", String.class, short.class, double.class));
+            writeBuilder.put(I16, TProtocolWriter.class.getMethod("writeI16Field", String.class, short.class, short.class));
+            writeBuilder.put(I32, TProtocolWriter.class.getMethod("writeI32Field", String.class, short.class, int.class));
+            writeBuilder.put(I64, TProtocolWriter.class.getMethod("writeI64Field", String.class, short.class, long.class));
+            writeBuilder.put(STRING, TProtocolWriter.class.getMethod("writeBinaryField", String.class, short.class, ByteBuffer.class));
+        }
+        catch (NoSuchMethodException e) {
+            throw Throwables.propagate(e);
+        }
+        WRITE_METHODS = writeBuilder.build();
+
+        try {
+            NANO_TIME = System.class.getMethod("nanoTime");
+        }
+        catch (NoSuchMethodException e) {
+            throw Throwables.propagate(e);
+        }
+    }
+}
@@ -16,12 +16,11 @@
 package com.facebook.swift.service;
 
 import com.facebook.nifty.client.NiftyClientChannel;
-import com.facebook.nifty.client.TChannelBufferInputTransport;
 import com.facebook.nifty.client.TChannelBufferOutputTransport;
 import com.facebook.swift.codec.ThriftCodec;
 import com.facebook.swift.codec.ThriftCodecManager;
-import com.facebook.swift.codec.internal.TProtocolReader;
-import com.facebook.swift.codec.internal.TProtocolWriter;
+import com.facebook.swift.codec.internal.TDirectProtocol;
+import com.facebook.swift.codec.internal.ThriftSizes;
 import com.facebook.swift.codec.metadata.ThriftFieldMetadata;
 import com.facebook.swift.codec.metadata.ThriftParameterInjection;
 import com.facebook.swift.codec.metadata.ThriftType;
@@ -32,9 +31,13 @@ import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.SettableFuture;
 import org.apache.thrift.TApplicationException;
 import org.apache.thrift.TException;
+import org.apache.thrift.protocol.TField;
 import org.apache.thrift.protocol.TMessage;
 import org.apache.thrift.protocol.TProtocol;
 import org.apache.thrift.protocol.TProtocolFactory;
+import org.apache.thrift.protocol.TProtocolUtil;
+import org.apache.thrift.protocol.TStruct;
+import org.apache.thrift.protocol.TType;
 import org.apache.thrift.transport.TTransport;
 import org.apache.thrift.transport.TTransportException;
 import org.jboss.netty.buffer.ChannelBuffer;
@@ -59,8 +62,10 @@ import static org.apache.thrift.protocol.TMessageType.REPLY;
 public class ThriftMethodHandler
 {
     private final String name;
+    private final TStruct argumentsStruct;
     private final List<ParameterHandler> parameterCodecs;
     private final ThriftCodec<Object> successCodec;
+    private final byte successType;
     private final Map<Short, ThriftCodec<Object>> exceptionCodecs;
     private final boolean oneway;
 
@@ -68,9 +73,12 @@ public class ThriftMethodHandler
 
     private final boolean invokeAsynchronously;
 
+    private volatile int lastRequestSize;
+
     public ThriftMethodHandler(ThriftMethodMetadata methodMetadata, ThriftCodecManager codecManager)
     {
         name = methodMetadata.getName();
+        argumentsStruct = new TStruct(name + "_args");
         invokeAsynchronously = methodMetadata.isAsync();
 
         oneway = methodMetadata.getOneway();
@@ -98,6 +106,7 @@ public class ThriftMethodHandler
 
         // get the thrift codec for the return value
         successCodec = (ThriftCodec<Object>) codecManager.getCodec(methodMetadata.getReturnType());
+        successType = successCodec.getType().getProtocolType().getType();
     }
 
     @Managed
@@ -124,49 +133,132 @@ public class ThriftMethodHandler
             throw new TTransportException(channel.getError());
         }
 
+        long start = nanoTime();
+        TProtocol outputProtocol;
+        try {
+            outputProtocol = createRequestProtocol(out);
+            writeArguments(outputProtocol, sequenceId, args);
+        }
+        catch (Exception e) {
+            stats.addErrorTime(nanosSince(start));
+            throw e;
+        }
+        return sendRequest(in, outputProtocol, channel, sequenceId, start);
+    }
+
+    /**
+     * Starts a request for this method and returns the protocol, positioned to write the first
+     * argument field. Generated client stubs write the arguments directly to this protocol and
+     * then call {@link #completeRequest}.
+     */
+    public TProtocol beginRequest(TProtocolFactory out, NiftyClientChannel channel, int sequenceId)
+            throws Exception
+    {
+        if (channel.hasError()) {
+            throw new TTransportException(channel.getError());
+        }
+
+        TProtocol outputProtocol = createRequestProtocol(out);
+        writeRequestBegin(outputProtocol, sequenceId);
+        return outputProtocol;
+    }
+
+    /**
+     * Finishes a request started with {@link #beginRequest}, sends it, and returns the result
+     * (or a future of the result for asynchronous methods). The start time is the
+     * {@link System#nanoTime} taken before {@code beginRequest} was called.
+     */
+    public Object completeRequest(TProtocolFactory in, TProtocol out, NiftyClientChannel channel, int sequenceId, long start)
+            throws Exception
+    {
+        try {
+            writeRequestEnd(out);
+            stats.addWriteTime(nanosSince(start));
+        }
+        catch (Exception e) {
+            stats.addErrorTime(nanosSince(start));
+            throw e;
+        }
+        return sendRequest(in, out, channel, sequenceId, start);
+    }
+
+    /**
+     * Records a request started with {@link #beginRequest} that failed before
+     * {@link #completeRequest} was called.
+     */
+    public void failRequest(long start)
+    {
+        stats.addErrorTime(nanosSince(start));
+    }
+
+    public ListenableFuture<Object> asynchronousInvoke(final TProtocolFactory in,
+                                                       final TProtocolFactory out,
+                                                       final NiftyClientChannel channel,
+                                                       final int sequenceId,
+                                                       final Object[] args)
+        throws Exception
+    {
+        long start = nanoTime();
+
+        TChannelBufferOutputTransport outTransport = new TChannelBufferOutputTransport();
+        try {
+            writeArguments(out.getProtocol(outTransport), sequenceId, args);
+        }
+        catch (Exception e) {
+            stats.addErrorTime(nanosSince(start));
+            throw e;
+        }
+        return sendAsynchronousRequest(in, outTransport, channel, sequenceId, start);
+    }
+
+    private TProtocol createRequestProtocol(TProtocolFactory out)
+    {
+        if (invokeAsynchronously) {
+            // This method declares a Future return value: the request buffer is handed off to the channel
+            return out.getProtocol(new TChannelBufferOutputTransport());
+        }
+        // the buffer, transports and protocols are reused by every synchronous call on this thread
+        return SyncClientCall.forCurrentThread().startRequest(out);
+    }
+
+    private Object sendRequest(TProtocolFactory in,
+                               TProtocol out,
+                               NiftyClientChannel channel,
+                               int sequenceId,
+                               long start)
+            throws Exception
+    {
         if (invokeAsynchronously)
         {
             // This method declares a Future return value: run it asynchronously
-            return asynchronousInvoke(in, out, channel, sequenceId, args);
+            return sendAsynchronousRequest(in, (TChannelBufferOutputTransport) out.getTransport(), channel, sequenceId, start);
         }
         else
         {
             // This method declares an immediate return value: run it synchronously
-            return synchronousInvoke(in, out, channel, sequenceId, args);
+            return sendSynchronousRequest(in, channel, sequenceId, start);
         }
     }
 
-    private Object synchronousInvoke(TProtocolFactory in,
-                                     TProtocolFactory out,
-                                     NiftyClientChannel channel,
-                                     int sequenceId,
-                                     Object[] args)
+    private Object sendSynchronousRequest(TProtocolFactory in,
+                                          NiftyClientChannel channel,
+                                          int sequenceId,
+                                          long start)
             throws Exception
     {
-        long start = nanoTime();
-
         try {
             Object results = null;
-            TChannelBufferOutputTransport outputTransport = new TChannelBufferOutputTransport();
-            ChannelBuffer requestBuffer = outputTransport.getOutputBuffer();
-            TProtocol outputProtocol = out.getProtocol(outputTransport);
-
-            // write request
-            writeArguments(outputProtocol, sequenceId, args);
 
+            // the request was written to this thread's call by createRequestProtocol
+            SyncClientCall call = SyncClientCall.forCurrentThread();
             if (!this.oneway) {
-                ChannelBuffer responseBuffer;
-
-                responseBuffer = SyncClientHelpers.sendSynchronousTwoWayMessage(channel, requestBuffer);
-
-                TTransport inputTransport = new TChannelBufferInputTransport(responseBuffer);
-                TProtocol inputProtocol = in.getProtocol(inputTransport);
+                TProtocol inputProtocol = call.sendTwoWay(channel, in);
                 waitForResponse(inputProtocol, sequenceId);
 
                 // read results
                 results = readResponse(inputProtocol);
             } else {
-                SyncClientHelpers.sendSynchronousOneWayMessage(channel, requestBuffer);
+                call.sendOneWay(channel);
             }
 
             stats.addSuccessTime(nanosSince(start));
@@ -178,22 +270,16 @@ public class ThriftMethodHandler
         }
     }
 
-    public ListenableFuture<Object> asynchronousInvoke(final TProtocolFactory in,
-                                                       final TProtocolFactory out,
-                                                       final NiftyClientChannel channel,
-                                                       final int sequenceId,
-                                                       final Object[] args)
-        throws Exception
+    private ListenableFuture<Object> sendAsynchronousRequest(final TProtocolFactory in,
+                                                             TChannelBufferOutputTransport outTransport,
+                                                             NiftyClientChannel channel,
+                                                             final int sequenceId,
+                                                             final long start)
+            throws Exception
     {
-        final long start = nanoTime();
-
         try {
             final SettableFuture<Object> future = SettableFuture.create();
 
-            TChannelBufferOutputTransport outTransport = new TChannelBufferOutputTransport();
-            TProtocol outProtocol = out.getProtocol(outTransport);
-            writeArguments(outProtocol, sequenceId, args);
-
             // send message and setup listener to handle the response
             channel.sendAsynchronousRequest(outTransport.getOutputBuffer(), false, new NiftyClientChannel.Listener() {
                 @Override
@@ -202,7 +288,7 @@ public class ThriftMethodHandler
                 @Override
                 public void onResponseReceived(ChannelBuffer message) {
                     try {
-                        TTransport inputTransport = new TChannelBufferInputTransport(message);
+                        TTransport inputTransport = new ChannelBufferInputTransport(message);
                         TProtocol inputProtocol = in.getProtocol(inputTransport);
                         waitForResponse(inputProtocol, sequenceId);
                         Object results = readResponse(inputProtocol);
@@ -236,25 +322,42 @@ public class ThriftMethodHandler
     {
         long start = nanoTime();
 
-        TProtocolReader reader = new TProtocolReader(in);
-        reader.readStructBegin();
+        // read the result struct directly from the protocol, skipping fields with an
+        // unexpected type, to avoid allocating a TProtocolReader for every call
+        TDirectProtocol directProtocol = (in instanceof TDirectProtocol) ? (TDirectProtocol) in : null;
+        in.readStructBegin();
         Object results = null;
         Exception exception = null;
-        while (reader.nextField()) {
-            if (reader.getFieldId() == 0) {
-                results = reader.readField(successCodec);
+        while (true) {
+            byte fieldType;
+            short fieldId;
+            if (directProtocol != null) {
+                fieldType = directProtocol.readFieldHeader();
+                fieldId = directProtocol.getLastFieldId();
+            }
+            else {
+                TField field = in.readFieldBegin();
+                fieldType = field.type;
+                fieldId = field.id;
+            }
+            if (fieldType == TType.STOP) {
+                break;
+            }
+            if (fieldId == 0 && fieldType == successType) {
+                results = successCodec.read(in);
             }
             else {
-                ThriftCodec<Object> exceptionCodec = exceptionCodecs.get(reader.getFieldId());
-                if (exceptionCodec != null) {
-                    exception = (Exception) reader.readField(exceptionCodec);
+                ThriftCodec<Object> exceptionCodec = exceptionCodecs.get(fieldId);
+                if (exceptionCodec != null && fieldType == TType.STRUCT) {
+                    exception = (Exception) exceptionCodec.read(in);
                 }
                 else {
-                    reader.skipFieldData();
+                    TProtocolUtil.skip(in, fieldType);
                 }
             }
+            in.readFieldEnd();
         }
-        reader.readStructEnd();
+        in.readStructEnd();
         in.readMessageEnd();
 
         stats.addReadTime(nanosSince(start));
@@ -279,28 +382,66 @@ public class ThriftMethodHandler
     {
         long start = nanoTime();
 
-        // Note that though setting message type to ONEWAY can be helpful when looking at packet
-        // captures, some clients always send CALL and so servers are forced to rely on the "oneway"
-        // attribute on thrift method in the interface definition, rather than checking the message
-        // type.
-        out.writeMessageBegin(new TMessage(name, oneway ? ONEWAY : CALL, sequenceId));
+        // grow the request buffer once instead of while the arguments are written, if the
+        // previous request of this method was large enough for sizing the arguments to pay off
+        ChannelBuffer buffer = OutputBuffers.getGrowableBuffer(out.getTransport());
+        int startIndex = 0;
+        if (buffer != null) {
+            if (lastRequestSize >= OutputBuffers.PRESIZE_THRESHOLD) {
+                int size = OutputBuffers.getMessageSize(name);
+                for (int i = 0; i < args.length; i++) {
+                    if (args[i] != null) {
+                        size += ThriftSizes.fieldSize(parameterCodecs.get(i).getCodec(), args[i]);
+                    }
+                }
+                buffer.ensureWritableBytes(size);
+            }
+            startIndex = buffer.writerIndex();
+        }
+
+        writeRequestBegin(out, sequenceId);
 
-        // write the parameters
-        TProtocolWriter writer = new TProtocolWriter(out);
-        writer.writeStructBegin(name + "_args");
+        // write the parameters using the precomputed field headers
         for (int i = 0; i < args.length; i++) {
             Object value = args[i];
+            if (value == null) {
+                continue;
+            }
             ParameterHandler parameter = parameterCodecs.get(i);
-            writer.writeField(parameter.getName(), parameter.getId(), parameter.getCodec(), value);
+            out.writeFieldBegin(parameter.getField());
+            parameter.getCodec().write(value, out);
+            out.writeFieldEnd();
         }
-        writer.writeStructEnd();
 
-        out.writeMessageEnd();
-        out.getTransport().flush();
+        // measured before the request is flushed, which may hand off the buffer
+        if (buffer != null) {
+            lastRequestSize = buffer.writerIndex() - startIndex;
+        }
+        writeRequestEnd(out);
 
         stats.addWriteTime(nanosSince(start));
     }
 
+    private void writeRequestBegin(TProtocol out, int sequenceId)
+            throws TException
+    {
+        // Note that though setting message type to ONEWAY can be helpful when looking at packet
+        // captures, some clients always send CALL and so servers are forced to rely on the "oneway"
+        // attribute on thrift method in the interface definition, rather than checking the message
+        // type.
+        out.writeMessageBegin(new TMessage(name, oneway ? ONEWAY : CALL, sequenceId));
+        out.writeStructBegin(argumentsStruct);
+    }
+
+    private void writeRequestEnd(TProtocol out)
+            throws TException
+    {
+        out.writeFieldStop();
+        out.writeStructEnd();
+        out.writeMessageEnd();
+        out.getTransport().flush();
+    }
+
     private void waitForResponse(TProtocol in, int sequenceId)
             throws TException
     {
@@ -332,12 +473,14 @@ public class ThriftMethodHandler
         private final short id;
         private final String name;
         private final ThriftCodec<Object> codec;
+        private final TField field;
 
         private ParameterHandler(short id, String name, ThriftCodec<Object> codec)
         {
             this.id = id;
             this.name = name;
             this.codec = codec;
+            this.field = new TField(name, codec.getType().getProtocolType().getType(), id);
         }
 
         public short getId()
@@ -354,5 +497,10 @@ public class ThriftMethodHandler
         {
             return codec;
         }
+
+        public TField getField()
+        {
+            return field;
+        }
     }
 }
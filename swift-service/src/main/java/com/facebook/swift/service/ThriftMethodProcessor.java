@@ -19,6 +19,7 @@ import com.facebook.swift.codec.ThriftCodec;
 import com.facebook.swift.codec.ThriftCodecManager;
 import com.facebook.swift.codec.internal.TProtocolReader;
 import com.facebook.swift.codec.internal.TProtocolWriter;
+import com.facebook.swift.codec.internal.ThriftSizes;
 import com.facebook.swift.codec.metadata.ThriftFieldMetadata;
 import com.facebook.swift.codec.metadata.ThriftType;
 import com.facebook.swift.service.metadata.ThriftMethodMetadata;
@@ -33,14 +34,17 @@ import org.apache.thrift.protocol.TMessage;
 import org.apache.thrift.protocol.TMessageType;
 import org.apache.thrift.protocol.TProtocol;
 import org.apache.thrift.protocol.TProtocolException;
+import org.jboss.netty.buffer.ChannelBuffer;
 import org.weakref.jmx.Flatten;
 import org.weakref.jmx.Managed;
 
+import javax.annotation.Nullable;
 import javax.annotation.concurrent.ThreadSafe;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.lang.reflect.Type;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 
 import static io.airlift.units.Duration.nanosSince;
@@ -59,16 +63,37 @@ public class ThriftMethodProcessor
     private final Map<Short, Short> thriftParameterIdToJavaArgumentListPositionMap;
     private final ThriftCodec<Object> successCodec;
     private final Map<Class<?>, ExceptionProcessor> exceptionCodecs;
+    private final ThriftServiceDispatcher dispatcher;
+    private final int dispatcherMethodIndex;
 
     private final ThriftMethodStats stats = new ThriftMethodStats();
 
+    private volatile int lastResponseSize;
+
     public ThriftMethodProcessor(
             Object service,
             ThriftMethodMetadata methodMetadata,
             ThriftCodecManager codecManager
     )
+    {
+        this(service, methodMetadata, codecManager, null, -1);
+    }
+
+    /**
+     * Creates a processor which reads the arguments and invokes the method with the specified
+     * compiled dispatcher, or reflectively if the dispatcher is null.
+     */
+    ThriftMethodProcessor(
+            Object service,
+            ThriftMethodMetadata methodMetadata,
+            ThriftCodecManager codecManager,
+            @Nullable ThriftServiceDispatcher dispatcher,
+            int dispatcherMethodIndex
+    )
     {
         this.service = service;
+        this.dispatcher = dispatcher;
+        this.dispatcherMethodIndex = dispatcherMethodIndex;
 
         name = methodMetadata.getName();
         resultStructName = name + "_result";
@@ -113,6 +138,11 @@ public class ThriftMethodProcessor
         return service.getClass();
     }
 
+    public boolean isOneway()
+    {
+        return oneway;
+    }
+
     @Managed
     @Flatten
     public ThriftMethodStats getStats()
@@ -125,58 +155,71 @@ public class ThriftMethodProcessor
     {
         long start = System.nanoTime();
 
-        // read args
-        Object[] args = readArguments(in);
-
-        // invoke method
+        // invoke method; failures reading the arguments are not recoverable and are thrown,
+        // while exceptions thrown by the method are wrapped in an InvocationTargetException
         Object result;
         try {
-            result = invokeMethod(args);
-
-            if (!oneway) {
-                // write success reply
-                writeResponse(out,
-                              sequenceId,
-                              TMessageType.REPLY,
-                              "success",
-                              (short) 0,
-                              successCodec,
-                              result);
+            if (dispatcher != null) {
+                // read args and invoke method with the compiled dispatcher
+                result = dispatchMethod(in);
             }
+            else {
+                // read args
+                Object[] args = readArguments(in);
 
-            stats.addSuccessTime(nanosSince(start));
+                result = invokeMethod(args);
+            }
         }
-        catch (Exception e) {
+        catch (InvocationTargetException e) {
+            Exception exception = unwrap(e);
             if (!oneway) {
-                ExceptionProcessor exceptionCodec = exceptionCodecs.get(e.getClass());
-                if (exceptionCodec != null) {
-                    // write expected exception response
-                    writeResponse(out,
-                                  sequenceId,
-                                  TMessageType.REPLY,
-                                  "exception",
-                                  exceptionCodec.getId(),
-                                  exceptionCodec.getCodec(),
-                                  e);
-                    stats.addErrorTime(nanosSince(start));
-                } else {
-                    // unexpected exception
-                    TApplicationException applicationException =
-                      new TApplicationException(INTERNAL_ERROR,
-                                                "Internal error processing " + method.getName());
-                    applicationException.initCause(e);
-
-                    // Application exceptions are sent to client, and the connection can be reused
-                    out.writeMessageBegin(new TMessage(name, TMessageType.EXCEPTION, sequenceId));
-                    applicationException.write(out);
-                    out.writeMessageEnd();
-                    out.getTransport().flush();
-
-                    stats.addErrorTime(nanosSince(start));
-                }
-            } else {
-                stats.addErrorTime(nanosSince(start));
+                writeException(out, sequenceId, exception);
             }
+
+            stats.addErrorTime(nanosSince(start));
+            return;
+        }
+
+        if (!oneway) {
+            // write success reply
+            writeResponse(out,
+                          sequenceId,
+                          TMessageType.REPLY,
+                          "success",
+                          (short) 0,
+                          successCodec,
+                          result);
+        }
+
+        stats.addSuccessTime(nanosSince(start));
+    }
+
+    private void writeException(TProtocol out, int sequenceId, Exception e)
+            throws Exception
+    {
+        ExceptionProcessor exceptionCodec = exceptionCodecs.get(e.getClass());
+        if (exceptionCodec != null) {
+            // write expected exception response
+            writeResponse(out,
+                          sequenceId,
+                          TMessageType.REPLY,
+                          "exception",
+                          exceptionCodec.getId(),
+                          exceptionCodec.getCodec(),
+                          e);
+        }
+        else {
+            // unexpected exception
+            TApplicationException applicationException =
+                    new TApplicationException(INTERNAL_ERROR,
+                                              "Internal error processing " + method.getName());
+            applicationException.initCause(e);
+
+            // Application exceptions are sent to client, and the connection can be reused
+            out.writeMessageBegin(new TMessage(name, TMessageType.EXCEPTION, sequenceId));
+            applicationException.write(out);
+            out.writeMessageEnd();
+            out.getTransport().flush();
         }
     }
 
@@ -184,32 +227,51 @@ public class ThriftMethodProcessor
             throws Exception
     {
         long start = System.nanoTime();
-        try {
-            Object response = method.invoke(service, args);
-            stats.addInvokeTime(nanosSince(start));
-            if (response instanceof Future)
-            {
-                // Server-side async isn't implemented yet, so if the server method returns
-                // a future, we have to wait for it.
-                return ((Future<?>)response).get();
+        Object response = method.invoke(service, args);
+        return completeInvocation(response, start);
+    }
+
+    private Object dispatchMethod(TProtocol in)
+            throws Exception
+    {
+        // the time to read the arguments is included in the invoke time
+        long start = System.nanoTime();
+        Object response = dispatcher.dispatch(dispatcherMethodIndex, in);
+        return completeInvocation(response, start);
+    }
+
+    private Object completeInvocation(Object response, long start)
+            throws InvocationTargetException
+    {
+        stats.addInvokeTime(nanosSince(start));
+        if (response instanceof Future) {
+            // Server-side async isn't implemented yet, so if the server method returns
+            // a future, we have to wait for it.
+            try {
+                return ((Future<?>) response).get();
             }
-            return response;
-        }
-        catch (Throwable e) {
-            // strip off the InvocationTargetException wrapper if present
-            if (e instanceof InvocationTargetException) {
-                InvocationTargetException invocationTargetException = (InvocationTargetException) e;
-                if (invocationTargetException.getTargetException() != null) {
-                    e = invocationTargetException.getTargetException();
-                }
+            catch (ExecutionException e) {
+                throw new InvocationTargetException(e.getCause());
+            }
+            catch (Exception e) {
+                throw new InvocationTargetException(e);
             }
+        }
+        return response;
+    }
 
-            // rethrow Exceptions or Errors
-            Throwables.propagateIfPossible(e, Exception.class);
+    private static Exception unwrap(InvocationTargetException e)
+    {
+        Throwable cause = e.getTargetException() != null ? e.getTargetException() : e;
 
-            // Wrap random extensions of Throwable in a runtime exception
-            throw Throwables.propagate(e);
+        // rethrow Errors
+        Throwables.propagateIfInstanceOf(cause, Error.class);
+
+        if (cause instanceof Exception) {
+            return (Exception) cause;
         }
+        // Wrap random extensions of Throwable in a runtime exception
+        return new RuntimeException(cause);
     }
 
     private Object[] readArguments(TProtocol in)
@@ -278,6 +340,17 @@ public class ThriftMethodProcessor
                                    T result) throws Exception {
         long start = System.nanoTime();
 
+        // grow the response buffer once instead of while the result is written, if the previous
+        // response of this method was large enough for sizing the result to pay off
+        ChannelBuffer buffer = OutputBuffers.getGrowableBuffer(out.getTransport());
+        int startIndex = 0;
+        if (buffer != null) {
+            if (lastResponseSize >= OutputBuffers.PRESIZE_THRESHOLD) {
+                buffer.ensureWritableBytes(OutputBuffers.getMessageSize(name) + ThriftSizes.fieldSize(responseCodec, result));
+            }
+            startIndex = buffer.writerIndex();
+        }
+
         out.writeMessageBegin(new TMessage(name, responseType, sequenceId));
 
         TProtocolWriter writer = new TProtocolWriter(out);
@@ -285,6 +358,10 @@ public class ThriftMethodProcessor
         writer.writeField(responseFieldName, (short) responseFieldId, responseCodec, result);
         writer.writeStructEnd();
 
+        // measured before the response is flushed, which may hand off the buffer
+        if (buffer != null) {
+            lastResponseSize = buffer.writerIndex() - startIndex;
+        }
         out.writeMessageEnd();
         out.getTransport().flush();
 
@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.facebook.swift.service;
+
+import com.facebook.swift.codec.internal.TDirectBinaryProtocol;
+import com.facebook.swift.codec.internal.TDirectCompactProtocol;
+import org.apache.thrift.protocol.TProtocolFactory;
+
+/**
+ * Wire protocols a Swift client can speak. The same protocol is used to write requests and to
+ * read responses, so the server must understand the selected encoding.
+ */
+public enum ThriftProtocol
+{
+    /**
+     * Binary encoding. See {@link TDirectBinaryProtocol}.
+     */
+    BINARY(new TDirectBinaryProtocol.Factory()),
+
+    /**
+     * Compact encoding. See {@link TDirectCompactProtocol}.
+     */
+    COMPACT(new TDirectCompactProtocol.Factory()),
+
+    /**
+     * Binary encoding; binary values in responses are writable views of the response frame.
+     * A view keeps the whole frame reachable, and writes to it change the other values read
+     * from the same frame, so copy values that are kept or modified with
+     * {@link ZeroCopyBinaryProtocol#copyOf}. See {@link ZeroCopyBinaryProtocol}.
+     */
+    BINARY_ZERO_COPY(new ZeroCopyBinaryProtocol.Factory()),
+
+    /**
+     * Compact encoding; binary values in responses are writable views of the response frame,
+     * with the same rules as {@link #BINARY_ZERO_COPY}. See {@link ZeroCopyCompactProtocol}.
+     */
+    COMPACT_ZERO_COPY(new ZeroCopyCompactProtocol.Factory());
+
+    private final TProtocolFactory protocolFactory;
+
+    private ThriftProtocol(TProtocolFactory protocolFactory)
+    {
+        this.protocolFactory = protocolFactory;
+    }
+
+    public TProtocolFactory getProtocolFactory()
+    {
+        return protocolFactory;
+    }
+
+    boolean isCompact()
+    {
+        return this == COMPACT || this == COMPACT_ZERO_COPY;
+    }
+}
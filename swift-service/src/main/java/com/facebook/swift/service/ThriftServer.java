@@ -18,17 +18,22 @@ package com.facebook.swift.service;
 import com.facebook.nifty.core.NettyConfigBuilder;
 import com.facebook.nifty.core.NettyServerTransport;
 import com.facebook.nifty.core.ThriftServerDef;
+import com.facebook.nifty.core.ThriftServerDefBuilder;
 import com.google.common.base.Preconditions;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.inject.Inject;
+import org.apache.thrift.TException;
 import org.apache.thrift.TProcessor;
 import org.apache.thrift.TProcessorFactory;
+import org.apache.thrift.protocol.TProtocol;
 import org.jboss.netty.channel.ServerChannelFactory;
 import org.jboss.netty.channel.group.DefaultChannelGroup;
 import org.jboss.netty.channel.socket.nio.NioServerSocketChannelFactory;
 import org.jboss.netty.util.HashedWheelTimer;
 import org.jboss.netty.util.Timer;
+import io.airlift.stats.TimedStat;
 import org.weakref.jmx.Managed;
+import org.weakref.jmx.Nested;
 
 import java.io.Closeable;
 import java.io.IOException;
@@ -42,7 +47,6 @@ import javax.annotation.PreDestroy;
 import static com.facebook.nifty.core.ShutdownUtil.shutdownChannelFactory;
 import static com.facebook.nifty.core.ShutdownUtil.shutdownExecutor;
 import static java.util.concurrent.Executors.newCachedThreadPool;
-import static java.util.concurrent.Executors.newFixedThreadPool;
 
 public class ThriftServer implements Closeable
 {
@@ -54,12 +58,16 @@ public class ThriftServer implements Closeable
 
     private final NettyServerTransport transport;
     private final int workerThreads;
+    private final int maxQueuedRequests;
     private final int port;
+    private final boolean protocolAutoDetect;
+    private final TProcessor processor;
+    private final int warmUpIterations;
     private final DefaultChannelGroup allChannels = new DefaultChannelGroup();
 
     private final ExecutorService acceptorExecutor;
     private final ExecutorService ioExecutor;
-    private final ExecutorService workerExecutor;
+    private final LoadSheddingExecutor workerExecutor;
 
     private final ServerChannelFactory serverChannelFactory;
 
@@ -78,26 +86,51 @@ public class ThriftServer implements Closeable
     @Inject
     public ThriftServer(TProcessor processor, ThriftServerConfig config, @ThriftServerTimer Timer timer)
     {
-        TProcessorFactory processorFactory = new TProcessorFactory(processor);
-
         port = getSpecifiedOrRandomPort(config);
+        protocolAutoDetect = config.isProtocolAutoDetect();
+        this.processor = processor;
+        warmUpIterations = config.getWarmUpIterations();
+
+        // shed requests are answered with the detected protocol, so shedding happens after detection
+        TProcessor sheddingProcessor = new LoadSheddingProcessor(processor);
+        TProcessorFactory processorFactory;
+        if (protocolAutoDetect) {
+            processorFactory = new TProcessorFactory(new ProtocolDetectingProcessor(sheddingProcessor));
+        }
+        else {
+            processorFactory = new TProcessorFactory(sheddingProcessor);
+        }
 
         workerThreads = config.getWorkerThreads();
+        maxQueuedRequests = config.getMaxQueuedRequests();
 
-        workerExecutor = newFixedThreadPool(workerThreads, new ThreadFactoryBuilder().setNameFormat("thrift-worker-%s").build());
+        workerExecutor = new LoadSheddingExecutor(
+                workerThreads,
+                maxQueuedRequests,
+                config.getMaxQueuedTime(),
+                new ThreadFactoryBuilder().setNameFormat("thrift-worker-%s").build());
 
         acceptorExecutor = newCachedThreadPool(new ThreadFactoryBuilder().setNameFormat("thrift-acceptor-%s").build());
         ioExecutor = newCachedThreadPool(new ThreadFactoryBuilder().setNameFormat("thrift-io-%s").build());
 
         serverChannelFactory = new NioServerSocketChannelFactory(acceptorExecutor, ioExecutor);
 
-        ThriftServerDef thriftServerDef = ThriftServerDef.newBuilder()
-                                                         .name("thrift")
-                                                         .listen(port)
-                                                         .limitFrameSizeTo((int) config.getMaxFrameSize().toBytes())
-                                                         .clientIdleTimeout(config.getClientIdleTimeout())
-                                                         .withProcessorFactory(processorFactory)
-                                                         .using(workerExecutor).build();
+        ThriftServerDefBuilder thriftServerDefBuilder = ThriftServerDef.newBuilder()
+                                                                       .name("thrift")
+                                                                       .listen(port)
+                                                                       .limitFrameSizeTo((int) config.getMaxFrameSize().toBytes())
+                                                                       .clientIdleTimeout(config.getClientIdleTimeout())
+                                                                       .withProcessorFactory(processorFactory)
+                                                                       .using(workerExecutor);
+        if (protocolAutoDetect) {
+            // The frame decoder also uses the input protocol to find the end of unframed
+            // messages, so unframed compact clients are delimited correctly as well
+            thriftServerDefBuilder.speaks(new AutoDetectingProtocol.Factory());
+        }
+        else {
+            thriftServerDefBuilder.speaks(ThriftProtocol.BINARY.getProtocolFactory());
+        }
+        ThriftServerDef thriftServerDef = thriftServerDefBuilder.build();
 
         transport = new NettyServerTransport(thriftServerDef, new NettyConfigBuilder(), allChannels, timer);
     }
@@ -128,6 +161,43 @@ public class ThriftServer implements Closeable
         return workerThreads;
     }
 
+    @Managed
+    public int getMaxQueuedRequests()
+    {
+        return maxQueuedRequests;
+    }
+
+    @Managed
+    public int getQueuedRequests()
+    {
+        return workerExecutor.getQueue().size();
+    }
+
+    @Managed
+    public long getShedRequests()
+    {
+        return workerExecutor.getShedRequests();
+    }
+
+    @Managed
+    @Nested
+    public TimedStat getQueuedTime()
+    {
+        return workerExecutor.getQueuedTime();
+    }
+
+    @Managed
+    public boolean isProtocolAutoDetect()
+    {
+        return protocolAutoDetect;
+    }
+
+    @Managed
+    public int getWarmUpIterations()
+    {
+        return warmUpIterations;
+    }
+
     public synchronized boolean isRunning() {
         return state == State.RUNNING;
     }
@@ -137,6 +207,9 @@ public class ThriftServer implements Closeable
     {
         Preconditions.checkState(state != State.CLOSED, "Thrift server is closed");
         if (state == State.NOT_STARTED) {
+            if (warmUpIterations > 0 && processor instanceof ThriftServiceProcessor) {
+                ((ThriftServiceProcessor) processor).warmUp(warmUpIterations);
+            }
             transport.start(serverChannelFactory);
             state = State.RUNNING;
         }
@@ -165,4 +238,30 @@ public class ThriftServer implements Closeable
 
         state = State.CLOSED;
     }
+
+    /**
+     * Replies using the protocol detected on the request. Nifty creates the input and output
+     * protocols independently, so the output protocol is replaced once the input protocol has
+     * looked at the first byte of the message.
+     */
+    private static class ProtocolDetectingProcessor implements TProcessor
+    {
+        private final TProcessor delegate;
+
+        private ProtocolDetectingProcessor(TProcessor delegate)
+        {
+            this.delegate = Preconditions.checkNotNull(delegate, "delegate is null");
+        }
+
+        @Override
+        public boolean process(TProtocol in, TProtocol out)
+                throws TException
+        {
+            if (in instanceof AutoDetectingProtocol) {
+                ThriftProtocol protocol = ((AutoDetectingProtocol) in).detectProtocol();
+                out = protocol.getProtocolFactory().getProtocol(out.getTransport());
+            }
+            return delegate.process(in, out);
+        }
+    }
 }
@@ -29,7 +29,11 @@ public class ThriftServerConfig
     private int port;
     private DataSize maxFrameSize = new DataSize(1, MEGABYTE);
     private int workerThreads = 200;
+    private int maxQueuedRequests = 10000;
+    private Duration maxQueuedTime;
     private Duration clientIdleTimeout;
+    private boolean protocolAutoDetect;
+    private int warmUpIterations;
 
     @Min(0)
     @Max(65535)
@@ -70,6 +74,39 @@ public class ThriftServerConfig
         return this;
     }
 
+    @Min(1)
+    public int getMaxQueuedRequests()
+    {
+        return maxQueuedRequests;
+    }
+
+    /**
+     * Sets the maximum number of requests waiting for a worker thread.  Requests that arrive when
+     * the queue is full are answered with an error (or dropped if they are oneway) right away.
+     */
+    @Config("thrift.max-queued-requests")
+    public ThriftServerConfig setMaxQueuedRequests(int maxQueuedRequests)
+    {
+        this.maxQueuedRequests = maxQueuedRequests;
+        return this;
+    }
+
+    public Duration getMaxQueuedTime()
+    {
+        return maxQueuedTime;
+    }
+
+    /**
+     * Sets the maximum time a request may wait for a worker thread.  Requests that waited longer
+     * are answered with an error (or dropped if they are oneway) instead of being processed.
+     */
+    @Config("thrift.max-queued-time")
+    public ThriftServerConfig setMaxQueuedTime(Duration maxQueuedTime)
+    {
+        this.maxQueuedTime = maxQueuedTime;
+        return this;
+    }
+
     public Duration getClientIdleTimeout()
     {
         return this.clientIdleTimeout;
@@ -81,4 +118,34 @@ public class ThriftServerConfig
         this.clientIdleTimeout = clientIdleTimeout;
         return this;
     }
+
+    public boolean isProtocolAutoDetect()
+    {
+        return protocolAutoDetect;
+    }
+
+    @Config("thrift.protocol.auto-detect")
+    public ThriftServerConfig setProtocolAutoDetect(boolean protocolAutoDetect)
+    {
+        this.protocolAutoDetect = protocolAutoDetect;
+        return this;
+    }
+
+    @Min(0)
+    public int getWarmUpIterations()
+    {
+        return warmUpIterations;
+    }
+
+    /**
+     * Sets the number of times the codecs of a {@link ThriftServiceProcessor} are exercised with
+     * synthetic values when the server starts, before it accepts connections.  When set, all the
+     * codecs are also generated in parallel first.  Zero disables the warm-up.
+     */
+    @Config("thrift.warm-up-iterations")
+    public ThriftServerConfig setWarmUpIterations(int warmUpIterations)
+    {
+        this.warmUpIterations = warmUpIterations;
+        return this;
+    }
 }
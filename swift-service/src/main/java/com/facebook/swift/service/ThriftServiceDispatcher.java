@@ -0,0 +1,38 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.facebook.swift.service;
+
+import org.apache.thrift.protocol.TProtocol;
+
+import java.lang.reflect.InvocationTargetException;
+
+/**
+ * Reads the arguments of a service method and invokes the method on the service. Dispatchers
+ * are compiled per service by {@link ThriftServiceDispatcherGenerator}.
+ */
+public interface ThriftServiceDispatcher
+{
+    /**
+     * Reads the arguments struct of the method with the specified index from the protocol and
+     * invokes the method.
+     *
+     * @return the value returned by the method, boxed if primitive, or null for void methods
+     * @throws InvocationTargetException if the method throws an exception
+     * @throws org.apache.thrift.TApplicationException if the arguments are malformed
+     */
+    Object dispatch(int methodIndex, TProtocol in)
+            throws Exception;
+}
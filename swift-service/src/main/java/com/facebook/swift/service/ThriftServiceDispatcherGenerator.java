@@ -0,0 +1,495 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.facebook.swift.service;
+
+import com.facebook.swift.codec.ThriftCodec;
+import com.facebook.swift.codec.ThriftCodecManager;
+import com.facebook.swift.codec.ThriftProtocolType;
+import com.facebook.swift.codec.internal.TProtocolReader;
+import com.facebook.swift.codec.internal.compiler.DynamicClassLoader;
+import com.facebook.swift.codec.internal.compiler.byteCode.CaseStatement;
+import com.facebook.swift.codec.internal.compiler.byteCode.ClassDefinition;
+import com.facebook.swift.codec.internal.compiler.byteCode.FieldDefinition;
+import com.facebook.swift.codec.internal.compiler.byteCode.LocalVariableDefinition;
+import com.facebook.swift.codec.internal.compiler.byteCode.MethodDefinition;
+import com.facebook.swift.codec.internal.compiler.byteCode.ParameterizedType;
+import com.facebook.swift.codec.metadata.ThriftCatalog;
+import com.facebook.swift.codec.metadata.ThriftFieldMetadata;
+import com.facebook.swift.codec.metadata.ThriftParameterInjection;
+import com.facebook.swift.codec.metadata.ThriftType;
+import com.facebook.swift.codec.metadata.TypeCoercion;
+import com.facebook.swift.service.metadata.ThriftMethodMetadata;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.primitives.Primitives;
+import org.apache.thrift.TApplicationException;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.protocol.TProtocolException;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.InsnNode;
+import org.objectweb.asm.tree.MethodInsnNode;
+
+import javax.annotation.concurrent.NotThreadSafe;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static com.facebook.swift.codec.ThriftProtocolType.BOOL;
+import static com.facebook.swift.codec.ThriftProtocolType.BYTE;
+import static com.facebook.swift.codec.ThriftProtocolType.DOUBLE;
+import static com.facebook.swift.codec.ThriftProtocolType.I16;
+import static com.facebook.swift.codec.ThriftProtocolType.I32;
+import static com.facebook.swift.codec.ThriftProtocolType.I64;
+import static com.facebook.swift.codec.ThriftProtocolType.STRING;
+import static com.facebook.swift.codec.internal.compiler.byteCode.Access.FINAL;
+import static com.facebook.swift.codec.internal.compiler.byteCode.Access.PRIVATE;
+import static com.facebook.swift.codec.internal.compiler.byteCode.Access.PUBLIC;
+import static com.facebook.swift.codec.internal.compiler.byteCode.Access.SUPER;
+import static com.facebook.swift.codec.internal.compiler.byteCode.Access.a;
+import static com.facebook.swift.codec.internal.compiler.byteCode.CaseStatement.caseStatement;
+import static com.facebook.swift.codec.internal.compiler.byteCode.NamedParameterDefinition.arg;
+import static com.facebook.swift.codec.internal.compiler.byteCode.ParameterizedType.type;
+import static org.apache.thrift.TApplicationException.PROTOCOL_ERROR;
+import static org.objectweb.asm.Opcodes.AALOAD;
+import static org.objectweb.asm.Opcodes.INVOKEVIRTUAL;
+
+/**
+ * Compiles a {@link ThriftServiceDispatcher} for a service object. For each method the
+ * generated code reads the arguments struct with a switch on the field id into local variables,
+ * which are primitive for primitive parameters, and then invokes the method on the service
+ * directly instead of through {@link Method#invoke}.
+ */
+@NotThreadSafe
+class ThriftServiceDispatcherGenerator
+{
+    private static final String PACKAGE = "$wift";
+
+    private static final Map<ThriftProtocolType, Method> READ_METHODS;
+
+    private final ThriftCodecManager codecManager;
+    private final ThriftCatalog catalog;
+    private final Class<?> serviceClass;
+    private final ParameterizedType serviceType;
+    private final ParameterizedType dispatcherType;
+    private final ClassDefinition classDefinition;
+
+    private final List<ThriftCodec<?>> codecValues = new ArrayList<>();
+
+    private final ThriftServiceDispatcher dispatcher;
+
+    /**
+     * @param methods the methods to dispatch, each of which must be supported according to
+     * {@link #isSupported(Class, ThriftMethodMetadata, ThriftCatalog)}; the index of a method in
+     * this list is its index for {@link ThriftServiceDispatcher#dispatch}
+     */
+    ThriftServiceDispatcherGenerator(Object service, List<ThriftMethodMetadata> methods, ThriftCodecManager codecManager)
+    {
+        this.codecManager = codecManager;
+        this.catalog = codecManager.getCatalog();
+
+        serviceClass = service.getClass();
+        serviceType = type(serviceClass);
+        dispatcherType = type(PACKAGE + "/" + serviceType.getClassName() + "Dispatcher");
+
+        classDefinition = new ClassDefinition(
+                a(PUBLIC, SUPER),
+                dispatcherType.getClassName(),
+                type(Object.class),
+                type(ThriftServiceDispatcher.class)
+        );
+
+        classDefinition.addField(a(PRIVATE, FINAL), "service", serviceType);
+
+        // declare methods, which also declares the codec fields they use
+        for (int i = 0; i < methods.size(); i++) {
+            defineMethodDispatch(i, methods.get(i));
+        }
+        defineDispatchMethod(methods.size());
+        defineConstructor();
+
+        // generate the byte code
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_FRAMES);
+        classDefinition.getClassNode().accept(cw);
+        byte[] byteCode = cw.toByteArray();
+
+        // load the class
+        DynamicClassLoader classLoader = new DynamicClassLoader(serviceClass.getClassLoader());
+        Class<?> dispatcherClass = classLoader.defineClass(dispatcherType.getClassName().replace('/', '.'), byteCode);
+        try {
+            Constructor<?> constructor = dispatcherClass.getConstructor(serviceClass, ThriftCodec[].class);
+            dispatcher = (ThriftServiceDispatcher) constructor.newInstance(service, codecValues.toArray(new ThriftCodec<?>[codecValues.size()]));
+        }
+        catch (Exception e) {
+            throw new IllegalStateException("Generated class is invalid", e);
+        }
+    }
+
+    public ThriftServiceDispatcher getDispatcher()
+    {
+        return dispatcher;
+    }
+
+    /**
+     * Returns true if calls to the method can be compiled: the service class and the method must
+     * be public, and parameters read with a codec must have a public, non-primitive type.
+     */
+    static boolean isSupported(Class<?> serviceClass, ThriftMethodMetadata methodMetadata, ThriftCatalog catalog)
+    {
+        if (!isPublic(serviceClass)) {
+            return false;
+        }
+
+        Method method = methodMetadata.getMethod();
+        if (!Modifier.isPublic(method.getModifiers()) || Modifier.isStatic(method.getModifiers())) {
+            return false;
+        }
+
+        Class<?>[] parameterTypes = method.getParameterTypes();
+        if (methodMetadata.getParameters().size() != parameterTypes.length) {
+            return false;
+        }
+        for (ThriftFieldMetadata parameter : methodMetadata.getParameters()) {
+            Class<?> parameterType = parameterTypes[getParameterIndex(parameter)];
+            if (getReadMethod(parameter.getType(), catalog) == null) {
+                if (parameterType.isPrimitive() || !isPublic(parameterType)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private void defineConstructor()
+    {
+        MethodDefinition constructor = new MethodDefinition(
+                a(PUBLIC),
+                "<init>",
+                type(void.class),
+                arg("service", serviceType),
+                arg("codecs", ThriftCodec[].class)
+        );
+
+        // invoke super (Object) constructor
+        constructor.loadThis().invokeConstructor(type(Object.class));
+
+        // this.service = service;
+        constructor.loadThis()
+                .loadVariable("service")
+                .putField(dispatcherType, "service", serviceType);
+
+        // this.codec_i = codecs[i];
+        for (int i = 0; i < codecValues.size(); i++) {
+            constructor.loadThis()
+                    .loadVariable("codecs")
+                    .loadConstant(i)
+                    .addInstruction(new InsnNode(AALOAD))
+                    .putField(dispatcherType, "codec_" + i, type(ThriftCodec.class));
+        }
+
+        // return (implicit in source code)
+        constructor.ret();
+
+        classDefinition.addMethod(constructor);
+    }
+
+    /**
+     * Defines the dispatch method, which switches on the method index.
+     */
+    private void defineDispatchMethod(int methodCount)
+    {
+        MethodDefinition dispatch = new MethodDefinition(
+                a(PUBLIC),
+                "dispatch",
+                type(Object.class),
+                arg("methodIndex", int.class),
+                arg("protocol", TProtocol.class)
+        ).addException(Exception.class);
+
+        // switch (methodIndex)
+        dispatch.loadVariable("methodIndex");
+        List<CaseStatement> cases = new ArrayList<>();
+        for (int i = 0; i < methodCount; i++) {
+            cases.add(caseStatement(i, "method-" + i));
+        }
+        dispatch.switchStatement("default", cases);
+
+        for (int i = 0; i < methodCount; i++) {
+            // case i: return dispatch_i(protocol);
+            dispatch.visitLabel("method-" + i)
+                    .loadThis()
+                    .loadVariable("protocol")
+                    .invokeVirtual(dispatcherType, "dispatch_" + i, type(Object.class), type(TProtocol.class))
+                    .retObject();
+        }
+
+        // default: throw new IllegalArgumentException("Unknown method index");
+        dispatch.visitLabel("default")
+                .newObject(IllegalArgumentException.class)
+                .dup()
+                .loadConstant("Unknown method index")
+                .invokeConstructor(IllegalArgumentException.class, String.class)
+                .throwObject();
+
+        classDefinition.addMethod(dispatch);
+    }
+
+    /**
+     * Defines the method which reads the arguments and invokes one service method.
+     */
+    private void defineMethodDispatch(int methodIndex, ThriftMethodMetadata methodMetadata)
+    {
+        Method method = methodMetadata.getMethod();
+        Class<?>[] parameterTypes = method.getParameterTypes();
+
+        MethodDefinition read = new MethodDefinition(
+                a(PUBLIC),
+                "dispatch_" + methodIndex,
+                type(Object.class),
+                arg("protocol", TProtocol.class)
+        ).addException(Exception.class);
+
+        // TProtocolReader reader = new TProtocolReader(protocol);
+        LocalVariableDefinition reader = read.addLocalVariable(type(TProtocolReader.class), "reader");
+        read.newObject(TProtocolReader.class)
+                .dup()
+                .loadVariable("protocol")
+                .invokeConstructor(type(TProtocolReader.class), type(TProtocol.class))
+                .storeVariable(reader);
+
+        // declare and init a local variable for each argument, so missing arguments are
+        // passed as the default value of the type
+        Map<Integer, LocalVariableDefinition> arguments = new TreeMap<>();
+        for (ThriftFieldMetadata parameter : methodMetadata.getParameters()) {
+            int index = getParameterIndex(parameter);
+            Method readMethod = getReadMethod(parameter.getType(), catalog);
+            Class<?> variableType = parameterTypes[index];
+            if (readMethod != null && readMethod.getReturnType().isPrimitive()) {
+                // primitive protocol values are coerced when the method is invoked
+                variableType = readMethod.getReturnType();
+            }
+            arguments.put(index, read.addInitializedLocalVariable(type(variableType), "arg" + index));
+        }
+
+        // decoding errors are reported to the client as a protocol error
+        read.visitLabel("read-begin");
+
+        // reader.readStructBegin();
+        read.loadVariable(reader).invokeVirtual(TProtocolReader.class, "readStructBegin", void.class);
+
+        // while (reader.nextField())
+        read.visitLabel("while-begin");
+        read.loadVariable(reader).invokeVirtual(TProtocolReader.class, "nextField", boolean.class);
+        read.ifZeroGoto("while-end");
+
+        // switch (reader.getFieldId())
+        read.loadVariable(reader).invokeVirtual(TProtocolReader.class, "getFieldId", short.class);
+        List<CaseStatement> cases = new ArrayList<>();
+        for (ThriftFieldMetadata parameter : methodMetadata.getParameters()) {
+            cases.add(caseStatement(parameter.getId(), "field-" + parameter.getId()));
+        }
+        read.switchStatement("default", cases);
+
+        for (ThriftFieldMetadata parameter : methodMetadata.getParameters()) {
+            int index = getParameterIndex(parameter);
+            ThriftType thriftType = parameter.getType();
+
+            // case field.id:
+            read.visitLabel("field-" + parameter.getId());
+
+            Method readMethod = getReadMethod(thriftType, catalog);
+            if (readMethod != null) {
+                // argN = reader.readXxxField();
+                read.loadVariable(reader).invokeVirtual(readMethod);
+
+                // coerce binary values when read
+                if (thriftType.isCoerced() && !readMethod.getReturnType().isPrimitive()) {
+                    read.invokeStatic(catalog.getDefaultCoercion(thriftType.getJavaType()).getFromThrift());
+                }
+            }
+            else {
+                // argN = (Type) reader.readField(this.codec);
+                FieldDefinition codecField = declareCodecField(codecManager.getCodec(thriftType));
+                read.loadVariable(reader)
+                        .loadThis()
+                        .getField(dispatcherType, codecField)
+                        .invokeVirtual(TProtocolReader.class, "readField", Object.class, ThriftCodec.class)
+                        .checkCast(type(parameterTypes[index]));
+            }
+            read.storeVariable(arguments.get(index));
+
+            // go back to top of loop
+            read.gotoLabel("while-begin");
+        }
+
+        // default case
+        read.visitLabel("default")
+                .loadVariable(reader)
+                .invokeVirtual(TProtocolReader.class, "skipFieldData", void.class)
+                .gotoLabel("while-begin");
+
+        // end of while loop
+        read.visitLabel("while-end");
+
+        // reader.readStructEnd();
+        read.loadVariable(reader).invokeVirtual(TProtocolReader.class, "readStructEnd", void.class);
+
+        read.visitLabel("read-end");
+
+        // exceptions thrown by the method are wrapped in an InvocationTargetException, like Method.invoke
+        read.visitLabel("invoke-begin");
+
+        // push service
+        read.loadThis().getField(dispatcherType, "service", serviceType);
+
+        // push arguments in java parameter order, coercing primitive protocol values
+        Map<Integer, ThriftFieldMetadata> parametersByIndex = new TreeMap<>();
+        for (ThriftFieldMetadata parameter : methodMetadata.getParameters()) {
+            parametersByIndex.put(getParameterIndex(parameter), parameter);
+        }
+        for (Map.Entry<Integer, ThriftFieldMetadata> entry : parametersByIndex.entrySet()) {
+            ThriftFieldMetadata parameter = entry.getValue();
+            read.loadVariable(arguments.get(entry.getKey()));
+
+            ThriftType thriftType = parameter.getType();
+            Method readMethod = getReadMethod(thriftType, catalog);
+            if (thriftType.isCoerced() && readMethod != null && readMethod.getReturnType().isPrimitive()) {
+                read.invokeStatic(catalog.getDefaultCoercion(thriftType.getJavaType()).getFromThrift());
+            }
+        }
+
+        // invoke the method
+        read.addInstruction(new MethodInsnNode(INVOKEVIRTUAL, serviceType.getClassName(), method.getName(), Type.getMethodDescriptor(method)));
+
+        read.visitLabel("invoke-end");
+
+        // return the (boxed) result
+        Class<?> returnType = method.getReturnType();
+        if (returnType == void.class) {
+            read.loadNull();
+        }
+        else if (returnType.isPrimitive()) {
+            box(read, returnType);
+        }
+        read.retObject();
+
+        // catch (TProtocolException e) { throw new TApplicationException(PROTOCOL_ERROR, e.getMessage()); }
+        LocalVariableDefinition protocolException = read.addLocalVariable(type(TProtocolException.class), "protocolException");
+        read.visitLabel("protocol-error")
+                .storeVariable(protocolException)
+                .newObject(TApplicationException.class)
+                .dup()
+                .loadConstant(PROTOCOL_ERROR)
+                .loadVariable(protocolException)
+                .invokeVirtual(Throwable.class, "getMessage", String.class)
+                .invokeConstructor(TApplicationException.class, int.class, String.class)
+                .throwObject();
+
+        // catch (Throwable e) { throw new InvocationTargetException(e); }
+        LocalVariableDefinition exception = read.addLocalVariable(type(Throwable.class), "exception");
+        read.visitLabel("invoke-error")
+                .storeVariable(exception)
+                .newObject(InvocationTargetException.class)
+                .dup()
+                .loadVariable(exception)
+                .invokeConstructor(InvocationTargetException.class, Throwable.class)
+                .throwObject();
+
+        read.tryCatch("read-begin", "read-end", "protocol-error", TProtocolException.class);
+        read.tryCatch("invoke-begin", "invoke-end", "invoke-error", Throwable.class);
+
+        classDefinition.addMethod(read);
+    }
+
+    private FieldDefinition declareCodecField(ThriftCodec<?> codec)
+    {
+        FieldDefinition field = new FieldDefinition(a(PRIVATE, FINAL), "codec_" + codecValues.size(), type(ThriftCodec.class));
+        classDefinition.addField(field);
+        codecValues.add(codec);
+        return field;
+    }
+
+    /**
+     * Returns the typed reader method for the type, or null if the type is read with its codec.
+     * Coerced types are read directly only when the catalog has a default coercion for them.
+     */
+    private static Method getReadMethod(ThriftType thriftType, ThriftCatalog catalog)
+    {
+        Method readMethod = READ_METHODS.get(thriftType.getProtocolType());
+        if (readMethod == null) {
+            return null;
+        }
+        if (thriftType.isCoerced()) {
+            TypeCoercion coercion = catalog.getDefaultCoercion(thriftType.getJavaType());
+            if (coercion == null) {
+                return null;
+            }
+        }
+        return readMethod;
+    }
+
+    private static int getParameterIndex(ThriftFieldMetadata parameter)
+    {
+        return ((ThriftParameterInjection) parameter.getInjections().get(0)).getParameterIndex();
+    }
+
+    private static void box(MethodDefinition method, Class<?> primitiveType)
+    {
+        try {
+            method.invokeStatic(Primitives.wrap(primitiveType).getMethod("valueOf", primitiveType));
+        }
+        catch (NoSuchMethodException e) {
+            throw Throwables.propagate(e);
+        }
+    }
+
+    private static boolean isPublic(Class<?> type)
+    {
+        while (type.isArray()) {
+            type = type.getComponentType();
+        }
+        for (Class<?> current = type; current != null; current = current.getEnclosingClass()) {
+            if (!current.isPrimitive() && !Modifier.isPublic(current.getModifiers())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static {
+        ImmutableMap.Builder<ThriftProtocolType, Method> readBuilder = ImmutableMap.builder();
+
+        try {
+            readBuilder.put(BOOL, TProtocolReader.class.getMethod("readBoolField"));
+            readBuilder.put(BYTE, TProtocolReader.class.getMethod("readByteField"));
+            readBuilder.put(DOUBLE, TProtocolReader.class.getMethod("readDoubleField"));
+            readBuilder.put(I16, TProtocolReader.class.getMethod("readI16Field"));
+            readBuilder.put(I32, TProtocolReader.class.getMethod("readI32Field"));
+            readBuilder.put(I64, TProtocolReader.class.getMethod("readI64Field"));
+            readBuilder.put(STRING, TProtocolReader.class.getMethod("readBinaryField"));
+        }
+        catch (NoSuchMethodException e) {
+            throw Throwables.propagate(e);
+        }
+        READ_METHODS = readBuilder.build();
+    }
+}
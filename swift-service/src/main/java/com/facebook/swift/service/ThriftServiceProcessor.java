@@ -16,6 +16,10 @@
 package com.facebook.swift.service;
 
 import com.facebook.swift.codec.ThriftCodecManager;
+import com.facebook.swift.codec.internal.TDirectBinaryProtocol;
+import com.facebook.swift.codec.internal.TDirectCompactProtocol;
+import com.facebook.swift.codec.internal.ThriftCodecWarmUp;
+import com.facebook.swift.codec.metadata.ThriftType;
 import com.facebook.swift.service.metadata.ThriftMethodMetadata;
 import com.facebook.swift.service.metadata.ThriftServiceMetadata;
 import com.google.common.base.Preconditions;
@@ -23,19 +27,26 @@ import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableMultimap;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Multimap;
 import org.apache.thrift.TApplicationException;
 import org.apache.thrift.TException;
 import org.apache.thrift.TProcessor;
+import org.apache.thrift.protocol.TBinaryProtocol;
+import org.apache.thrift.protocol.TCompactProtocol;
 import org.apache.thrift.protocol.TMessage;
 import org.apache.thrift.protocol.TMessageType;
 import org.apache.thrift.protocol.TProtocol;
 import org.apache.thrift.protocol.TProtocolUtil;
 import org.apache.thrift.protocol.TType;
+import org.apache.thrift.transport.TTransport;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
+import javax.annotation.Nullable;
 import javax.annotation.concurrent.ThreadSafe;
 
 import static org.apache.thrift.TApplicationException.INVALID_MESSAGE_TYPE;
@@ -49,8 +60,22 @@ import static org.apache.thrift.TApplicationException.UNKNOWN_METHOD;
 @ThreadSafe
 public class ThriftServiceProcessor implements TProcessor
 {
+    // Strict binary protocol message header, from TBinaryProtocol
+    private static final int BINARY_VERSION_MASK = 0xffff0000;
+    private static final int BINARY_VERSION_1 = 0x80010000;
+
+    // Compact protocol message header, from TCompactProtocol
+    private static final byte COMPACT_PROTOCOL_ID = (byte) 0x82;
+    private static final int COMPACT_VERSION = 1;
+    private static final int COMPACT_VERSION_MASK = 0x1f;
+    private static final int COMPACT_TYPE_SHIFT_AMOUNT = 5;
+    private static final int COMPACT_TYPE_BITS = 0x07;
+
     private final Map<String, ThriftMethodProcessor> methods;
+    private final MethodNameTable<ThriftMethodProcessor> methodTable;
     private final Multimap<String, ThriftMethodStats> serviceStats;
+    private final ThriftCodecManager codecManager;
+    private final Set<ThriftType> types;
 
     /**
      * @param services the services to expose; services must be thread safe
@@ -66,18 +91,49 @@ public class ThriftServiceProcessor implements TProcessor
         Preconditions.checkNotNull(services, "service is null");
         Preconditions.checkArgument(!services.isEmpty(), "services is empty");
 
+        List<ThriftServiceMetadata> serviceMetadatas = new ArrayList<>();
+        ImmutableSet.Builder<ThriftType> types = ImmutableSet.builder();
+        for (Object service : services) {
+            ThriftServiceMetadata serviceMetadata = new ThriftServiceMetadata(service.getClass(), codecManager.getCatalog());
+            serviceMetadatas.add(serviceMetadata);
+            types.addAll(serviceMetadata.getThriftTypes());
+        }
+        this.codecManager = codecManager;
+        this.types = types.build();
+
         // NOTE: ImmutableMap enforces that we don't have duplicate method names
         ImmutableMap.Builder<String, ThriftMethodProcessor> processorBuilder = ImmutableMap.builder();
         ImmutableMultimap.Builder<String, ThriftMethodStats> statsBuilder = ImmutableMultimap.builder();
-        for (Object service : services) {
-            ThriftServiceMetadata serviceMetadata = new ThriftServiceMetadata(service.getClass(), codecManager.getCatalog());
+        for (int i = 0; i < services.size(); i++) {
+            Object service = services.get(i);
+            ThriftServiceMetadata serviceMetadata = serviceMetadatas.get(i);
+
+            // compile a dispatcher for the methods that allow it; the others are invoked reflectively
+            List<ThriftMethodMetadata> compiledMethods = new ArrayList<>();
+            for (ThriftMethodMetadata methodMetadata : serviceMetadata.getMethods().values()) {
+                if (ThriftServiceDispatcherGenerator.isSupported(service.getClass(), methodMetadata, codecManager.getCatalog())) {
+                    compiledMethods.add(methodMetadata);
+                }
+            }
+            ThriftServiceDispatcher dispatcher = null;
+            if (!compiledMethods.isEmpty()) {
+                dispatcher = new ThriftServiceDispatcherGenerator(service, compiledMethods, codecManager).getDispatcher();
+            }
+
             for (ThriftMethodMetadata methodMetadata : serviceMetadata.getMethods().values()) {
-                ThriftMethodProcessor methodProcessor = new ThriftMethodProcessor(service, methodMetadata, codecManager);
+                int dispatcherMethodIndex = compiledMethods.indexOf(methodMetadata);
+                ThriftMethodProcessor methodProcessor = new ThriftMethodProcessor(
+                        service,
+                        methodMetadata,
+                        codecManager,
+                        dispatcherMethodIndex >= 0 ? dispatcher : null,
+                        dispatcherMethodIndex);
                 processorBuilder.put(methodMetadata.getName(), methodProcessor);
                 statsBuilder.put(serviceMetadata.getName(), methodProcessor.getStats());
             }
         }
         methods = processorBuilder.build();
+        methodTable = new MethodNameTable<>(methods);
         serviceStats = statsBuilder.build();
     }
 
@@ -91,24 +147,34 @@ public class ThriftServiceProcessor implements TProcessor
         return serviceStats;
     }
 
+    /**
+     * Generates the codecs of all the types used by the services in parallel, and then reads and
+     * writes a synthetic value of each struct the specified number of times, so the generated code
+     * is compiled by the JIT before the first request.
+     */
+    public void warmUp(int iterations)
+    {
+        new ThriftCodecWarmUp(codecManager).warmUp(types, iterations);
+    }
+
     @Override
     @SuppressWarnings("PMD.EmptyCatchBlock")
     public boolean process(TProtocol in, TProtocol out)
             throws TException
     {
-        TMessage message = in.readMessageBegin();
-        String methodName = message.name;
-        int sequenceId = message.seqid;
+        MessageHeader message = readMessageBegin(in);
+        String methodName = message.getName();
+        int sequenceId = message.getSequenceId();
 
         try {
-            // lookup method
-            ThriftMethodProcessor method = methods.get(methodName);
+            // lookup method; this was done while reading the header
+            ThriftMethodProcessor method = message.getMethod();
             if (method == null) {
                 TProtocolUtil.skip(in, TType.STRUCT);
                 throw new TApplicationException(UNKNOWN_METHOD, "Invalid method name: '" + methodName + "'");
             }
 
-            switch (message.type) {
+            switch (message.getType()) {
                 case TMessageType.CALL:
                 case TMessageType.ONEWAY:
                     // Ideally we'd check the message type here to make the presence/absence of
@@ -120,7 +186,7 @@ public class ThriftServiceProcessor implements TProcessor
 
                 default:
                     throw new TApplicationException(INVALID_MESSAGE_TYPE,
-                                                    "Received invalid message type " + message.type + " from client");
+                                                    "Received invalid message type " + message.getType() + " from client");
             }
 
             // invoke method
@@ -141,4 +207,172 @@ public class ThriftServiceProcessor implements TProcessor
             }
         }
     }
+
+    /**
+     * Reads the message header. When the transport exposes its buffer and the protocol is the
+     * binary or compact protocol, or a connection detected as either, the method name is matched against the undecoded bytes, and
+     * the method is found with a single probe of the method table, without decoding the name.
+     * Otherwise, or for names that are not methods of this service, the header is read by the
+     * protocol and the method is looked up by the decoded name.
+     */
+    private MessageHeader readMessageBegin(TProtocol in)
+            throws TException
+    {
+        TTransport transport = in.getTransport();
+        int remaining = transport.getBytesRemainingInBuffer();
+        if (remaining > 0) {
+            byte[] buffer = transport.getBuffer();
+            int position = transport.getBufferPosition();
+
+            // peeking at the first byte of an auto detected message does not consume it
+            ThriftProtocol detected = null;
+            if (in instanceof AutoDetectingProtocol) {
+                detected = ((AutoDetectingProtocol) in).detectProtocol();
+            }
+
+            if (detected == ThriftProtocol.BINARY || in.getClass() == TBinaryProtocol.class || in.getClass() == TDirectBinaryProtocol.class) {
+                MessageHeader message = readBinaryMessageBegin(transport, buffer, position, remaining);
+                if (message != null) {
+                    return message;
+                }
+            }
+            else if (detected == ThriftProtocol.COMPACT || in.getClass() == TCompactProtocol.class || in.getClass() == TDirectCompactProtocol.class) {
+                MessageHeader message = readCompactMessageBegin(transport, buffer, position, remaining);
+                if (message != null) {
+                    return message;
+                }
+            }
+        }
+        TMessage message = in.readMessageBegin();
+        return new MessageHeader(methods.get(message.name), message.name, message.type, message.seqid);
+    }
+
+    @Nullable
+    private MessageHeader readBinaryMessageBegin(TTransport transport, byte[] buffer, int position, int remaining)
+    {
+        // version and type, name length, name, sequence id
+        if (remaining < 12) {
+            return null;
+        }
+        int version = readBinaryI32(buffer, position);
+        if ((version & BINARY_VERSION_MASK) != BINARY_VERSION_1) {
+            return null;
+        }
+        int nameLength = readBinaryI32(buffer, position + 4);
+        if (nameLength < 0 || nameLength > remaining - 12) {
+            return null;
+        }
+        ThriftMethodProcessor method = methodTable.get(buffer, position + 8, nameLength);
+        if (method == null) {
+            return null;
+        }
+        int sequenceId = readBinaryI32(buffer, position + 8 + nameLength);
+
+        transport.consumeBuffer(12 + nameLength);
+        return new MessageHeader(method, method.getName(), (byte) (version & 0xff), sequenceId);
+    }
+
+    @Nullable
+    private MessageHeader readCompactMessageBegin(TTransport transport, byte[] buffer, int position, int remaining)
+    {
+        // protocol id, version and type, varint sequence id, varint name length, name
+        int end = position + remaining;
+        if (remaining < 4 || buffer[position] != COMPACT_PROTOCOL_ID) {
+            return null;
+        }
+        byte versionAndType = buffer[position + 1];
+        if ((versionAndType & COMPACT_VERSION_MASK) != COMPACT_VERSION) {
+            return null;
+        }
+        byte type = (byte) ((versionAndType >> COMPACT_TYPE_SHIFT_AMOUNT) & COMPACT_TYPE_BITS);
+
+        long sequenceId = readCompactVarint32(buffer, position + 2, end);
+        if (sequenceId < 0) {
+            return null;
+        }
+        int offset = (int) (sequenceId >>> 32);
+
+        long nameLength = readCompactVarint32(buffer, offset, end);
+        if (nameLength < 0) {
+            return null;
+        }
+        offset = (int) (nameLength >>> 32);
+        int length = (int) nameLength;
+        if (length < 0 || length > end - offset) {
+            return null;
+        }
+        ThriftMethodProcessor method = methodTable.get(buffer, offset, length);
+        if (method == null) {
+            return null;
+        }
+
+        transport.consumeBuffer(offset + length - position);
+        return new MessageHeader(method, method.getName(), type, (int) sequenceId);
+    }
+
+    private static int readBinaryI32(byte[] buffer, int offset)
+    {
+        return ((buffer[offset] & 0xff) << 24) |
+                ((buffer[offset + 1] & 0xff) << 16) |
+                ((buffer[offset + 2] & 0xff) << 8) |
+                (buffer[offset + 3] & 0xff);
+    }
+
+    /**
+     * Reads a varint32 starting at the offset, returning the offset after the varint in the
+     * upper 32 bits and the value in the lower 32 bits, or -1 if the varint is not complete.
+     */
+    private static long readCompactVarint32(byte[] buffer, int offset, int end)
+    {
+        int value = 0;
+        for (int shift = 0; shift < 35 && offset < end; shift += 7) {
+            byte b = buffer[offset++];
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return ((long) offset << 32) | (value & 0xffffffffL);
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Message header together with the processor of the named method, or null if the service
+     * has no method of that name.
+     */
+    private static final class MessageHeader
+    {
+        private final ThriftMethodProcessor method;
+        private final String name;
+        private final byte type;
+        private final int sequenceId;
+
+        private MessageHeader(@Nullable ThriftMethodProcessor method, String name, byte type, int sequenceId)
+        {
+            this.method = method;
+            this.name = name;
+            this.type = type;
+            this.sequenceId = sequenceId;
+        }
+
+        @Nullable
+        public ThriftMethodProcessor getMethod()
+        {
+            return method;
+        }
+
+        public String getName()
+        {
+            return name;
+        }
+
+        public byte getType()
+        {
+            return type;
+        }
+
+        public int getSequenceId()
+        {
+            return sequenceId;
+        }
+    }
 }
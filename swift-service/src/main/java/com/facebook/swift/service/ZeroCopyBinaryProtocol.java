@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.facebook.swift.service;
+
+import com.facebook.swift.codec.internal.TDirectBinaryProtocol;
+import org.apache.thrift.TException;
+import org.apache.thrift.protocol.TBinaryProtocol;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.protocol.TProtocolFactory;
+import org.apache.thrift.transport.TTransport;
+
+import javax.annotation.concurrent.NotThreadSafe;
+import java.nio.ByteBuffer;
+
+/**
+ * Binary protocol that reads binary values as views of the received frame instead of copying
+ * them. The encoding is identical to {@link TBinaryProtocol}.
+ * <p/>
+ * A view is writable and shares the array of the whole frame, so holding on to it keeps the frame
+ * reachable and writes to it are visible to other views of the same frame. Values that outlive
+ * the call, are modified, or are much smaller than the frame they arrived in, should be copied
+ * with {@link #copyOf}.
+ */
+@NotThreadSafe
+public class ZeroCopyBinaryProtocol extends TDirectBinaryProtocol
+{
+    public ZeroCopyBinaryProtocol(TTransport transport)
+    {
+        super(transport);
+    }
+
+    @Override
+    public ByteBuffer readBinary()
+            throws TException
+    {
+        int length = readI32();
+        checkReadLength(length);
+        return readBinary(trans_, length);
+    }
+
+    /**
+     * Returns a copy of the remaining bytes of the specified value that does not share the
+     * frame it was read from. The position of the value is not changed.
+     */
+    public static ByteBuffer copyOf(ByteBuffer value)
+    {
+        byte[] bytes = new byte[value.remaining()];
+        value.duplicate().get(bytes);
+        return ByteBuffer.wrap(bytes);
+    }
+
+    static ByteBuffer readBinary(TTransport transport, int length)
+            throws TException
+    {
+        if (transport instanceof ChannelBufferInputTransport) {
+            return ((ChannelBufferInputTransport) transport).readSlice(length);
+        }
+        byte[] bytes = new byte[length];
+        transport.readAll(bytes, 0, length);
+        return ByteBuffer.wrap(bytes);
+    }
+
+    public static class Factory implements TProtocolFactory
+    {
+        @Override
+        public TProtocol getProtocol(TTransport transport)
+        {
+            return new ZeroCopyBinaryProtocol(transport);
+        }
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.facebook.swift.service;
+
+import com.facebook.swift.codec.internal.TDirectCompactProtocol;
+import org.apache.thrift.TException;
+import org.apache.thrift.protocol.TCompactProtocol;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.protocol.TProtocolException;
+import org.apache.thrift.protocol.TProtocolFactory;
+import org.apache.thrift.transport.TTransport;
+
+import javax.annotation.concurrent.NotThreadSafe;
+import java.nio.ByteBuffer;
+
+/**
+ * Compact protocol that reads binary values as views of the received frame instead of copying
+ * them. The encoding is identical to {@link TCompactProtocol}, and views have the same sharing
+ * rules as {@link ZeroCopyBinaryProtocol}. Use {@link ZeroCopyBinaryProtocol#copyOf} to copy a
+ * view that must not share the frame.
+ */
+@NotThreadSafe
+public class ZeroCopyCompactProtocol extends TDirectCompactProtocol
+{
+    public ZeroCopyCompactProtocol(TTransport transport)
+    {
+        super(transport);
+    }
+
+    @Override
+    public ByteBuffer readBinary()
+            throws TException
+    {
+        int length = readVarint32();
+        if (length < 0) {
+            throw new TProtocolException(TProtocolException.NEGATIVE_SIZE, "Negative length: " + length);
+        }
+        return ZeroCopyBinaryProtocol.readBinary(trans_, length);
+    }
+
+    public static class Factory implements TProtocolFactory
+    {
+        @Override
+        public TProtocol getProtocol(TTransport transport)
+        {
+            return new ZeroCopyCompactProtocol(transport);
+        }
+    }
+}
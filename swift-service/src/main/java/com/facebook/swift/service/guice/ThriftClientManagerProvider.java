@@ -15,6 +15,7 @@
  */
 package com.facebook.swift.service.guice;
 
+import com.facebook.swift.codec.ThriftCodecManager;
 import com.facebook.swift.service.ThriftClientManager;
 import com.google.inject.Inject;
 import com.google.inject.Provider;
@@ -23,6 +24,7 @@ import com.google.inject.name.Named;
 public class ThriftClientManagerProvider implements Provider<ThriftClientManager>
 {
     private Integer maxFrameSize;
+    private boolean compiledStubs = true;
 
     @Inject(optional = true)
     public void setMaxFrameSize(@Named("thrift_client_max_frame_size") Integer maxFrameSize)
@@ -30,13 +32,19 @@ public class ThriftClientManagerProvider implements Provider<ThriftClientManager
         this.maxFrameSize = maxFrameSize;
     }
 
+    @Inject(optional = true)
+    public void setCompiledStubs(@Named("thrift_client_compiled_stubs") Boolean compiledStubs)
+    {
+        this.compiledStubs = compiledStubs;
+    }
+
     @Override
     public ThriftClientManager get()
     {
         if (maxFrameSize == null) {
-            return new ThriftClientManager();
+            return new ThriftClientManager(new ThriftCodecManager(), compiledStubs);
         }
 
-        return new ThriftClientManager(maxFrameSize);
+        return new ThriftClientManager(new ThriftCodecManager(), maxFrameSize, compiledStubs);
     }
 }
@@ -16,10 +16,13 @@
 package com.facebook.swift.service.metadata;
 
 import com.facebook.swift.codec.metadata.ThriftCatalog;
+import com.facebook.swift.codec.metadata.ThriftFieldMetadata;
+import com.facebook.swift.codec.metadata.ThriftType;
 import com.facebook.swift.service.ThriftMethod;
 import com.facebook.swift.service.ThriftService;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
 
 import javax.annotation.concurrent.Immutable;
@@ -84,6 +87,22 @@ public class ThriftServiceMetadata
         return methods;
     }
 
+    /**
+     * Gets the types of all parameters, results and exceptions of the methods of this service.
+     */
+    public Set<ThriftType> getThriftTypes()
+    {
+        ImmutableSet.Builder<ThriftType> builder = ImmutableSet.builder();
+        for (ThriftMethodMetadata method : methods.values()) {
+            for (ThriftFieldMetadata parameter : method.getParameters()) {
+                builder.add(parameter.getType());
+            }
+            builder.add(method.getReturnType());
+            builder.addAll(method.getExceptions().values());
+        }
+        return builder.build();
+    }
+
     public static ThriftService getThriftServiceAnnotation(Class<?> serviceClass)
     {
         Set<ThriftService> serviceAnnotations = getAllClassAnnotations(serviceClass, ThriftService.class);
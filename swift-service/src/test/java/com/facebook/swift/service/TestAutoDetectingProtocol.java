@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.facebook.swift.service;
+
+import org.apache.thrift.protocol.TCompactProtocol;
+import org.apache.thrift.protocol.TField;
+import org.apache.thrift.protocol.TMessage;
+import org.apache.thrift.protocol.TMessageType;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.protocol.TStruct;
+import org.apache.thrift.protocol.TType;
+import org.apache.thrift.transport.TMemoryBuffer;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+
+public class TestAutoDetectingProtocol
+{
+    @Test(expectedExceptions = IllegalStateException.class, expectedExceptionsMessageRegExp = "no header has been read")
+    public void testGetLastFieldIdBeforeRead()
+    {
+        new AutoDetectingProtocol(new TMemoryBuffer(16)).getLastFieldId();
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class, expectedExceptionsMessageRegExp = "no header has been read")
+    public void testGetLastElementTypeBeforeRead()
+    {
+        new AutoDetectingProtocol(new TMemoryBuffer(16)).getLastElementType();
+    }
+
+    @Test
+    public void testReadCompactFieldHeader()
+            throws Exception
+    {
+        TMemoryBuffer buffer = new TMemoryBuffer(64);
+        TProtocol out = new TCompactProtocol(buffer);
+        out.writeMessageBegin(new TMessage("test", TMessageType.CALL, 1));
+        out.writeStructBegin(new TStruct("test_args"));
+        out.writeFieldBegin(new TField("field", TType.I32, (short) 7));
+        out.writeI32(42);
+        out.writeFieldEnd();
+        out.writeFieldStop();
+        out.writeStructEnd();
+        out.writeMessageEnd();
+
+        AutoDetectingProtocol in = new AutoDetectingProtocol(buffer);
+        assertEquals(in.readMessageBegin().name, "test");
+        assertEquals(in.detectProtocol(), ThriftProtocol.COMPACT);
+        in.readStructBegin();
+        assertEquals(in.readFieldHeader(), TType.I32);
+        assertEquals(in.getLastFieldId(), 7);
+        assertEquals(in.readI32(), 42);
+    }
+}
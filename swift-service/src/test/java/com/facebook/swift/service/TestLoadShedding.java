@@ -0,0 +1,205 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.facebook.swift.service;
+
+import com.facebook.swift.codec.ThriftCodecManager;
+import io.airlift.units.Duration;
+import org.apache.thrift.TApplicationException;
+import org.apache.thrift.TException;
+import org.apache.thrift.TProcessor;
+import org.apache.thrift.protocol.TBinaryProtocol;
+import org.apache.thrift.protocol.TMessage;
+import org.apache.thrift.protocol.TMessageType;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.protocol.TStruct;
+import org.apache.thrift.transport.TMemoryBuffer;
+import org.testng.annotations.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+public class TestLoadShedding
+{
+    private static final TProcessor FAILING_PROCESSOR = new TProcessor()
+    {
+        @Override
+        public boolean process(TProtocol in, TProtocol out)
+        {
+            fail("shed request was processed");
+            return false;
+        }
+    };
+
+    @Test
+    public void testFullQueue()
+            throws Exception
+    {
+        LoadSheddingExecutor executor = new LoadSheddingExecutor(1, 1, null, Executors.defaultThreadFactory());
+        CountDownLatch release = new CountDownLatch(1);
+        try {
+            // the first request occupies the worker and the second fills the queue
+            executor.execute(await(release));
+            executor.execute(await(release));
+
+            // the third request is shed right away on this thread
+            final TMemoryBuffer out = new TMemoryBuffer(1024);
+            executor.execute(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    assertTrue(LoadSheddingExecutor.isShedding());
+                    process(TMessageType.CALL, out);
+                }
+            });
+            assertEquals(executor.getShedRequests(), 1);
+
+            TProtocol protocol = new TBinaryProtocol(out);
+            TMessage message = protocol.readMessageBegin();
+            assertEquals(message.name, "test");
+            assertEquals(message.type, TMessageType.EXCEPTION);
+            assertEquals(message.seqid, 42);
+            assertEquals(TApplicationException.read(protocol).getType(), TApplicationException.INTERNAL_ERROR);
+
+            // shed oneway requests are dropped
+            final TMemoryBuffer onewayOut = new TMemoryBuffer(1024);
+            executor.execute(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    process(TMessageType.ONEWAY, onewayOut);
+                }
+            });
+            assertEquals(onewayOut.length(), 0);
+
+            // some clients send oneway methods as CALL messages; these are dropped as well
+            final TMemoryBuffer onewayCallOut = new TMemoryBuffer(1024);
+            executor.execute(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    TProcessor processor = new ThriftServiceProcessor(new ThriftCodecManager(), new OnewayService());
+                    process(processor, "drop", TMessageType.CALL, onewayCallOut);
+                }
+            });
+            assertEquals(onewayCallOut.length(), 0);
+            assertEquals(executor.getShedRequests(), 3);
+        }
+        finally {
+            release.countDown();
+            executor.shutdown();
+        }
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testMaxQueuedTime()
+            throws Exception
+    {
+        LoadSheddingExecutor executor = new LoadSheddingExecutor(1, 10, new Duration(100, TimeUnit.MILLISECONDS), Executors.defaultThreadFactory());
+        CountDownLatch release = new CountDownLatch(1);
+        final AtomicBoolean firstShed = new AtomicBoolean(true);
+        final AtomicBoolean queuedShed = new AtomicBoolean();
+        try {
+            executor.execute(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    firstShed.set(LoadSheddingExecutor.isShedding());
+                }
+            });
+            executor.execute(await(release));
+            executor.execute(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    queuedShed.set(LoadSheddingExecutor.isShedding());
+                }
+            });
+            Thread.sleep(500);
+        }
+        finally {
+            release.countDown();
+            executor.shutdown();
+        }
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+
+        assertFalse(firstShed.get());
+        assertTrue(queuedShed.get());
+        assertEquals(executor.getShedRequests(), 1);
+    }
+
+    private static void process(byte messageType, TMemoryBuffer out)
+    {
+        process(FAILING_PROCESSOR, "test", messageType, out);
+    }
+
+    private static void process(TProcessor processor, String methodName, byte messageType, TMemoryBuffer out)
+    {
+        try {
+            TMemoryBuffer in = new TMemoryBuffer(1024);
+            TProtocol protocol = new TBinaryProtocol(in);
+            protocol.writeMessageBegin(new TMessage(methodName, messageType, 42));
+            protocol.writeStructBegin(new TStruct("test_args"));
+            protocol.writeFieldStop();
+            protocol.writeStructEnd();
+            protocol.writeMessageEnd();
+
+            new LoadSheddingProcessor(processor).process(protocol, new TBinaryProtocol(out));
+        }
+        catch (TException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static Runnable await(final CountDownLatch latch)
+    {
+        return new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try {
+                    latch.await();
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+    }
+
+    @ThriftService
+    public static class OnewayService
+    {
+        @ThriftMethod(oneway = true)
+        public void drop()
+        {
+            fail("shed request was processed");
+        }
+    }
+}
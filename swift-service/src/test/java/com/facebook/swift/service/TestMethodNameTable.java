@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.facebook.swift.service;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableMap;
+import org.testng.annotations.Test;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+
+public class TestMethodNameTable
+{
+    @Test
+    public void testLookup()
+    {
+        Map<String, Integer> methods = new LinkedHashMap<>();
+        for (int i = 0; i < 500; i++) {
+            methods.put("method" + i, i);
+        }
+        methods.put("Log", 500);
+        methods.put("\u00fcnicode", 501);
+
+        MethodNameTable<Integer> table = new MethodNameTable<>(methods);
+        for (Map.Entry<String, Integer> entry : methods.entrySet()) {
+            byte[] bytes = ("xx" + entry.getKey() + "yy").getBytes(Charsets.UTF_8);
+            int length = entry.getKey().getBytes(Charsets.UTF_8).length;
+            assertSame(table.get(bytes, 2, length), entry.getValue());
+        }
+
+        assertNull(lookup(table, "method500"));
+        assertNull(lookup(table, "method"));
+        assertNull(lookup(table, "log"));
+        assertNull(lookup(table, ""));
+    }
+
+    @Test
+    public void testEmpty()
+    {
+        MethodNameTable<Integer> table = new MethodNameTable<>(ImmutableMap.<String, Integer>of());
+        assertNull(lookup(table, "Log"));
+    }
+
+    @Test
+    public void testSingleName()
+    {
+        MethodNameTable<Integer> table = new MethodNameTable<>(ImmutableMap.of("Log", 42));
+        assertEquals(lookup(table, "Log"), (Integer) 42);
+        assertNull(lookup(table, "Lo"));
+    }
+
+    private static Integer lookup(MethodNameTable<Integer> table, String name)
+    {
+        byte[] bytes = name.getBytes(Charsets.UTF_8);
+        return table.get(bytes, 0, bytes.length);
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.facebook.swift.service;
+
+import com.facebook.nifty.client.NiftyClientChannel;
+import com.facebook.swift.service.NiftyClientChannelPool.PooledChannel;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import io.airlift.units.Duration;
+import org.apache.thrift.TException;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.channel.Channel;
+import org.testng.annotations.Test;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.util.concurrent.Executors.newCachedThreadPool;
+import static java.util.concurrent.Executors.newSingleThreadScheduledExecutor;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertSame;
+
+public class TestNiftyClientChannelPool
+{
+    @Test(timeOut = 5000)
+    public void testConcurrentFirstAcquireWaitsForPendingConnection()
+            throws Exception
+    {
+        final AtomicInteger opened = new AtomicInteger();
+        final SettableFuture<NiftyClientChannel> connectFuture = SettableFuture.create();
+        NiftyClientChannelPool.ChannelFactory channelFactory = new NiftyClientChannelPool.ChannelFactory()
+        {
+            @Override
+            public ListenableFuture<? extends NiftyClientChannel> openChannel()
+            {
+                opened.incrementAndGet();
+                return connectFuture;
+            }
+        };
+
+        ScheduledExecutorService healthCheckExecutor = newSingleThreadScheduledExecutor();
+        ExecutorService executor = newCachedThreadPool();
+        try (NiftyClientChannelPool pool = createPool(channelFactory, 1, healthCheckExecutor)) {
+            // both callers find no connection while the first connection is being established
+            Future<PooledChannel> first = executor.submit(acquire(pool));
+            Future<PooledChannel> second = executor.submit(acquire(pool));
+            while (opened.get() == 0) {
+                Thread.sleep(10);
+            }
+            Thread.sleep(100);
+            assertFalse(first.isDone());
+            assertFalse(second.isDone());
+
+            connectFuture.set(new TestingClientChannel());
+
+            PooledChannel channel = first.get(1, TimeUnit.SECONDS);
+            assertSame(second.get(1, TimeUnit.SECONDS), channel);
+            assertEquals(opened.get(), 1);
+            assertEquals(pool.getConnectionCount(), 1);
+            assertEquals(pool.getOutstandingRequests(), 2);
+
+            pool.release(channel);
+            pool.release(channel);
+            assertEquals(pool.getOutstandingRequests(), 0);
+        }
+        finally {
+            executor.shutdownNow();
+            healthCheckExecutor.shutdownNow();
+        }
+    }
+
+    private static NiftyClientChannelPool createPool(
+            NiftyClientChannelPool.ChannelFactory channelFactory,
+            int maxConnections,
+            ScheduledExecutorService healthCheckExecutor)
+    {
+        return new NiftyClientChannelPool(
+                channelFactory,
+                "test",
+                0,
+                maxConnections,
+                new Duration(1, TimeUnit.MINUTES),
+                new Duration(1, TimeUnit.MINUTES),
+                healthCheckExecutor);
+    }
+
+    private static Callable<PooledChannel> acquire(final NiftyClientChannelPool pool)
+    {
+        return new Callable<PooledChannel>()
+        {
+            @Override
+            public PooledChannel call()
+                    throws TException
+            {
+                return pool.acquire();
+            }
+        };
+    }
+
+    private static class TestingClientChannel
+            implements NiftyClientChannel
+    {
+        @Override
+        public void sendAsynchronousRequest(ChannelBuffer request, boolean oneway, Listener listener)
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void setSendTimeout(Duration sendTimeout)
+        {
+        }
+
+        @Override
+        public Duration getSendTimeout()
+        {
+            return null;
+        }
+
+        @Override
+        public void setReceiveTimeout(Duration receiveTimeout)
+        {
+        }
+
+        @Override
+        public Duration getReceiveTimeout()
+        {
+            return null;
+        }
+
+        @Override
+        public void close()
+        {
+        }
+
+        @Override
+        public boolean hasError()
+        {
+            return false;
+        }
+
+        @Override
+        public TException getError()
+        {
+            return null;
+        }
+
+        @Override
+        public void executeInIoThread(Runnable runnable)
+        {
+            runnable.run();
+        }
+
+        @Override
+        public Channel getNettyChannel()
+        {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -0,0 +1,279 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.facebook.swift.service;
+
+import com.facebook.nifty.client.FramedClientConnector;
+import com.facebook.nifty.client.NiftyClientChannel;
+import com.facebook.nifty.client.TChannelBufferInputTransport;
+import com.facebook.nifty.client.TChannelBufferOutputTransport;
+import com.facebook.swift.codec.ThriftCodecManager;
+import com.google.common.collect.ImmutableList;
+import io.airlift.units.Duration;
+import org.apache.thrift.TException;
+import org.apache.thrift.TProcessor;
+import org.apache.thrift.protocol.TBinaryProtocol;
+import org.apache.thrift.protocol.TMessage;
+import org.apache.thrift.protocol.TMessageType;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.protocol.TProtocolFactory;
+import org.apache.thrift.transport.TTransportException;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.Channel;
+import org.testng.annotations.Test;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static com.google.common.net.HostAndPort.fromParts;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+public class TestSyncClientCall
+{
+    private static final TProtocolFactory PROTOCOL_FACTORY = new TBinaryProtocol.Factory();
+
+    @Test
+    public void testFailedCallIsNotReused()
+            throws Exception
+    {
+        TestingChannel channel = new TestingChannel();
+
+        SyncClientCall call = SyncClientCall.forCurrentThread();
+        writeRequest(call, "first", 0);
+        channel.failWith(new TTransportException("channel failed"));
+        try {
+            call.sendTwoWay(channel, PROTOCOL_FACTORY);
+            fail("expected TTransportException");
+        }
+        catch (TTransportException expected) {
+        }
+
+        // the channel may still call the failed call, so the next call uses a new instance
+        SyncClientCall next = SyncClientCall.forCurrentThread();
+        assertNotSame(next, call);
+        call.onResponseReceived(response("first"));
+
+        writeRequest(next, "second", 0);
+        channel.respondWith(response("second"));
+        TProtocol in = next.sendTwoWay(channel, PROTOCOL_FACTORY);
+        assertEquals(in.readMessageBegin().name, "second");
+        assertEquals(channel.getLastRequest().readMessageBegin().name, "second");
+        assertSame(SyncClientCall.forCurrentThread(), next);
+    }
+
+    @Test
+    public void testOversizedRequestBufferIsNotRetained()
+            throws Exception
+    {
+        TestingChannel channel = new TestingChannel();
+        channel.respondWith(response("small"));
+
+        SyncClientCall call = SyncClientCall.forCurrentThread();
+        writeRequest(call, "small", 0);
+        call.sendTwoWay(channel, PROTOCOL_FACTORY);
+        assertSame(SyncClientCall.forCurrentThread(), call);
+
+        // a request larger than 64KB is sent, but its buffer is not kept for the next call
+        channel.respondWith(response("large"));
+        writeRequest(call, "large", 100 * 1024);
+        TProtocol in = call.sendTwoWay(channel, PROTOCOL_FACTORY);
+        assertEquals(in.readMessageBegin().name, "large");
+        assertTrue(channel.getLastRequestSize() > 100 * 1024);
+        assertNotSame(SyncClientCall.forCurrentThread(), call);
+    }
+
+    @Test
+    public void testResponseTimeout()
+            throws Exception
+    {
+        final AtomicBoolean slow = new AtomicBoolean(true);
+        final TProcessor delegate = new ThriftServiceProcessor(new ThriftCodecManager(), new SwiftScribe());
+        TProcessor processor = new TProcessor()
+        {
+            @Override
+            public boolean process(TProtocol in, TProtocol out)
+                    throws TException
+            {
+                if (slow.get()) {
+                    try {
+                        Thread.sleep(1000);
+                    }
+                    catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                return delegate.process(in, out);
+            }
+        };
+
+        List<LogEntry> messages = ImmutableList.of(new LogEntry("hello", "world"));
+        try (
+                ThriftServer server = new ThriftServer(processor).start();
+                ThriftClientManager clientManager = new ThriftClientManager()
+        ) {
+            SyncClientCall call = SyncClientCall.forCurrentThread();
+            try (Scribe scribe = createClient(clientManager, server.getPort())) {
+                scribe.log(messages);
+                fail("expected TTransportException");
+            }
+            catch (TTransportException expected) {
+            }
+            assertNotSame(SyncClientCall.forCurrentThread(), call);
+
+            // the next call on this thread is not affected by the late response
+            slow.set(false);
+            try (Scribe scribe = createClient(clientManager, server.getPort())) {
+                assertEquals(scribe.log(messages), ResultCode.OK);
+            }
+        }
+    }
+
+    private static Scribe createClient(ThriftClientManager clientManager, int port)
+            throws Exception
+    {
+        ThriftClientConfig config = new ThriftClientConfig();
+        return clientManager.createClient(
+                new FramedClientConnector(fromParts("localhost", port)),
+                Scribe.class,
+                config.getConnectTimeout(),
+                new Duration(100, TimeUnit.MILLISECONDS),
+                config.getWriteTimeout(),
+                ThriftClientManager.DEFAULT_NAME,
+                null).get();
+    }
+
+    private static void writeRequest(SyncClientCall call, String name, int payloadSize)
+            throws TException
+    {
+        TProtocol out = call.startRequest(PROTOCOL_FACTORY);
+        out.writeMessageBegin(new TMessage(name, TMessageType.CALL, 0));
+        out.writeBinary(ByteBuffer.wrap(new byte[payloadSize]));
+        out.writeMessageEnd();
+    }
+
+    private static ChannelBuffer response(String name)
+            throws TException
+    {
+        TChannelBufferOutputTransport transport = new TChannelBufferOutputTransport();
+        PROTOCOL_FACTORY.getProtocol(transport).writeMessageBegin(new TMessage(name, TMessageType.REPLY, 0));
+        return transport.getOutputBuffer();
+    }
+
+    /**
+     * Completes each request on the calling thread, with either the configured response or
+     * the configured error.
+     */
+    private static class TestingChannel
+            implements NiftyClientChannel
+    {
+        private ChannelBuffer response;
+        private TException error;
+        private ChannelBuffer lastRequest;
+
+        public void respondWith(ChannelBuffer response)
+        {
+            this.response = response;
+            this.error = null;
+        }
+
+        public void failWith(TException error)
+        {
+            this.response = null;
+            this.error = error;
+        }
+
+        public TProtocol getLastRequest()
+        {
+            return PROTOCOL_FACTORY.getProtocol(new TChannelBufferInputTransport(lastRequest.duplicate()));
+        }
+
+        public int getLastRequestSize()
+        {
+            return lastRequest.readableBytes();
+        }
+
+        @Override
+        public void sendAsynchronousRequest(ChannelBuffer request, boolean oneway, Listener listener)
+        {
+            lastRequest = ChannelBuffers.copiedBuffer(request);
+            if (error != null) {
+                listener.onChannelError(error);
+                return;
+            }
+            listener.onRequestSent();
+            if (!oneway) {
+                listener.onResponseReceived(response.duplicate());
+            }
+        }
+
+        @Override
+        public void setSendTimeout(Duration sendTimeout)
+        {
+        }
+
+        @Override
+        public Duration getSendTimeout()
+        {
+            return null;
+        }
+
+        @Override
+        public void setReceiveTimeout(Duration receiveTimeout)
+        {
+        }
+
+        @Override
+        public Duration getReceiveTimeout()
+        {
+            return null;
+        }
+
+        @Override
+        public void close()
+        {
+        }
+
+        @Override
+        public boolean hasError()
+        {
+            return false;
+        }
+
+        @Override
+        public TException getError()
+        {
+            return null;
+        }
+
+        @Override
+        public void executeInIoThread(Runnable runnable)
+        {
+            runnable.run();
+        }
+
+        @Override
+        public Channel getNettyChannel()
+        {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -16,7 +16,10 @@
 package com.facebook.swift.service;
 
 import com.facebook.nifty.client.FramedClientConnector;
+import com.facebook.nifty.client.NiftyClientChannel;
+import com.facebook.swift.codec.ThriftCodec;
 import com.facebook.swift.codec.ThriftCodecManager;
+import com.facebook.swift.codec.metadata.ThriftType;
 import com.facebook.swift.service.scribe.LogEntry;
 import com.facebook.swift.service.scribe.ResultCode;
 import com.facebook.swift.service.scribe.scribe;
@@ -26,17 +29,26 @@ import com.google.common.collect.Lists;
 import org.apache.thrift.TException;
 import org.apache.thrift.TProcessor;
 import org.apache.thrift.protocol.TBinaryProtocol;
+import org.apache.thrift.protocol.TCompactProtocol;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.protocol.TProtocolFactory;
 import org.apache.thrift.transport.TFramedTransport;
 import org.apache.thrift.transport.TSocket;
 import org.testng.annotations.Test;
 
 import javax.annotation.Nullable;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static com.google.common.collect.Iterables.concat;
 import static com.google.common.collect.Lists.newArrayList;
 import static com.google.common.net.HostAndPort.fromParts;
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
 
 /**
  * Demonstrates creating a Thrift service using Swift.
@@ -54,6 +66,18 @@ public class TestThriftService
         assertEquals(scribeService.getMessages(), newArrayList(concat(toSwiftLogEntry(messages), toSwiftLogEntry(messages))));
     }
 
+    @Test
+    public void testNonPublicSwiftService()
+            throws Exception
+    {
+        // methods of non-public services can not be compiled, and are invoked reflectively
+        SwiftScribe scribeService = new NonPublicScribe();
+        TProcessor processor = new ThriftServiceProcessor(new ThriftCodecManager(), scribeService);
+
+        List<LogEntry> messages = testProcessor(processor);
+        assertEquals(scribeService.getMessages(), newArrayList(concat(toSwiftLogEntry(messages), toSwiftLogEntry(messages))));
+    }
+
     @Test
     public void testThriftService()
             throws Exception
@@ -65,6 +89,214 @@ public class TestThriftService
         assertEquals(scribeService.getMessages(), newArrayList(concat(messages, messages)));
     }
 
+    @Test
+    public void testProtocolAutoDetection()
+            throws Exception
+    {
+        SwiftScribe scribeService = new SwiftScribe();
+        TProcessor processor = new ThriftServiceProcessor(new ThriftCodecManager(), scribeService);
+
+        ImmutableList<LogEntry> messages = ImmutableList.of(
+                new LogEntry("hello", "world"),
+                new LogEntry("bye", "world")
+        );
+
+        ThriftServerConfig config = new ThriftServerConfig().setProtocolAutoDetect(true);
+        try (ThriftServer server = new ThriftServer(processor, config).start()) {
+            int port = server.getPort();
+            assertEquals(logThrift(port, messages, new TBinaryProtocol.Factory()), ResultCode.OK);
+            assertEquals(logThrift(port, messages, new TCompactProtocol.Factory()), ResultCode.OK);
+            assertEquals(logSwift(port, toSwiftLogEntry(messages), ThriftProtocol.BINARY), com.facebook.swift.service.ResultCode.OK);
+            assertEquals(logSwift(port, toSwiftLogEntry(messages), ThriftProtocol.COMPACT), com.facebook.swift.service.ResultCode.OK);
+        }
+
+        List<com.facebook.swift.service.LogEntry> expected = toSwiftLogEntry(messages);
+        assertEquals(scribeService.getMessages(), newArrayList(concat(expected, expected, expected, expected)));
+    }
+
+    @Test
+    public void testWarmUp()
+            throws Exception
+    {
+        final ThriftCodec<com.facebook.swift.service.LogEntry> codec = new ThriftCodecManager().getCodec(com.facebook.swift.service.LogEntry.class);
+        final AtomicInteger reads = new AtomicInteger();
+        ThriftCodec<com.facebook.swift.service.LogEntry> countingCodec = new ThriftCodec<com.facebook.swift.service.LogEntry>()
+        {
+            @Override
+            public ThriftType getType()
+            {
+                return codec.getType();
+            }
+
+            @Override
+            public com.facebook.swift.service.LogEntry read(TProtocol protocol)
+                    throws Exception
+            {
+                reads.incrementAndGet();
+                return codec.read(protocol);
+            }
+
+            @Override
+            public void write(com.facebook.swift.service.LogEntry value, TProtocol protocol)
+                    throws Exception
+            {
+                codec.write(value, protocol);
+            }
+        };
+        TProcessor processor = new ThriftServiceProcessor(new ThriftCodecManager(countingCodec), new SwiftScribe());
+
+        // the codecs are not exercised unless the server is configured to
+        try (ThriftServer server = new ThriftServer(processor).start()) {
+            assertEquals(reads.get(), 0);
+        }
+
+        // each iteration reads a value with both the binary and the compact protocol
+        ThriftServerConfig config = new ThriftServerConfig().setWarmUpIterations(5);
+        try (ThriftServer server = new ThriftServer(processor, config).start()) {
+            assertEquals(reads.get(), 10);
+            assertEquals(logSwift(server.getPort(), toSwiftLogEntry(ImmutableList.of(new LogEntry("hello", "world"))), ThriftProtocol.BINARY), com.facebook.swift.service.ResultCode.OK);
+        }
+        assertEquals(reads.get(), 11);
+    }
+
+    @Test
+    public void testClientProtocolOnChannel()
+            throws Exception
+    {
+        SwiftScribe scribeService = new SwiftScribe();
+        TProcessor processor = new ThriftServiceProcessor(new ThriftCodecManager(), scribeService);
+
+        List<com.facebook.swift.service.LogEntry> entries = toSwiftLogEntry(ImmutableList.of(new LogEntry("hello", "world")));
+
+        ThriftServerConfig serverConfig = new ThriftServerConfig().setProtocolAutoDetect(true);
+        try (
+                ThriftServer server = new ThriftServer(processor, serverConfig).start();
+                ThriftClientManager clientManager = new ThriftClientManager();
+                Scribe binaryScribe = createSwiftClient(clientManager, server.getPort(), ThriftProtocol.BINARY);
+                Scribe compactScribe = createSwiftClient(clientManager, server.getPort(), ThriftProtocol.COMPACT)
+        ) {
+            NiftyClientChannel binaryChannel = clientManager.getNiftyChannel(binaryScribe);
+            NiftyClientChannel compactChannel = clientManager.getNiftyChannel(compactScribe);
+
+            // a client on a channel must speak the protocol the channel was connected with
+            Scribe scribe = clientManager.createClient(compactChannel, Scribe.class, ThriftClientManager.DEFAULT_NAME, ThriftProtocol.COMPACT);
+            assertEquals(scribe.log(entries), com.facebook.swift.service.ResultCode.OK);
+
+            assertCreateClientFails(clientManager, binaryChannel, ThriftProtocol.COMPACT);
+            assertCreateClientFails(clientManager, binaryChannel, ThriftProtocol.COMPACT_ZERO_COPY);
+            assertCreateClientFails(clientManager, compactChannel, ThriftProtocol.BINARY);
+
+            ThriftClientConfig clientConfig = new ThriftClientConfig().setProtocol(ThriftProtocol.COMPACT);
+            ThriftClient<Scribe> thriftClient = new ThriftClient<>(clientManager, Scribe.class, clientConfig, ThriftClientManager.DEFAULT_NAME);
+            assertEquals(thriftClient.open(compactChannel).log(entries), com.facebook.swift.service.ResultCode.OK);
+            try {
+                thriftClient.open(binaryChannel);
+                fail("expected IllegalArgumentException");
+            }
+            catch (IllegalArgumentException expected) {
+            }
+        }
+
+        assertEquals(scribeService.getMessages(), newArrayList(concat(entries, entries)));
+    }
+
+    private static void assertCreateClientFails(ThriftClientManager clientManager, NiftyClientChannel channel, ThriftProtocol protocol)
+    {
+        try {
+            clientManager.createClient(channel, Scribe.class, ThriftClientManager.DEFAULT_NAME, protocol);
+            fail("expected IllegalArgumentException");
+        }
+        catch (IllegalArgumentException expected) {
+        }
+    }
+
+    @Test
+    public void testUnframedProtocolAutoDetection()
+            throws Exception
+    {
+        SwiftScribe scribeService = new SwiftScribe();
+        TProcessor processor = new ThriftServiceProcessor(new ThriftCodecManager(), scribeService);
+
+        ImmutableList<LogEntry> messages = ImmutableList.of(
+                new LogEntry("hello", "world"),
+                new LogEntry("bye", "world")
+        );
+
+        ThriftServerConfig config = new ThriftServerConfig().setProtocolAutoDetect(true);
+        try (ThriftServer server = new ThriftServer(processor, config).start()) {
+            int port = server.getPort();
+            assertEquals(logThriftUnframed(port, messages, new TBinaryProtocol.Factory()), ResultCode.OK);
+            assertEquals(logThriftUnframed(port, messages, new TCompactProtocol.Factory()), ResultCode.OK);
+        }
+
+        List<com.facebook.swift.service.LogEntry> expected = toSwiftLogEntry(messages);
+        assertEquals(scribeService.getMessages(), newArrayList(concat(expected, expected)));
+    }
+
+    @Test
+    public void testCompiledClient()
+            throws Exception
+    {
+        try (ThriftClientManager clientManager = new ThriftClientManager()) {
+            testClient(clientManager, true);
+        }
+    }
+
+    @Test
+    public void testProxyClient()
+            throws Exception
+    {
+        try (ThriftClientManager clientManager = new ThriftClientManager(new ThriftCodecManager(), false)) {
+            testClient(clientManager, false);
+        }
+    }
+
+    private void testClient(ThriftClientManager clientManager, boolean compiled)
+            throws Exception
+    {
+        SwiftScribe scribeService = new SwiftScribe();
+        TProcessor processor = new ThriftServiceProcessor(new ThriftCodecManager(), scribeService);
+
+        List<com.facebook.swift.service.LogEntry> messages = ImmutableList.of(
+                new com.facebook.swift.service.LogEntry("hello", "world"),
+                new com.facebook.swift.service.LogEntry("bye", "world")
+        );
+
+        try (
+                ThriftServer server = new ThriftServer(processor).start();
+                Scribe scribe = clientManager.createClient(
+                        new FramedClientConnector(fromParts("localhost", server.getPort())),
+                        Scribe.class).get()
+        ) {
+            if (compiled) {
+                assertTrue(scribe instanceof ThriftClientStub, "client is not a compiled stub: " + scribe.getClass());
+            }
+            else {
+                assertTrue(Proxy.isProxyClass(scribe.getClass()), "client is not a proxy: " + scribe.getClass());
+            }
+            assertNotNull(clientManager.getNiftyChannel(scribe));
+            assertEquals(scribe.log(messages), com.facebook.swift.service.ResultCode.OK);
+
+            // a failure while writing the arguments is recorded and does not break the next call
+            ThriftMethodHandler handler = clientManager.getClientMetadata(Scribe.class, ThriftClientManager.DEFAULT_NAME)
+                    .getMethodHandlers()
+                    .get(Scribe.class.getMethod("log", List.class));
+            try {
+                scribe.log(Arrays.asList(messages.get(0), null));
+                fail("expected NullPointerException");
+            }
+            catch (NullPointerException expected) {
+            }
+            assertEquals(handler.getStats().getError().getCount(), 1);
+            assertEquals(handler.getStats().getWrite().getCount(), 1);
+
+            assertEquals(scribe.log(messages), com.facebook.swift.service.ResultCode.OK);
+            assertEquals(handler.getStats().getWrite().getCount(), 2);
+        }
+
+        assertEquals(scribeService.getMessages(), newArrayList(concat(messages, messages)));
+    }
+
     @Test(expectedExceptions = IllegalArgumentException.class, expectedExceptionsMessageRegExp = "duplicate key.*")
     public void testConflictingServices()
             throws Exception
@@ -90,11 +322,31 @@ public class TestThriftService
 
     private ResultCode logThrift(int port, List<LogEntry> messages)
             throws TException
+    {
+        return logThrift(port, messages, new TBinaryProtocol.Factory());
+    }
+
+    private ResultCode logThrift(int port, List<LogEntry> messages, TProtocolFactory protocolFactory)
+            throws TException
     {
         TSocket socket = new TSocket("localhost", port);
         socket.open();
         try {
-            TBinaryProtocol tp = new TBinaryProtocol(new TFramedTransport(socket));
+            TProtocol tp = protocolFactory.getProtocol(new TFramedTransport(socket));
+            return new scribe.Client(tp).Log(messages);
+        }
+        finally {
+            socket.close();
+        }
+    }
+
+    private ResultCode logThriftUnframed(int port, List<LogEntry> messages, TProtocolFactory protocolFactory)
+            throws TException
+    {
+        TSocket socket = new TSocket("localhost", port);
+        socket.open();
+        try {
+            TProtocol tp = protocolFactory.getProtocol(socket);
             return new scribe.Client(tp).Log(messages);
         }
         finally {
@@ -104,17 +356,36 @@ public class TestThriftService
 
     private com.facebook.swift.service.ResultCode logSwift(int port, List<com.facebook.swift.service.LogEntry> entries)
             throws Exception
+    {
+        return logSwift(port, entries, ThriftProtocol.BINARY);
+    }
+
+    private com.facebook.swift.service.ResultCode logSwift(int port, List<com.facebook.swift.service.LogEntry> entries, ThriftProtocol protocol)
+            throws Exception
     {
         try (
                 ThriftClientManager clientManager = new ThriftClientManager();
-                Scribe scribe = clientManager.createClient(
-                        new FramedClientConnector(fromParts("localhost", port)),
-                        Scribe.class).get()
+                Scribe scribe = createSwiftClient(clientManager, port, protocol)
         ) {
             return scribe.log(entries);
         }
     }
 
+    private static Scribe createSwiftClient(ThriftClientManager clientManager, int port, ThriftProtocol protocol)
+            throws Exception
+    {
+        ThriftClientConfig config = new ThriftClientConfig();
+        return clientManager.createClient(
+                new FramedClientConnector(fromParts("localhost", port)),
+                Scribe.class,
+                config.getConnectTimeout(),
+                config.getReadTimeout(),
+                config.getWriteTimeout(),
+                ThriftClientManager.DEFAULT_NAME,
+                null,
+                protocol).get();
+    }
+
     private List<com.facebook.swift.service.LogEntry> toSwiftLogEntry(List<LogEntry> messages)
     {
         return Lists.transform(messages, new Function<LogEntry, com.facebook.swift.service.LogEntry>()
@@ -127,6 +398,10 @@ public class TestThriftService
         });
     }
 
+    private static class NonPublicScribe extends SwiftScribe
+    {
+    }
+
     @ThriftService
     public class ConflictingLogService
     {
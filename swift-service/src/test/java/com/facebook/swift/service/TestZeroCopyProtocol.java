@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.facebook.swift.service;
+
+import com.facebook.nifty.client.TChannelBufferOutputTransport;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.protocol.TProtocolFactory;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.testng.annotations.Test;
+
+import java.nio.ByteBuffer;
+
+import static com.google.common.base.Charsets.UTF_8;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+public class TestZeroCopyProtocol
+{
+    @Test
+    public void testBinary()
+            throws Exception
+    {
+        assertSharesFrame(new ZeroCopyBinaryProtocol.Factory());
+        assertCopiesDirectFrame(new ZeroCopyBinaryProtocol.Factory());
+    }
+
+    @Test
+    public void testCompact()
+            throws Exception
+    {
+        assertSharesFrame(new ZeroCopyCompactProtocol.Factory());
+        assertCopiesDirectFrame(new ZeroCopyCompactProtocol.Factory());
+    }
+
+    @Test
+    public void testCopyOf()
+            throws Exception
+    {
+        ChannelBuffer frame = writeFrame(new ZeroCopyBinaryProtocol.Factory());
+        TProtocol protocol = new ZeroCopyBinaryProtocol(new ChannelBufferInputTransport(frame));
+        ByteBuffer view = protocol.readBinary();
+        view.get();
+
+        ByteBuffer copy = ZeroCopyBinaryProtocol.copyOf(view);
+        assertEquals(copy, ByteBuffer.wrap("irst".getBytes(UTF_8)));
+        assertEquals(view.position(), 1);
+        assertNotSame(copy.array(), frame.array());
+
+        // writes to the view are visible in the frame, but not in the copy
+        view.put(0, (byte) 'F');
+        assertEquals(frame.getByte(view.arrayOffset()), (byte) 'F');
+        assertEquals(copy, ByteBuffer.wrap("irst".getBytes(UTF_8)));
+    }
+
+    private void assertSharesFrame(TProtocolFactory protocolFactory)
+            throws Exception
+    {
+        ChannelBuffer frame = writeFrame(protocolFactory);
+        TProtocol protocol = protocolFactory.getProtocol(new ChannelBufferInputTransport(frame));
+
+        ByteBuffer first = protocol.readBinary();
+        assertEquals(first, ByteBuffer.wrap("first".getBytes(UTF_8)));
+        assertSame(first.array(), frame.array());
+        assertEquals(protocol.readI32(), 42);
+
+        ByteBuffer empty = protocol.readBinary();
+        assertFalse(empty.hasRemaining());
+
+        ByteBuffer second = protocol.readBinary();
+        assertEquals(second, ByteBuffer.wrap("second".getBytes(UTF_8)));
+        assertSame(second.array(), frame.array());
+        assertFalse(frame.readable());
+    }
+
+    private void assertCopiesDirectFrame(TProtocolFactory protocolFactory)
+            throws Exception
+    {
+        ChannelBuffer heapFrame = writeFrame(protocolFactory);
+        ChannelBuffer frame = ChannelBuffers.directBuffer(heapFrame.readableBytes());
+        frame.writeBytes(heapFrame);
+        TProtocol protocol = protocolFactory.getProtocol(new ChannelBufferInputTransport(frame));
+
+        ByteBuffer first = protocol.readBinary();
+        assertEquals(first, ByteBuffer.wrap("first".getBytes(UTF_8)));
+        assertTrue(first.hasArray());
+        assertEquals(protocol.readI32(), 42);
+        assertFalse(protocol.readBinary().hasRemaining());
+        assertEquals(protocol.readBinary(), ByteBuffer.wrap("second".getBytes(UTF_8)));
+    }
+
+    private ChannelBuffer writeFrame(TProtocolFactory protocolFactory)
+            throws Exception
+    {
+        TChannelBufferOutputTransport transport = new TChannelBufferOutputTransport();
+        TProtocol protocol = protocolFactory.getProtocol(transport);
+        protocol.writeBinary(ByteBuffer.wrap("first".getBytes(UTF_8)));
+        protocol.writeI32(42);
+        protocol.writeBinary(ByteBuffer.wrap(new byte[0]));
+        protocol.writeBinary(ByteBuffer.wrap("second".getBytes(UTF_8)));
+        return transport.getOutputBuffer();
+    }
+}
@@ -15,6 +15,7 @@
  */
 package com.facebook.swift.service.async;
 
+import com.facebook.nifty.client.NiftyClientChannel;
 import com.facebook.swift.codec.ThriftCodecManager;
 import com.facebook.swift.service.ThriftClientManager;
 import com.facebook.swift.service.ThriftServer;
@@ -140,6 +141,26 @@ public class AsyncClient extends AsyncTestBase
         }
     }
 
+    @Test
+    public void testAsyncOutOfOrderOnSharedChannel()
+            throws Exception
+    {
+        ListenableFuture<String> getFuture;
+        ListenableFuture<Void> putFuture;
+
+        try (DelayedMap.AsyncClient getClient = createClient(DelayedMap.AsyncClient.class, syncServer).get()) {
+            // a second client on the same connection must not reuse the first client's sequence ids
+            NiftyClientChannel channel = clientManager.getNiftyChannel(getClient);
+            DelayedMap.AsyncClient putClient = clientManager.createClient(channel, DelayedMap.AsyncClient.class);
+
+            getFuture = getClient.getValueSlowly(500, TimeUnit.MILLISECONDS, "testKey");
+            putFuture = putClient.putValueSlowly(250, TimeUnit.MILLISECONDS, "testKey", "testValue");
+
+            assertEquals(getFuture.get(1, TimeUnit.SECONDS), "testValue");
+            putFuture.get(1, TimeUnit.SECONDS);
+        }
+    }
+
     @Test
     public void testAsyncEarlyListener()
             throws Exception
@@ -25,6 +25,8 @@ import com.facebook.swift.service.Scribe;
 import com.facebook.swift.service.SwiftScribe;
 import com.facebook.swift.service.ThriftClient;
 import com.facebook.swift.service.ThriftClientConfig;
+import com.facebook.swift.service.ThriftClientManager;
+import com.facebook.swift.service.ThriftProtocol;
 import com.facebook.swift.service.ThriftServer;
 import com.facebook.swift.service.puma.TestPuma;
 import com.facebook.swift.service.puma.swift.PumaReadServer;
@@ -57,6 +59,7 @@ import java.util.concurrent.TimeUnit;
 import static com.facebook.swift.service.guice.ThriftClientBinder.thriftClientBinder;
 import static com.facebook.swift.service.guice.ThriftServiceExporter.thriftServerBinder;
 import static com.facebook.swift.service.puma.TestPuma.verifyPumaResults;
+import static com.google.common.collect.Iterables.concat;
 import static com.google.common.collect.Lists.newArrayList;
 import static java.lang.annotation.ElementType.CONSTRUCTOR;
 import static java.lang.annotation.ElementType.FIELD;
@@ -64,6 +67,7 @@ import static java.lang.annotation.ElementType.METHOD;
 import static java.lang.annotation.ElementType.PARAMETER;
 import static java.lang.annotation.RetentionPolicy.RUNTIME;
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
 
 public class TestThriftClientAndServerModules
 {
@@ -122,6 +126,48 @@ public class TestThriftClientAndServerModules
         }
     }
 
+    @Test
+    public void testPooledThriftClient()
+            throws Exception
+    {
+        Injector injector = Guice.createInjector(Stage.PRODUCTION,
+                new ConfigurationModule(new ConfigurationFactory(ImmutableMap.of(
+                        "scribe.thrift.client.pool.min-connections", "1",
+                        "scribe.thrift.client.pool.max-connections", "2"))),
+                new ThriftCodecModule(),
+                new ThriftClientModule(),
+                new ThriftServerModule(),
+                new Module()
+                {
+                    @Override
+                    public void configure(Binder binder)
+                    {
+                        thriftClientBinder(binder).bindThriftClient(Scribe.class);
+                        binder.bind(SwiftScribe.class).in(Scopes.SINGLETON);
+                        thriftServerBinder(binder).exportThriftService(SwiftScribe.class);
+                    }
+                });
+
+        try (ThriftServer server = injector.getInstance(ThriftServer.class).start()) {
+            ThriftClient<Scribe> scribeClient = injector.getInstance(Key.get(new TypeLiteral<ThriftClient<Scribe>>() {}));
+            HostAndPort address = HostAndPort.fromParts("localhost", server.getPort());
+
+            // closing a pooled client leaves the connections in the pool
+            for (int i = 0; i < 3; i++) {
+                try (Scribe scribe = scribeClient.open(address)) {
+                    assertEquals(scribe.log(MESSAGES), ResultCode.OK);
+                }
+            }
+
+            assertEquals(injector.getInstance(SwiftScribe.class).getMessages(), newArrayList(concat(MESSAGES, MESSAGES, MESSAGES)));
+            assertTrue(scribeClient.getPooledConnections() >= 1);
+            assertTrue(scribeClient.getPooledConnections() <= 2);
+        }
+        finally {
+            injector.getInstance(ThriftClientManager.class).close();
+        }
+    }
+
     @Test
     public void testThriftWithAnnotationBinding()
             throws Exception
@@ -252,6 +298,53 @@ public class TestThriftClientAndServerModules
         assertEquals(Duration.valueOf(pumaClient.getWriteTimeout()), new Duration(10, TimeUnit.SECONDS));
     }
 
+    @Test
+    public void testThriftClientProtocol()
+            throws Exception
+    {
+        Injector injector = Guice.createInjector(Stage.PRODUCTION,
+                new ConfigurationModule(new ConfigurationFactory(ImmutableMap.of(
+                        "scribe.thrift.client.protocol", "COMPACT",
+                        "scribe.thrift.client.pool.max-connections", "1",
+                        "thrift.protocol.auto-detect", "true"))),
+                new ThriftCodecModule(),
+                new ThriftClientModule(),
+                new ThriftServerModule(),
+                new Module()
+                {
+                    @Override
+                    public void configure(Binder binder)
+                    {
+                        thriftClientBinder(binder).bindThriftClient(Scribe.class);
+                        thriftClientBinder(binder).bindThriftClient(PumaReadService.class);
+                        binder.bind(SwiftScribe.class).in(Scopes.SINGLETON);
+                        thriftServerBinder(binder).exportThriftService(SwiftScribe.class);
+                    }
+                });
+
+        assertEquals(new ThriftClientConfig().getProtocol(), ThriftProtocol.BINARY);
+
+        ThriftClient<Scribe> scribeClient = injector.getInstance(Key.get(new TypeLiteral<ThriftClient<Scribe>>() {}));
+        assertEquals(scribeClient.getProtocol(), ThriftProtocol.COMPACT.toString());
+
+        ThriftClient<PumaReadService> pumaClient = injector.getInstance(Key.get(new TypeLiteral<ThriftClient<PumaReadService>>() {}));
+        assertEquals(pumaClient.getProtocol(), ThriftProtocol.BINARY.toString());
+
+        // a compact client talking to a server that detects the protocol of each message
+        try (ThriftServer server = injector.getInstance(ThriftServer.class).start()) {
+            try (Scribe scribe = scribeClient.open(localFramedConnector(server.getPort())).get()) {
+                assertEquals(scribe.log(MESSAGES), ResultCode.OK);
+            }
+            try (Scribe scribe = scribeClient.open(HostAndPort.fromParts("localhost", server.getPort()))) {
+                assertEquals(scribe.log(MESSAGES), ResultCode.OK);
+            }
+            assertEquals(injector.getInstance(SwiftScribe.class).getMessages(), newArrayList(concat(MESSAGES, MESSAGES)));
+        }
+        finally {
+            injector.getInstance(ThriftClientManager.class).close();
+        }
+    }
+
     private NiftyClientConnector<? extends NiftyClientChannel> localFramedConnector(int port) {
         return new FramedClientConnector(HostAndPort.fromParts("localhost", port));
     }